@@ -15,9 +15,15 @@
 package com.google.devtools.build.buildjar;
 
 import com.google.devtools.build.buildjar.javac.JavacOptions;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * The JavaBuilder main called by bazel.
@@ -26,20 +32,77 @@ public abstract class BazelJavaBuilder {
 
   private static final String CMDNAME = "BazelJavaBuilder";
 
+  /**
+   * The flag that makes the JavaBuilder a persistent worker, which reads requests from its
+   * standard input until it is closed.
+   */
+  private static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+
   /**
    * The main method of the BazelJavaBuilder.
    */
   public static void main(String[] args) {
+    if (args.length == 1 && args[0].equals(PERSISTENT_WORKER_FLAG)) {
+      System.exit(runPersistentWorker());
+    }
+    if (processRequest(Arrays.asList(args), System.err) != 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Serves {@code WorkRequest}s read from the standard input, and writes a {@code WorkResponse}
+   * for each of them to the standard output. Anything else that is printed goes to the standard
+   * error, which Blaze keeps in a log file.
+   */
+  private static int runPersistentWorker() {
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+    while (true) {
+      try {
+        WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+        if (request == null) {
+          return 0;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int exitCode;
+        try (PrintStream err = new PrintStream(buffer, true, StandardCharsets.UTF_8.name())) {
+          exitCode = processRequest(request.getArgumentsList(), err);
+        }
+        WorkResponse.newBuilder()
+            .setExitCode(exitCode)
+            .setOutput(buffer.toString(StandardCharsets.UTF_8.name()))
+            .build()
+            .writeDelimitedTo(protocolOut);
+        protocolOut.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+        return 1;
+      }
+    }
+  }
+
+  /**
+   * Performs one compilation, and returns its exit code. Errors, including unexpected exceptions,
+   * are printed to {@code err}.
+   */
+  private static int processRequest(List<String> args, PrintStream err) {
     try {
-      JavaLibraryBuildRequest build = new JavaLibraryBuildRequest(Arrays.asList(args));
+      JavaLibraryBuildRequest build = new JavaLibraryBuildRequest(args);
       build.setJavacOpts(JavacOptions.normalizeOptions(build.getJavacOpts()));
       AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
           ? new ReducedClasspathJavaLibraryBuilder()
           : new SimpleJavaLibraryBuilder();
-      builder.run(build, System.err);
+      builder.run(build, err);
+      return 0;
     } catch (IOException | InvalidCommandLineException e) {
-      System.err.println(CMDNAME + " threw exception : " + e.getMessage());
-      System.exit(1);
+      err.println(CMDNAME + " threw exception : " + e.getMessage());
+      return 1;
+    } catch (RuntimeException e) {
+      // Report crashes of javac or the builder as a failed compilation, so that a persistent
+      // worker keeps serving requests.
+      e.printStackTrace(err);
+      return 1;
     }
   }
 }
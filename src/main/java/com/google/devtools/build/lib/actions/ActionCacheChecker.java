@@ -20,18 +20,24 @@ import com.google.devtools.build.lib.actions.Action.MiddlemanType;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.ActionCache.Entry;
 import com.google.devtools.build.lib.actions.cache.Digest;
+import com.google.devtools.build.lib.actions.cache.LocalOutputCache;
 import com.google.devtools.build.lib.actions.cache.Metadata;
 import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
@@ -45,11 +51,17 @@ import javax.annotation.Nullable;
  * Instead of that, results of MiddlemanAction dependency checks are cached internally and then
  * reused whenever an input middleman artifact is encountered.
  *
+ * <p>If a {@link LocalOutputCache} is given, the outputs of actions that need to be executed may
+ * instead be restored from it, keyed by the action key and the contents of the inputs.
+ *
  * <p>While instances of this class hold references to action and metadata cache instances, they are
  * otherwise lightweight, and should be constructed anew and discarded for each build request.
  */
 public class ActionCacheChecker {
+  private static final Logger LOG = Logger.getLogger(ActionCacheChecker.class.getName());
+
   private final ActionCache actionCache;
+  @Nullable private final LocalOutputCache outputCache;
   private final Predicate<? super Action> executionFilter;
   private final ArtifactResolver artifactResolver;
   // True iff --verbose_explanations flag is set.
@@ -57,7 +69,14 @@ public class ActionCacheChecker {
 
   public ActionCacheChecker(ActionCache actionCache, ArtifactResolver artifactResolver,
       Predicate<? super Action> executionFilter, boolean verboseExplanations) {
+    this(actionCache, null, artifactResolver, executionFilter, verboseExplanations);
+  }
+
+  public ActionCacheChecker(ActionCache actionCache, @Nullable LocalOutputCache outputCache,
+      ArtifactResolver artifactResolver, Predicate<? super Action> executionFilter,
+      boolean verboseExplanations) {
     this.actionCache = actionCache;
+    this.outputCache = outputCache;
     this.executionFilter = executionFilter;
     this.artifactResolver = artifactResolver;
     this.verboseExplanations = verboseExplanations;
@@ -294,6 +313,98 @@ public class ActionCacheChecker {
     }
   }
 
+  /**
+   * Returns the key under which the outputs of the action are kept in the local output cache, or
+   * null if there is no such cache or the action may not use it. Must be called once the inputs of
+   * the action are known and their metadata is available.
+   *
+   * <p>Actions that must always run, that discover their inputs, or that want to be notified of
+   * cache hits are never cached. Neither are actions with inputs whose metadata is an mtime rather
+   * than a digest, since equal mtimes do not imply equal contents across builds.
+   */
+  @Nullable
+  public String getOutputCacheKey(Action action, MetadataHandler metadataHandler) {
+    if (outputCache == null
+        || action.getActionType().isMiddleman()
+        || action.executeUnconditionally()
+        || action.isVolatile()
+        || action.discoversInputs()
+        || action instanceof NotifyOnActionCacheHit) {
+      return null;
+    }
+    Map<String, Metadata> inputMetadata = new HashMap<>();
+    for (Artifact input : action.getInputs()) {
+      Metadata metadata = metadataHandler.getMetadataMaybe(input);
+      if (metadata == null || metadata.digest == null) {
+        return null;
+      }
+      inputMetadata.put(input.getExecPathString(), metadata);
+    }
+    return LocalOutputCache.computeKey(action.getKey(), Digest.fromMetadata(inputMetadata),
+        getOutputPaths(action).keySet());
+  }
+
+  /**
+   * Restores the outputs of the action from the local output cache. Returns true if all outputs
+   * were restored, in which case the action need not be executed. Otherwise the action is prepared
+   * again, which deletes any outputs that were restored.
+   *
+   * @param key the key returned by {@link #getOutputCacheKey}
+   */
+  public boolean restoreOutputs(Action action, String key, Path execRoot) {
+    Preconditions.checkNotNull(outputCache);
+    try {
+      if (outputCache.restore(key, getOutputPaths(action))) {
+        return true;
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to restore outputs of " + action.prettyPrint(), e);
+    }
+    try {
+      action.prepare(execRoot);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to delete outputs of " + action.prettyPrint(), e);
+    }
+    return false;
+  }
+
+  /**
+   * Stores the outputs of a successfully executed action in the local output cache. Actions with
+   * outputs that are not regular files are not stored. Must be called after the outputs were
+   * checked.
+   *
+   * @param key the key returned by {@link #getOutputCacheKey}
+   */
+  public void storeOutputs(Action action, String key, MetadataHandler metadataHandler) {
+    Preconditions.checkNotNull(outputCache);
+    Map<String, Path> outputs = getOutputPaths(action);
+    Map<String, byte[]> digests = new HashMap<>();
+    try {
+      for (Artifact output : action.getOutputs()) {
+        if (metadataHandler.artifactOmitted(output)
+            || !output.getPath().isFile(Symlinks.NOFOLLOW)) {
+          return;
+        }
+        Metadata metadata = metadataHandler.getMetadata(output);
+        if (metadata == null || metadata.digest == null) {
+          return;
+        }
+        digests.put(output.getExecPathString(), metadata.digest);
+      }
+      outputCache.put(key, outputs, digests);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to store outputs of " + action.prettyPrint(), e);
+    }
+  }
+
+  private static Map<String, Path> getOutputPaths(Action action) {
+    Map<String, Path> outputs = new TreeMap<>();
+    for (Artifact output : action.getOutputs()) {
+      outputs.put(output.getExecPathString(), output.getPath());
+    }
+    return outputs;
+  }
+
   /**
    * Returns an action key. It is always set to the first output exec path string.
    */
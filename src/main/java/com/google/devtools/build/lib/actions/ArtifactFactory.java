@@ -23,6 +23,8 @@ import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.actions.Artifact.SpecialArtifactType;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
@@ -33,11 +35,15 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
 /**
  * A cache of Artifacts, keyed by Path.
+ *
+ * <p>Artifacts are looked up and created without locking, since every thread of the analysis phase
+ * does so. Only changes to the roots, which happen between builds, are synchronized.
  */
 @ThreadSafe
 public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, ArtifactDeserializer {
@@ -48,22 +54,32 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * The main Path to source artifact cache. There will always be exactly one canonical
    * artifact for a given source path.
    */
-  private final Map<PathFragment, Artifact> pathToSourceArtifact = new HashMap<>();
+  private final ConcurrentMap<PathFragment, Artifact> pathToSourceArtifact =
+      new ConcurrentHashMap<>();
 
   /**
    * Map of package names to source root paths so that we can create source
    * artifact paths given execPaths in the symlink forest.
    */
-  private ImmutableMap<PackageIdentifier, Root> packageRoots;
+  private volatile ImmutableMap<PackageIdentifier, Root> packageRoots;
 
   /**
    * Reverse-ordered list of derived roots for use in looking up or (in rare cases) creating
    * derived artifacts from execPaths. The reverse order is only significant for overlapping roots
    * so that the longest is found first.
    */
-  private ImmutableCollection<Root> derivedRoots = ImmutableList.of();
+  private volatile ImmutableCollection<Root> derivedRoots = ImmutableList.of();
+
+  private volatile ArtifactIdRegistry artifactIdRegistry = new ArtifactIdRegistry();
+
+  /** The number of source artifacts created since the last call to {@link #clear}. */
+  private final AtomicLong sourceArtifactsCreated = new AtomicLong();
 
-  private ArtifactIdRegistry artifactIdRegistry = new ArtifactIdRegistry();
+  /**
+   * The number of source artifacts that were created concurrently by another thread, and had to
+   * be discarded, since the last call to {@link #clear}.
+   */
+  private final AtomicLong sourceArtifactRaces = new AtomicLong();
 
   /**
    * Constructs a new artifact factory that will use a given execution root when
@@ -83,6 +99,8 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
     packageRoots = null;
     derivedRoots = ImmutableList.of();
     artifactIdRegistry = new ArtifactIdRegistry();
+    sourceArtifactsCreated.set(0);
+    sourceArtifactRaces.set(0);
     clearDeserializedArtifacts();
   }
 
@@ -186,7 +204,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * setting the <code>root</code> and <code>execPath</code> to the
    * specified values.
    */
-  private synchronized Artifact getArtifact(Path path, Root root, PathFragment execPath,
+  private Artifact getArtifact(Path path, Root root, PathFragment execPath,
       ArtifactOwner owner, @Nullable SpecialArtifactType type) {
     Preconditions.checkNotNull(root);
     Preconditions.checkNotNull(execPath);
@@ -195,24 +213,33 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
       return createArtifact(path, root, execPath, owner, type);
     }
 
-    Artifact artifact = pathToSourceArtifact.get(execPath);
+    while (true) {
+      Artifact artifact = pathToSourceArtifact.get(execPath);
+      if (artifact != null && Objects.equals(artifact.getArtifactOwner(), owner)) {
+        // TODO(bazel-team): Maybe we should check for equality of the fileset bit. However, that
+        // would require us to differentiate between artifact-creating and artifact-getting calls
+        // to getDerivedArtifact().
+        Preconditions.checkState(root.equals(artifact.getRoot()),
+            "root for path %s changed from %s to %s", path, artifact.getRoot(), root);
+        Preconditions.checkState(execPath.equals(artifact.getExecPath()),
+            "execPath for path %s changed from %s to %s", path, artifact.getExecPath(), execPath);
+        return artifact;
+      }
 
-    if (artifact == null || !Objects.equals(artifact.getArtifactOwner(), owner)) {
       // There really should be a safety net that makes it impossible to create two Artifacts
       // with the same exec path but a different Owner, but we also need to reuse Artifacts from
       // previous builds.
-      artifact = createArtifact(path, root, execPath, owner, type);
-      pathToSourceArtifact.put(execPath, artifact);
-    } else {
-      // TODO(bazel-team): Maybe we should check for equality of the fileset bit. However, that
-      // would require us to differentiate between artifact-creating and artifact-getting calls to
-      // getDerivedArtifact().
-      Preconditions.checkState(root.equals(artifact.getRoot()),
-          "root for path %s changed from %s to %s", path, artifact.getRoot(), root);
-      Preconditions.checkState(execPath.equals(artifact.getExecPath()),
-          "execPath for path %s changed from %s to %s", path, artifact.getExecPath(), execPath);
+      Artifact newArtifact = createArtifact(path, root, execPath, owner, type);
+      boolean stored = (artifact == null)
+          ? pathToSourceArtifact.putIfAbsent(execPath, newArtifact) == null
+          : pathToSourceArtifact.replace(execPath, artifact, newArtifact);
+      if (stored) {
+        sourceArtifactsCreated.incrementAndGet();
+        return newArtifact;
+      }
+      // Another thread changed the entry in the meantime; retry with its artifact.
+      sourceArtifactRaces.incrementAndGet();
     }
-    return artifact;
   }
 
   private Artifact createArtifact(Path path, Root root, PathFragment execPath, ArtifactOwner owner,
@@ -226,7 +253,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
   }
 
   @Override
-  public synchronized Artifact resolveSourceArtifact(PathFragment execPath) {
+  public Artifact resolveSourceArtifact(PathFragment execPath) {
     execPath = execPath.normalize();
     // First try a quick map lookup to see if the artifact already exists.
     Artifact a = pathToSourceArtifact.get(execPath);
@@ -239,6 +266,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
     }
     // Must be a new source artifact, so probe the known packages to find the longest package
     // prefix, and then use the corresponding source root to create a new artifact.
+    ImmutableMap<PackageIdentifier, Root> packageRoots = this.packageRoots;
     for (PathFragment dir = execPath.getParentDirectory(); dir != null;
          dir = dir.getParentDirectory()) {
       Root sourceRoot = packageRoots.get(PackageIdentifier.createInDefaultRepo(dir));
@@ -250,7 +278,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
   }
 
   @Override
-  public synchronized Map<PathFragment, Artifact> resolveSourceArtifacts(
+  public Map<PathFragment, Artifact> resolveSourceArtifacts(
       Iterable<PathFragment> execPaths, PackageRootResolver resolver) {
     Map<PathFragment, Artifact> result = new HashMap<>();
     ArrayList<PathFragment> unresolvedPaths = new ArrayList<>();
@@ -295,7 +323,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * @return the root for the path or null if no root can be determined
    */
   @VisibleForTesting  // for our own unit tests only.
-  synchronized Root findDerivedRoot(Path path) {
+  Root findDerivedRoot(Path path) {
     for (Root prefix : derivedRoots) {
       if (path.startsWith(prefix.getPath())) {
         return prefix;
@@ -307,10 +335,21 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
   /**
    * Returns all source artifacts created by the artifact factory.
    */
-  public synchronized Iterable<Artifact> getSourceArtifacts() {
+  public Iterable<Artifact> getSourceArtifacts() {
     return ImmutableList.copyOf(pathToSourceArtifact.values());
   }
 
+  /**
+   * Logs to the profiler how many source artifacts were created since the last call to {@link
+   * #clear}, and how many of those were discarded because another thread created the same
+   * artifact concurrently.
+   */
+  public void logStatistics() {
+    Profiler.instance().logEvent(ProfilerTask.INFO, String.format(
+        "Created %d source artifacts, %d concurrently with another thread",
+        sourceArtifactsCreated.get(), sourceArtifactRaces.get()));
+  }
+
   // Non-final only because clear()ing a map does not actually free the memory it took up, so we
   // assign it to a new map in lieu of clearing.
   private ConcurrentMap<PathFragment, Artifact> deserializedArtifacts =
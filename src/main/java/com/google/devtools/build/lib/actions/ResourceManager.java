@@ -21,11 +21,11 @@ import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.LoggingUtil;
-import com.google.devtools.build.lib.util.Pair;
 
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
@@ -104,9 +104,24 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  /**
+   * A request of a blocked thread. Its latch is always initialized to 1 during creation in the
+   * acquire() method.
+   */
+  private static final class Request {
+    private final ResourceSet resources;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final long priority;
+
+    private Request(ResourceSet resources, long priority) {
+      this.resources = resources;
+      this.priority = priority;
+    }
+  }
+
+  // List of blocked threads, by decreasing priority, and in the order they blocked among requests
+  // of equal priority.
+  private final List<Request> requestList;
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
@@ -158,9 +173,9 @@ public class ResourceManager {
     usedRam = 0;
     usedIo = 0;
     usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
+    for (Request request : requestList) {
       // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+      request.latch.countDown();
     }
     requestList.clear();
   }
@@ -224,12 +239,22 @@ public class ResourceManager {
    */
   public void acquireResources(ActionMetadata owner, ResourceSet resources)
       throws InterruptedException {
+    acquireResources(owner, resources, 0);
+  }
+
+  /**
+   * Acquires requested resource set. Will block if resource is not available; the blocked
+   * requests with the highest priority are the first to get the resources released by others.
+   * NB! This method must be thread-safe!
+   */
+  public void acquireResources(ActionMetadata owner, ResourceSet resources, long priority)
+      throws InterruptedException {
     Preconditions.checkNotNull(resources);
     long startTime = Profiler.nanoTimeMaybe();
     CountDownLatch latch = null;
     try {
       waiting(owner);
-      latch = acquire(resources);
+      latch = acquire(resources, priority);
       if (latch != null) {
         latch.await();
       }
@@ -334,14 +359,20 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
+  private synchronized CountDownLatch acquire(ResourceSet resources, long priority) {
     if (areResourcesAvailable(resources)) {
       incrementResources(resources);
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
+    Request request = new Request(resources, priority);
+    ListIterator<Request> iterator = requestList.listIterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().priority < priority) {
+        iterator.previous();
+        break;
+      }
+    }
+    iterator.add(request);
 
     // If we use auto sensing and there has not been an update within last
     // 30 seconds, something has gone really wrong - disable it.
@@ -353,7 +384,7 @@ public class ResourceManager {
           + "auto-sensing is disabled");
       setAutoSensing(false);
     }
-    return request.second;
+    return request.latch;
   }
 
   private synchronized boolean release(ResourceSet resources) {
@@ -386,12 +417,12 @@ public class ResourceManager {
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    Iterator<Request> iterator = requestList.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (areResourcesAvailable(request.first)) {
-        incrementResources(request.first);
-        request.second.countDown();
+      Request request = iterator.next();
+      if (areResourcesAvailable(request.resources)) {
+        incrementResources(request.resources);
+        request.latch.countDown();
         iterator.remove();
       }
     }
@@ -192,7 +192,7 @@ public class CompactPersistentActionCache implements ActionCache {
   /**
    * @return false iff indexer contains no data or integrity check has failed.
    */
-  private static String validateIntegrity(int indexerSize, byte[] validationRecord) {
+  static String validateIntegrity(int indexerSize, byte[] validationRecord) {
     if (indexerSize == 0) {
       return "empty index";
     }
@@ -327,7 +327,7 @@ public class CompactPersistentActionCache implements ActionCache {
   /**
    * @return action data encoded as a byte[] array.
    */
-  private static byte[] encode(StringIndexer indexer, ActionCache.Entry entry) {
+  static byte[] encode(StringIndexer indexer, ActionCache.Entry entry) {
     Preconditions.checkState(!entry.isCorrupted());
 
     try {
@@ -365,7 +365,7 @@ public class CompactPersistentActionCache implements ActionCache {
    * will stay in the compressed format until entry is actually used by the
    * dependency checker.
    */
-  private static ActionCache.Entry decode(StringIndexer indexer, byte[] data) throws IOException {
+  static ActionCache.Entry decode(StringIndexer indexer, byte[] data) throws IOException {
     try {
       ByteBuffer source = ByteBuffer.wrap(data);
 
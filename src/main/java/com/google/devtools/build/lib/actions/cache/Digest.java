@@ -85,7 +85,7 @@ public class Digest {
     byte[] result = new byte[MD5_SIZE];
     // Profiling showed that MD5 engine instantiation was a hotspot, so create one instance for
     // this computation to amortize its cost.
-    Fingerprint fp = new Fingerprint();
+    Fingerprint fp = new Fingerprint(Fingerprint.Algorithm.MD5);
     for (Map.Entry<String, Metadata> entry : mdMap.entrySet()) {
       xorWith(result, getDigest(fp, entry.getKey(), entry.getValue()));
       fp.reset();
@@ -0,0 +1,146 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.BlazeClock;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounds the number of files whose digests are computed concurrently by reading their contents,
+ * and keeps statistics about the digesting work done.
+ *
+ * <p>A throttle has a number of hasher slots and an I/O budget in bytes. Digesting a file takes
+ * one slot and as much of the budget as the size of the file (capped at the whole budget), so that
+ * many moderately sized files can be read in parallel while a few huge ones do not saturate the
+ * disk. A throttle with no slot limit never blocks and only collects statistics.
+ */
+@ThreadSafe
+public final class DigestThrottle {
+
+  /** The I/O budget is accounted in units of this many bytes. */
+  private static final long BUDGET_UNIT = 1024;
+
+  @Nullable private final Semaphore slots;
+  @Nullable private final Semaphore ioBudget;
+  private final int ioBudgetUnits;
+
+  private final AtomicLong filesDigested = new AtomicLong();
+  private final AtomicLong bytesDigested = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  private DigestThrottle(int maxConcurrency, long ioBudgetBytes) {
+    if (maxConcurrency > 0) {
+      Preconditions.checkArgument(ioBudgetBytes > 0, ioBudgetBytes);
+      this.slots = new Semaphore(maxConcurrency, /*fair=*/true);
+      this.ioBudgetUnits = (int) Math.min(Integer.MAX_VALUE,
+          Math.max(1, ioBudgetBytes / BUDGET_UNIT));
+      this.ioBudget = new Semaphore(ioBudgetUnits, /*fair=*/true);
+    } else {
+      this.slots = null;
+      this.ioBudget = null;
+      this.ioBudgetUnits = 0;
+    }
+  }
+
+  /**
+   * Returns a throttle that lets at most {@code maxConcurrency} digests be computed at a time, and
+   * at most {@code ioBudgetBytes} worth of files be read at a time.
+   */
+  public static DigestThrottle bounded(int maxConcurrency, long ioBudgetBytes) {
+    Preconditions.checkArgument(maxConcurrency > 0, maxConcurrency);
+    return new DigestThrottle(maxConcurrency, ioBudgetBytes);
+  }
+
+  /** Returns a throttle that never blocks. */
+  public static DigestThrottle unbounded() {
+    return new DigestThrottle(0, 0);
+  }
+
+  /**
+   * Blocks until a file of the given size may be read. Every call must be followed by a call to
+   * {@link #release} with the same size.
+   *
+   * @return the time spent waiting, in nanoseconds
+   */
+  long acquire(long fileSize) {
+    if (slots == null) {
+      return 0;
+    }
+    long startTime = BlazeClock.nanoTime();
+    slots.acquireUninterruptibly();
+    ioBudget.acquireUninterruptibly(budgetUnits(fileSize));
+    long waited = BlazeClock.nanoTime() - startTime;
+    waitNanos.addAndGet(waited);
+    return waited;
+  }
+
+  /** Returns the resources taken by a call to {@link #acquire} and records the work done. */
+  void release(long fileSize) {
+    filesDigested.incrementAndGet();
+    bytesDigested.addAndGet(fileSize);
+    if (slots != null) {
+      ioBudget.release(budgetUnits(fileSize));
+      slots.release();
+    }
+  }
+
+  private int budgetUnits(long fileSize) {
+    return (int) Math.max(1, Math.min(ioBudgetUnits, fileSize / BUDGET_UNIT));
+  }
+
+  /** Returns a snapshot of the work done through this throttle. */
+  public Statistics getStatistics() {
+    return new Statistics(filesDigested.get(), bytesDigested.get(), waitNanos.get());
+  }
+
+  /** Counters of the digests computed through a {@link DigestThrottle}. */
+  public static final class Statistics {
+    private final long files;
+    private final long bytes;
+    private final long waitNanos;
+
+    private Statistics(long files, long bytes, long waitNanos) {
+      this.files = files;
+      this.bytes = bytes;
+      this.waitNanos = waitNanos;
+    }
+
+    /** Number of files digested by reading their contents. */
+    public long getFiles() {
+      return files;
+    }
+
+    /** Total size of the files digested by reading their contents. */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /** Total time threads spent waiting for a hasher slot or I/O budget, in nanoseconds. */
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d files, %d bytes, %d ms waiting", files, bytes,
+          waitNanos / 1000000);
+    }
+  }
+}
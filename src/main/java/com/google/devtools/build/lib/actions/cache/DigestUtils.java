@@ -32,8 +32,19 @@ import javax.annotation.Nullable;
  * Utility class for getting md5 digests of files.
  */
 public class DigestUtils {
-  // Object to synchronize on when serializing large file reads.
-  private static final Object MD5_LOCK = new Object();
+  /**
+   * Files up to this size are digested without throttling, since they are not likely to
+   * introduce significant delays (at worst they will result in two extra disk seeks by
+   * interrupting other reads).
+   */
+  private static final long SMALL_FILE_THRESHOLD = 4096;
+
+  /** Default I/O budget for concurrently digested large files. */
+  public static final long DEFAULT_IO_BUDGET_BYTES = 64L * 1024 * 1024;
+
+  private static volatile DigestThrottle smallFileLane = DigestThrottle.unbounded();
+  private static volatile DigestThrottle largeFileLane =
+      DigestThrottle.bounded(1, DEFAULT_IO_BUDGET_BYTES);
 
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
@@ -51,16 +62,43 @@ public class DigestUtils {
   }
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
+   * Sets the number of large files whose digests may be computed concurrently by reading their
+   * contents, and the total size of the large files that may be read at once. Resets the
+   * statistics returned by {@link #getLargeFileStatistics} and {@link #getSmallFileStatistics}.
+   *
+   * <p>Must not be called while digests are being computed for a build.
+   */
+  public static void configureConcurrency(int maxLargeFileDigests, long ioBudgetBytes) {
+    smallFileLane = DigestThrottle.unbounded();
+    largeFileLane = DigestThrottle.bounded(maxLargeFileDigests, ioBudgetBytes);
+  }
+
+  /** Returns the counters of large files digested since the last configuration. */
+  public static DigestThrottle.Statistics getLargeFileStatistics() {
+    return largeFileLane.getStatistics();
+  }
+
+  /** Returns the counters of small files digested since the last configuration. */
+  public static DigestThrottle.Statistics getSmallFileStatistics() {
+    return smallFileLane.getStatistics();
+  }
+
+  /**
+   * Obtain file's MD5 metadata through the given throttle, ensuring that system
    * is not overloaded in case when multiple threads are requesting MD5
    * calculations and underlying file system cannot provide it via extended
    * attribute.
    */
-  private static byte[] getDigestInExclusiveMode(Path path) throws IOException {
+  private static byte[] getDigestThrottled(Path path, long fileSize, DigestThrottle lane)
+      throws IOException {
     long startTime = BlazeClock.nanoTime();
-    synchronized (MD5_LOCK) {
+    if (lane.acquire(fileSize) > 0) {
       Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
+    }
+    try {
       return getDigestInternal(path);
+    } finally {
+      lane.release(fileSize);
     }
   }
 
@@ -94,9 +132,9 @@ public class DigestUtils {
    * it, and calculating the digest manually otherwise.
    *
    * @param path Path of the file.
-   * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * @param fileSize size of the file. Used to determine if digest calculation should be
+   * throttled. Files larger than a certain threshold share a bounded number of concurrent readers
+   * and an I/O budget, in order to avoid excessive disk seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize) throws IOException {
     // TODO(bazel-team): the action cache currently only works with md5 digests but it ought to
@@ -115,16 +153,13 @@ public class DigestUtils {
     }
     if (md5bin != null) {
       return md5bin;
-    } else if (fileSize > 4096) {
+    } else if (fileSize > SMALL_FILE_THRESHOLD) {
       // We'll have to read file content in order to calculate the digest. In that case
-      // it would be beneficial to serialize those calculations since there is a high
+      // it would be beneficial to bound those calculations since there is a high
       // probability that MD5 will be requested for multiple output files simultaneously.
-      // Exception is made for small (<=4K) files since they will not likely to introduce
-      // significant delays (at worst they will result in two extra disk seeks by
-      // interrupting other reads).
-      return getDigestInExclusiveMode(path);
+      return getDigestThrottled(path, fileSize, largeFileLane);
     } else {
-      return getDigestInternal(path);
+      return getDigestThrottled(path, fileSize, smallFileLane);
     }
   }
 }
@@ -0,0 +1,352 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A content-addressed cache of action outputs on the local disk, which survives
+ * {@code blaze clean}, output base changes and switching between branches.
+ *
+ * <p>Output files are stored once per distinct content under
+ * {@code cas/<first two hex digits of the digest>/<hex digest>}. For every
+ * cached action, a manifest named by its cache key under {@code ac/} maps each
+ * output exec path to the digest of its content. Outputs are copied in both
+ * directions rather than hard-linked, so that writing to an output in place
+ * cannot change the stored file. Stored files are checked against their
+ * digest each time they are restored, since anything may have changed them on
+ * disk, and the ones that do not match are discarded.
+ *
+ * <p>The total size of the stored files and manifests is bounded: once it
+ * exceeds the limit, the least recently used ones are deleted. Recency is
+ * tracked in memory and initialized from the modification times of the files
+ * when the cache is opened. Since the directory may be shared with other
+ * servers, files they stored since are added to the index when first used, and
+ * manifests are only discarded when a file they refer to is missing from disk.
+ */
+@ThreadSafe
+public class LocalOutputCache {
+  private static final Logger LOG = Logger.getLogger(LocalOutputCache.class.getName());
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // Temporary files older than this are left behind by interrupted stores rather than being
+  // written by another server sharing the cache.
+  private static final long STALE_TMP_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final Path casDir;
+  private final Path acDir;
+  private final long maxSizeBytes;
+
+  // Size of every stored file and manifest, in least recently used order. Guarded by this.
+  private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalSize;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Opens the cache in {@code root}, creating it if necessary.
+   *
+   * @param maxSizeBytes the total size of stored files above which the least
+   *     recently used ones are deleted
+   */
+  public LocalOutputCache(Path root, long maxSizeBytes) throws IOException {
+    this.casDir = root.getRelative("cas");
+    this.acDir = root.getRelative("ac");
+    this.maxSizeBytes = maxSizeBytes;
+    FileSystemUtils.createDirectoryAndParents(casDir);
+    FileSystemUtils.createDirectoryAndParents(acDir);
+    load();
+  }
+
+  private void load() throws IOException {
+    List<Path> files = new ArrayList<>();
+    final Map<Path, Long> mtimes = new HashMap<>();
+    Map<Path, Long> sizes = new HashMap<>();
+    long staleTmpTime = BlazeClock.instance().currentTimeMillis() - STALE_TMP_AGE_MILLIS;
+    List<Path> dirs = new ArrayList<>();
+    dirs.add(acDir);
+    for (Path prefixDir : casDir.getDirectoryEntries()) {
+      if (prefixDir.isDirectory()) {
+        dirs.add(prefixDir);
+      }
+    }
+    for (Path dir : dirs) {
+      for (Path file : dir.getDirectoryEntries()) {
+        FileStatus stat = file.statIfFound();
+        if (stat == null) {
+          // Deleted by another server sharing the cache.
+          continue;
+        }
+        long mtime = stat.getLastModifiedTime();
+        if (file.getBaseName().endsWith(".tmp")) {
+          if (mtime < staleTmpTime) {
+            file.delete();
+          }
+          continue;
+        }
+        files.add(file);
+        mtimes.put(file, mtime);
+        sizes.put(file, stat.getSize());
+      }
+    }
+    Collections.sort(files, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return Long.compare(mtimes.get(a), mtimes.get(b));
+      }
+    });
+    synchronized (this) {
+      for (Path file : files) {
+        long size = sizes.get(file);
+        index.put(file, size);
+        totalSize += size;
+      }
+      evict();
+    }
+  }
+
+  /**
+   * Returns the key under which the outputs of an action are cached.
+   *
+   * @param actionKey the key of the action, as by {@code Action.getKey()}
+   * @param inputsDigest the digest of the exec paths and contents of all inputs
+   * @param outputExecPaths the exec paths of all outputs
+   */
+  public static String computeKey(String actionKey, Digest inputsDigest,
+      Iterable<String> outputExecPaths) {
+    Fingerprint fp = new Fingerprint(Fingerprint.Algorithm.MD5);
+    fp.addString(actionKey);
+    fp.addString(inputsDigest.toString());
+    fp.addStrings(outputExecPaths);
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Restores cached outputs. Either all outputs are restored and true is
+   * returned, or false is returned and the outputs that were restored must be
+   * discarded by the caller.
+   *
+   * @param key the cache key, as by {@link #computeKey}
+   * @param outputs the path of every output, by exec path
+   */
+  public boolean restore(String key, Map<String, Path> outputs) throws IOException {
+    Path manifest = acDir.getChild(key);
+    Map<String, String> digests;
+    try {
+      digests = readManifest(manifest);
+    } catch (FileNotFoundException e) {
+      misses.incrementAndGet();
+      return false;
+    }
+    use(manifest);
+    if (!digests.keySet().equals(outputs.keySet())) {
+      discard(manifest);
+      misses.incrementAndGet();
+      return false;
+    }
+    for (Map.Entry<String, String> entry : digests.entrySet()) {
+      String digest = entry.getValue();
+      if (!use(blobPath(digest)) || !copyVerified(digest, outputs.get(entry.getKey()))) {
+        discard(manifest);
+        misses.incrementAndGet();
+        return false;
+      }
+    }
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Stores the outputs of an action.
+   *
+   * @param key the cache key, as by {@link #computeKey}
+   * @param outputs the path of every output, by exec path
+   * @param digests the digest of every output, by exec path
+   */
+  public void put(String key, Map<String, Path> outputs, Map<String, byte[]> digests)
+      throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, Path> entry : outputs.entrySet()) {
+      String digest = Fingerprint.hexDigest(digests.get(entry.getKey()));
+      store(entry.getValue(), digest);
+      lines.add(entry.getKey() + '\0' + digest);
+    }
+    Path manifest = acDir.getChild(key);
+    Path tmp = tmpPath(manifest);
+    FileSystemUtils.writeLinesAs(tmp, StandardCharsets.ISO_8859_1, lines);
+    tmp.renameTo(manifest);
+    add(manifest);
+  }
+
+  private void store(Path output, String digest) throws IOException {
+    Path blob = blobPath(digest);
+    if (use(blob)) {
+      return;
+    }
+    FileSystemUtils.createDirectoryAndParents(blob.getParentDirectory());
+    Path tmp = tmpPath(blob);
+    FileSystemUtils.copyFile(output, tmp);
+    tmp.renameTo(blob);
+    add(blob);
+  }
+
+  /**
+   * Returns a path to write {@code file} to before renaming it into place, which no other thread
+   * or server sharing the cache uses.
+   */
+  private static Path tmpPath(Path file) {
+    return file.getParentDirectory().getChild(
+        file.getBaseName() + "." + UUID.randomUUID() + ".tmp");
+  }
+
+  /**
+   * Marks a stored file or manifest as recently used, and returns whether it exists. Files stored
+   * by other servers sharing the cache are added to the index here.
+   */
+  private synchronized boolean use(Path file) {
+    if (index.get(file) != null) {
+      return true;
+    }
+    long size;
+    try {
+      size = file.getFileSize();
+    } catch (IOException e) {
+      return false;
+    }
+    index.put(file, size);
+    totalSize += size;
+    return true;
+  }
+
+  /** Adds a file or manifest that was just written to the index. */
+  private synchronized void add(Path file) throws IOException {
+    long size = file.getFileSize();
+    Long oldSize = index.put(file, size);
+    totalSize += size - (oldSize == null ? 0 : oldSize);
+    evict();
+  }
+
+  /** Deletes a stored file or manifest and removes it from the index. */
+  private synchronized void discard(Path file) throws IOException {
+    Long size = index.remove(file);
+    if (size != null) {
+      totalSize -= size;
+    }
+    file.delete();
+  }
+
+  private Map<String, String> readManifest(Path manifest) throws IOException {
+    Map<String, String> digests = new HashMap<>();
+    for (String line : FileSystemUtils.iterateLinesAsLatin1(manifest)) {
+      int separator = line.indexOf('\0');
+      if (separator > 0) {
+        digests.put(line.substring(0, separator), line.substring(separator + 1));
+      }
+    }
+    return digests;
+  }
+
+  /** Deletes the least recently used files and manifests until the cache fits its size limit. */
+  private synchronized void evict() throws IOException {
+    Iterator<Map.Entry<Path, Long>> it = index.entrySet().iterator();
+    while (totalSize > maxSizeBytes && it.hasNext()) {
+      Map.Entry<Path, Long> entry = it.next();
+      entry.getKey().delete();
+      totalSize -= entry.getValue();
+      it.remove();
+    }
+  }
+
+  private Path blobPath(String digest) {
+    return casDir.getChild(digest.substring(0, 2)).getChild(digest);
+  }
+
+  /**
+   * Copies the stored file with the given digest to {@code to} and returns true, or deletes both
+   * and returns false if the content of the stored file does not match its digest.
+   */
+  private boolean copyVerified(String digest, Path to) throws IOException {
+    Path blob = blobPath(digest);
+    Hasher hasher = Hashing.md5().newHasher();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    to.delete();
+    try (InputStream in = blob.getInputStream();
+        OutputStream out = to.getOutputStream()) {
+      int numBytesRead;
+      while ((numBytesRead = in.read(buffer)) != -1) {
+        hasher.putBytes(buffer, 0, numBytesRead);
+        out.write(buffer, 0, numBytesRead);
+      }
+    } catch (FileNotFoundException e) {
+      // Evicted since the manifest was read.
+      to.delete();
+      return false;
+    }
+    if (hasher.hash().toString().equals(digest)) {
+      to.setExecutable(blob.isExecutable());
+      return true;
+    }
+    LOG.warning("Discarding corrupted local output cache entry " + blob);
+    to.delete();
+    discard(blob);
+    return false;
+  }
+
+  @VisibleForTesting
+  synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  /** Returns the number of successful restores since the cache was opened. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Returns the number of failed restores since the cache was opened. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Logs the hit rate and size of the cache. */
+  public void logStatistics() {
+    LOG.info(String.format("Local output cache: %d hits, %d misses, %d bytes stored",
+        getHits(), getMisses(), getTotalSize()));
+  }
+}
@@ -0,0 +1,634 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An implementation of the ActionCache interface that keeps its entries in an
+ * append-only log file, which is memory-mapped rather than deserialized into
+ * the heap when the cache is loaded.
+ *
+ * <p>The log is a header followed by records. Each record holds the
+ * {@link PersistentStringIndexer} id of the action key, the entry encoded as by
+ * {@link CompactPersistentActionCache}, and a CRC32 checksum of both; a record
+ * without an entry marks its removal. Loading the cache only scans the records
+ * to build an open-addressing index from key id to record offset, and entries
+ * are decoded when they are requested. The first record that fails its
+ * checksum ends the log, so a tail left behind by a crash during {@link #save}
+ * is discarded.
+ *
+ * <p>Updates are kept in memory until {@link #save} appends them to the log,
+ * so saving costs time proportional to the number of entries changed since the
+ * last save. Once obsolete records make up most of the log, it is compacted on
+ * a background thread: live records are copied to a new file, which then
+ * atomically replaces the log.
+ *
+ * <p>Memory mapping requires the cache root to be on the native file system.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedActionCache implements ActionCache {
+  private static final Logger LOG = Logger.getLogger(MappedActionCache.class.getName());
+
+  private static final int VERSION = 10;
+  private static final int MAGIC = 0x4d414331;
+  private static final int HEADER_SIZE = 8;
+
+  // Key id of the record that holds the size of the string indexer when the log was last saved.
+  private static final int VALIDATION_KEY = -10;
+
+  // Every record consists of the key id, the payload length, the payload and the checksum.
+  private static final int RECORD_OVERHEAD = 12;
+  private static final int REMOVED_LENGTH = -1;
+
+  // Logs smaller than this are never compacted.
+  private static final int MIN_COMPACTION_SIZE = 1 << 20;
+
+  // Marks pending removals.
+  private static final byte[] REMOVED = new byte[0];
+
+  private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("action-cache-compactor").setDaemon(true).build());
+
+  private final Path logFile;
+  private final PersistentStringIndexer indexer;
+  private final int minCompactionSize;
+
+  // Entries put or removed since the last save, keyed by key id.
+  private final Map<Integer, byte[]> pending = new LinkedHashMap<>();
+  private Log log;
+  private Future<?> compaction;
+
+  public MappedActionCache(Path cacheRoot, Clock clock) throws IOException {
+    this(cacheRoot, clock, MIN_COMPACTION_SIZE);
+  }
+
+  @VisibleForTesting
+  MappedActionCache(Path cacheRoot, Clock clock, int minCompactionSize) throws IOException {
+    this.logFile = logFile(cacheRoot);
+    this.minCompactionSize = minCompactionSize;
+    Path indexFile = indexFile(cacheRoot);
+
+    try {
+      indexer = PersistentStringIndexer.newPersistentStringIndexer(indexFile, clock);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load filename index data", e);
+    }
+
+    try {
+      log = load(logFile);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+
+    if (log.index.liveCount() > 0) {
+      String integrityError = CompactPersistentActionCache.validateIntegrity(
+          indexer.size(), log.validationRecord());
+      if (integrityError != null) {
+        renameCorruptedFiles(cacheRoot);
+        throw new IOException("Failed action cache referential integrity check: " + integrityError);
+      }
+    }
+  }
+
+  public static Path logFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_log_v" + VERSION + ".blaze");
+  }
+
+  private static Path indexFile(Path cacheRoot) {
+    return cacheRoot.getChild("filename_index_mapped_v" + VERSION + ".blaze");
+  }
+
+  /**
+   * Renames the files of this cache so they could be analyzed later, and so that the next
+   * initialization attempt creates an empty cache. Only the files of this cache are renamed: the
+   * files of {@link CompactPersistentActionCache} may share the cache root and version.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    Path indexFile = indexFile(cacheRoot);
+    Path logFile = logFile(cacheRoot);
+    for (Path path : new Path[] {indexFile, FileSystemUtils.replaceExtension(indexFile, ".journal"),
+        logFile, compactionFile(logFile)}) {
+      try {
+        if (path.exists()) {
+          path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+        }
+      } catch (IOException e) {
+        // do nothing
+      }
+    }
+  }
+
+  private static Path compactionFile(Path logFile) {
+    return logFile.getParentDirectory().getChild(logFile.getBaseName() + ".compacting");
+  }
+
+  /**
+   * Maps the log file, creating it if necessary, and truncates it after the
+   * last valid record.
+   */
+  private static Log load(Path logFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(logFile.getPathFile(), "rw");
+        FileChannel channel = file.getChannel()) {
+      if (channel.size() == 0) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        write(channel, header, 0);
+        channel.force(false);
+      }
+      int size = checkedSize(channel);
+      Log log = new Log(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      if (size < HEADER_SIZE
+          || log.buffer.getInt(0) != MAGIC || log.buffer.getInt(4) != VERSION) {
+        throw new IOException("Unexpected action cache log header");
+      }
+      int end = log.scan(HEADER_SIZE, size);
+      if (end < size) {
+        LOG.warning("Discarding " + (size - end) + " bytes of incomplete action cache records");
+        channel.truncate(end);
+        log.remap(channel.map(FileChannel.MapMode.READ_ONLY, 0, end));
+      }
+      return log;
+    }
+  }
+
+  private static int checkedSize(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Action cache log is too large to be mapped: " + size + " bytes");
+    }
+    return (int) size;
+  }
+
+  private static void write(FileChannel channel, ByteBuffer data, long position)
+      throws IOException {
+    while (data.hasRemaining()) {
+      position += channel.write(data, position);
+    }
+  }
+
+  /**
+   * Returns the size of the record at the given offset, or -1 if it extends
+   * past {@code end} or fails its checksum.
+   */
+  private static int checkRecord(ByteBuffer buffer, int offset, int end) {
+    if (end - offset < RECORD_OVERHEAD) {
+      return -1;
+    }
+    int length = buffer.getInt(offset + 4);
+    if (length < REMOVED_LENGTH || end - offset - RECORD_OVERHEAD < length) {
+      return -1;
+    }
+    int payloadLength = Math.max(0, length);
+    ByteBuffer checked = buffer.duplicate();
+    checked.limit(offset + 8 + payloadLength).position(offset);
+    CRC32 crc = new CRC32();
+    crc.update(checked);
+    if ((int) crc.getValue() != buffer.getInt(offset + 8 + payloadLength)) {
+      return -1;
+    }
+    return RECORD_OVERHEAD + payloadLength;
+  }
+
+  private static void writeRecord(DataOutputStream out, int id, byte[] payload)
+      throws IOException {
+    int length = payload == REMOVED ? REMOVED_LENGTH : payload.length;
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(id).putInt(length);
+    CRC32 crc = new CRC32();
+    crc.update(header.array());
+    crc.update(payload);
+    out.write(header.array());
+    out.write(payload);
+    out.writeInt((int) crc.getValue());
+  }
+
+  @Override
+  public ActionCache.Entry createEntry(String key) {
+    return new ActionCache.Entry(key);
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    int index = indexer.getIndex(key);
+    if (index < 0) {
+      return null;
+    }
+    byte[] data;
+    synchronized (this) {
+      data = pending.containsKey(index) ? pending.get(index) : log.read(index);
+    }
+    if (data == null || data == REMOVED) {
+      return null;
+    }
+    try {
+      return CompactPersistentActionCache.decode(indexer, data);
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return CompactPersistentActionCache.CORRUPTED;
+    }
+  }
+
+  @Override
+  public void put(String key, ActionCache.Entry entry) {
+    // Encode record. Note that both methods may create new mappings in the indexer.
+    int index = indexer.getOrCreateIndex(key);
+    byte[] content = CompactPersistentActionCache.encode(indexer, entry);
+    synchronized (this) {
+      pending.put(index, content);
+    }
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    int index = indexer.getIndex(key);
+    if (index >= 0) {
+      pending.put(index, REMOVED);
+    }
+  }
+
+  @Override
+  public long save() throws IOException {
+    // The indexer must be saved first, so that the log never refers to ids
+    // missing from the index file.
+    long indexSize = indexer.save();
+    long logSize;
+    synchronized (this) {
+      if (!pending.isEmpty()) {
+        appendPending();
+      }
+      logSize = log.end;
+      if (log.garbageBytes > log.end / 2 && log.end >= minCompactionSize
+          && (compaction == null || compaction.isDone())) {
+        compaction = COMPACTOR.submit(new Runnable() {
+          @Override
+          public void run() {
+            compact();
+          }
+        });
+      }
+    }
+    return indexSize + logSize;
+  }
+
+  private void appendPending() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (Map.Entry<Integer, byte[]> entry : pending.entrySet()) {
+      writeRecord(out, entry.getKey(), entry.getValue());
+    }
+    writeRecord(out, VALIDATION_KEY, ByteBuffer.allocate(4).putInt(indexer.size()).array());
+    out.flush();
+
+    try (RandomAccessFile file = new RandomAccessFile(logFile.getPathFile(), "rw");
+        FileChannel channel = file.getChannel()) {
+      int start = log.end;
+      write(channel, ByteBuffer.wrap(bytes.toByteArray()), start);
+      channel.force(false);
+      int size = checkedSize(channel);
+      log.remap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      if (log.scan(start, size) != size) {
+        throw new IOException("Appended action cache records are corrupted");
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Copies the live records of the log into a new file and replaces the log
+   * with it. Only the records appended while copying are copied while holding
+   * the lock.
+   */
+  private void compact() {
+    Path compactionFile = compactionFile(logFile);
+    try {
+      Log snapshot;
+      synchronized (this) {
+        snapshot = log.copy();
+      }
+      try (RandomAccessFile file = new RandomAccessFile(compactionFile.getPathFile(), "rw");
+          FileChannel channel = file.getChannel()) {
+        channel.truncate(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+        snapshot.writeLiveRecords(bytes);
+        write(channel, ByteBuffer.wrap(bytes.toByteArray()), 0);
+        int copied = checkedSize(channel);
+        Log compacted = new Log(channel.map(FileChannel.MapMode.READ_ONLY, 0, copied));
+        compacted.scan(HEADER_SIZE, copied);
+
+        synchronized (this) {
+          if (!logFile.exists()) {
+            // The cache was cleared while compacting.
+            return;
+          }
+          ByteBuffer tail = log.buffer.duplicate();
+          tail.limit(log.end).position(snapshot.end);
+          write(channel, tail, copied);
+          channel.force(false);
+          int size = checkedSize(channel);
+          compacted.remap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+          if (compacted.scan(copied, size) != size) {
+            throw new IOException("Compacted action cache records are corrupted");
+          }
+          compactionFile.renameTo(logFile);
+          LOG.info("Compacted action cache log from " + log.end + " to " + size + " bytes");
+          log = compacted;
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to compact action cache log", e);
+      try {
+        compactionFile.delete();
+      } catch (IOException e2) {
+        // do nothing
+      }
+    }
+  }
+
+  @VisibleForTesting
+  void awaitCompaction() throws Exception {
+    Future<?> running;
+    synchronized (this) {
+      running = compaction;
+    }
+    if (running != null) {
+      running.get();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int logSize() {
+    return log.end;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Action cache (" + log.index.liveCount() + " saved records, " + pending.size()
+        + " pending updates)";
+  }
+
+  /**
+   * Dumps action cache content.
+   */
+  @Override
+  public synchronized void dump(PrintStream out) {
+    out.println("String indexer content:\n");
+    out.println(indexer);
+    out.println(this + ":\n");
+    Map<Integer, byte[]> entries = new LinkedHashMap<>();
+    OffsetIndex index = log.index;
+    for (int slot = 0; slot < index.ids.length; slot++) {
+      if (index.ids[slot] != OffsetIndex.FREE && index.offsets[slot] >= 0) {
+        entries.put(index.ids[slot], log.read(index.ids[slot]));
+      }
+    }
+    entries.putAll(pending);
+    for (Map.Entry<Integer, byte[]> entry : entries.entrySet()) {
+      if (entry.getValue() == REMOVED) {
+        continue;
+      }
+      String content;
+      try {
+        content = CompactPersistentActionCache.decode(indexer, entry.getValue()).toString();
+      } catch (IOException e) {
+        content = e + "\n";
+      }
+      out.println(entry.getKey() + ", " + indexer.getStringForIndex(entry.getKey()) + ":\n"
+          +  content + "\n      packed_len = " + entry.getValue().length + "\n");
+    }
+  }
+
+  /**
+   * A mapped log file together with the index of its records.
+   */
+  private static final class Log {
+    private MappedByteBuffer buffer;
+    private final OffsetIndex index;
+    // End of the last valid record.
+    private int end = HEADER_SIZE;
+    // Total size of the records superseded by later ones.
+    private long garbageBytes;
+    private int validationOffset = -1;
+
+    Log(MappedByteBuffer buffer) {
+      this(buffer, new OffsetIndex());
+    }
+
+    private Log(MappedByteBuffer buffer, OffsetIndex index) {
+      this.buffer = buffer;
+      this.index = index;
+    }
+
+    void remap(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    /**
+     * Indexes the records between {@code from} and {@code limit}, and returns
+     * the end of the last valid one.
+     */
+    int scan(int from, int limit) {
+      int offset = from;
+      while (offset < limit) {
+        int recordSize = checkRecord(buffer, offset, limit);
+        if (recordSize < 0) {
+          break;
+        }
+        int id = buffer.getInt(offset);
+        int previous;
+        if (id == VALIDATION_KEY) {
+          previous = validationOffset;
+          validationOffset = offset;
+        } else {
+          boolean removal = buffer.getInt(offset + 4) == REMOVED_LENGTH;
+          previous = index.put(id, removal ? -1 : offset);
+          if (removal) {
+            garbageBytes += recordSize;
+          }
+        }
+        if (previous >= 0) {
+          garbageBytes += RECORD_OVERHEAD + buffer.getInt(previous + 4);
+        }
+        offset += recordSize;
+      }
+      end = offset;
+      return offset;
+    }
+
+    /** Returns the payload of the record at the given offset. */
+    private byte[] payload(int offset) {
+      byte[] data = new byte[buffer.getInt(offset + 4)];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset + 8);
+      source.get(data);
+      return data;
+    }
+
+    /** Returns the saved entry for the given key id, or null if there is none. */
+    byte[] read(int id) {
+      int offset = index.get(id);
+      return offset < 0 ? null : payload(offset);
+    }
+
+    byte[] validationRecord() {
+      return validationOffset < 0 ? null : payload(validationOffset);
+    }
+
+    Log copy() {
+      Log copy = new Log(buffer, index.copy());
+      copy.end = end;
+      copy.validationOffset = validationOffset;
+      return copy;
+    }
+
+    /** Writes the live records and the validation record to the given stream. */
+    void writeLiveRecords(ByteArrayOutputStream out) throws IOException {
+      for (int slot = 0; slot < index.ids.length; slot++) {
+        int offset = index.offsets[slot];
+        if (index.ids[slot] != OffsetIndex.FREE && offset >= 0) {
+          writeRecordAt(out, offset);
+        }
+      }
+      if (validationOffset >= 0) {
+        writeRecordAt(out, validationOffset);
+      }
+    }
+
+    private void writeRecordAt(ByteArrayOutputStream out, int offset) {
+      int size = RECORD_OVERHEAD + Math.max(0, buffer.getInt(offset + 4));
+      byte[] record = new byte[size];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset);
+      source.get(record);
+      out.write(record, 0, size);
+    }
+  }
+
+  /**
+   * An open-addressing hash table with linear probing from key id to record
+   * offset. Removed keys keep their slot with a negative offset.
+   */
+  private static final class OffsetIndex {
+    static final int FREE = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    int[] ids;
+    int[] offsets;
+    private int size;
+    private int liveCount;
+
+    OffsetIndex() {
+      this(INITIAL_CAPACITY);
+    }
+
+    private OffsetIndex(int capacity) {
+      ids = new int[capacity];
+      offsets = new int[capacity];
+      Arrays.fill(ids, FREE);
+    }
+
+    private static int slot(int id, int mask) {
+      // Spreads sequential ids across the table.
+      int hash = id * 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    int get(int id) {
+      int mask = ids.length - 1;
+      for (int slot = slot(id, mask); ids[slot] != FREE; slot = (slot + 1) & mask) {
+        if (ids[slot] == id) {
+          return offsets[slot];
+        }
+      }
+      return -1;
+    }
+
+    /** Sets the offset for the given id and returns the previous one, or -1. */
+    int put(int id, int offset) {
+      if ((size + 1) * 2 > ids.length) {
+        resize(ids.length * 2);
+      }
+      int mask = ids.length - 1;
+      int slot = slot(id, mask);
+      while (ids[slot] != FREE && ids[slot] != id) {
+        slot = (slot + 1) & mask;
+      }
+      int previous = -1;
+      if (ids[slot] == FREE) {
+        ids[slot] = id;
+        size++;
+      } else {
+        previous = offsets[slot];
+      }
+      offsets[slot] = offset;
+      liveCount += (offset >= 0 ? 1 : 0) - (previous >= 0 ? 1 : 0);
+      return previous;
+    }
+
+    int liveCount() {
+      return liveCount;
+    }
+
+    private void resize(int capacity) {
+      int[] oldIds = ids;
+      int[] oldOffsets = offsets;
+      ids = new int[capacity];
+      offsets = new int[capacity];
+      Arrays.fill(ids, FREE);
+      size = 0;
+      liveCount = 0;
+      for (int i = 0; i < oldIds.length; i++) {
+        if (oldIds[i] != FREE && oldOffsets[i] >= 0) {
+          put(oldIds[i], oldOffsets[i]);
+        }
+      }
+    }
+
+    OffsetIndex copy() {
+      OffsetIndex copy = new OffsetIndex(ids.length);
+      System.arraycopy(ids, 0, copy.ids, 0, ids.length);
+      System.arraycopy(offsets, 0, copy.offsets, 0, offsets.length);
+      copy.size = size;
+      copy.liveCount = liveCount;
+      return copy;
+    }
+  }
+}
@@ -640,6 +640,7 @@ public class BuildView {
     } finally {
       skyframeBuildView.clearInvalidatedConfiguredTargets();
     }
+    artifactFactory.logStatistics();
 
     int numTargetsToAnalyze = nodes.size();
     int numSuccessful = configuredTargets.size();
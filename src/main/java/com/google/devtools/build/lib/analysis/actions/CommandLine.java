@@ -14,11 +14,13 @@
 
 package com.google.devtools.build.lib.analysis.actions;
 
+import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.util.Fingerprint;
 
 /**
  * A representation of a command line to be executed by a SpawnAction.
@@ -29,6 +31,28 @@ public abstract class CommandLine {
    */
   public abstract Iterable<String> arguments();
 
+  /**
+   * Returns the same arguments as {@link #arguments}, but may compute them while they are iterated
+   * over instead of all at once. Consumers that only need a single pass over the arguments, such as
+   * fingerprinting or writing a parameter file, should prefer this method.
+   */
+  public Iterable<String> lazyArguments() {
+    return arguments();
+  }
+
+  /**
+   * Adds the arguments of this command line to the fingerprint, each preceded by a marker and all
+   * followed by a terminator, so that the encoding stays unambiguous whatever is added to the
+   * fingerprint next. The arguments are iterated over only once.
+   */
+  public void addToFingerprint(Fingerprint fingerprint) {
+    for (String argument : lazyArguments()) {
+      fingerprint.addBoolean(true);
+      fingerprint.addString(argument);
+    }
+    fingerprint.addBoolean(false);
+  }
+
   /**
    * Returns whether the command line represents a shell command with the given shell executable.
    * This is used to give better error messages.
@@ -88,6 +112,11 @@ public abstract class CommandLine {
         return Iterables.concat(executableArgs, commandLine.arguments());
       }
 
+      @Override
+      public Iterable<String> lazyArguments() {
+        return Iterables.concat(executableArgs, commandLine.lazyArguments());
+      }
+
       @Override
       public boolean isShellCommand() {
         return isShellCommand;
@@ -109,6 +138,11 @@ public abstract class CommandLine {
         }
         return builder.build();
       }
+
+      @Override
+      public Iterable<String> lazyArguments() {
+        return Iterables.transform(arguments, Functions.toStringFunction());
+      }
     };
   }
 
@@ -14,8 +14,11 @@
 
 package com.google.devtools.build.lib.analysis.actions;
 
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
@@ -28,14 +31,30 @@ import java.util.List;
 
 /**
  * A customizable, serializable class for building memory efficient command lines.
+ *
+ * <p>{@link #lazyArguments} computes the arguments as they are iterated over, so that the full
+ * argument list of a command line with many arguments need not be held in memory to fingerprint it
+ * or to write it to a parameter file.
  */
 @Immutable
 public final class CustomCommandLine extends CommandLine {
 
   private abstract static class ArgvFragment {
-    abstract void eval(ImmutableList.Builder<String> builder);
+    /**
+     * Returns the arguments of this fragment. Fragments with many arguments compute them lazily,
+     * as they are iterated over.
+     */
+    abstract Iterable<String> eval();
   }
 
+  private static final Function<ArgvFragment, Iterable<String>> EVAL =
+      new Function<ArgvFragment, Iterable<String>>() {
+        @Override
+        public Iterable<String> apply(ArgvFragment fragment) {
+          return fragment.eval();
+        }
+      };
+
   // It's better to avoid anonymous classes if we want to serialize command lines
 
   private static final class ObjectArg extends ArgvFragment {
@@ -46,8 +65,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(arg.toString());
+    Iterable<String> eval() {
+      return ImmutableList.of(arg.toString());
     }
   }
 
@@ -62,8 +81,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Artifact.joinExecPaths(delimiter, artifacts));
+    Iterable<String> eval() {
+      return ImmutableList.of(Artifact.joinExecPaths(delimiter, artifacts));
     }
   }
 
@@ -78,9 +97,9 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
+    Iterable<String> eval() {
       // PathFragment.toString() uses getPathString()
-      builder.add(String.format(template, (Object[]) paths));
+      return ImmutableList.of(String.format(template, (Object[]) paths));
     }
   }
 
@@ -93,8 +112,8 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(argv());
+    Iterable<String> eval() {
+      return ImmutableList.of(argv());
     }
 
     public abstract String argv();
@@ -106,8 +125,8 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomMultiArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.addAll(argv());
+    Iterable<String> eval() {
+      return argv();
     }
 
     public abstract Iterable<String> argv();
@@ -124,8 +143,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Joiner.on(delimiter).join(paths));
+    Iterable<String> eval() {
+      return ImmutableList.of(Joiner.on(delimiter).join(paths));
     }
   }
 
@@ -171,21 +190,19 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      for (Object item : sequence) {
-        if (item == null) {
-          continue;
-        }
-
-        if (beforeEach != null) {
-          builder.add(beforeEach);
-        }
-        String arg = item.toString();
-        if (formatEach != null) {
-          arg = String.format(formatEach, arg);
-        }
-        builder.add(arg);
-      }
+    Iterable<String> eval() {
+      return Iterables.concat(Iterables.transform(Iterables.filter(sequence, Predicates.notNull()),
+          new Function<Object, Iterable<String>>() {
+            @Override
+            public Iterable<String> apply(Object item) {
+              String arg = item.toString();
+              // Formatting with "%s", the format of most sequences, leaves the item unchanged.
+              if (formatEach != null && !formatEach.equals("%s")) {
+                arg = String.format(formatEach, arg);
+              }
+              return beforeEach == null ? ImmutableList.of(arg) : ImmutableList.of(beforeEach, arg);
+            }
+          }));
     }
   }
 
@@ -349,10 +366,11 @@ public final class CustomCommandLine extends CommandLine {
 
   @Override
   public Iterable<String> arguments() {
-    ImmutableList.Builder<String> builder = ImmutableList.builder();
-    for (ArgvFragment arg : arguments) {
-      arg.eval(builder);
-    }
-    return builder.build();
+    return ImmutableList.copyOf(lazyArguments());
+  }
+
+  @Override
+  public Iterable<String> lazyArguments() {
+    return Iterables.concat(Iterables.transform(arguments, EVAL));
   }
 }
@@ -87,11 +87,12 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
   }
 
   /**
-   * Writes the arguments from the list into the parameter file.
+   * Writes the arguments from the list into the parameter file. The arguments are written as they
+   * are computed, without collecting them first.
    */
   private void writeContentUnquoted(OutputStream outputStream) throws IOException {
     OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : commandLine.arguments()) {
+    for (String line : commandLine.lazyArguments()) {
       out.write(line);
       out.write('\n');
     }
@@ -104,7 +105,7 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
    */
   private void writeContentQuoted(OutputStream outputStream) throws IOException {
     OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : ShellEscaper.escapeAll(commandLine.arguments())) {
+    for (String line : ShellEscaper.escapeAll(commandLine.lazyArguments())) {
       out.write(line);
       out.write('\n');
     }
@@ -116,7 +117,7 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
     f.addString(String.valueOf(makeExecutable));
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 }
@@ -14,8 +14,10 @@
 
 package com.google.devtools.build.lib.bazel;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
 import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
@@ -27,8 +29,10 @@ import com.google.devtools.build.lib.bazel.repository.LocalRepositoryFunction;
 import com.google.devtools.build.lib.bazel.repository.MavenJarFunction;
 import com.google.devtools.build.lib.bazel.repository.NewHttpArchiveFunction;
 import com.google.devtools.build.lib.bazel.repository.NewLocalRepositoryFunction;
+import com.google.devtools.build.lib.bazel.repository.RepositoryCache;
 import com.google.devtools.build.lib.bazel.repository.RepositoryDelegatorFunction;
 import com.google.devtools.build.lib.bazel.repository.RepositoryFunction;
+import com.google.devtools.build.lib.bazel.repository.RepositoryOptions;
 import com.google.devtools.build.lib.bazel.rules.workspace.HttpArchiveRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.HttpJarRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.LocalRepositoryRule;
@@ -36,11 +40,15 @@ import com.google.devtools.build.lib.bazel.rules.workspace.MavenJarRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.NewHttpArchiveRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.NewLocalRepositoryRule;
 import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.GotOptionsEvent;
 import com.google.devtools.build.lib.skyframe.SkyFunctions;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsProvider;
 
 import java.util.Map.Entry;
@@ -55,6 +63,7 @@ public class BazelRepositoryModule extends BlazeModule {
   private BlazeDirectories directories;
   // A map of repository handlers that can be looked up by rule class name.
   private final ImmutableMap<String, RepositoryFunction> repositoryHandlers;
+  private final RepositoryCache repositoryCache = new RepositoryCache();
 
   public BazelRepositoryModule() {
     repositoryHandlers = ImmutableMap.<String, RepositoryFunction>builder()
@@ -74,6 +83,31 @@ public class BazelRepositoryModule extends BlazeModule {
     this.directories = directories;
     for (RepositoryFunction handler : repositoryHandlers.values()) {
       handler.setDirectories(directories);
+      handler.setRepositoryCache(repositoryCache);
+    }
+  }
+
+  @Override
+  public void beforeCommand(BlazeRuntime blazeRuntime, Command command) {
+    blazeRuntime.getEventBus().register(this);
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    // Any command that loads packages may fetch external repositories.
+    return ImmutableList.<Class<? extends OptionsBase>>of(RepositoryOptions.class);
+  }
+
+  @Subscribe
+  public void gotOptions(GotOptionsEvent event) {
+    RepositoryOptions options = event.getOptions().getOptions(RepositoryOptions.class);
+    if (options == null || options.experimentalRepositoryCache == null
+        || !directories.inWorkspace()) {
+      repositoryCache.configure(null, 0);
+    } else {
+      repositoryCache.configure(
+          directories.getWorkspace().getRelative(options.experimentalRepositoryCache),
+          options.experimentalRepositoryCacheMaxSizeMb * 1024L * 1024L);
     }
   }
 
@@ -110,7 +144,8 @@ public class BazelRepositoryModule extends BlazeModule {
         new RepositoryDelegatorFunction(repositoryHandlers));
 
     // Helper SkyFunctions.
-    builder.put(SkyFunctionName.computed(HttpDownloadFunction.NAME), new HttpDownloadFunction());
+    builder.put(SkyFunctionName.computed(HttpDownloadFunction.NAME),
+        new HttpDownloadFunction(repositoryCache));
     return builder.build();
   }
 }
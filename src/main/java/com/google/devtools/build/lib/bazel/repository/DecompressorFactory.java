@@ -14,6 +14,9 @@
 
 package com.google.devtools.build.lib.bazel.repository;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.bazel.rules.workspace.HttpArchiveRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.HttpJarRule;
 import com.google.devtools.build.lib.bazel.rules.workspace.NewHttpArchiveRule;
@@ -21,19 +24,31 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
-import org.apache.commons.compress.archivers.ArchiveException;
-import org.apache.commons.compress.archivers.ArchiveInputStream;
-import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.utils.IOUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates decompressors to use on archive.  Use {@link DecompressorFactory#create} to get the
@@ -61,10 +76,13 @@ public abstract class DecompressorFactory {
         || targetKind.startsWith(NewHttpArchiveRule.NAME + " ")) {
       if (baseName.endsWith(".zip") || baseName.endsWith(".jar")) {
         return new ZipDecompressor(archivePath);
+      } else if (baseName.endsWith(".tar.gz") || baseName.endsWith(".tgz")) {
+        return new TarDecompressor(archivePath);
       } else {
         throw new DecompressorException(
             "Expected " + HttpArchiveRule.NAME + " " + targetName
-                + " to create file with a .zip or .jar suffix (got " + archivePath + ")");
+                + " to create file with a .zip, .jar, .tar.gz or .tgz suffix (got "
+                + archivePath + ")");
       }
     }
 
@@ -151,6 +169,258 @@ public abstract class DecompressorFactory {
     }
   }
 
+  /**
+   * Returns the path of an archive entry relative to the destination directory, checking that it
+   * is inside it. The check is lexical: see {@link SymlinkChecker} for archives that contain
+   * symbolic links.
+   */
+  private static PathFragment getEntryPath(String entryName) throws DecompressorException {
+    PathFragment relativePath = new PathFragment(entryName);
+    if (relativePath.isAbsolute()) {
+      throw new DecompressorException("Failed to extract " + relativePath
+          + ", archived paths cannot be absolute");
+    }
+    if (relativePath.containsUplevelReferences()) {
+      throw new DecompressorException("Failed to extract " + relativePath
+          + ", archived paths cannot contain up-level references");
+    }
+    return relativePath;
+  }
+
+  /**
+   * Returns the path an archive entry is extracted to, checking that it is inside the destination
+   * directory.
+   */
+  private static Path getOutputPath(Path destinationDirectory, String entryName)
+      throws DecompressorException {
+    return destinationDirectory.getRelative(getEntryPath(entryName));
+  }
+
+  /**
+   * Keeps an archive that contains symbolic links from writing outside of the destination
+   * directory. Links must be relative and point inside the destination directory, and no entry is
+   * written through a link extracted before it. Links are only created once all other entries are
+   * written, so that no write can follow them. All paths are relative to the destination
+   * directory, which is expected to contain nothing but the archive.
+   */
+  private static final class SymlinkChecker {
+    // As in Linux, after which resolving a path fails with ELOOP.
+    private static final int MAX_SYMLINK_EXPANSIONS = 40;
+
+    private static final Splitter SEGMENT_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+    private final Map<PathFragment, PathFragment> symlinks = new LinkedHashMap<>();
+
+    /**
+     * Checks that none of the parent directories of {@code entryPath} is a link, nor the entry
+     * itself unless {@code entryMayBeSymlink} is true.
+     */
+    void checkNotThroughSymlink(PathFragment entryPath, boolean entryMayBeSymlink)
+        throws DecompressorException {
+      if (symlinks.isEmpty()) {
+        return;
+      }
+      if (!entryMayBeSymlink && symlinks.containsKey(entryPath)) {
+        throw new DecompressorException("Failed to extract " + entryPath
+            + ", it would be written through a symbolic link");
+      }
+      for (PathFragment parent = entryPath.getParentDirectory(); parent != null;
+          parent = parent.getParentDirectory()) {
+        if (symlinks.containsKey(parent)) {
+          throw new DecompressorException("Failed to extract " + entryPath
+              + ", its parent directory " + parent + " is a symbolic link");
+        }
+      }
+    }
+
+    /**
+     * Records the link at {@code link} and checks that it points inside the destination
+     * directory. The link is created by {@link #createSymlinks}.
+     */
+    void addSymlink(PathFragment link, PathFragment target) throws DecompressorException {
+      if (target.isAbsolute()) {
+        throw new DecompressorException("Failed to extract " + link
+            + ", symbolic links cannot be absolute");
+      }
+      symlinks.put(link, target);
+      checkTarget(link);
+    }
+
+    /**
+     * Checks again that all the links point inside {@code destinationDirectory}, since a link that
+     * was fine when it was extracted can escape through the links extracted after it, and creates
+     * them if they all do. Each link replaces the file extracted at its path, if any, so all files
+     * must be written by then.
+     */
+    void createSymlinks(Path destinationDirectory) throws DecompressorException, IOException {
+      for (PathFragment link : symlinks.keySet()) {
+        checkTarget(link);
+      }
+      for (Map.Entry<PathFragment, PathFragment> link : symlinks.entrySet()) {
+        Path linkPath = destinationDirectory.getRelative(link.getKey());
+        linkPath.delete();
+        linkPath.createSymbolicLink(link.getValue());
+      }
+    }
+
+    /**
+     * Resolves the target of {@code link} the way the file system would, following the other
+     * recorded links, and fails if that leaves the destination directory.
+     */
+    private void checkTarget(PathFragment link) throws DecompressorException {
+      PathFragment current = link.getParentDirectory();
+      Deque<String> pending = new ArrayDeque<>(
+          SEGMENT_SPLITTER.splitToList(symlinks.get(link).getPathString()));
+      int expansions = 0;
+      while (!pending.isEmpty()) {
+        String segment = pending.removeFirst();
+        if (segment.equals(".")) {
+          continue;
+        }
+        if (segment.equals("..")) {
+          if (current.segmentCount() == 0) {
+            throw new DecompressorException("Failed to extract " + link
+                + ", symbolic links cannot point outside of the archive");
+          }
+          current = current.getParentDirectory();
+          continue;
+        }
+        current = current.getChild(segment);
+        PathFragment target = symlinks.get(current);
+        if (target != null) {
+          if (++expansions > MAX_SYMLINK_EXPANSIONS) {
+            throw new DecompressorException("Failed to extract " + link
+                + ", too many levels of symbolic links");
+          }
+          current = current.getParentDirectory();
+          for (String targetSegment
+              : Lists.reverse(SEGMENT_SPLITTER.splitToList(target.getPathString()))) {
+            pending.addFirst(targetSegment);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes extracted files on a pool of threads. Each file is written by one task, so that both
+   * inflating zip entries and writing to disk happen in parallel, which matters for repositories
+   * with many small files. An entry for a file that is still being written waits for the earlier
+   * write, so that the last entry wins.
+   */
+  private static final class ParallelWriter implements AutoCloseable {
+    // The most bytes of file content read from a sequential archive and not written yet.
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setNameFormat("decompressor-%d").setDaemon(true).build());
+    // The pending write to each file.
+    private final Map<Path, Future<Void>> futures = new LinkedHashMap<>();
+    private final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+
+    /** Writes the content of {@code in}, which is opened and closed by the task, to a file. */
+    void write(final Path outputPath, final Callable<InputStream> in)
+        throws IOException, InterruptedException {
+      awaitPendingWrite(outputPath);
+      futures.put(outputPath, executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          try (InputStream stream = in.call()) {
+            writeFile(stream, outputPath);
+          }
+          return null;
+        }
+      }));
+    }
+
+    /**
+     * Reads the next {@code size} bytes of {@code in} and writes them to a file in the background.
+     * Blocks while too many bytes are waiting to be written. Files larger than that are written
+     * synchronously.
+     */
+    void write(final Path outputPath, InputStream in, long size, final boolean executable)
+        throws IOException, InterruptedException {
+      awaitPendingWrite(outputPath);
+      if (size > MAX_BUFFERED_BYTES) {
+        writeFile(in, outputPath);
+        outputPath.setExecutable(executable);
+        return;
+      }
+      final int permits = (int) size;
+      bufferedBytes.acquire(permits);
+      final byte[] content;
+      try {
+        content = new byte[permits];
+        if (IOUtils.readFully(in, content) != permits) {
+          throw new IOException("Unexpected end of archive while reading " + outputPath);
+        }
+      } catch (IOException e) {
+        bufferedBytes.release(permits);
+        throw e;
+      }
+      futures.put(outputPath, executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          try {
+            FileSystemUtils.writeContent(outputPath, content);
+            outputPath.setExecutable(executable);
+          } finally {
+            bufferedBytes.release(permits);
+          }
+          return null;
+        }
+      }));
+    }
+
+    /** Waits for all files to be written and rethrows the first failure. */
+    void await() throws IOException, InterruptedException {
+      for (Future<Void> future : futures.values()) {
+        getResult(future);
+      }
+      futures.clear();
+    }
+
+    private void awaitPendingWrite(Path outputPath) throws IOException, InterruptedException {
+      Future<Void> future = futures.remove(outputPath);
+      if (future != null) {
+        getResult(future);
+      }
+    }
+
+    private static void getResult(Future<Void> future) throws IOException, InterruptedException {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    /**
+     * Stops the writing threads. If interrupted while waiting for them, restores the interrupt
+     * flag and throws an IOException, so that the writer can be used in try-with-resources.
+     */
+    @Override
+    public void close() throws IOException {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for extracted files to be written", e);
+      }
+    }
+
+    private static void writeFile(InputStream in, Path outputPath) throws IOException {
+      try (OutputStream out = new FileOutputStream(outputPath.getPathFile())) {
+        IOUtils.copy(in, out);
+      }
+    }
+  }
+
   private static class ZipDecompressor extends Decompressor {
     public ZipDecompressor(Path archiveFile) {
       super(archiveFile);
@@ -170,46 +440,99 @@ public abstract class DecompressorFactory {
      *      236  2014-11-20 15:52   foo/BUILD
      *      ...
      * </pre>
+     *
+     * <p>The entries are listed from the central directory, and then inflated in parallel.
      */
     @Override
     public Path decompress() throws DecompressorException {
       Path destinationDirectory = archiveFile.getParentDirectory();
-      try (InputStream is = new FileInputStream(archiveFile.getPathString())) {
-        ArchiveInputStream in = new ArchiveStreamFactory().createArchiveInputStream(
-            ArchiveStreamFactory.ZIP, is);
-        ZipArchiveEntry entry = (ZipArchiveEntry) in.getNextEntry();
-        while (entry != null) {
-          extractZipEntry(in, entry, destinationDirectory);
-          entry = (ZipArchiveEntry) in.getNextEntry();
+      try (final ZipFile zipFile = new ZipFile(archiveFile.getPathFile());
+          ParallelWriter writer = new ParallelWriter()) {
+        for (final ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+          Path outputPath = getOutputPath(destinationDirectory, entry.getName());
+          if (entry.isDirectory()) {
+            FileSystemUtils.createDirectoryAndParents(outputPath);
+            continue;
+          }
+          FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
+          writer.write(outputPath, new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws IOException {
+              return zipFile.getInputStream(entry);
+            }
+          });
         }
-      } catch (IOException | ArchiveException e) {
+        writer.await();
+      } catch (IOException e) {
         throw new DecompressorException(
             "Error extracting " + archiveFile + " to " + destinationDirectory + ": "
                 + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DecompressorException("Interrupted while extracting " + archiveFile);
       }
       return destinationDirectory;
     }
+  }
 
-    private void extractZipEntry(
-        ArchiveInputStream in, ZipArchiveEntry entry, Path destinationDirectory)
-        throws IOException, DecompressorException {
-      PathFragment relativePath = new PathFragment(entry.getName());
-      if (relativePath.isAbsolute()) {
-        throw new DecompressorException("Failed to extract " + relativePath
-            + ", zipped paths cannot be absolute");
-      }
-      Path outputPath = destinationDirectory.getRelative(relativePath);
-      FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
-      if (entry.isDirectory()) {
-        FileSystemUtils.createDirectoryAndParents(outputPath);
-      } else {
-        try (OutputStream out = new FileOutputStream(new File(outputPath.getPathString()))) {
-          IOUtils.copy(in, out);
-        } catch (IOException e) {
-          throw new DecompressorException("Error writing " + outputPath + " from "
-              + archiveFile);
+  /**
+   * Extracts a gzip-compressed tar file to a sibling directory of
+   * {@link Decompressor#archiveFile}. Like for zip files, the WORKSPACE file is expected at the top
+   * level.
+   *
+   * <p>Tar files can only be read sequentially, so this thread decompresses the archive while
+   * files are written in the background.
+   */
+  private static class TarDecompressor extends Decompressor {
+    public TarDecompressor(Path archiveFile) {
+      super(archiveFile);
+    }
+
+    @Override
+    public Path decompress() throws DecompressorException {
+      Path destinationDirectory = archiveFile.getParentDirectory();
+      SymlinkChecker symlinks = new SymlinkChecker();
+      // Hard links are created as copies once the files they refer to are written.
+      Map<Path, Path> hardLinks = new LinkedHashMap<>();
+      try (TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(
+              new BufferedInputStream(archiveFile.getInputStream()),
+              /*decompressConcatenated=*/true));
+          ParallelWriter writer = new ParallelWriter()) {
+        for (TarArchiveEntry entry = in.getNextTarEntry(); entry != null;
+            entry = in.getNextTarEntry()) {
+          PathFragment entryPath = getEntryPath(entry.getName());
+          symlinks.checkNotThroughSymlink(entryPath, entry.isSymbolicLink());
+          Path outputPath = destinationDirectory.getRelative(entryPath);
+          if (entry.isDirectory()) {
+            FileSystemUtils.createDirectoryAndParents(outputPath);
+            continue;
+          }
+          FileSystemUtils.createDirectoryAndParents(outputPath.getParentDirectory());
+          if (entry.isSymbolicLink()) {
+            PathFragment target = new PathFragment(entry.getLinkName());
+            symlinks.addSymlink(entryPath, target);
+          } else if (entry.isLink()) {
+            PathFragment linkedPath = getEntryPath(entry.getLinkName());
+            symlinks.checkNotThroughSymlink(linkedPath, /*entryMayBeSymlink=*/true);
+            hardLinks.put(outputPath, destinationDirectory.getRelative(linkedPath));
+          } else if (entry.isFile()) {
+            writer.write(outputPath, in, entry.getSize(), (entry.getMode() & 0100) != 0);
+          }
         }
+        writer.await();
+        symlinks.createSymlinks(destinationDirectory);
+        for (Map.Entry<Path, Path> link : hardLinks.entrySet()) {
+          FileSystemUtils.copyFile(link.getValue(), link.getKey());
+        }
+      } catch (IOException e) {
+        throw new DecompressorException(
+            "Error extracting " + archiveFile + " to " + destinationDirectory + ": "
+                + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DecompressorException("Interrupted while extracting " + archiveFile);
       }
+      return destinationDirectory;
     }
   }
 
@@ -86,7 +86,8 @@ public class HttpArchiveFunction extends RepositoryFunction {
               Transience.PERSISTENT);
     }
     String sha256 = mapper.get("sha256", Type.STRING);
-    HttpDownloader downloader = new HttpDownloader(url, sha256, outputDirectory);
+    HttpDownloader downloader = new HttpDownloader(
+        url, sha256, outputDirectory, getRepositoryCache());
     try {
       Path archiveFile = downloader.download();
       outputDirectory = DecompressorFactory.create(
@@ -42,6 +42,12 @@ import javax.annotation.Nullable;
 public class HttpDownloadFunction implements SkyFunction {
   public static final String NAME = "HTTP_DOWNLOAD";
 
+  private final RepositoryCache repositoryCache;
+
+  public HttpDownloadFunction(RepositoryCache repositoryCache) {
+    this.repositoryCache = repositoryCache;
+  }
+
   @Nullable
   @Override
   public SkyValue compute(SkyKey skyKey, Environment env) throws RepositoryFunctionException {
@@ -60,8 +66,8 @@ public class HttpDownloadFunction implements SkyFunction {
 
     Path archive;
     try {
-      archive = new HttpDownloader(descriptor.url, descriptor.sha256, descriptor.outputDirectory)
-          .download();
+      archive = new HttpDownloader(descriptor.url, descriptor.sha256, descriptor.outputDirectory,
+          repositoryCache).download();
     } catch (IOException e) {
       throw new RepositoryFunctionException(new IOException("Error downloading from "
           + descriptor.url + " to " + descriptor.outputDirectory + ": " + e.getMessage()),
@@ -20,28 +20,49 @@ import com.google.common.hash.Hashing;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Helper class for downloading a file from a URL.
+ *
+ * <p>The file is hashed while it is written, and first downloaded to a {@code .partial} file next
+ * to its destination. If a download is interrupted, the next one asks the server for the remaining
+ * bytes only. If a repository cache is given, verified files are also stored there and later copied
+ * from it instead of being downloaded again.
  */
 public class HttpDownloader {
-  private static final int BUFFER_SIZE = 2048;
+  private static final Logger LOG = Logger.getLogger(HttpDownloader.class.getName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
 
   private final URL url;
   private final String sha256;
   private final Path outputDirectory;
+  @Nullable private final RepositoryCache repositoryCache;
 
   HttpDownloader(URL url, String sha256, Path outputDirectory) {
+    this(url, sha256, outputDirectory, null);
+  }
+
+  HttpDownloader(URL url, String sha256, Path outputDirectory,
+      @Nullable RepositoryCache repositoryCache) {
     this.url = url;
     this.sha256 = sha256;
     this.outputDirectory = outputDirectory;
+    this.repositoryCache = repositoryCache;
   }
 
   /**
@@ -53,55 +74,96 @@ public class HttpDownloader {
       filename = "temp";
     }
     Path destination = outputDirectory.getRelative(filename);
+    if (repositoryCache != null && repositoryCache.copyTo(sha256, destination)) {
+      return destination;
+    }
 
-    try (OutputStream outputStream = destination.getOutputStream()) {
-      ReadableByteChannel rbc = getChannel(url);
-      ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-      while (rbc.read(byteBuffer) > 0) {
-        byteBuffer.flip();
-        while (byteBuffer.hasRemaining()) {
-          outputStream.write(byteBuffer.get());
-        }
-      }
+    Path partial = outputDirectory.getRelative(filename + ".partial");
+    String downloadedSha256;
+    try {
+      downloadedSha256 = downloadTo(partial);
     } catch (IOException e) {
       throw new IOException(
           "Error downloading " + url + " to " + destination + ": " + e.getMessage());
     }
+    if (!downloadedSha256.equals(sha256)) {
+      // The partial file cannot be resumed from.
+      partial.delete();
+      throw new IOException(
+          "Downloaded file at " + destination + " has SHA-256 of " + downloadedSha256
+              + ", does not match expected SHA-256 (" + sha256 + ")");
+    }
+    partial.renameTo(destination);
 
-    try {
-      String downloadedSha256 = getSha256(destination);
-      if (!downloadedSha256.equals(sha256)) {
-        throw new IOException(
-            "Downloaded file at " + destination + " has SHA-256 of " + downloadedSha256
-                + ", does not match expected SHA-256 (" + sha256 + ")");
+    if (repositoryCache != null) {
+      try {
+        repositoryCache.put(sha256, destination);
+      } catch (IOException e) {
+        // The download itself succeeded.
+        LOG.log(Level.WARNING, "Could not store " + destination + " in the repository cache", e);
       }
-    } catch (IOException e) {
-      throw new IOException(
-          "Could not hash file " + destination + ": " + e.getMessage() + ", expected SHA-256 of "
-              + sha256 + ")");
     }
     return destination;
   }
 
-  @VisibleForTesting
-  protected ReadableByteChannel getChannel(URL url) throws IOException {
-    return Channels.newChannel(url.openStream());
+  /**
+   * Downloads the file to {@code partial}, resuming from the bytes it already holds if the server
+   * supports it, and returns the SHA-256 of the complete file.
+   */
+  private String downloadTo(Path partial) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    long offset = partial.exists() ? partial.getFileSize() : 0;
+    URLConnection connection = openConnection(url);
+    boolean resumed = false;
+    if (offset > 0 && connection instanceof HttpURLConnection) {
+      HttpURLConnection httpConnection = (HttpURLConnection) connection;
+      httpConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+      int responseCode = httpConnection.getResponseCode();
+      String contentRange = httpConnection.getHeaderField("Content-Range");
+      resumed = responseCode == HttpURLConnection.HTTP_PARTIAL
+          && contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+      if (!resumed) {
+        // The partial file cannot be trusted, for example if the server answered 416 because it is
+        // already as long as the file, or longer. The whole file is downloaded again, which the
+        // server already started unless it refused the request.
+        partial.delete();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+          httpConnection.disconnect();
+          connection = openConnection(url);
+        }
+      }
+    }
+    if (resumed) {
+      hash(partial, hasher, buffer.array());
+    }
+
+    try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream());
+        FileChannel out = new FileOutputStream(partial.getPathFile(), resumed).getChannel()) {
+      while (in.read(buffer) >= 0) {
+        buffer.flip();
+        hasher.putBytes(buffer.array(), 0, buffer.limit());
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    return hasher.hash().toString();
   }
 
-  private String getSha256(Path path) throws IOException {
-    Hasher hasher = Hashing.sha256().newHasher();
+  @VisibleForTesting
+  protected URLConnection openConnection(URL url) throws IOException {
+    return url.openConnection();
+  }
 
-    byte byteBuffer[] = new byte[BUFFER_SIZE];
+  private static void hash(Path path, Hasher hasher, byte[] buffer) throws IOException {
     try (InputStream stream = path.getInputStream()) {
-      int numBytesRead = stream.read(byteBuffer);
+      int numBytesRead = stream.read(buffer);
       while (numBytesRead != -1) {
-        if (numBytesRead != 0) {
-          // If more than 0 bytes were read, add them to the hash.
-          hasher.putBytes(byteBuffer, 0, numBytesRead);
-        }
-        numBytesRead = stream.read(byteBuffer);
+        hasher.putBytes(buffer, 0, numBytesRead);
+        numBytesRead = stream.read(buffer);
       }
     }
-    return hasher.hash().toString();
   }
 }
@@ -0,0 +1,148 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * A directory of downloaded files named by their SHA-256, which several workspaces may share.
+ *
+ * <p>Entries are checked against their name each time they are used, since anything may have
+ * changed them on disk. Using an entry marks it as recently used, and the least recently used
+ * entries are deleted whenever the directory grows over its maximum size.
+ */
+public class RepositoryCache {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{64}");
+
+  @Nullable private volatile Path directory;
+  private volatile long maxSizeBytes;
+
+  /** Sets the directory of the cache, or disables the cache if it is null. */
+  public void configure(@Nullable Path directory, long maxSizeBytes) {
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Copies the file with the given SHA-256 to {@code destination} and returns true, or returns
+   * false if the cache has no such file. An entry whose content does not match its name is
+   * deleted.
+   */
+  public boolean copyTo(String sha256, Path destination) throws IOException {
+    Path entry = getEntry(sha256);
+    if (entry == null) {
+      return false;
+    }
+    Hasher hasher = Hashing.sha256().newHasher();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = entry.getInputStream();
+        OutputStream out = destination.getOutputStream()) {
+      int numBytesRead;
+      while ((numBytesRead = in.read(buffer)) != -1) {
+        hasher.putBytes(buffer, 0, numBytesRead);
+        out.write(buffer, 0, numBytesRead);
+      }
+    } catch (FileNotFoundException e) {
+      // There is no such entry, or another server just evicted it.
+      return false;
+    }
+    if (!hasher.hash().toString().equals(sha256)) {
+      entry.delete();
+      destination.delete();
+      return false;
+    }
+    entry.setLastModifiedTime(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Stores a copy of {@code file}, whose SHA-256 has been verified, then deletes the least
+   * recently used entries if the cache is over its maximum size.
+   */
+  public void put(String sha256, Path file) throws IOException {
+    Path entry = getEntry(sha256);
+    if (entry == null) {
+      return;
+    }
+    Path cacheDirectory = entry.getParentDirectory();
+    FileSystemUtils.createDirectoryAndParents(cacheDirectory);
+    // Other servers may share the cache, so the file only appears under its final name once it is
+    // complete.
+    Path tmp = cacheDirectory.getRelative(sha256 + "." + UUID.randomUUID() + ".tmp");
+    FileSystemUtils.copyFile(file, tmp);
+    tmp.renameTo(entry);
+    evict(cacheDirectory);
+  }
+
+  @Nullable
+  private Path getEntry(String sha256) {
+    Path cacheDirectory = directory;
+    if (cacheDirectory == null || !ENTRY_NAME.matcher(sha256).matches()) {
+      return null;
+    }
+    return cacheDirectory.getRelative(sha256);
+  }
+
+  private void evict(Path cacheDirectory) throws IOException {
+    final Map<Path, Long> lastUsed = new HashMap<>();
+    Map<Path, Long> sizes = new HashMap<>();
+    List<Path> entries = new ArrayList<>();
+    long size = 0;
+    for (Path entry : cacheDirectory.getDirectoryEntries()) {
+      // Skips the temporary files of concurrent writers.
+      if (!ENTRY_NAME.matcher(entry.getBaseName()).matches()) {
+        continue;
+      }
+      try {
+        lastUsed.put(entry, entry.getLastModifiedTime());
+        sizes.put(entry, entry.getFileSize());
+      } catch (FileNotFoundException e) {
+        // Evicted by another server.
+        continue;
+      }
+      size += sizes.get(entry);
+      entries.add(entry);
+    }
+    Collections.sort(entries, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return Long.compare(lastUsed.get(a), lastUsed.get(b));
+      }
+    });
+    for (int i = 0; size > maxSizeBytes && i < entries.size(); i++) {
+      entries.get(i).delete();
+      size -= sizes.get(entries.get(i));
+    }
+  }
+}
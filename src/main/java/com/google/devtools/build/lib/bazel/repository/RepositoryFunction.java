@@ -50,6 +50,7 @@ import javax.annotation.Nullable;
 public abstract class RepositoryFunction implements SkyFunction {
   private static final String EXTERNAL_REPOSITORY_DIRECTORY = ".external-repository";
   private BlazeDirectories directories;
+  private RepositoryCache repositoryCache;
 
   @Override
   public String extractTag(SkyKey skyKey) {
@@ -76,6 +77,17 @@ public abstract class RepositoryFunction implements SkyFunction {
     return directories.getOutputBase().getRelative(EXTERNAL_REPOSITORY_DIRECTORY);
   }
 
+  /**
+   * Sets the cache of downloaded files, which is only used if a directory is configured for it.
+   */
+  public void setRepositoryCache(RepositoryCache repositoryCache) {
+    this.repositoryCache = repositoryCache;
+  }
+
+  protected RepositoryCache getRepositoryCache() {
+    return repositoryCache;
+  }
+
   /**
    * Gets the base directory repositories should be stored in locally.
    */
@@ -0,0 +1,42 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options related to fetching external repositories.
+ */
+public class RepositoryOptions extends OptionsBase {
+
+  @Option(name = "experimental_repository_cache",
+      defaultValue = "null",
+      category = "undocumented",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, files downloaded for external repositories are stored in this directory by "
+          + "their SHA-256, and later fetches of the same file are copied from it. The directory "
+          + "may be shared by several workspaces. A relative path is resolved against the "
+          + "workspace.")
+  public PathFragment experimentalRepositoryCache;
+
+  @Option(name = "experimental_repository_cache_max_size_mb",
+      defaultValue = "2048",
+      category = "undocumented",
+      help = "The size in megabytes above which the least recently used files are deleted from "
+          + "the repository cache.")
+  public int experimentalRepositoryCacheMaxSizeMb;
+}
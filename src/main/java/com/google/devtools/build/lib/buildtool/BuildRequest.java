@@ -262,6 +262,30 @@ public class BuildRequest implements OptionsClassProvider {
             help = "Check for modifications made to the output files of a build. Consider setting "
                 + "this flag to false to see the effect on incremental build times.")
     public boolean checkOutputFiles;
+
+    @Option(name = "experimental_mapped_action_cache",
+            defaultValue = "false",
+            category = "undocumented",
+            help = "If true, the action cache is kept in a memory-mapped, append-only log that is "
+                + "saved incrementally, instead of being loaded into memory and rewritten on "
+                + "every build. Switching this flag starts from an empty action cache.")
+    public boolean useMappedActionCache;
+
+    @Option(name = "experimental_local_output_cache",
+            defaultValue = "",
+            category = "undocumented",
+            help = "If set, the outputs of actions are stored in a content-addressed cache in this "
+                + "directory, keyed by the action and the contents of its inputs, and restored "
+                + "from it instead of executing actions whose outputs it holds. The cache is "
+                + "shared across workspaces and survives 'blaze clean'.")
+    public String localOutputCache;
+
+    @Option(name = "experimental_local_output_cache_size_mb",
+            defaultValue = "10240",
+            category = "undocumented",
+            help = "The size above which the least recently used files are deleted from the "
+                + "--experimental_local_output_cache.")
+    public int localOutputCacheSizeMb;
   }
 
   /**
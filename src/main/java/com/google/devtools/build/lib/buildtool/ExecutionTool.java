@@ -46,6 +46,8 @@ import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.actions.cache.LocalOutputCache;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -341,8 +343,10 @@ public class ExecutionTool {
       startLocalOutputBuild(); // TODO(bazel-team): this could be just another OutputService
     }
 
-    ActionCache actionCache = getActionCache();
-    Builder builder = createBuilder(request, executor, actionCache, skyframeExecutor);
+    ActionCache actionCache = getActionCache(request);
+    LocalOutputCache outputCache = getLocalOutputCache(request);
+    Builder builder =
+        createBuilder(request, executor, actionCache, outputCache, skyframeExecutor);
 
     //
     // Execution proper.  All statements below are logically nested in
@@ -390,6 +394,7 @@ public class ExecutionTool {
       }
 
       configureResourceManager(request);
+      configureDigestConcurrency(request);
 
       Profiler.instance().markPhase(ProfilePhase.EXECUTE);
 
@@ -419,6 +424,11 @@ public class ExecutionTool {
 
       // Disable system load polling (noop if it was not enabled).
       ResourceManager.instance().setAutoSensing(false);
+      LOG.info("Digests of large files: " + DigestUtils.getLargeFileStatistics()
+          + "; small files: " + DigestUtils.getSmallFileStatistics());
+      if (outputCache != null) {
+        outputCache.logStatistics();
+      }
       executor.executionPhaseEnding();
       for (ActionContextProvider actionContextProvider : actionContextProviders) {
         actionContextProvider.executionPhaseEnding();
@@ -713,9 +723,9 @@ public class ExecutionTool {
     }
   }
 
-  private ActionCache getActionCache() throws LocalEnvironmentException {
+  private ActionCache getActionCache(BuildRequest request) throws LocalEnvironmentException {
     try {
-      return runtime.getPersistentActionCache();
+      return runtime.getPersistentActionCache(request.getBuildOptions().useMappedActionCache);
     } catch (IOException e) {
       // TODO(bazel-team): (2010) Ideally we should just remove all cache data and reinitialize
       // caches.
@@ -726,9 +736,26 @@ public class ExecutionTool {
     }
   }
 
+  @Nullable
+  private LocalOutputCache getLocalOutputCache(BuildRequest request)
+      throws LocalEnvironmentException {
+    BuildRequest.BuildRequestOptions options = request.getBuildOptions();
+    if (options.localOutputCache.isEmpty()) {
+      return null;
+    }
+    Path root = getWorkspace().getRelative(options.localOutputCache);
+    try {
+      return runtime.getLocalOutputCache(root, options.localOutputCacheSizeMb * 1024L * 1024L);
+    } catch (IOException e) {
+      throw new LocalEnvironmentException("couldn't open local output cache in " + root + ": "
+          + e.getMessage());
+    }
+  }
+
   private Builder createBuilder(BuildRequest request,
       Executor executor,
       ActionCache actionCache,
+      @Nullable LocalOutputCache outputCache,
       SkyframeExecutor skyframeExecutor) {
     BuildRequest.BuildRequestOptions options = request.getBuildOptions();
     boolean verboseExplanations = options.verboseExplanations;
@@ -747,8 +774,8 @@ public class ExecutionTool {
     fileCache = createBuildSingleFileCache(executor.getExecRoot());
     skyframeExecutor.setActionOutputRoot(actionOutputRoot);
     return new SkyframeBuilder(skyframeExecutor,
-        new ActionCacheChecker(actionCache, getView().getArtifactFactory(), executionFilter,
-            verboseExplanations),
+        new ActionCacheChecker(actionCache, outputCache, getView().getArtifactFactory(),
+            executionFilter, verboseExplanations),
         keepGoing, actualJobs, options.checkOutputFiles, fileCache,
         request.getBuildOptions().progressReportInterval);
   }
@@ -779,6 +806,15 @@ public class ExecutionTool {
     ));
   }
 
+  private void configureDigestConcurrency(BuildRequest request) {
+    ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    int concurrency = options.digestConcurrency > 0
+        ? options.digestConcurrency
+        : Runtime.getRuntime().availableProcessors();
+    DigestUtils.configureConcurrency(concurrency,
+        Math.max(1, options.digestIoBudgetMb) * 1024L * 1024L);
+  }
+
   /**
    * Writes the cache files to disk, reporting any errors that occurred during
    * writing.
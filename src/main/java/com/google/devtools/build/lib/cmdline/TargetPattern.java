@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.cmdline.LabelValidator.BadLabelException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -39,6 +40,9 @@ import javax.annotation.concurrent.Immutable;
  * <p>In order to resolve target patterns, you need an implementation of {@link
  * TargetPatternResolver}. This class is thread-safe if the corresponding instance is thread-safe.
  *
+ * <p>Patterns are equal if they parse to the same kind of pattern over the same package or target,
+ * even if they are spelled differently, such as "//foo/..." and "//foo/...:all".
+ *
  * <p>See lib/blaze/commands/target-syntax.txt for details.
  */
 public abstract class TargetPattern {
@@ -133,6 +137,16 @@ public abstract class TargetPattern {
         throws TargetParsingException, InterruptedException {
       return resolver.getExplicitTarget(targetName);
     }
+
+    @Override
+    public int hashCode() {
+      return targetName.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof SingleTarget && ((SingleTarget) o).targetName.equals(targetName);
+    }
   }
 
   private static final class InterpretPathAsTarget extends TargetPattern {
@@ -167,6 +181,16 @@ public abstract class TargetPattern {
       throw new TargetParsingException(
           "couldn't determine target from filename '" + path + "'");
     }
+
+    @Override
+    public int hashCode() {
+      return path.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof InterpretPathAsTarget && ((InterpretPathAsTarget) o).path.equals(path);
+    }
   }
 
   private static final class TargetsInPackage extends TargetPattern {
@@ -202,6 +226,22 @@ public abstract class TargetPattern {
           rulesOnly);
     }
 
+    @Override
+    public int hashCode() {
+      return Objects.hash(pattern, suffix, isAbsolute, rulesOnly, checkWildcardConflict);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TargetsInPackage)) {
+        return false;
+      }
+      TargetsInPackage other = (TargetsInPackage) o;
+      return pattern.equals(other.pattern) && suffix.equals(other.suffix)
+          && isAbsolute == other.isAbsolute && rulesOnly == other.rulesOnly
+          && checkWildcardConflict == other.checkWildcardConflict;
+    }
+
     /**
      * There's a potential ambiguity if '//foo/bar:all' refers to an actual target. In this case, we
      * use the the target but print a warning.
@@ -254,6 +294,21 @@ public abstract class TargetPattern {
         throws TargetParsingException, InterruptedException {
       return resolver.findTargetsBeneathDirectory(originalPattern, pathPrefix, rulesOnly);
     }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(pathPrefix, rulesOnly);
+    }
+
+    /** Ignores the original pattern, so that for example "//foo/..." equals "//foo/...:all". */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TargetsBelowPackage)) {
+        return false;
+      }
+      TargetsBelowPackage other = (TargetsBelowPackage) o;
+      return pathPrefix.equals(other.pathPrefix) && rulesOnly == other.rulesOnly;
+    }
   }
 
   @Immutable
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 /**
  * A nested set expander that implements a variation of left-to-right preordering.
@@ -75,10 +76,13 @@ import com.google.common.collect.ImmutableList;
 final class LinkOrderExpander<E> implements NestedSetExpander<E> {
   @Override
   public void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
+      Receiver<? super E> receiver) {
+    // The reversal needs the whole result, so this order cannot be streamed.
     ImmutableList.Builder<E> result = ImmutableList.builder();
     internalEnumerate(nestedSet, uniqueifier, result);
-    builder.addAll(result.build().reverse());
+    for (E e : result.build().reverse()) {
+      receiver.accept(e);
+    }
   }
 
   // We suppress unchecked warning so that we can access the internal raw structure of the
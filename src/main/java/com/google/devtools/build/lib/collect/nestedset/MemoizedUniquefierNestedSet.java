@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.collect.nestedset;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 import java.util.List;
 import java.util.Set;
@@ -31,18 +32,43 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
 
   @Override
   public List<E> toList() {
+    ImmutableList<E> cached = NestedSetFlatteningCache.get(this);
+    if (cached != null) {
+      return cached;
+    }
     ImmutableList.Builder<E> builder = new ImmutableList.Builder<>();
     memoizedFill(builder);
-    return builder.build();
+    ImmutableList<E> result = builder.build();
+    NestedSetFlatteningCache.put(this, result);
+    return result;
   }
 
   @Override
   public Set<E> toSet() {
+    // With the cache enabled, the set is built from the cached list, which is flattened and cached
+    // first if it is not already there.
+    if (NestedSetFlatteningCache.isEnabled()) {
+      return ImmutableSet.copyOf(toList());
+    }
     ImmutableSet.Builder<E> builder = new ImmutableSet.Builder<>();
     memoizedFill(builder);
     return builder.build();
   }
 
+  @Override
+  public void forEachElement(Receiver<? super E> receiver) {
+    // Only reads the cache: flattening the set into a list just to fill the cache would allocate
+    // what this method is meant to avoid.
+    ImmutableList<E> cached = NestedSetFlatteningCache.get(this);
+    if (cached != null) {
+      for (E e : cached) {
+        receiver.accept(e);
+      }
+    } else {
+      memoizedFill(receiver);
+    }
+  }
+
   /**
    * It does not make sense to have a {@code MemoizedUniquefierNestedSet} if it is empty.
    */
@@ -56,19 +82,32 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
   /**
    * Fill a collection builder by using a memoized {@code Uniqueifier} for faster uniqueness check.
    */
-  final void memoizedFill(ImmutableCollection.Builder<E> builder) {
+  final void memoizedFill(final ImmutableCollection.Builder<E> builder) {
+    memoizedFill(new Receiver<E>() {
+      @Override
+      public void accept(E arg) {
+        builder.add(arg);
+      }
+    });
+  }
+
+  /**
+   * Passes the unique elements to the receiver by using a memoized {@code Uniqueifier} for faster
+   * uniqueness check.
+   */
+  final void memoizedFill(Receiver<? super E> receiver) {
     Uniqueifier memoed;
     synchronized (this) {
       Object memo = getMemo();
       if (memo == null) {
         RecordingUniqueifier uniqueifier = new RecordingUniqueifier();
-        getOrder().<E>expander().expandInto(this, uniqueifier, builder);
+        getOrder().<E>expander().expandInto(this, uniqueifier, receiver);
         setMemo(uniqueifier.getMemo());
         return;
       } else {
         memoed = RecordingUniqueifier.createReplayUniqueifier(memo);
       }
     }
-    getOrder().<E>expander().expandInto(this, memoed, builder);
+    getOrder().<E>expander().expandInto(this, memoed, receiver);
   }
 }
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 import java.io.Serializable;
 import java.util.Collection;
@@ -91,6 +92,20 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    */
   public abstract Set<E> toSet();
 
+  /**
+   * Passes all unique elements of this set (including subsets) to {@code receiver}, in the same
+   * order as {@link #toList}.
+   *
+   * <p>Prefer this to {@link #toCollection} when the elements are only consumed once, since it does
+   * not need to materialize the flattened set. If the {@link NestedSetFlatteningCache} holds this
+   * set, the elements are read from the cache instead; they are never added to it.
+   */
+  public void forEachElement(Receiver<? super E> receiver) {
+    for (E e : toCollection()) {
+      receiver.accept(e);
+    }
+  }
+
   /**
    * Returns true if this set is equal to {@code other} based on the top-level
    * elements and object identity (==) of direct subsets.  As such, this function
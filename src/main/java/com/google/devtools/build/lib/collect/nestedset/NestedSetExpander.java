@@ -13,7 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 /**
  * An expander that converts a nested set into a flattened collection.
@@ -23,8 +23,7 @@ import com.google.common.collect.ImmutableCollection;
  */
 interface NestedSetExpander<E> {
   /**
-   * Flattens the NestedSet into the builder.
+   * Flattens the NestedSet, passing each of its unique elements to the receiver in order.
    */
-  void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder);
+  void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier, Receiver<? super E> receiver);
 }
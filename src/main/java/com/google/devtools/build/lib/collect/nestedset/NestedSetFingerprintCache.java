@@ -0,0 +1,92 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Memoizes digests of nested sets, so that an action key can include a large transitive set that
+ * is shared by many actions (a set of headers, of include directories) without iterating over all
+ * of its members every time.
+ *
+ * <p>The digest of a set is computed from its order, its direct members and the digests of its
+ * transitive sets, so a set shared by many actions is only hashed once. It is therefore a digest of
+ * the structure of the set rather than of its flattened contents: sets with the same elements may
+ * have different digests, but sets with the same digest have the same elements, which is all that
+ * action keys need.
+ *
+ * <p>Like {@link NestedSetFlatteningCache}, sets are keyed by identity and held weakly. Only the
+ * digests of sets with transitive members are memoized, since computing the other ones is cheap.
+ */
+@ThreadSafe
+public final class NestedSetFingerprintCache<E> {
+
+  private final Function<? super E, String> memberToString;
+  private final Map<Fingerprint.Algorithm, Cache<NestedSet<?>, byte[]>> digests =
+      new EnumMap<>(Fingerprint.Algorithm.class);
+
+  /**
+   * Creates a cache for sets whose members are identified by the given function.
+   */
+  public NestedSetFingerprintCache(Function<? super E, String> memberToString) {
+    this.memberToString = memberToString;
+    for (Fingerprint.Algorithm algorithm : Fingerprint.Algorithm.values()) {
+      digests.put(algorithm, CacheBuilder.newBuilder().weakKeys().<NestedSet<?>, byte[]>build());
+    }
+  }
+
+  /**
+   * Adds the digest of {@code set} to the fingerprint, computing it with the algorithm of the
+   * fingerprint.
+   */
+  public void addNestedSetToFingerprint(Fingerprint fingerprint, NestedSet<? extends E> set) {
+    fingerprint.addBytes(digest(set, fingerprint.getAlgorithm()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private byte[] digest(NestedSet<? extends E> set, Fingerprint.Algorithm algorithm) {
+    NestedSet<? extends E>[] transitiveSets = set.transitiveSets();
+    Cache<NestedSet<?>, byte[]> cache = digests.get(algorithm);
+    if (transitiveSets.length > 0) {
+      byte[] digest = cache.getIfPresent(set);
+      if (digest != null) {
+        return digest;
+      }
+    }
+
+    Fingerprint fingerprint = new Fingerprint(algorithm);
+    fingerprint.addString(set.getOrder().name());
+    Object[] directMembers = set.directMembers();
+    fingerprint.addInt(directMembers.length);
+    for (Object member : directMembers) {
+      fingerprint.addString(memberToString.apply((E) member));
+    }
+    fingerprint.addInt(transitiveSets.length);
+    for (NestedSet<? extends E> transitiveSet : transitiveSets) {
+      fingerprint.addBytes(digest(transitiveSet, algorithm));
+    }
+    byte[] digest = fingerprint.digestAndReset();
+    if (transitiveSets.length > 0) {
+      cache.put(set, digest);
+    }
+    return digest;
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import javax.annotation.Nullable;
+
+/**
+ * An opt-in cache of the flattened contents of nested sets, so that a large transitive set that is
+ * flattened by many actions (a classpath, a set of headers) is only expanded once.
+ *
+ * <p>Sets are keyed by identity and held weakly, so caching never keeps a set alive. The flattened
+ * lists are held softly and are dropped under memory pressure; a dropped list is simply recomputed.
+ * Only sets with transitive members are cached, since flattening the other ones is cheap.
+ */
+@ThreadSafe
+public final class NestedSetFlatteningCache {
+
+  @Nullable private static volatile Cache<NestedSet<?>, ImmutableList<?>> cache = null;
+
+  private NestedSetFlatteningCache() {}
+
+  /**
+   * Enables or disables the cache. Disabling it drops all the cached lists.
+   */
+  public static synchronized void setEnabled(boolean enabled) {
+    if (!enabled) {
+      cache = null;
+    } else if (cache == null) {
+      cache = CacheBuilder.newBuilder().weakKeys().softValues().build();
+    }
+  }
+
+  public static boolean isEnabled() {
+    return cache != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  static <E> ImmutableList<E> get(NestedSet<E> set) {
+    Cache<NestedSet<?>, ImmutableList<?>> current = cache;
+    return current == null ? null : (ImmutableList<E>) current.getIfPresent(set);
+  }
+
+  static <E> void put(NestedSet<E> set, ImmutableList<E> flattened) {
+    Cache<NestedSet<?>, ImmutableList<?>> current = cache;
+    if (current != null) {
+      current.put(set, flattened);
+    }
+  }
+}
@@ -15,9 +15,11 @@ package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.collect.CompactHashSet;
 
 import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 /**
@@ -68,7 +70,10 @@ class RecordingUniqueifier implements Uniqueifier {
     SHARED_SMALL_MEMOS_2 = memos2;
   }
 
-  private final Set<Object> witnessed = new HashSet<>(256);
+  // Nested sets only have identity equality, so they are tracked separately without hashing them.
+  private final Set<Object> witnessedSets =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+  private final Set<Object> witnessed = CompactHashSet.createWithExpectedSize(256);
   private final BitSet memo = new BitSet();
   private int idx = 0;
 
@@ -85,7 +90,7 @@ class RecordingUniqueifier implements Uniqueifier {
 
   @Override
   public boolean isUnique(Object o) {
-    boolean firstInstance = witnessed.add(o);
+    boolean firstInstance = o instanceof NestedSet ? witnessedSets.add(o) : witnessed.add(o);
     memo.set(idx++, firstInstance);
     return firstInstance;
   }
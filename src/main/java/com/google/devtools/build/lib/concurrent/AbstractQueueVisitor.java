@@ -29,6 +29,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 /**
  * AbstractQueueVisitor is a wrapper around {@link ThreadPoolExecutor} which
  * delays thread pool shutdown until entire visitation is complete.
@@ -261,10 +263,26 @@ public class AbstractQueueVisitor {
     this(true, corePoolSize, maxPoolSize, keepAlive, units, poolName);
   }
 
+  /**
+   * Returns the work queue of the thread pool created by this visitor. Called from the
+   * constructor, so implementations must not depend on the state of subclasses.
+   *
+   * <p>The runnables put on the queue implement {@link PrioritizedRunnable}, with the priority of
+   * the runnable passed to {@link #enqueue} if it has one, so a {@link PriorityWorkQueue} can be
+   * used to run the most urgent tasks first.
+   */
   protected BlockingQueue<Runnable> getWorkQueue() {
     return new LinkedBlockingQueue<>();
   }
 
+  /**
+   * Returns the work queue of the thread pool, or null if this visitor is not concurrent.
+   */
+  @Nullable
+  protected final BlockingQueue<Runnable> getPoolQueue() {
+    return pool == null ? null : pool.getQueue();
+  }
+
   /**
    * Executes all tasks on the queue, and optionally shuts the pool down and deletes it.
    *
@@ -327,7 +345,15 @@ public class AbstractQueueVisitor {
     synchronized (zeroRemainingTasks) {
       remainingTasks++;
     }
-    return new Runnable() {
+    final int priority = runnable instanceof PrioritizedRunnable
+        ? ((PrioritizedRunnable) runnable).getPriority()
+        : 0;
+    return new PrioritizedRunnable() {
+      @Override
+      public int getPriority() {
+        return priority;
+      }
+
       @Override
       public void run() {
         Thread thread = null;
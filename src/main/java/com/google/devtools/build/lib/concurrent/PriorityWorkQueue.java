@@ -0,0 +1,217 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An unbounded work queue for a {@link java.util.concurrent.ThreadPoolExecutor} that hands out
+ * {@link PrioritizedRunnable}s with the highest priority first, and other tasks as if they had
+ * priority 0. Tasks of equal priority are handed out in FIFO order.
+ *
+ * <p>The queue also records how long tasks waited in it before a worker thread took them.
+ */
+@ThreadSafe
+public final class PriorityWorkQueue extends AbstractQueue<Runnable>
+    implements BlockingQueue<Runnable> {
+
+  /** A queued task, with the data needed to order it and measure its wait. */
+  private static final class Entry implements Comparable<Entry> {
+    private final Runnable runnable;
+    private final int priority;
+    private final long sequenceNumber;
+    private final long enqueueNanos;
+
+    private Entry(Runnable runnable, int priority, long sequenceNumber, long enqueueNanos) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+      this.enqueueNanos = enqueueNanos;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+
+  private final PriorityBlockingQueue<Entry> queue = new PriorityBlockingQueue<>();
+  private final AtomicLong sequenceNumbers = new AtomicLong();
+
+  private final AtomicLong tasks = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private static int priorityOf(Runnable runnable) {
+    return runnable instanceof PrioritizedRunnable
+        ? ((PrioritizedRunnable) runnable).getPriority()
+        : 0;
+  }
+
+  /** Unwraps an entry taken off the queue and records how long it waited. */
+  private Runnable dequeued(Entry entry) {
+    if (entry == null) {
+      return null;
+    }
+    long waited = System.nanoTime() - entry.enqueueNanos;
+    tasks.incrementAndGet();
+    totalWaitNanos.addAndGet(waited);
+    long max;
+    do {
+      max = maxWaitNanos.get();
+    } while (waited > max && !maxWaitNanos.compareAndSet(max, waited));
+    return entry.runnable;
+  }
+
+  @Override
+  public boolean offer(Runnable runnable) {
+    Preconditions.checkNotNull(runnable);
+    return queue.offer(new Entry(runnable, priorityOf(runnable),
+        sequenceNumbers.getAndIncrement(), System.nanoTime()));
+  }
+
+  @Override
+  public void put(Runnable runnable) {
+    offer(runnable);
+  }
+
+  @Override
+  public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+    return offer(runnable);
+  }
+
+  @Override
+  public Runnable poll() {
+    return dequeued(queue.poll());
+  }
+
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return dequeued(queue.poll(timeout, unit));
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    return dequeued(queue.take());
+  }
+
+  @Override
+  public Runnable peek() {
+    Entry entry = queue.peek();
+    return entry == null ? null : entry.runnable;
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    Preconditions.checkArgument(c != this);
+    int drained = 0;
+    Runnable runnable;
+    while (drained < maxElements && (runnable = poll()) != null) {
+      c.add(runnable);
+      drained++;
+    }
+    return drained;
+  }
+
+  /**
+   * Returns an iterator over the tasks in the queue, in no particular order. Like the iterator of
+   * {@link PriorityBlockingQueue}, it iterates over a snapshot of the queue.
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    final Iterator<Entry> entries = queue.iterator();
+    return new Iterator<Runnable>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public Runnable next() {
+        return entries.next().runnable;
+      }
+
+      @Override
+      public void remove() {
+        entries.remove();
+      }
+    };
+  }
+
+  /** Returns the number of tasks taken off this queue so far, and how long they waited. */
+  public Statistics getStatistics() {
+    return new Statistics(tasks.get(), totalWaitNanos.get(), maxWaitNanos.get());
+  }
+
+  /** Counters of the time tasks spent waiting in a {@link PriorityWorkQueue}. */
+  public static final class Statistics {
+    private final long tasks;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    private Statistics(long tasks, long totalWaitNanos, long maxWaitNanos) {
+      this.tasks = tasks;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /** Number of tasks taken off the queue. */
+    public long getTasks() {
+      return tasks;
+    }
+
+    /** Total time tasks spent in the queue, in nanoseconds. */
+    public long getTotalWaitNanos() {
+      return totalWaitNanos;
+    }
+
+    /** Longest time a single task spent in the queue, in nanoseconds. */
+    public long getMaxWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d tasks, %d ms total wait, %d ms max wait", tasks,
+          totalWaitNanos / 1000000, maxWaitNanos / 1000000);
+    }
+  }
+}
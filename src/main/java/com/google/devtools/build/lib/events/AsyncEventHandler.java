@@ -0,0 +1,195 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.events;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * An event handler that passes events to another handler on a thread of its own, so that the
+ * threads reporting events never wait for a slow terminal.
+ *
+ * <p>Events are put on a lock-free queue and handled in the order they were reported, in batches
+ * of all the events queued at the time. If the delegate writes to streams whose flushes are
+ * deferred, such as {@link com.google.devtools.build.lib.util.io.DeferredFlushOutputStream}s, the
+ * handler can flush their underlying streams once per batch rather than once per event. The queue
+ * is bounded for progress events only: once it
+ * holds {@code capacity} events, further {@link EventKind#PROGRESS}, {@link EventKind#START} and
+ * {@link EventKind#FINISH} events are dropped, while all other events are still queued.
+ *
+ * <p>{@link #close} must be called once no more events are expected. It waits for the queued
+ * events to be handled; events reported afterwards are handled on the reporting thread.
+ */
+@ThreadSafe
+public final class AsyncEventHandler implements EventHandler {
+  private static final Logger LOG = Logger.getLogger(AsyncEventHandler.class.getName());
+
+  private final EventHandler delegate;
+  @Nullable private final Flushable output;
+  private final int capacity;
+  private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicLong handled = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread consumer;
+  private volatile boolean closed;
+
+  /**
+   * Creates a handler passing events to {@code delegate}, which is only ever called from one thread
+   * at a time.
+   *
+   * @param capacity the number of queued events above which progress events are dropped
+   */
+  public AsyncEventHandler(EventHandler delegate, int capacity) {
+    this(delegate, capacity, null);
+  }
+
+  /**
+   * Creates a handler passing events to {@code delegate}, which is only ever called from one thread
+   * at a time, and flushing {@code output} after each batch of events.
+   *
+   * @param capacity the number of queued events above which progress events are dropped
+   * @param output where the delegate writes the events, or null if it flushes them itself
+   */
+  public AsyncEventHandler(EventHandler delegate, int capacity, @Nullable Flushable output) {
+    Preconditions.checkArgument(capacity > 0);
+    this.delegate = delegate;
+    this.output = output;
+    this.capacity = capacity;
+    this.consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        consume();
+      }
+    }, "async-event-handler");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  private static boolean isDroppable(Event event) {
+    switch (event.getKind()) {
+      case PROGRESS:
+      case START:
+      case FINISH:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public void handle(Event event) {
+    if (!closed && isDroppable(event) && depth.get() >= capacity) {
+      dropped.incrementAndGet();
+      return;
+    }
+    queue.offer(event);
+    int newDepth = depth.incrementAndGet();
+    for (int max = maxDepth.get(); newDepth > max; max = maxDepth.get()) {
+      if (maxDepth.compareAndSet(max, newDepth)) {
+        break;
+      }
+    }
+    if (closed) {
+      // The consumer may have drained the queue for the last time before the event was added.
+      drain();
+    } else if (newDepth == 1) {
+      // The consumer may have found the queue empty.
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private void consume() {
+    while (true) {
+      boolean wasClosed = closed;
+      int batch = drain();
+      if (wasClosed) {
+        return;
+      }
+      if (batch == 0) {
+        // Spurious wake-ups and unparks from the previous batch are harmless.
+        LockSupport.parkNanos(this, 100 * 1000 * 1000);
+      }
+    }
+  }
+
+  /**
+   * Handles all queued events, then flushes the output if there were any, and returns their
+   * number.
+   */
+  private int drain() {
+    int batch = 0;
+    synchronized (delegate) {
+      for (Event event = queue.poll(); event != null; event = queue.poll()) {
+        batch++;
+        try {
+          delegate.handle(event);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Failed to handle event " + event, e);
+        }
+      }
+      if (batch > 0 && output != null) {
+        try {
+          output.flush();
+        } catch (IOException e) {
+          // As when the delegate writes to a client that has gone away.
+          LOG.log(Level.FINE, "Failed to flush events", e);
+        }
+      }
+    }
+    depth.addAndGet(-batch);
+    handled.addAndGet(batch);
+    return batch;
+  }
+
+  /**
+   * Waits until all queued events were handled, and handles further events on the reporting
+   * thread.
+   */
+  public void close() throws InterruptedException {
+    closed = true;
+    LockSupport.unpark(consumer);
+    consumer.join();
+    LOG.info(String.format("Async event handler: %d events handled, %d progress events dropped, "
+        + "max queue depth %d", handled.get(), dropped.get(), maxDepth.get()));
+  }
+
+  /** Returns the largest number of events that were queued at once. */
+  public int getMaxQueueDepth() {
+    return maxDepth.get();
+  }
+
+  /** Returns the number of progress events that were dropped because the queue was full. */
+  public long getDroppedEventCount() {
+    return dropped.get();
+  }
+
+  @VisibleForTesting
+  int getQueueDepth() {
+    return depth.get();
+  }
+}
@@ -202,6 +202,38 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "experimental_test_timing_history",
+      defaultValue = "false",
+      category = "testing",
+      help = "If true, Blaze keeps track of how long each test shard takes, starts the tests "
+          + "expected to take longest first when they wait for local resources, and suggests "
+          + "shard counts for tests whose shards are too slow or too fast.")
+  public boolean testTimingHistory;
+
+  @Option(name = "experimental_digest_concurrency",
+      defaultValue = "0",
+      category = "strategy",
+      help = "The max number of files larger than 4KB whose digests Blaze computes concurrently "
+          + "by reading their contents, for example when checking action outputs. "
+          + "0 means one per available core.")
+  public int digestConcurrency;
+
+  @Option(name = "experimental_digest_io_budget_mb",
+      defaultValue = "64",
+      category = "strategy",
+      help = "The max total size, in MB, of files larger than 4KB that Blaze reads concurrently "
+          + "in order to compute their digests. A single file larger than this is still read, "
+          + "but alone.")
+  public int digestIoBudgetMb;
+
+  @Option(name = "experimental_max_stdouterr_bytes",
+      defaultValue = "1048576",
+      category = "strategy",
+      help = "The max number of bytes of the stdout and of the stderr of an action that Blaze "
+          + "writes to the terminal. Only the end of longer outputs is shown, the rest can be "
+          + "found in the file named in the message. -1 means no limit.")
+  public int maxStdoutErrBytes;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
@@ -50,6 +50,15 @@ public class PackageCacheOptions extends OptionsBase {
     }
   }
 
+  /**
+   * Converter for the {@code --experimental_filesystem_check_threads} option: at least one.
+   */
+  public static class FilesystemCheckThreadsConverter extends Converters.RangeConverter {
+    public FilesystemCheckThreadsConverter() {
+      super(1, Integer.MAX_VALUE);
+    }
+  }
+
   /**
    * Converter for the {@code --default_visibility} option.
    */
@@ -139,4 +148,12 @@ public class PackageCacheOptions extends OptionsBase {
       category = "undocumented",
       help = "Threshold for number of loaded packages before skyframe-m1 cache eviction kicks in")
   public int minLoadedPkgCountForCtNodeEviction;
+
+  @Option(name = "experimental_filesystem_check_threads",
+      defaultValue = "50",
+      category = "undocumented",
+      converter = FilesystemCheckThreadsConverter.class,
+      help = "Number of threads used to check source files for changes between builds when the "
+          + "file system cannot report them.")
+  public int filesystemCheckThreads;
 }
@@ -0,0 +1,117 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes the tasks of a profile as events of the Chrome trace event format, so
+ * that they can be viewed with chrome://tracing. Tasks are written as they are
+ * visited, nothing is kept in memory.
+ *
+ * <p>Tasks become complete events on the timeline of the thread that ran them,
+ * zero-duration tasks become instant events, and phase markers become instant
+ * events spanning all threads.
+ */
+public final class ChromeTraceWriter implements ProfileReader.TaskVisitor {
+
+  private final Writer out;
+  private boolean first = true;
+  private IOException exception;
+
+  /**
+   * Creates a writer for the given output, and writes the start of the trace to
+   * it.
+   */
+  public ChromeTraceWriter(Writer out, String comment) throws IOException {
+    this.out = out;
+    out.write("{\"otherData\":{\"comment\":\"");
+    writeEscaped(comment);
+    out.write("\"},\n\"traceEvents\":[\n");
+  }
+
+  @Override
+  public void visit(long threadId, int id, int parentId, long startTime, long duration,
+      ProfilerTask type, String description, @Nullable byte[] stats) {
+    if (exception != null) {
+      return;
+    }
+    try {
+      out.write(first ? "" : ",\n");
+      first = false;
+      out.write("{\"name\":\"");
+      writeEscaped(description);
+      out.write("\",\"cat\":\"");
+      out.write(type.name());
+      out.write("\",\"pid\":1,\"tid\":");
+      out.write(Long.toString(threadId));
+      // Timestamps are in microseconds.
+      out.write(",\"ts\":");
+      writeMicros(startTime);
+      if (type == ProfilerTask.PHASE) {
+        out.write(",\"ph\":\"i\",\"s\":\"g\"");
+      } else if (duration == 0) {
+        out.write(",\"ph\":\"i\",\"s\":\"t\"");
+      } else {
+        out.write(",\"ph\":\"X\",\"dur\":");
+        writeMicros(duration);
+      }
+      out.write(",\"args\":{\"id\":");
+      out.write(Integer.toString(id));
+      out.write(",\"parent\":");
+      out.write(Integer.toString(parentId));
+      out.write("}}");
+    } catch (IOException e) {
+      exception = e;
+    }
+  }
+
+  /**
+   * Writes the end of the trace.
+   *
+   * @throws IOException if this or any previous write failed
+   */
+  public void finish() throws IOException {
+    if (exception != null) {
+      throw exception;
+    }
+    out.write("\n]}\n");
+    out.flush();
+  }
+
+  private void writeMicros(long nanos) throws IOException {
+    nanos = Math.max(0, nanos);
+    out.write(Long.toString(nanos / 1000));
+    out.write('.');
+    String fraction = Long.toString(1000 + nanos % 1000);
+    out.write(fraction, 1, 3);
+  }
+
+  private void writeEscaped(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < 0x20) {
+        out.write(String.format("\\u%04x", (int) c));
+      } else {
+        out.write(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,330 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the tasks of a profile file written by {@link Profiler} one chunk at
+ * a time, without keeping them in memory. The data of the chunks rejected by
+ * a filter is skipped without being inflated, based on the index that
+ * precedes every chunk.
+ */
+public final class ProfileReader implements Closeable {
+
+  /**
+   * The index of a chunk of tasks.
+   */
+  public static final class Chunk {
+    private final int taskCount;
+    @Nullable private final ProfilePhase phase;
+    private final long minStartTime;
+    private final long maxEndTime;
+    private final boolean[] types;
+    private final long[] threadIds;
+
+    private Chunk(int taskCount, @Nullable ProfilePhase phase, long minStartTime,
+        long maxEndTime, boolean[] types, long[] threadIds) {
+      this.taskCount = taskCount;
+      this.phase = phase;
+      this.minStartTime = minStartTime;
+      this.maxEndTime = maxEndTime;
+      this.types = types;
+      this.threadIds = threadIds;
+    }
+
+    /** Returns the number of tasks in the chunk. */
+    public int getTaskCount() {
+      return taskCount;
+    }
+
+    /**
+     * Returns the phase the tasks of the chunk completed in, or null if they
+     * completed before the first phase or in a phase this binary does not know.
+     */
+    @Nullable
+    public ProfilePhase getPhase() {
+      return phase;
+    }
+
+    /** Returns the earliest start time of the tasks of the chunk, in ns. */
+    public long getMinStartTime() {
+      return minStartTime;
+    }
+
+    /** Returns the latest end time of the tasks of the chunk, in ns. */
+    public long getMaxEndTime() {
+      return maxEndTime;
+    }
+
+    /** Returns true if the chunk holds tasks of the given type. */
+    public boolean hasType(ProfilerTask type) {
+      return types[type.ordinal()];
+    }
+
+    /** Returns true if the chunk holds tasks run by the given thread. */
+    public boolean hasThread(long threadId) {
+      for (long id : threadIds) {
+        if (id == threadId) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Receives the tasks read from a profile file.
+   */
+  public interface TaskVisitor {
+    /**
+     * Called for every task of the chunks being read, in the order the tasks
+     * completed.
+     *
+     * @param stats the aggregated statistics of the immediate subtasks, encoded
+     *     as in the profile file, or null if there are none
+     */
+    void visit(long threadId, int id, int parentId, long startTime, long duration,
+        ProfilerTask type, String description, @Nullable byte[] stats);
+  }
+
+  /**
+   * Adds the aggregated statistics passed to {@link TaskVisitor#visit} to the
+   * given arrays of counts and durations, indexed by {@link ProfilerTask}
+   * ordinal.
+   */
+  public static void addStats(byte[] stats, int[] counts, long[] durations) {
+    ByteBuffer buffer = ByteBuffer.wrap(stats);
+    while (buffer.hasRemaining()) {
+      int type = buffer.get();
+      counts[type] += VarInt.getVarInt(buffer);
+      durations[type] += VarInt.getVarLong(buffer);
+    }
+  }
+
+  /**
+   * Returns a filter accepting the chunks of the given phase.
+   */
+  public static Predicate<Chunk> inPhase(final ProfilePhase phase) {
+    return new Predicate<Chunk>() {
+      @Override
+      public boolean apply(Chunk chunk) {
+        return chunk.getPhase() == phase;
+      }
+    };
+  }
+
+  private final DataInputStream in;
+  private final String comment;
+  private final List<ProfilerTask> typeList;
+  private final List<ProfilePhase> phaseList;
+  private final boolean hasUnknownTypes;
+
+  private ProfileReader(DataInputStream in, String comment, List<ProfilerTask> typeList,
+      List<ProfilePhase> phaseList, boolean hasUnknownTypes) {
+    this.in = in;
+    this.comment = comment;
+    this.typeList = typeList;
+    this.phaseList = phaseList;
+    this.hasUnknownTypes = hasUnknownTypes;
+  }
+
+  /**
+   * Opens the given profile file and reads its header.
+   *
+   * @throws UnsupportedEncodingException if the file format is invalid
+   * @throws IOException if the file can't be read
+   */
+  public static ProfileReader open(Path profileFile) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(profileFile.getInputStream(), 65536));
+    try {
+      if (in.readInt() != Profiler.MAGIC) {
+        throw new UnsupportedEncodingException("Invalid profile datafile format");
+      }
+      if (in.readInt() != Profiler.VERSION) {
+        throw new UnsupportedEncodingException("Incompatible profile datafile version");
+      }
+      String comment = in.readUTF();
+
+      // Read list of used record types
+      int typeCount = in.readInt();
+      boolean hasUnknownTypes = false;
+      Set<String> supportedTasks = new HashSet<>();
+      for (ProfilerTask task : ProfilerTask.values()) {
+        supportedTasks.add(task.toString());
+      }
+      List<ProfilerTask> typeList = new ArrayList<>();
+      for (int i = 0; i < typeCount; i++) {
+        String name = in.readUTF();
+        if (supportedTasks.contains(name)) {
+          typeList.add(ProfilerTask.valueOf(name));
+        } else {
+          hasUnknownTypes = true;
+          typeList.add(ProfilerTask.UNKNOWN);
+        }
+      }
+
+      // Read list of phases. Id 0 stands for no phase.
+      int phaseCount = in.readInt();
+      Set<String> supportedPhases = new HashSet<>();
+      for (ProfilePhase phase : ProfilePhase.values()) {
+        supportedPhases.add(phase.toString());
+      }
+      List<ProfilePhase> phaseList = new ArrayList<>();
+      phaseList.add(null);
+      for (int i = 0; i < phaseCount; i++) {
+        String name = in.readUTF();
+        phaseList.add(supportedPhases.contains(name) ? ProfilePhase.valueOf(name) : null);
+      }
+      return new ProfileReader(in, comment, typeList, phaseList, hasUnknownTypes);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /** Returns the comment of the profile file. */
+  public String getComment() {
+    return comment;
+  }
+
+  /**
+   * Reads all remaining tasks.
+   *
+   * @throws IOException if the file can't be read or is truncated
+   */
+  public void read(TaskVisitor visitor) throws IOException {
+    read(Predicates.<Chunk>alwaysTrue(), visitor);
+  }
+
+  /**
+   * Reads the remaining tasks of the chunks accepted by the given filter, and
+   * skips the other chunks.
+   *
+   * @throws IOException if the file can't be read or is truncated
+   */
+  public void read(Predicate<Chunk> filter, TaskVisitor visitor) throws IOException {
+    int indexSize;
+    while ((indexSize = in.readInt()) != Profiler.EOF_MARKER) {
+      byte[] index = new byte[indexSize];
+      in.readFully(index);
+      Chunk chunk = readChunkIndex(ByteBuffer.wrap(index));
+      int dataSize = in.readInt();
+      if (filter.apply(chunk)) {
+        byte[] data = new byte[dataSize];
+        in.readFully(data);
+        readChunkData(data, chunk.getTaskCount(), visitor);
+      } else {
+        ByteStreams.skipFully(in, dataSize);
+      }
+    }
+  }
+
+  private Chunk readChunkIndex(ByteBuffer index) {
+    int taskCount = VarInt.getVarInt(index);
+    int phaseId = VarInt.getVarInt(index);
+    ProfilePhase phase = phaseId < phaseList.size() ? phaseList.get(phaseId) : null;
+    long minStartTime = VarInt.getVarLong(index);
+    long maxEndTime = VarInt.getVarLong(index);
+    boolean[] types = new boolean[ProfilerTask.TASK_COUNT];
+    int typeCount = VarInt.getVarInt(index);
+    for (int i = 0; i < typeCount; i++) {
+      types[typeList.get(index.get()).ordinal()] = true;
+    }
+    long[] threadIds = new long[VarInt.getVarInt(index)];
+    for (int i = 0; i < threadIds.length; i++) {
+      threadIds[i] = VarInt.getVarLong(index);
+    }
+    return new Chunk(taskCount, phase, minStartTime, maxEndTime, types, threadIds);
+  }
+
+  private void readChunkData(byte[] data, int taskCount, TaskVisitor visitor)
+      throws IOException {
+    Inflater inflater = new Inflater(false);
+    // It is extremely important to wrap InflaterInputStream using
+    // BufferedInputStream because majority of reads would be done using
+    // readInt() and InflaterInputStream is very inefficient in handling small
+    // read requests.
+    try (DataInputStream chunk = new DataInputStream(new BufferedInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(data), inflater, 65536), 262144))) {
+      List<String> descriptions = new ArrayList<>();
+      for (int i = 0; i < taskCount; i++) {
+        int size = chunk.readInt();
+        byte[] backingArray = new byte[size];
+        chunk.readFully(backingArray);
+        ByteBuffer buffer = ByteBuffer.wrap(backingArray);
+        long threadId = VarInt.getVarLong(buffer);
+        int id = VarInt.getVarInt(buffer);
+        int parentId = VarInt.getVarInt(buffer);
+        long startTime = VarInt.getVarLong(buffer);
+        long duration = VarInt.getVarLong(buffer);
+        int descIndex = VarInt.getVarInt(buffer) - 1;
+        if (descIndex == -1) {
+          descIndex = descriptions.size();
+          descriptions.add(chunk.readUTF());
+        }
+        ProfilerTask type = typeList.get(buffer.get());
+        byte[] stats = null;
+        if (buffer.hasRemaining()) {
+          // Copy aggregated stats.
+          int offset = buffer.position();
+          stats = Arrays.copyOfRange(backingArray, offset, size);
+          if (hasUnknownTypes) {
+            while (buffer.hasRemaining()) {
+              byte attrType = buffer.get();
+              if (typeList.get(attrType) == ProfilerTask.UNKNOWN) {
+                // We're dealing with unknown aggregated type - update stats array to
+                // use ProfilerTask.UNKNOWN.ordinal() value.
+                stats[buffer.position() - 1 - offset] = (byte) ProfilerTask.UNKNOWN.ordinal();
+              }
+              VarInt.getVarInt(buffer);
+              VarInt.getVarLong(buffer);
+            }
+          }
+        }
+        visitor.visit(threadId, id, parentId, startTime, duration, type,
+            descriptions.get(descIndex), stats);
+      }
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
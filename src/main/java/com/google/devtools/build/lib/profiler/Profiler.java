@@ -21,16 +21,19 @@ import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.VarInt;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -61,11 +64,19 @@ import java.util.zip.DeflaterOutputStream;
  * change at any time. For scripting, using blaze analyze-profile --dump=raw
  * would be more robust and stable solution.
  * <p>
+ * <p>
+ * Task records are written in chunks, each of which holds the tasks completed
+ * during a single build phase and within a few seconds of each other. Every
+ * chunk is deflated on its own and preceded by an uncompressed index, so that
+ * readers can skip the chunks they are not interested in without inflating
+ * them (see {@link ProfileReader}).
+ * <p>
  * <pre>
- * Profiler file consists of the deflated stream with following overall structure:
+ * Profiler file has the following overall structure:
  *   HEADER
  *   TASK_TYPE_TABLE
- *   TASK_RECORD...
+ *   PHASE_TABLE
+ *   CHUNK...
  *   EOF_MARKER
  *
  * HEADER:
@@ -78,6 +89,25 @@ import java.util.zip.DeflaterOutputStream;
  *   string... : type names. Each of the type names is assigned id according to
  *               their position in this table starting from 0.
  *
+ * PHASE_TABLE:
+ *   int32: number of phase names below
+ *   string... : phase names, assigned ids starting from 1 like type names.
+ *
+ * CHUNK:
+ *   int32 size: size of the encoded chunk index
+ *   byte[size] encoded_chunk_index:
+ *     varint32: number of task records in the chunk
+ *     varint32: id of the phase the tasks completed in (see PHASE_TABLE),
+ *               or 0 if they completed before the first phase
+ *     varint64: earliest start time of the tasks, in ns
+ *     varint64: latest end time of the tasks, in ns
+ *     varint32: number of task type ids below
+ *     byte...:  ids of the types of the tasks in the chunk
+ *     varint32: number of thread ids below
+ *     varint64...: ids of the threads that ran the tasks in the chunk
+ *   int32 size: size of the deflated task records
+ *   byte[size] deflated TASK_RECORD...
+ *
  * TASK_RECORD:
  *   int32 size: size of the encoded task record
  *   byte[size] encoded_task_record:
@@ -94,8 +124,8 @@ import java.util.zip.DeflaterOutputStream;
  *   string: *optional* description string, will appear only if description
  *           string index above was 0. In that case this string will be
  *           assigned next sequential id so every unique description string
- *           will appear in the file only once - after that it will be
- *           referenced by id.
+ *           will appear in the chunk only once - after that it will be
+ *           referenced by id. Ids are not shared between chunks.
  *
  * AGGREGATE_STAT:
  *   byte:     stat type
@@ -103,8 +133,8 @@ import java.util.zip.DeflaterOutputStream;
  *   varint64: cumulative duration of subtask invocations in ns.
  *
  * EOF_MARKER:
- *   int64: -1 - please note that this corresponds to the thread id in the
- *               TASK_RECORD which is always > 0
+ *   int32: -1 - please note that this corresponds to the chunk index size,
+ *               which is always > 0
  * </pre>
  *
  * @see ProfilerTask enum for recognized task types.
@@ -116,7 +146,7 @@ public final class Profiler {
   // File version number. Note that merely adding new record types in
   // the ProfilerTask does not require bumping version number as long as original
   // enum values are not renamed or deleted.
-  static final int VERSION = 0x03;
+  static final int VERSION = 0x04;
 
   // EOF marker. Must be < 0.
   static final int EOF_MARKER = -1;
@@ -125,6 +155,9 @@ public final class Profiler {
   // separate thread every SAVE_DELAY ms.
   private static final int SAVE_DELAY = 2000; // ms
 
+  // Max number of task records in a single chunk.
+  private static final int MAX_CHUNK_TASKS = 65536;
+
   /**
    * The profiler (a static singleton instance). Inactive by default.
    */
@@ -445,9 +478,11 @@ public final class Profiler {
   private TaskStack taskStack;
   private Queue<TaskData> taskQueue;
   private DataOutputStream out;
+  private Deflater deflater;
+  private ByteArrayOutputStream chunkBuffer;
+  private ProfilePhase currentPhase;
   private Timer timer;
   private IOException saveException;
-  private ObjectDescriber describer;
   @SuppressWarnings("unchecked")
   private final SlowestTaskAggregator[] slowestTasks =
   new SlowestTaskAggregator[ProfilerTask.values().length];
@@ -497,7 +532,6 @@ public final class Profiler {
     Preconditions.checkState(!isActive(), "Profiler already active");
     taskStack = new TaskStack();
     taskQueue = new ConcurrentLinkedQueue<>();
-    describer = new ObjectDescriber();
 
     this.profiledTaskKinds = profiledTaskKinds;
     this.clock = clock;
@@ -513,12 +547,11 @@ public final class Profiler {
     this.saveException = null;
     if (stream != null) {
       this.timer = new Timer("ProfilerTimer", true);
-      // Wrapping deflater stream in the buffered stream proved to reduce CPU consumption caused by
-      // the save() method. Values for buffer sizes were chosen by running small amount of tests
-      // and identifying point of diminishing returns - but I have not really tried to optimize
-      // them.
-      this.out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
-          stream, new Deflater(Deflater.BEST_SPEED, false), 65536), 262144));
+      // Chunks are deflated into a buffer which is then written out in one go.
+      this.out = new DataOutputStream(new BufferedOutputStream(stream, 262144));
+      this.deflater = new Deflater(Deflater.BEST_SPEED, false);
+      this.chunkBuffer = new ByteArrayOutputStream(262144);
+      this.currentPhase = null;
 
       this.out.writeInt(MAGIC); // magic
       this.out.writeInt(VERSION); // protocol_version
@@ -529,6 +562,10 @@ public final class Profiler {
       for (ProfilerTask type : ProfilerTask.values()) {
         this.out.writeUTF(type.toString());
       }
+      this.out.writeInt(ProfilePhase.values().length);
+      for (ProfilePhase phase : ProfilePhase.values()) {
+        this.out.writeUTF(phase.toString());
+      }
 
       // Start save thread
       timer.schedule(new TimerTask() {
@@ -584,6 +621,9 @@ public final class Profiler {
       out.writeInt(EOF_MARKER);
       out.close();
       out = null;
+      deflater.end();
+      deflater = null;
+      chunkBuffer = null;
     }
   }
 
@@ -600,8 +640,8 @@ public final class Profiler {
 
   /**
    * Saves all gathered information from taskQueue queue to the file.
-   * Method is invoked internally by the Timer-based thread and at the end of
-   * profiling session.
+   * Method is invoked internally by the Timer-based thread, whenever a new
+   * phase starts and at the end of profiling session.
    */
   private synchronized void save() {
     if (out == null) {
@@ -611,40 +651,7 @@ public final class Profiler {
       // Allocate the sink once to avoid GC
       ByteBuffer sink = ByteBuffer.allocate(1024);
       while (!taskQueue.isEmpty()) {
-        sink.clear();
-        TaskData data = taskQueue.poll();
-
-        VarInt.putVarLong(data.threadId, sink);
-        VarInt.putVarInt(data.id, sink);
-        VarInt.putVarInt(data.parentId, sink);
-        VarInt.putVarLong(data.startTime - profileStartTime, sink);
-        VarInt.putVarLong(data.duration, sink);
-
-        // To save space (and improve performance), convert all description
-        // strings to the canonical object and use IdentityHashMap to assign
-        // unique numbers for each string.
-        int descIndex = describer.getDescriptionIndex(data.object);
-        VarInt.putVarInt(descIndex + 1, sink); // Add 1 to avoid encoding negative values.
-
-        // Save types using their ordinal() value
-        sink.put((byte) data.type.ordinal());
-
-        // Save aggregated data stats.
-        if (data.counts != null) {
-          for (int i = 0; i < TASK_COUNT; i++) {
-            if (data.counts[i] > 0) {
-              sink.put((byte) i); // aggregated type ordinal value
-              VarInt.putVarInt(data.counts[i], sink);
-              VarInt.putVarLong(data.durations[i], sink);
-            }
-          }
-        }
-
-        this.out.writeInt(sink.position());
-        this.out.write(sink.array(), 0, sink.position());
-        if (describer.isUnassigned(descIndex)) {
-          this.out.writeUTF(describer.getDescription(data.object));
-        }
+        saveChunk(sink);
       }
       this.out.flush();
     } catch (IOException e) {
@@ -658,6 +665,94 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Writes up to {@link #MAX_CHUNK_TASKS} tasks from taskQueue as a single
+   * chunk, see the file format above.
+   */
+  private void saveChunk(ByteBuffer sink) throws IOException {
+    // Description indices are local to each chunk, so that chunks can be read on their own.
+    ObjectDescriber describer = new ObjectDescriber();
+    chunkBuffer.reset();
+    deflater.reset();
+    DataOutputStream chunk = new DataOutputStream(
+        new DeflaterOutputStream(chunkBuffer, deflater, 65536));
+
+    int taskCount = 0;
+    long minStartTime = Long.MAX_VALUE;
+    long maxEndTime = 0;
+    boolean[] types = new boolean[TASK_COUNT];
+    Set<Long> threadIds = new LinkedHashSet<>();
+    TaskData data;
+    while (taskCount < MAX_CHUNK_TASKS && (data = taskQueue.poll()) != null) {
+      sink.clear();
+      long startTime = data.startTime - profileStartTime;
+
+      VarInt.putVarLong(data.threadId, sink);
+      VarInt.putVarInt(data.id, sink);
+      VarInt.putVarInt(data.parentId, sink);
+      VarInt.putVarLong(startTime, sink);
+      VarInt.putVarLong(data.duration, sink);
+
+      // To save space (and improve performance), convert all description
+      // strings to the canonical object and use IdentityHashMap to assign
+      // unique numbers for each string.
+      int descIndex = describer.getDescriptionIndex(data.object);
+      VarInt.putVarInt(descIndex + 1, sink); // Add 1 to avoid encoding negative values.
+
+      // Save types using their ordinal() value
+      sink.put((byte) data.type.ordinal());
+
+      // Save aggregated data stats.
+      if (data.counts != null) {
+        for (int i = 0; i < TASK_COUNT; i++) {
+          if (data.counts[i] > 0) {
+            sink.put((byte) i); // aggregated type ordinal value
+            VarInt.putVarInt(data.counts[i], sink);
+            VarInt.putVarLong(data.durations[i], sink);
+          }
+        }
+      }
+
+      chunk.writeInt(sink.position());
+      chunk.write(sink.array(), 0, sink.position());
+      if (describer.isUnassigned(descIndex)) {
+        chunk.writeUTF(describer.getDescription(data.object));
+      }
+
+      taskCount++;
+      minStartTime = Math.min(minStartTime, startTime);
+      maxEndTime = Math.max(maxEndTime, startTime + data.duration);
+      types[data.type.ordinal()] = true;
+      threadIds.add(data.threadId);
+    }
+    chunk.close();
+
+    ByteBuffer index = ByteBuffer.allocate(40 + TASK_COUNT + 10 * threadIds.size());
+    VarInt.putVarInt(taskCount, index);
+    VarInt.putVarInt(currentPhase == null ? 0 : currentPhase.ordinal() + 1, index);
+    VarInt.putVarLong(minStartTime, index);
+    VarInt.putVarLong(maxEndTime, index);
+    int typeCount = 0;
+    for (boolean type : types) {
+      typeCount += type ? 1 : 0;
+    }
+    VarInt.putVarInt(typeCount, index);
+    for (int i = 0; i < TASK_COUNT; i++) {
+      if (types[i]) {
+        index.put((byte) i);
+      }
+    }
+    VarInt.putVarInt(threadIds.size(), index);
+    for (long threadId : threadIds) {
+      VarInt.putVarLong(threadId, index);
+    }
+
+    out.writeInt(index.position());
+    out.write(index.array(), 0, index.position());
+    out.writeInt(chunkBuffer.size());
+    chunkBuffer.writeTo(out);
+  }
+
   private synchronized void clear() {
     profileStartTime = 0L;
     if (timer != null) {
@@ -666,7 +761,6 @@ public final class Profiler {
     }
     taskStack = null;
     taskQueue = null;
-    describer = null;
 
     // Note that slowest task aggregator are not cleared here because clearing happens
     // periodically over the course of a command invocation.
@@ -843,11 +937,23 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Saves the tasks completed so far, so that every chunk of the profile holds
+   * the tasks completed during a single phase.
+   */
+  private synchronized void startPhase(ProfilePhase phase) {
+    save();
+    currentPhase = phase;
+  }
+
   /**
    * Convenience method to log phase marker tasks.
    */
   public void markPhase(ProfilePhase phase) {
     MemoryProfiler.instance().markPhase(phase);
+    if (isActive()) {
+      startPhase(phase);
+    }
     if (isActive() && isProfiling(ProfilerTask.PHASE)) {
       Preconditions.checkState(taskStack.isEmpty(), "Phase tasks must not be nested");
       logEvent(ProfilerTask.PHASE, phase.description);
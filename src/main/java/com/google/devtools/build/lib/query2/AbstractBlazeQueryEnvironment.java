@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.pkgcache.PackageProvider;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
@@ -37,8 +38,10 @@ import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -132,6 +135,55 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
    *   effect
    */
   public QueryEvalResult<T> evaluateQuery(QueryExpression expr) throws QueryException {
+    preloadTargetPatterns(expr);
+
+    Set<T> resultNodes;
+    try {
+      resultNodes = expr.eval(this);
+    } catch (QueryException e) {
+      throw new QueryException(e, expr);
+    }
+
+    return new QueryEvalResult<>(checkErrors(expr), resultNodes);
+  }
+
+  /**
+   * Evaluates the query, passing its result to {@code callback} in batches as it is computed
+   * instead of collecting it into a set. Each node of the result is passed exactly once. The
+   * result is unordered; callers that need it in dependency order must use {@link
+   * #evaluateQuery(QueryExpression)}.
+   *
+   * @return whether the query was successful. This can only be false if the query was run with
+   *     <code>keep_going</code>, otherwise evaluation will throw a {@link QueryException}.
+   */
+  public boolean evaluateQuery(QueryExpression expr, final Callback<T> callback)
+      throws QueryException {
+    preloadTargetPatterns(expr);
+
+    final Set<T> seen = new HashSet<>();
+    try {
+      expr.eval(this, new Callback<T>() {
+        @Override
+        public void process(Iterable<T> partialResult) throws QueryException {
+          List<T> unseen = new ArrayList<>();
+          for (T node : partialResult) {
+            if (seen.add(node)) {
+              unseen.add(node);
+            }
+          }
+          if (!unseen.isEmpty()) {
+            callback.process(unseen);
+          }
+        }
+      });
+    } catch (QueryException e) {
+      throw new QueryException(e, expr);
+    }
+
+    return checkErrors(expr);
+  }
+
+  private void preloadTargetPatterns(QueryExpression expr) throws QueryException {
     resolvedTargetPatterns.clear();
 
     // In the --nokeep_going case, errors are reported in the order in which the patterns are
@@ -144,14 +196,13 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
       // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
       throw new QueryException(expr, e.getMessage());
     }
+  }
 
-    Set<T> resultNodes;
-    try {
-      resultNodes = expr.eval(this);
-    } catch (QueryException e) {
-      throw new QueryException(e, expr);
-    }
-
+  /**
+   * Reports the loading-phase errors that occurred during the evaluation of {@code expr}, and
+   * returns whether there were none.
+   */
+  private boolean checkErrors(QueryExpression expr) throws QueryException {
     if (eventHandler.hasErrors()) {
       if (!keepGoing) {
         // This case represents loading-phase errors reported during evaluation
@@ -163,14 +214,24 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
             + "Results may be inaccurate"));
       }
     }
-
-    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
+    return !eventHandler.hasErrors();
   }
 
   public QueryEvalResult<T> evaluateQuery(String query) throws QueryException {
     return evaluateQuery(QueryExpression.parse(query, this));
   }
 
+  /**
+   * Returns null: by default, which nodes lie within a universe is only known once its
+   * transitive closure is computed.
+   */
+  @Override
+  @Nullable
+  public Collection<T> filterToUniverse(QueryExpression universe, Collection<T> nodes)
+      throws QueryException {
+    return null;
+  }
+
   @Override
   public void reportBuildFileError(QueryExpression caller, String message) throws QueryException {
     if (!keepGoing) {
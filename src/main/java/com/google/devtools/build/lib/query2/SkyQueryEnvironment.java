@@ -31,9 +31,11 @@ import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.TargetLiteral;
 import com.google.devtools.build.lib.skyframe.GraphBackedRecursivePackageProvider;
 import com.google.devtools.build.lib.skyframe.PackageValue;
 import com.google.devtools.build.lib.skyframe.RecursivePackageProviderBackedTargetPatternResolver;
@@ -65,6 +67,11 @@ import javax.annotation.Nullable;
  * reverse edges. Results obtained by calling {@link #evaluateQuery} are not guaranteed to be in
  * any particular order. As well, this class eagerly loads the full transitive closure of targets,
  * even if the full closure isn't needed.
+ *
+ * <p>Reverse dependencies are taken from the graph on demand. The graph is shared with earlier
+ * builds and queries, so it may hold more than the transitive closure of the universe scope.
+ * Whether a target lies within that closure is told by searching upwards from it for a target
+ * matching the universe scope, without computing the closure.
  */
 public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private WalkableGraph graph;
@@ -75,6 +82,11 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private final List<String> universeScope;
   private final String parserPrefix;
   private final PathPackageLocator pkgPath;
+  /**
+   * Whether each target searched by {@link #filterToUniverse} lies within the transitive closure
+   * of the universe scope. Reset for each query.
+   */
+  private final Map<Target, Boolean> withinUniverse = new HashMap<>();
 
   public SkyQueryEnvironment(boolean keepGoing, boolean strictScope, int loadingPhaseThreads,
       Predicate<Label> labelFilter,
@@ -98,6 +110,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
 
   private void init() throws InterruptedException {
     graph = graphFactory.prepareAndGet(universeScope, loadingPhaseThreads, eventHandler);
+    withinUniverse.clear();
   }
 
   @Override
@@ -115,6 +128,19 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return super.evaluateQuery(expr);
   }
 
+  @Override
+  public boolean evaluateQuery(QueryExpression expr, Callback<Target> callback)
+      throws QueryException {
+    // See #evaluateQuery(QueryExpression) for why errors are reset.
+    eventHandler.resetErrors();
+    try {
+      init();
+    } catch (InterruptedException e) {
+      throw new QueryException(e.getMessage());
+    }
+    return super.evaluateQuery(expr, callback);
+  }
+
   private static SkyKey transformToKey(Target value) {
     return TransitiveTargetValue.key(value.getLabel());
   }
@@ -190,6 +216,97 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return ImmutableSet.copyOf(result);
   }
 
+  /**
+   * Filters to the transitive closure of the universe scope when {@code universe} is the universe
+   * scope itself. A target lies within the closure if it or one of its reverse transitive
+   * dependencies in the graph matches the universe scope. The graph may also hold the closures of
+   * earlier builds and queries, so that a target being in the graph says nothing.
+   */
+  @Override
+  @Nullable
+  public Collection<Target> filterToUniverse(QueryExpression universe, Collection<Target> nodes)
+      throws QueryException {
+    if (!isUniverseScope(universe)) {
+      return null;
+    }
+    String pattern = ((TargetLiteral) universe).getPattern();
+    if (!resolvedTargetPatterns.containsKey(pattern)) {
+      evalTargetPattern(universe, pattern);
+    }
+    Set<Target> universeTargets = resolvedTargetPatterns.get(pattern).getTargets();
+    List<Target> result = new ArrayList<>();
+    for (Target node : nodes) {
+      if (isWithinUniverse(node, universeTargets)) {
+        result.add(node);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Searches upwards from {@code target} for one of {@code universeTargets}, and records the
+   * answer for every target on the way that it also answers.
+   */
+  private boolean isWithinUniverse(Target target, Set<Target> universeTargets)
+      throws QueryException {
+    Boolean known = withinUniverse.get(target);
+    if (known != null) {
+      return known;
+    }
+    // Tree of targets visited so far, each pointing to the one it was reached from.
+    Map<Target, Target> nodeToChild = new HashMap<>();
+    Deque<Target> toVisit = new ArrayDeque<>();
+    toVisit.add(target);
+    nodeToChild.put(target, null);
+    while (!toVisit.isEmpty()) {
+      Target current = toVisit.removeFirst();
+      Boolean currentKnown = withinUniverse.get(current);
+      if (Boolean.TRUE.equals(currentKnown) || (currentKnown == null
+          && universeTargets.contains(current)
+          && validateScope(current.getLabel(), strictScope))) {
+        // Everything on the path down to the target depends on a target of the universe.
+        for (Target node = current; node != null; node = nodeToChild.get(node)) {
+          withinUniverse.put(node, true);
+        }
+        return true;
+      }
+      // No reverse dependency of a target known to be outside the universe is within it.
+      if (currentKnown == null) {
+        for (Target parent : getReverseDeps(current)) {
+          if (!nodeToChild.containsKey(parent)) {
+            nodeToChild.put(parent, current);
+            toVisit.addLast(parent);
+          }
+        }
+      }
+    }
+    for (Target node : nodeToChild.keySet()) {
+      withinUniverse.put(node, false);
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the expression is a target pattern that parses to the single pattern of the
+   * universe scope, however it is spelled.
+   */
+  private boolean isUniverseScope(QueryExpression expression) {
+    if (universeScope.size() != 1 || !(expression instanceof TargetLiteral)) {
+      return false;
+    }
+    TargetLiteral literal = (TargetLiteral) expression;
+    if (literal.isVariableReference()) {
+      return false;
+    }
+    TargetPattern.Parser parser = new TargetPattern.Parser(parserPrefix);
+    try {
+      return parser.parse(literal.getPattern()).equals(parser.parse(universeScope.get(0)));
+    } catch (TargetParsingException e) {
+      // The error is reported when the pattern is evaluated.
+      return false;
+    }
+  }
+
   // Implemented with a breadth-first search.
   @Override
   public Set<Target> getNodesOnPath(Target from, Target to) {
@@ -71,6 +71,22 @@ class BinaryOperatorExpression extends QueryExpression {
     return lhsValue;
   }
 
+  /**
+   * Unions are evaluated one operand at a time, passing the result of each to the callback, so
+   * that no set holding the whole result is built. Other operators need the value of all their
+   * operands at once.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback) throws QueryException {
+    if (operator != Lexer.TokenKind.UNION && operator != Lexer.TokenKind.PLUS) {
+      super.eval(env, callback);
+      return;
+    }
+    for (QueryExpression operand : operands) {
+      operand.eval(env, callback);
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (QueryExpression subExpression : operands) {
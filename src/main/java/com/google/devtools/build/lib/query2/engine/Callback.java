@@ -0,0 +1,32 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * Receives the result of a query in batches, as they are computed, so that the whole result need
+ * not be held in memory at once.
+ *
+ * <p>Unless stated otherwise, batches are not guaranteed to be disjoint: the same node may be
+ * passed more than once over the course of an evaluation.
+ *
+ * @param <T> the node type of the elements.
+ */
+public interface Callback<T> {
+
+  /**
+   * Called with a part of the result of the query. The callback must not keep a reference to
+   * {@code partialResult} after it returns.
+   */
+  void process(Iterable<T> partialResult) throws QueryException;
+}
@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * The environment of a Blaze query. Implementations do not need to be thread-safe. The generic type
@@ -126,6 +127,18 @@ public interface QueryEnvironment<T> {
         throws QueryException;
   }
 
+  /**
+   * A query function that can pass its result to a {@link Callback} as it is computed.
+   */
+  public interface StreamableQueryFunction extends QueryFunction {
+    /**
+     * Evaluates this function like {@link #eval(QueryEnvironment, QueryExpression, List)}, but
+     * passes the result to {@code callback} in one or more batches instead of returning it.
+     */
+    <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+        Callback<T> callback) throws QueryException;
+  }
+
   /**
    * Exception type for the case where a target cannot be found. It's basically a wrapper for
    * whatever exception is internally thrown.
@@ -158,6 +171,16 @@ public interface QueryEnvironment<T> {
   /** Returns the direct reverse dependencies of the specified target. */
   Collection<T> getReverseDeps(T target);
 
+  /**
+   * Returns the nodes of {@code nodes} that lie within the transitive closure of the value of
+   * {@code universe}, or null if the environment cannot tell for this universe. If it can, reverse
+   * dependencies within the universe are computed on demand, by filtering the reverse dependencies
+   * of each node through this method.
+   */
+  @Nullable
+  Collection<T> filterToUniverse(QueryExpression universe, Collection<T> nodes)
+      throws QueryException;
+
   /**
    * Returns the forward transitive closure of all of the targets in
    * "targets".  Callers must ensure that {@link #buildTransitiveClosure}
@@ -69,6 +69,18 @@ public abstract class QueryExpression {
    */
   public abstract <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException;
 
+  /**
+   * Evaluates this query in the specified environment, passing the result to {@code callback} in
+   * one or more batches as it is computed. The same node may be passed more than once.
+   *
+   * <p>The default implementation evaluates the whole result with {@link #eval(QueryEnvironment)}
+   * and passes it as a single batch. Expressions that can produce their result incrementally
+   * override it, so that unordered results need not be materialized.
+   */
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback) throws QueryException {
+    callback.process(eval(env));
+  }
+
   /**
    * Collects all target patterns that are referenced anywhere within this query expression and adds
    * them to the given collection, which must be mutable.
@@ -16,10 +16,11 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -32,7 +33,7 @@ import java.util.Set;
  * <pre>expr ::= RDEPS '(' expr ',' expr ')'</pre>
  * <pre>       | RDEPS '(' expr ',' expr ',' WORD ')'</pre>
  */
-final class RdepsFunction implements QueryFunction {
+final class RdepsFunction implements StreamableQueryFunction {
   RdepsFunction() {
   }
 
@@ -61,8 +62,16 @@ final class RdepsFunction implements QueryFunction {
       throws QueryException {
     Set<T> universeValue = args.get(0).getExpression().eval(env);
     Set<T> argumentValue = args.get(1).getExpression().eval(env);
-    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
+    return evalWithinUniverse(env, expression, universeValue, argumentValue, depthBound(args));
+  }
+
+  private static int depthBound(List<Argument> args) {
+    return args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
+  }
 
+  private static <T> Set<T> evalWithinUniverse(QueryEnvironment<T> env,
+      QueryExpression expression, Set<T> universeValue, Set<T> argumentValue, int depthBound)
+      throws QueryException {
     env.buildTransitiveClosure(expression, universeValue, Integer.MAX_VALUE);
 
     Set<T> visited = new LinkedHashSet<>();
@@ -96,4 +105,48 @@ final class RdepsFunction implements QueryFunction {
 
     return visited;
   }
+
+  /**
+   * If the environment can tell which nodes lie within the universe, searches from the argument
+   * towards the universe taking reverse dependencies from the environment on demand, and keeping
+   * those within the universe. Each level of the search is passed to the callback as soon as it is
+   * complete. Otherwise, computes the whole result as {@link
+   * #eval(QueryEnvironment, QueryExpression, List)} does and passes it as a single batch.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException {
+    QueryExpression universe = args.get(0).getExpression();
+    Set<T> argumentValue = args.get(1).getExpression().eval(env);
+    int depthBound = depthBound(args);
+    Collection<T> current = env.filterToUniverse(universe, argumentValue);
+    if (current == null) {
+      callback.process(
+          evalWithinUniverse(env, expression, universe.eval(env), argumentValue, depthBound));
+      return;
+    }
+
+    Set<T> visited = new HashSet<>();
+    for (int i = 0; i <= depthBound; i++) {
+      List<T> level = new ArrayList<>();
+      for (T node : current) {
+        if (visited.add(node)) {
+          level.add(node);
+        }
+      }
+      if (level.isEmpty()) {
+        break;
+      }
+      callback.process(level);
+      if (i == depthBound) {
+        break;
+      }
+      List<T> next = new ArrayList<>();
+      for (T node : level) {
+        next.addAll(env.getReverseDeps(node));
+      }
+      // The reverse dependencies of a node need not be limited to the universe.
+      current = env.filterToUniverse(universe, next);
+    }
+  }
 }
@@ -28,7 +28,7 @@ import java.util.Set;
  *
  * <pre>expr ::= NAME | WORD</pre>
  */
-final class TargetLiteral extends QueryExpression {
+public final class TargetLiteral extends QueryExpression {
 
   private final String pattern;
 
@@ -36,6 +36,10 @@ final class TargetLiteral extends QueryExpression {
     this.pattern = Preconditions.checkNotNull(pattern);
   }
 
+  public String getPattern() {
+    return pattern;
+  }
+
   public boolean isVariableReference() {
     return LetExpression.isValidVarReference(pattern);
   }
@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.PackageSerializer;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.syntax.EvalUtils;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
@@ -161,6 +162,18 @@ public abstract class OutputFormatter implements Serializable {
         throws IOException;
   }
 
+  /**
+   * Unordered output formatter that can print the result of a query batch by batch, as it is
+   * computed, without holding the whole result in memory.
+   */
+  public interface StreamedFormatter extends UnorderedFormatter {
+    /**
+     * Returns a callback that prints each batch of results it is passed. Every target must be
+     * passed to it at most once.
+     */
+    Callback<Target> createStreamCallback(QueryOptions options, PrintStream out);
+  }
+
   /**
    * Returns the user-visible name of the output formatter.
    */
@@ -170,7 +183,7 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the labels of the resulting target set in
    * topological order, optionally with the target's kind.
    */
-  private static class LabelOutputFormatter extends OutputFormatter implements UnorderedFormatter{
+  private static class LabelOutputFormatter extends OutputFormatter implements StreamedFormatter {
 
     private final boolean showKind;
 
@@ -194,6 +207,17 @@ public abstract class OutputFormatter implements Serializable {
       }
     }
 
+    @Override
+    public Callback<Target> createStreamCallback(final QueryOptions options,
+        final PrintStream out) {
+      return new Callback<Target>() {
+        @Override
+        public void process(Iterable<Target> partialResult) {
+          outputUnordered(options, partialResult, out);
+        }
+      };
+    }
+
     @Override
     public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
       Iterable<Target> ordered = Iterables.transform(
@@ -249,7 +273,7 @@ public abstract class OutputFormatter implements Serializable {
    * line 1 is given.
    */
   private static class LocationOutputFormatter extends OutputFormatter implements
-      UnorderedFormatter {
+      StreamedFormatter {
     @Override
     public String getName() {
       return "location";
@@ -263,6 +287,17 @@ public abstract class OutputFormatter implements Serializable {
       }
     }
 
+    @Override
+    public Callback<Target> createStreamCallback(final QueryOptions options,
+        final PrintStream out) {
+      return new Callback<Target>() {
+        @Override
+        public void process(Iterable<Target> partialResult) {
+          outputUnordered(options, partialResult, out);
+        }
+      };
+    }
+
     @Override
     public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
       Iterable<Target> ordered = Iterables.transform(
@@ -276,7 +311,7 @@ public abstract class OutputFormatter implements Serializable {
    * the BUILD files. If multiple targets are generated by the same rule, it is
    * printed only once.
    */
-  private static class BuildOutputFormatter extends OutputFormatter implements UnorderedFormatter {
+  private static class BuildOutputFormatter extends OutputFormatter implements StreamedFormatter {
     @Override
     public String getName() {
       return "build";
@@ -309,9 +344,7 @@ public abstract class OutputFormatter implements Serializable {
       out.printf(")\n%n");
     }
 
-    @Override
-    public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out) {
-      Set<Label> printed = new HashSet<>();
+    private void outputRules(Iterable<Target> result, Set<Label> printed, PrintStream out) {
       for (Target target : result) {
         Rule rule = target.getAssociatedRule();
         if (rule == null || printed.contains(rule.getLabel())) {
@@ -322,6 +355,22 @@ public abstract class OutputFormatter implements Serializable {
       }
     }
 
+    @Override
+    public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out) {
+      outputRules(result, new HashSet<Label>(), out);
+    }
+
+    @Override
+    public Callback<Target> createStreamCallback(QueryOptions options, final PrintStream out) {
+      final Set<Label> printed = new HashSet<>();
+      return new Callback<Target>() {
+        @Override
+        public void process(Iterable<Target> partialResult) {
+          outputRules(partialResult, printed, out);
+        }
+      };
+    }
+
     @Override
     public void output(QueryOptions options, Digraph<Target> result, PrintStream out) {
       Iterable<Target> ordered = Iterables.transform(
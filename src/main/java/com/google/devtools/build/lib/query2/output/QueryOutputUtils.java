@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.output;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
 
 import java.io.IOException;
@@ -30,6 +31,18 @@ public class QueryOutputUtils {
     return queryOptions.orderResults || !(formatter instanceof UnorderedFormatter);
   }
 
+  /**
+   * Whether the results can be printed as they are computed, without collecting them first.
+   *
+   * <p>Printed results cannot be taken back. Without --keep_going, a query that fails must print
+   * nothing, so its results are only printed once it is known to have succeeded. With it, partial
+   * results are expected when there are errors.
+   */
+  public static boolean streamResults(QueryOptions queryOptions, OutputFormatter formatter) {
+    return queryOptions.keepGoing && !orderResults(queryOptions, formatter)
+        && formatter instanceof StreamedFormatter;
+  }
+
   public static void output(QueryOptions queryOptions, QueryEvalResult<Target> result,
       OutputFormatter formatter, PrintStream outputStream)
       throws IOException {
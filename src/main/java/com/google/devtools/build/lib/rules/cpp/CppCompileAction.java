@@ -14,6 +14,8 @@
 package com.google.devtools.build.lib.rules.cpp;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableCollection;
@@ -42,6 +44,7 @@ import com.google.devtools.build.lib.analysis.config.PerLabelOptions;
 import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetFingerprintCache;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -104,6 +107,24 @@ public class CppCompileAction extends AbstractAction implements IncludeScannable
 
   private static final int VALIDATION_DEBUG = 0;  // 0==none, 1==warns/errors, 2==all
   private static final boolean VALIDATION_DEBUG_WARN = VALIDATION_DEBUG >= 1;
+
+  /**
+   * Digests of the declared include directories of compilation contexts. They are shared by all
+   * the compilations of a target and of the targets depending on it.
+   */
+  private static final NestedSetFingerprintCache<PathFragment> INCLUDE_DIR_DIGESTS =
+      new NestedSetFingerprintCache<>(Functions.toStringFunction());
+
+  /**
+   * Digests of the declared include sources of compilation contexts.
+   */
+  private static final NestedSetFingerprintCache<Artifact> INCLUDE_SRC_DIGESTS =
+      new NestedSetFingerprintCache<>(new Function<Artifact, String>() {
+        @Override
+        public String apply(Artifact artifact) {
+          return artifact.getExecPathString();
+        }
+      });
   
   /**
    * A string constant for the c compilation action.
@@ -1025,10 +1046,15 @@ public class CppCompileAction extends AbstractAction implements IncludeScannable
      * also make sure that we reexecute the action if any of the fields
      * that affect whether validateIncludes() will report an error or warning
      * have changed, otherwise we might miss some errors.
+     *
+     * The declared include sets are added as memoized digests of their structure rather than of
+     * their sorted, flattened contents, so that large shared sets are not flattened and sorted
+     * for every action. The tradeoff is that a set which is restructured (e.g. a dependency moved
+     * between targets) but still declares the same files changes the key, and the action reruns.
      */
-    f.addPaths(context.getDeclaredIncludeDirs());
-    f.addPaths(context.getDeclaredIncludeWarnDirs());
-    f.addPaths(getDeclaredIncludeSrcsInStableOrder());
+    INCLUDE_DIR_DIGESTS.addNestedSetToFingerprint(f, context.getDeclaredIncludeDirs());
+    INCLUDE_DIR_DIGESTS.addNestedSetToFingerprint(f, context.getDeclaredIncludeWarnDirs());
+    INCLUDE_SRC_DIGESTS.addNestedSetToFingerprint(f, context.getDeclaredIncludeSrcs());
     f.addPaths(getExtraSystemIncludePrefixes());
     return f.hexDigestAndReset();
   }
@@ -392,7 +392,7 @@ public final class CppLinkAction extends AbstractAction {
     Fingerprint f = new Fingerprint();
     f.addString(fake ? FAKE_LINK_GUID : LINK_GUID);
     f.addString(getCppConfiguration().getLdExecutable().getPathString());
-    f.addStrings(linkCommandLine.arguments());
+    linkCommandLine.addToFingerprint(f);
     // TODO(bazel-team): For correctness, we need to ensure the invariant that all values accessed
     // during the execution phase are also covered by the key. Above, we add the argv to the key,
     // which covers most cases. Unfortunately, the extra action and fake support methods above also
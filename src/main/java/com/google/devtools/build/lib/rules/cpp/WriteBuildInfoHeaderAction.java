@@ -138,7 +138,7 @@ public final class WriteBuildInfoHeaderAction extends AbstractFileWriteAction {
 
   @Override
   protected String computeKey() {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
     f.addString(GUID);
     f.addBoolean(writeStableInfo);
     f.addBoolean(writeVolatileInfo);
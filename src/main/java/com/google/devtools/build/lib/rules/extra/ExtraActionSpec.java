@@ -202,7 +202,7 @@ public final class ExtraActionSpec implements TransitiveInfoProvider {
    * target, without having to open every file in the package.
    */
   private static String getOwnerDigest(ActionOwner owner) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
     f.addString(owner.getLabel().toString());
     return f.hexDigestAndReset();
   }
@@ -218,7 +218,7 @@ public final class ExtraActionSpec implements TransitiveInfoProvider {
    */
   @VisibleForTesting
   public static String getActionId(ActionOwner owner, Action action) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
     f.addString(owner.getLabel().toString());
     f.addString(action.getKey());
     return f.hexDigestAndReset();
@@ -142,7 +142,7 @@ public class GenQuery implements RuleConfiguredTargetFactory {
 
           @Override
           protected String computeKey() {
-            Fingerprint f = new Fingerprint();
+            Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
             f.addBytes(result);
             return f.hexDigestAndReset();
           }
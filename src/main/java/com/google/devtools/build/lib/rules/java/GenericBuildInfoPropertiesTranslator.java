@@ -42,7 +42,7 @@ public class GenericBuildInfoPropertiesTranslator implements
 
   @Override
   public String computeKey() {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
     f.addString(GUID);
     f.addStringMap(translationKeys);
     return f.hexDigestAndReset();
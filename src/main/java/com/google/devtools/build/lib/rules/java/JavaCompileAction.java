@@ -51,6 +51,7 @@ import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.collect.ImmutableIterable;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 import com.google.devtools.build.lib.collect.nestedset.Order;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.rules.java.JavaConfiguration.JavaClasspathMode;
@@ -76,6 +77,12 @@ public class JavaCompileAction extends AbstractAction {
 
   private static final String GUID = "786e174d-ed97-4e79-9f61-ae74430714cf";
 
+  /**
+   * The JavaBuilder can run as a persistent worker, since its last argument is a flagfile.
+   */
+  private static final ImmutableMap<String, String> EXECUTION_INFO =
+      ImmutableMap.of("supports-workers", "1");
+
   private static final ResourceSet LOCAL_RESOURCES =
       ResourceSet.createWithRamCpuIo(750 /*MB*/, 0.5 /*CPU*/, 0.0 /*IO*/);
 
@@ -356,7 +363,7 @@ public class JavaCompileAction extends AbstractAction {
 
       final ImmutableList<ActionInput> finalOutputs = ImmutableList.copyOf(outputs);
       Spawn spawn = new BaseSpawn(getCommand(), ImmutableMap.<String, String>of(),
-          ImmutableMap.<String, String>of(), this, LOCAL_RESOURCES) {
+          EXECUTION_INFO, this, LOCAL_RESOURCES) {
         @Override
         public Collection<? extends ActionInput> getOutputFiles() {
           return finalOutputs;
@@ -374,7 +381,7 @@ public class JavaCompileAction extends AbstractAction {
   protected String computeKey() {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 
@@ -522,12 +529,16 @@ public class JavaCompileAction extends AbstractAction {
     result.add("--classpath").add(new CustomArgv() {
       @Override
       public String argv() {
-        List<PathFragment> classpathEntries = new ArrayList<>();
-        for (Artifact classpathArtifact : classpath) {
-          classpathEntries.add(classpathArtifact.getExecPath());
-        }
-        classpathEntries.add(classDirectory);
-        return Joiner.on(configuration.getHostPathSeparator()).join(classpathEntries);
+        // Streams the classpath, which is usually large and flattened by no one else.
+        final String separator = configuration.getHostPathSeparator();
+        final StringBuilder classpathArg = new StringBuilder();
+        classpath.forEachElement(new Receiver<Artifact>() {
+          @Override
+          public void accept(Artifact classpathArtifact) {
+            classpathArg.append(classpathArtifact.getExecPathString()).append(separator);
+          }
+        });
+        return classpathArg.append(classDirectory.getPathString()).toString();
       }
     });
 
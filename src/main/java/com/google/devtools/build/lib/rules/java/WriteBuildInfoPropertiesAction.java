@@ -191,7 +191,7 @@ public class WriteBuildInfoPropertiesAction extends AbstractFileWriteAction {
 
   @Override
   protected String computeKey() {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MD5);
     f.addString(GUID);
     f.addString(keyTranslations.computeKey());
     f.addBoolean(includeVolatile);
@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventKind;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
@@ -43,6 +44,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 /**
  * Runs TestRunnerAction actions.
@@ -58,9 +62,22 @@ public class StandaloneTestStrategy extends TestStrategy {
     * parsing XML output.
     */
 
+  @Nullable private final TestTimingHistory timingHistory;
+
   public StandaloneTestStrategy(OptionsClassProvider requestOptions,
       OptionsClassProvider startupOptions, BinTools binTools) {
+    this(requestOptions, startupOptions, binTools, null);
+  }
+
+  /**
+   * Creates a strategy that records how long tests take in {@code timingHistory}, if not null, and
+   * starts the tests expected to take longest first when they wait for resources.
+   */
+  public StandaloneTestStrategy(OptionsClassProvider requestOptions,
+      OptionsClassProvider startupOptions, BinTools binTools,
+      @Nullable TestTimingHistory timingHistory) {
     super(requestOptions, startupOptions, binTools);
+    this.timingHistory = timingHistory;
   }
 
   private static final String TEST_SETUP = "tools/test/test-setup.sh";
@@ -94,9 +111,16 @@ public class StandaloneTestStrategy extends TestStrategy {
 
       resources = action.getTestProperties()
           .getLocalResourceUsage(executionOptions.usingLocalTestJobs());
-      ResourceManager.instance().acquireResources(action, resources);
+      ResourceManager.instance().acquireResources(action, resources, getPriority(action));
+      long startNanos = BlazeClock.nanoTime();
       TestResultData data = execute(
           actionExecutionContext.withFileOutErr(fileOutErr), spawn, action);
+      if (timingHistory != null && data.getTestPassed()) {
+        timingHistory.record(action.getOwner().getLabel().toString(),
+            action.getConfiguration().getMnemonic(), action.getShardNum(),
+            action.getExecutionSettings().getTotalShards(),
+            TimeUnit.NANOSECONDS.toMillis(BlazeClock.nanoTime() - startNanos));
+      }
       appendStderr(fileOutErr.getOutputFile(), fileOutErr.getErrorFile());
       finalizeTest(actionExecutionContext, action, data);
     } catch (IOException e) {
@@ -116,6 +140,21 @@ public class StandaloneTestStrategy extends TestStrategy {
     }
   }
 
+  /**
+   * Returns the priority with which the test waits for resources: how long it is expected to take,
+   * or the highest priority for tests that never ran, since they may be the slowest of all. It only
+   * matters if the test has to wait in the {@link ResourceManager}.
+   */
+  private long getPriority(TestRunnerAction action) {
+    if (timingHistory == null) {
+      return 0;
+    }
+    long expectedMillis = timingHistory.getExpectedMillis(action.getOwner().getLabel().toString(),
+        action.getConfiguration().getMnemonic(), action.getShardNum(),
+        action.getExecutionSettings().getTotalShards());
+    return expectedMillis < 0 ? Long.MAX_VALUE : expectedMillis;
+  }
+
   private Map<String, String> getEnv(TestRunnerAction action, Path runfilesDir) {
     Map<String, String> vars = getDefaultTestEnvironment(action);
     BuildConfiguration config = action.getConfiguration();
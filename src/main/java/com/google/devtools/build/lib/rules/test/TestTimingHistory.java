@@ -0,0 +1,229 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The wall time that test shards took in past builds, kept in a file so that it survives server
+ * restarts.
+ *
+ * <p>The test strategy uses it so that, among the tests waiting for local resources, those expected
+ * to take longest get them first and do not hold up the end of the build. This only reorders tests
+ * that are already waiting; the order in which Skyframe starts test actions is unchanged. The
+ * history is also used to point out tests that would be better split into more or fewer shards.
+ * The number of shards of a test is decided during analysis, which must not depend on the timing
+ * of earlier builds, so this class only suggests shard counts.
+ *
+ * <p>Durations are kept per test label, configuration, shard number and total number of shards,
+ * since the duration of a shard depends on how many shards the test is split into. The expected
+ * duration of a shard is the average of its last duration and of the duration expected before it.
+ * Durations that were not recorded for {@link #MAX_AGE_MILLIS} are dropped when the history is
+ * saved, so that tests that were deleted, resharded or built in other configurations do not
+ * accumulate.
+ */
+@ThreadSafe
+public final class TestTimingHistory {
+
+  private static final Logger LOG = Logger.getLogger(TestTimingHistory.class.getName());
+
+  /** Shard counts are never suggested that would make shards shorter than this. */
+  @VisibleForTesting
+  static final long MIN_SHARD_MILLIS = 5000;
+
+  /** Durations that were not recorded for this long are dropped. */
+  @VisibleForTesting
+  static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+
+  /** The expected duration of a shard, and when a duration was last recorded for it. */
+  private static final class Entry {
+    private final long expectedMillis;
+    private final long recordedAtMillis;
+
+    private Entry(long expectedMillis, long recordedAtMillis) {
+      this.expectedMillis = expectedMillis;
+      this.recordedAtMillis = recordedAtMillis;
+    }
+  }
+
+  private final Path file;
+  private final Clock clock;
+
+  // Keyed by label, configuration, shard number and total number of shards. Guarded by this.
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  // The durations of the shards of each test run since the last call to getShardingSuggestions(),
+  // indexed by shard number and keyed by the name of the test in messages. Guarded by this.
+  private final Map<String, long[]> recentMillis = new TreeMap<>();
+
+  private TestTimingHistory(Path file, Clock clock) {
+    this.file = file;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the history stored in {@code file}. If the file does not exist or cannot be read, the
+   * history starts out empty: it only affects the order in which tests run.
+   */
+  public static TestTimingHistory load(Path file) {
+    return load(file, BlazeClock.instance());
+  }
+
+  @VisibleForTesting
+  static TestTimingHistory load(Path file, Clock clock) {
+    TestTimingHistory history = new TestTimingHistory(file, clock);
+    if (!file.exists()) {
+      return history;
+    }
+    try {
+      String content = new String(FileSystemUtils.readContent(file), UTF_8);
+      for (String line : Splitter.on('\n').omitEmptyStrings().split(content)) {
+        List<String> fields = TAB_SPLITTER.splitToList(line);
+        if (fields.size() != 6) {
+          continue;
+        }
+        history.entries.put(
+            key(fields.get(0), fields.get(1), Integer.parseInt(fields.get(2)),
+                Integer.parseInt(fields.get(3))),
+            new Entry(Long.parseLong(fields.get(4)), Long.parseLong(fields.get(5))));
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOG.warning("Discarding the test timing history in " + file + ": " + e.getMessage());
+      history.entries.clear();
+    }
+    return history;
+  }
+
+  private static String key(String label, String configuration, int shard, int totalShards) {
+    return label + '\t' + configuration + '\t' + shard + '\t' + totalShards;
+  }
+
+  /**
+   * Returns how long the given shard of a test is expected to take, in milliseconds, or -1 if it
+   * never ran.
+   */
+  public synchronized long getExpectedMillis(
+      String label, String configuration, int shard, int totalShards) {
+    Entry entry = entries.get(key(label, configuration, shard, totalShards));
+    return entry == null ? -1 : entry.expectedMillis;
+  }
+
+  /**
+   * Records that the given shard of a test took {@code millis} milliseconds.
+   */
+  public synchronized void record(
+      String label, String configuration, int shard, int totalShards, long millis) {
+    String key = key(label, configuration, shard, totalShards);
+    Entry previous = entries.get(key);
+    entries.put(key, new Entry(previous == null ? millis : (previous.expectedMillis + millis) / 2,
+        clock.currentTimeMillis()));
+
+    String test = label + " (" + configuration + ")";
+    long[] shards = recentMillis.get(test);
+    if (shards == null || shards.length != Math.max(totalShards, 1)) {
+      shards = new long[Math.max(totalShards, 1)];
+      recentMillis.put(test, shards);
+    }
+    shards[shard] = millis;
+  }
+
+  /**
+   * Returns messages about the tests run since the last call that would be better split into more
+   * or fewer shards.
+   *
+   * <p>The build cannot finish sooner than its slowest shard, nor than the total duration of its
+   * tests divided by {@code parallelism}, the number of tests that run at once. More shards are
+   * suggested for tests whose slowest shard took longer than the latter. Fewer shards are
+   * suggested for tests whose shards took less than {@link #MIN_SHARD_MILLIS} on average, since
+   * their duration is then dominated by starting them.
+   */
+  public synchronized List<String> getShardingSuggestions(int parallelism) {
+    long buildMillis = 0;
+    for (long[] shards : recentMillis.values()) {
+      for (long millis : shards) {
+        buildMillis += millis;
+      }
+    }
+    long idealMillis = Math.max(buildMillis / Math.max(parallelism, 1), MIN_SHARD_MILLIS);
+
+    List<String> suggestions = new ArrayList<>();
+    for (Map.Entry<String, long[]> entry : recentMillis.entrySet()) {
+      long testMillis = 0;
+      long slowestMillis = 0;
+      for (long millis : entry.getValue()) {
+        testMillis += millis;
+        slowestMillis = Math.max(slowestMillis, millis);
+      }
+      int shards = entry.getValue().length;
+      long more = divideRoundingUp(testMillis, idealMillis);
+      long fewer = divideRoundingUp(testMillis, MIN_SHARD_MILLIS);
+      if (slowestMillis > idealMillis && more > shards) {
+        suggestions.add(String.format("%s: its slowest shard took %.1fs, which delays the end of "
+            + "the build; consider setting shard_count = %d", entry.getKey(),
+            slowestMillis / 1000.0, more));
+      } else if (shards > 1 && fewer < shards) {
+        suggestions.add(String.format("%s: its %d shards took %.1fs on average, which is mostly "
+            + "spent starting them; consider setting shard_count = %d", entry.getKey(), shards,
+            testMillis / 1000.0 / shards, Math.max(fewer, 1)));
+      }
+    }
+    recentMillis.clear();
+    return suggestions;
+  }
+
+  private static long divideRoundingUp(long dividend, long divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+
+  /**
+   * Drops the durations that were not recorded for {@link #MAX_AGE_MILLIS}, then writes the history
+   * to the file it was loaded from.
+   */
+  public synchronized void save() throws IOException {
+    long oldestMillis = clock.currentTimeMillis() - MAX_AGE_MILLIS;
+    List<String> lines = new ArrayList<>(entries.size());
+    for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, Entry> entry = it.next();
+      if (entry.getValue().recordedAtMillis < oldestMillis) {
+        it.remove();
+        continue;
+      }
+      lines.add(entry.getKey() + '\t' + entry.getValue().expectedMillis + '\t'
+          + entry.getValue().recordedAtMillis);
+    }
+    Path tmp = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    FileSystemUtils.writeLinesAs(tmp, UTF_8, lines);
+    tmp.renameTo(file);
+  }
+}
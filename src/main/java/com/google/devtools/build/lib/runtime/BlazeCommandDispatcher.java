@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.io.Flushables;
+import com.google.devtools.build.lib.events.AsyncEventHandler;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
@@ -30,6 +31,7 @@ import com.google.devtools.build.lib.util.AnsiStrippingOutputStream;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.util.io.DeferredFlushOutputStream;
 import com.google.devtools.build.lib.util.io.DelegatingOutErr;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -39,6 +41,7 @@ import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParser;
 import com.google.devtools.common.options.OptionsParsingException;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -67,6 +70,9 @@ public class BlazeCommandDispatcher {
 
   private static final ImmutableList<String> HELP_COMMAND = ImmutableList.of("help");
 
+  // The number of queued events above which progress messages are dropped.
+  private static final int ASYNC_EVENT_QUEUE_CAPACITY = 10000;
+
   private static final Set<String> ALL_HELP_OPTIONS = ImmutableSet.of("--help", "-help", "-h");
 
   /**
@@ -372,9 +378,20 @@ public class BlazeCommandDispatcher {
     PrintStream savedOut = System.out;
     PrintStream savedErr = System.err;
 
-    EventHandler handler = createEventHandler(outErr, eventHandlerOptions);
+    EventHandler handler;
+    AsyncEventHandler asyncHandler = null;
+    if (eventHandlerOptions.asyncEventHandler) {
+      // The handler flushes the client's streams once per batch of events, not once per event.
+      handler = createEventHandler(OutErr.create(
+          new DeferredFlushOutputStream(outErr.getOutputStream()),
+          new DeferredFlushOutputStream(outErr.getErrorStream())), eventHandlerOptions);
+      asyncHandler =
+          new AsyncEventHandler(handler, ASYNC_EVENT_QUEUE_CAPACITY, flushable(outErr));
+    } else {
+      handler = createEventHandler(outErr, eventHandlerOptions);
+    }
     Reporter reporter = runtime.getReporter();
-    reporter.addHandler(handler);
+    reporter.addHandler(asyncHandler != null ? asyncHandler : handler);
     try {
       // While a Blaze command is active, direct all errors to the client's
       // event handler (and out/err streams).
@@ -419,13 +436,17 @@ public class BlazeCommandDispatcher {
       throw new ShutdownBlazeServerException(numericExitCode, e);
     } finally {
       runtime.afterCommand(numericExitCode);
+      if (asyncHandler != null) {
+        // All events must be written before the command's output streams are flushed.
+        closeQuietly(asyncHandler);
+      }
       // Swallow IOException, as we are already in a finally clause
       Flushables.flushQuietly(outErr.getOutputStream());
       Flushables.flushQuietly(outErr.getErrorStream());
 
       System.setOut(savedOut);
       System.setErr(savedErr);
-      reporter.removeHandler(handler);
+      reporter.removeHandler(asyncHandler != null ? asyncHandler : handler);
       releaseHandler(handler);
       runtime.getTimestampGranularityMonitor().waitForTimestampGranularity(outErr);
     }
@@ -654,6 +675,24 @@ public class BlazeCommandDispatcher {
     return RateLimitingEventHandler.create(eventHandler, eventOptions.showProgressRateLimit);
   }
 
+  private static Flushable flushable(final OutErr outErr) {
+    return new Flushable() {
+      @Override
+      public void flush() throws IOException {
+        outErr.getOutputStream().flush();
+        outErr.getErrorStream().flush();
+      }
+    };
+  }
+
+  private static void closeQuietly(AsyncEventHandler handler) {
+    try {
+      handler.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Unsets the event handler.
    */
@@ -125,6 +125,13 @@ public class BlazeCommandEventHandler implements EventHandler {
             + "Useful to see what blaze is doing when having multiple terminal tabs.")
     public boolean progressInTermTitle;
 
+    @Option(name = "experimental_async_event_handler",
+        defaultValue = "false",
+        category = "verbosity",
+        help = "Write messages to the terminal on a separate thread, so that build threads never "
+            + "wait for the terminal. Progress messages are dropped if the terminal falls behind.")
+    public boolean asyncEventHandler;
+
     @Option(name = "experimental_external_repositories",
         defaultValue = "false",
         category = "verbosity",
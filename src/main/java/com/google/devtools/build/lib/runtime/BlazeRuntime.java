@@ -35,6 +35,8 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.LocalOutputCache;
+import com.google.devtools.build.lib.actions.cache.MappedActionCache;
 import com.google.devtools.build.lib.actions.cache.NullActionCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
@@ -51,6 +53,7 @@ import com.google.devtools.build.lib.analysis.config.ConfigurationFactory;
 import com.google.devtools.build.lib.analysis.config.DefaultsPackage;
 import com.google.devtools.build.lib.analysis.config.InvalidConfigurationException;
 import com.google.devtools.build.lib.buildtool.BuildTool;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetFlatteningCache;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.OutputFilter;
 import com.google.devtools.build.lib.events.Reporter;
@@ -97,6 +100,7 @@ import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
@@ -194,6 +198,9 @@ public final class BlazeRuntime {
   private final ConfiguredRuleClassProvider ruleClassProvider;
   private final BuildView view;
   private ActionCache actionCache;
+  private LocalOutputCache localOutputCache;
+  private Path localOutputCacheRoot;
+  private long localOutputCacheSizeBytes;
   private final TimestampGranularityMonitor timestampGranularityMonitor;
   private final Clock clock;
   private final BuildTool buildTool;
@@ -633,8 +640,16 @@ public final class BlazeRuntime {
    * Returns reference to the lazily instantiated persistent action cache
    * instance. Note, that method may recreate instance between different build
    * requests, so return value should not be cached.
+   *
+   * @param mapped whether to use a {@link MappedActionCache} rather than a
+   *     {@link CompactPersistentActionCache}. The two keep their data in
+   *     different files, so switching between them starts from an empty cache.
    */
-  public ActionCache getPersistentActionCache() throws IOException {
+  public ActionCache getPersistentActionCache(boolean mapped) throws IOException {
+    if (actionCache != null && !(actionCache instanceof NullActionCache)
+        && (actionCache instanceof MappedActionCache) != mapped) {
+      actionCache = null;
+    }
     if (actionCache == null) {
       if (OS.getCurrent() == OS.WINDOWS) {
         // TODO(bazel-team): Add support for a persistent action cache on Windows.
@@ -643,7 +658,7 @@ public final class BlazeRuntime {
       }
       long startTime = Profiler.nanoTimeMaybe();
       try {
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = newPersistentActionCache(mapped);
       } catch (IOException e) {
         LOG.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
         LoggingUtil.logToRemote(Level.WARNING, "Failed to load action cache: "
@@ -652,7 +667,7 @@ public final class BlazeRuntime {
             Event.error("Error during action cache initialization: " + e.getMessage()
             + ". Corrupted files were renamed to '" + getCacheDirectory() + "/*.bad'. "
             + "Blaze will now reset action cache data, causing a full rebuild"));
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = newPersistentActionCache(mapped);
       } finally {
         Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Loading action cache");
       }
@@ -660,6 +675,32 @@ public final class BlazeRuntime {
     return actionCache;
   }
 
+  private ActionCache newPersistentActionCache(boolean mapped) throws IOException {
+    return mapped
+        ? new MappedActionCache(getCacheDirectory(), clock)
+        : new CompactPersistentActionCache(getCacheDirectory(), clock);
+  }
+
+  /**
+   * Returns the local output cache in the given directory, opening it if it is not the one returned
+   * by the previous call. The cache outlives the server's other caches and is kept across builds.
+   */
+  public LocalOutputCache getLocalOutputCache(Path root, long maxSizeBytes) throws IOException {
+    if (localOutputCache == null || !root.equals(localOutputCacheRoot)
+        || maxSizeBytes != localOutputCacheSizeBytes) {
+      long startTime = Profiler.nanoTimeMaybe();
+      try {
+        localOutputCache = new LocalOutputCache(root, maxSizeBytes);
+        localOutputCacheRoot = root;
+        localOutputCacheSizeBytes = maxSizeBytes;
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO,
+            "Loading local output cache");
+      }
+    }
+    return localOutputCache;
+  }
+
   /**
    * Removes in-memory caches.
    */
@@ -757,6 +798,16 @@ public final class BlazeRuntime {
     skyframeExecutor.decideKeepIncrementalState(
         startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).batch,
         optionsParser.getOptions(BuildView.Options.class));
+    // Actions memoize their keys, so the analysis must be redone when the algorithm changes.
+    boolean fingerprintAlgorithmChanged = Fingerprint.setDefaultAlgorithm(options.fastFingerprints
+        ? Fingerprint.Algorithm.MURMUR3_128
+        : Fingerprint.Algorithm.MD5);
+    if (skyframeExecutor.setConcurrentNodeEntries(options.concurrentNodeEntries)
+        || fingerprintAlgorithmChanged) {
+      clearSkyframeRelevantCaches();
+    }
+
+    NestedSetFlatteningCache.setEnabled(options.nestedSetFlatteningCache);
 
     // Conditionally enable profiling
     // We need to compensate for launchTimeNanos (measurements taken outside of the jvm).
@@ -247,4 +247,26 @@ public class CommonCommandOptions extends OptionsBase {
       category = "hidden",
       help = "Enable processing of +<file> parameters.")
   public boolean allowProjectFiles;
+
+  @Option(name = "experimental_nested_set_flattening_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the flattened contents of large nested sets are cached, so that sets "
+          + "shared by many actions are only expanded once.")
+  public boolean nestedSetFlatteningCache;
+
+  @Option(name = "experimental_fast_fingerprints",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, action keys use the non-cryptographic MurmurHash3 instead of MD5. "
+          + "Digests that appear in output paths or in Blaze's output always use MD5. Changing "
+          + "this flag discards the analysis cache and makes the action cache stale once.")
+  public boolean fastFingerprints;
+
+  @Option(name = "experimental_concurrent_node_entries",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, parents are added to done Skyframe nodes without locking them. Changing "
+          + "this flag discards the analysis cache.")
+  public boolean concurrentNodeEntries;
 }
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.runtime.commands;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
@@ -23,11 +25,13 @@ import com.google.common.collect.TreeMultimap;
 import com.google.devtools.build.lib.actions.MiddlemanAction;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.profiler.ChromeTraceWriter;
 import com.google.devtools.build.lib.profiler.ProfileInfo;
 import com.google.devtools.build.lib.profiler.ProfileInfo.CriticalPathEntry;
 import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.ProfilePhaseStatistics;
+import com.google.devtools.build.lib.profiler.ProfileReader;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.chart.AggregatingChartCreator;
 import com.google.devtools.build.lib.profiler.chart.Chart;
@@ -42,17 +46,22 @@ import com.google.devtools.build.lib.util.StringUtil;
 import com.google.devtools.build.lib.util.TimeUtilities;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.Converters;
+import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParser;
 import com.google.devtools.common.options.OptionsProvider;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -81,6 +90,12 @@ public final class ProfileCommand implements BlazeCommand {
     }
   }
 
+  public static class PhaseConverter extends EnumConverter<ProfilePhase> {
+    public PhaseConverter() {
+      super(ProfilePhase.class, "--phase setting");
+    }
+  }
+
   public static class ProfileOptions extends OptionsBase {
     @Option(name = "dump",
         abbrev='d',
@@ -118,6 +133,29 @@ public final class ProfileCommand implements BlazeCommand {
         defaultValue = "-1",
         help = "Maximum number of VFS path statistics to print.")
     public int vfsStatsLimit;
+
+    @Option(name = "chrome_trace",
+        defaultValue = "false",
+        help = "If present, the tasks of the profile are converted to the Chrome trace event "
+            + "format, which can be viewed with chrome://tracing. The name of the output file is "
+            + "the name of the profile file plus '.json'. The profile is streamed rather than "
+            + "loaded into memory.")
+    public boolean chromeTrace;
+
+    @Option(name = "task_summary",
+        defaultValue = "false",
+        help = "If present, only the number and total duration of the tasks of each type are "
+            + "printed, for each phase. The profile is streamed rather than loaded into memory, "
+            + "which is much faster for the profiles of large builds.")
+    public boolean taskSummary;
+
+    @Option(name = "phase",
+        converter = PhaseConverter.class,
+        defaultValue = "null",
+        help = "If set, --chrome_trace and --task_summary only read the tasks completed during "
+            + "the given phase (launch, init, load, analyze, license, prepare, execute or "
+            + "finish), and skip the rest of the profile.")
+    public ProfilePhase phase;
   }
 
   private Function<String, String> currentPathMapping = Functions.<String>identity();
@@ -170,6 +208,13 @@ public final class ProfileCommand implements BlazeCommand {
       for (String name : options.getResidue()) {
         Path profileFile = runtime.getWorkingDirectory().getRelative(name);
         try {
+          if (opts.chromeTrace) {
+            createChromeTrace(runtime, profileFile, opts);
+            continue;
+          } else if (opts.taskSummary) {
+            printTaskSummary(runtime, profileFile, out, opts);
+            continue;
+          }
           ProfileInfo info = ProfileInfo.loadProfileVerbosely(
               profileFile, getInfoListener(runtime));
           if (opts.dumpMode != null) {
@@ -190,6 +235,100 @@ public final class ProfileCommand implements BlazeCommand {
     return ExitCode.SUCCESS;
   }
 
+  private Predicate<ProfileReader.Chunk> getChunkFilter(ProfileOptions opts) {
+    return opts.phase == null
+        ? Predicates.<ProfileReader.Chunk>alwaysTrue()
+        : ProfileReader.inPhase(opts.phase);
+  }
+
+  private void createChromeTrace(BlazeRuntime runtime, Path profileFile, ProfileOptions opts)
+      throws IOException {
+    Path traceFile =
+        profileFile.getParentDirectory().getChild(profileFile.getBaseName() + ".json");
+    runtime.getReporter().handle(Event.info("Creating Chrome trace in " + traceFile));
+
+    try (ProfileReader reader = ProfileReader.open(profileFile);
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(traceFile.getOutputStream(), StandardCharsets.UTF_8))) {
+      ChromeTraceWriter traceWriter = new ChromeTraceWriter(out, reader.getComment());
+      readProfile(runtime, reader, opts, traceWriter);
+      traceWriter.finish();
+    }
+  }
+
+  private void printTaskSummary(BlazeRuntime runtime, Path profileFile, PrintStream out,
+      ProfileOptions opts) throws IOException {
+    // Counts and durations of the tasks by phase ordinal + 1, with 0 standing for the tasks
+    // completed before the first phase, and by task type ordinal.
+    final int phaseCount = ProfilePhase.values().length + 1;
+    final int[][] counts = new int[phaseCount][ProfilerTask.TASK_COUNT];
+    final long[][] durations = new long[phaseCount][ProfilerTask.TASK_COUNT];
+
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      runtime.getReporter().handle(Event.info(reader.getComment()));
+      readProfile(runtime, reader, opts, new ProfileReader.TaskVisitor() {
+        private int phaseIndex;
+
+        @Override
+        public void visit(long threadId, int id, int parentId, long startTime, long duration,
+            ProfilerTask type, String description, byte[] stats) {
+          if (type == ProfilerTask.PHASE) {
+            phaseIndex = 0;
+            for (ProfilePhase phase : ProfilePhase.values()) {
+              if (phase.description.equals(description)) {
+                phaseIndex = phase.ordinal() + 1;
+              }
+            }
+          }
+          // Every subtask is accounted for by the aggregated statistics of its parent, which
+          // also cover the subtasks too short to be recorded on their own.
+          if (parentId == 0) {
+            counts[phaseIndex][type.ordinal()]++;
+            durations[phaseIndex][type.ordinal()] += duration;
+          }
+          if (stats != null) {
+            ProfileReader.addStats(stats, counts[phaseIndex], durations[phaseIndex]);
+          }
+        }
+      });
+    }
+
+    for (int phaseIndex = 0; phaseIndex < phaseCount; phaseIndex++) {
+      if (phaseIndex > 0 && opts.phase != null && opts.phase.ordinal() + 1 != phaseIndex) {
+        continue;
+      }
+      boolean hasTasks = false;
+      for (int count : counts[phaseIndex]) {
+        hasTasks |= count > 0;
+      }
+      if (!hasTasks) {
+        continue;
+      }
+      String title = phaseIndex == 0
+          ? "Before the first phase"
+          : ProfilePhase.values()[phaseIndex - 1].nick + " phase";
+      out.println("\n=== " + title.toUpperCase() + " ===\n");
+      out.printf(THREE_COLUMN_FORMAT, "Type", "Total time", "Count");
+      for (ProfilerTask type : ProfilerTask.values()) {
+        int count = counts[phaseIndex][type.ordinal()];
+        if (count > 0) {
+          out.printf(THREE_COLUMN_FORMAT, type.toString(),
+              TimeUtilities.prettyTime(durations[phaseIndex][type.ordinal()]), count);
+        }
+      }
+    }
+  }
+
+  private void readProfile(BlazeRuntime runtime, ProfileReader reader, ProfileOptions opts,
+      ProfileReader.TaskVisitor visitor) {
+    try {
+      reader.read(getChunkFilter(opts), visitor);
+    } catch (IOException e) {
+      runtime.getReporter().handle(Event.warn(
+          "Profile file is incomplete or corrupted - not all records were parsed"));
+    }
+  }
+
   private void createText(BlazeRuntime runtime, ProfileInfo info, PrintStream out,
       ProfileOptions opts) {
     List<ProfilePhaseStatistics> statistics = getStatistics(runtime, info, opts);
@@ -21,12 +21,14 @@ import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.query2.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions;
 import com.google.devtools.build.lib.query2.output.QueryOutputUtils;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
@@ -43,6 +45,7 @@ import java.io.PrintStream;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Command line wrapper for executing a query with blaze.
@@ -121,6 +124,10 @@ public final class QueryCommand implements BlazeCommand {
       return ExitCode.COMMAND_LINE_ERROR;
     }
 
+    if (QueryOutputUtils.streamResults(queryOptions, formatter)) {
+      return evaluateAndStream(runtime, env, expr, (StreamedFormatter) formatter, queryOptions);
+    }
+
     // 2. Evaluate expression:
     QueryEvalResult<Target> result;
     try {
@@ -151,6 +158,39 @@ public final class QueryCommand implements BlazeCommand {
     return result.getSuccess() ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
   }
 
+  /**
+   * Evaluates the query and prints its results as they are computed, so that they are never all
+   * held in memory at once.
+   */
+  private ExitCode evaluateAndStream(BlazeRuntime runtime,
+      AbstractBlazeQueryEnvironment<Target> env, QueryExpression expr,
+      StreamedFormatter formatter, QueryOptions queryOptions) {
+    PrintStream output = new PrintStream(runtime.getReporter().getOutErr().getOutputStream());
+    final Callback<Target> printer = formatter.createStreamCallback(queryOptions, output);
+    final AtomicBoolean empty = new AtomicBoolean(true);
+    boolean success;
+    try {
+      success = env.evaluateQuery(expr, new Callback<Target>() {
+        @Override
+        public void process(Iterable<Target> partialResult) throws QueryException {
+          empty.set(false);
+          printer.process(partialResult);
+        }
+      });
+    } catch (QueryException e) {
+      // Keep consistent with reportBuildFileError()
+      runtime.getReporter().handle(Event.error(e.getMessage()));
+      return ExitCode.ANALYSIS_FAILURE;
+    } finally {
+      output.flush();
+    }
+    if (empty.get()) {
+      runtime.getReporter().handle(Event.info("Empty results"));
+    }
+
+    return success ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
+  }
+
   @VisibleForTesting // for com.google.devtools.deps.gquery.test.QueryResultTestUtil
   public static AbstractBlazeQueryEnvironment<Target> newQueryEnvironment(BlazeRuntime runtime,
       boolean keepGoing, boolean orderedResults, int loadingPhaseThreads,
@@ -410,6 +410,64 @@ public final class Command {
                      killSubprocessOnInterrupt, false).get();
   }
 
+  /**
+   * <p>Execute this command with given input to stdin. This call blocks
+   * until the process completes or an error occurs. The process appends its
+   * stdout/stderr output directly to the given files, which are created if
+   * they do not exist, so the output never passes through this process. The
+   * given {@link KillableObserver} may also terminate the process early while
+   * running.</p>
+   *
+   * @param stdinInput bytes to be written to process's stdin, or
+   * {@link #NO_INPUT} if no bytes should be written
+   * @param observer {@link KillableObserver} that should observe the running
+   *  process, or {@link #NO_OBSERVER} if caller does not wish to kill the
+   *  process
+   * @param stdOut the file the process appends its standard output to
+   * @param stdErr the file the process appends its standard error to; if
+   *  equal to <code>stdOut</code>, both are interleaved into that file
+   * @param killSubprocessOnInterrupt see
+   *  {@link #execute(byte[], KillableObserver, OutputStream, OutputStream, boolean)}
+   * @return {@link CommandResult} representing result of the execution. Note
+   *  that {@link CommandResult#getStdout()} and
+   *  {@link CommandResult#getStderr()} will yield {@link IllegalStateException}
+   *  in this case, as the output is written to <code>stdOut/stdErr</code>
+   *  instead.
+   * @throws ExecFailedException if {@link Runtime#exec(String[])} fails for any
+   *  reason
+   * @throws AbnormalTerminationException if the process is interrupted (or
+   *  killed) before completion, or the process was terminated due to a signal.
+   * @throws BadExitStatusException if the process exits with a
+   *  non-zero status
+   * @throws NullPointerException if any argument is null.
+   */
+  public CommandResult execute(final byte[] stdinInput,
+                               final KillableObserver observer,
+                               final File stdOut,
+                               final File stdErr,
+                               final boolean killSubprocessOnInterrupt)
+    throws CommandException {
+    nullCheck(stdinInput, "stdinInput");
+    nullCheck(observer, "observer");
+    nullCheck(stdOut, "stdOut");
+    nullCheck(stdErr, "stdErr");
+    ProcessBuilder builder = new ProcessBuilder(processBuilder.command());
+    builder.environment().clear();
+    builder.environment().putAll(processBuilder.environment());
+    builder.directory(processBuilder.directory());
+    builder.redirectOutput(ProcessBuilder.Redirect.appendTo(stdOut));
+    if (stdErr.equals(stdOut)) {
+      builder.redirectErrorStream(true);
+    } else {
+      builder.redirectError(ProcessBuilder.Redirect.appendTo(stdErr));
+    }
+    return doExecute(builder,
+                     new ByteArrayInputSource(stdinInput),
+                     observer,
+                     Consumers.createDiscardingConsumers(),
+                     killSubprocessOnInterrupt, false).get();
+  }
+
   /**
    * <p>Execute this command with given input to stdin; this stream is closed
    * when the process terminates, and exceptions raised when closing this
@@ -640,10 +698,21 @@ public final class Command {
       final boolean killSubprocessOnInterrupt,
       final boolean closeOutputStreams)
     throws CommandException {
+    return doExecute(processBuilder, stdinInput, observer, outErrConsumers,
+        killSubprocessOnInterrupt, closeOutputStreams);
+  }
+
+  private FutureCommandResult doExecute(final ProcessBuilder builder,
+      final InputSource stdinInput,
+      final KillableObserver observer,
+      final Consumers.OutErrConsumers outErrConsumers,
+      final boolean killSubprocessOnInterrupt,
+      final boolean closeOutputStreams)
+    throws CommandException {
 
     logCommand();
 
-    final Process process = startProcess();
+    final Process process = startProcess(builder);
 
     outErrConsumers.logConsumptionStrategy();
 
@@ -681,10 +750,10 @@ public final class Command {
     };
   }
 
-  private Process startProcess()
+  private Process startProcess(ProcessBuilder builder)
     throws ExecFailedException {
     try {
-      return processBuilder.start();
+      return builder.start();
     } catch (IOException ioe) {
       throw new ExecFailedException(this, ioe);
     }
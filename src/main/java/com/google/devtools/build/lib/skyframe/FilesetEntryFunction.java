@@ -144,11 +144,7 @@ public final class FilesetEntryFunction implements SkyFunction {
           PathFragment path = f.getNameInSymlinkTree().relativeTo(prefixToRemove);
           if (path.segmentCount() > 0) {
             path = t.getDestPath().getRelative(path);
-            DirectoryTree dir = root;
-            for (int i = 0; i < path.segmentCount() - 1; ++i) {
-              dir = dir.addOrGetSubdir(path.getSegment(i));
-            }
-            dir.maybeAddFile(f);
+            root.addOrGetDir(path.getParentDirectory()).maybeAddFile(f);
           }
         }
         // Here's where the magic happens. The returned iterable will yield all files in the
@@ -273,6 +269,13 @@ public final class FilesetEntryFunction implements SkyFunction {
       return result;
     }
 
+    /** Returns the tree of {@code dir} under this one, adding the directories it lacks. */
+    DirectoryTree addOrGetDir(PathFragment dir) {
+      return dir.segmentCount() == 0
+          ? this
+          : addOrGetDir(dir.getParentDirectory()).addOrGetSubdir(dir.getBaseName());
+    }
+
     void maybeAddFile(ResolvedFile r) {
       String name = r.getNameInSymlinkTree().getBaseName();
       if (!files.containsKey(name)) {
@@ -21,6 +21,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -28,11 +29,15 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.concurrent.ExecutorShutdownUtil;
 import com.google.devtools.build.lib.concurrent.Sharder;
 import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
@@ -41,6 +46,7 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -62,7 +68,9 @@ import javax.annotation.Nullable;
  */
 class FilesystemValueChecker {
 
-  private static final int DIRTINESS_CHECK_THREADS = 50;
+  static final int DIRTINESS_CHECK_THREADS = 50;
+  /** The most children of a directory that one job stat()s one by one. */
+  private static final int MAX_STATS_PER_JOB = 100;
   private static final Logger LOG = Logger.getLogger(FilesystemValueChecker.class.getName());
 
   private static final Predicate<SkyKey> FILE_STATE_AND_DIRECTORY_LISTING_STATE_FILTER =
@@ -109,23 +117,170 @@ class FilesystemValueChecker {
    */
   Differencer.Diff getDirtyFilesystemValues(Iterable<SkyKey> values)
       throws InterruptedException {
-    return getDirtyValues(values, FILE_STATE_AND_DIRECTORY_LISTING_STATE_FILTER,
-        new DirtyChecker() {
+    return getDirtyFilesystemValues(values, DIRTINESS_CHECK_THREADS);
+  }
+
+  /**
+   * Check the given file and directory values for modifications. {@code values} is assumed to only
+   * have {@link FileStateValue}s and {@link DirectoryListingStateValue}s.
+   *
+   * <p>The values are sharded by directory: each shard holds the listing of a directory, if
+   * present, and the states of its direct children. Children that did not exist or were
+   * directories need not be stat()ed at all if the listing of their directory did not change.
+   * The other children are stat()ed one by one, by up to {@code numThreads} threads at once for a
+   * large directory.
+   */
+  Differencer.Diff getDirtyFilesystemValues(Iterable<SkyKey> values, int numThreads)
+      throws InterruptedException {
+    long startTime = Profiler.nanoTimeMaybe();
+    Map<RootedPath, DirectoryShard> shards = new HashMap<>();
+    int numValues = 0;
+    for (SkyKey key : values) {
+      Preconditions.checkState(FILE_STATE_AND_DIRECTORY_LISTING_STATE_FILTER.apply(key), key);
+      RootedPath rootedPath = (RootedPath) key.argument();
+      if (key.functionName() == SkyFunctions.DIRECTORY_LISTING_STATE) {
+        getShard(shards, rootedPath).listingKey = key;
+      } else {
+        PathFragment parent = rootedPath.getRelativePath().getParentDirectory();
+        // Package roots themselves have no directory in the graph, and share the null shard.
+        RootedPath dirRootedPath = parent == null
+            ? null
+            : RootedPath.toRootedPath(rootedPath.getRoot(), parent);
+        getShard(shards, dirRootedPath).fileKeys.add(key);
+      }
+      numValues++;
+    }
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO,
+        "Sharding filesystem values by directory");
+
+    startTime = Profiler.nanoTimeMaybe();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setNameFormat("FileSystem Value Invalidator %d").build());
+    BatchDirtyResult batchResult = new BatchDirtyResult();
+    AtomicInteger skippedStats = new AtomicInteger(0);
+    ThrowableRecordingRunnableWrapper wrapper =
+        new ThrowableRecordingRunnableWrapper("FilesystemValueChecker#getDirtyFilesystemValues");
+    for (Map.Entry<RootedPath, DirectoryShard> entry : shards.entrySet()) {
+      RootedPath dirRootedPath = entry.getKey();
+      DirectoryShard shard = entry.getValue();
+      Supplier<Map<String, Dirent.Type>> unchangedDirents =
+          unchangedDirentsSupplier(dirRootedPath, shard.listingKey, batchResult);
+      if (shard.fileKeys.isEmpty()) {
+        executor.execute(wrapper.wrap(fileStatesJob(shard.fileKeys, unchangedDirents,
+            batchResult, skippedStats)));
+      } else {
+        for (List<SkyKey> fileKeys : Lists.partition(shard.fileKeys, MAX_STATS_PER_JOB)) {
+          executor.execute(wrapper.wrap(fileStatesJob(fileKeys, unchangedDirents,
+              batchResult, skippedStats)));
+        }
+      }
+    }
+
+    boolean interrupted = ExecutorShutdownUtil.interruptibleShutdown(executor);
+    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO,
+        "Checking filesystem values for changes");
+    if (interrupted) {
+      throw new InterruptedException();
+    }
+    LOG.info(String.format("Checked %d filesystem values in %d directories, skipped %d stats",
+        numValues, shards.size(), skippedStats.get()));
+    return batchResult;
+  }
+
+  private static DirectoryShard getShard(Map<RootedPath, DirectoryShard> shards,
+      @Nullable RootedPath dirRootedPath) {
+    DirectoryShard shard = shards.get(dirRootedPath);
+    if (shard == null) {
+      shard = new DirectoryShard();
+      shards.put(dirRootedPath, shard);
+    }
+    return shard;
+  }
+
+  /**
+   * Returns a supplier that checks the listing of a directory the first time it is called, and
+   * returns the entries of the listing by name if it did not change. Returns null if the
+   * directory has no listing in the graph or the listing changed.
+   */
+  private Supplier<Map<String, Dirent.Type>> unchangedDirentsSupplier(
+      @Nullable final RootedPath dirRootedPath, @Nullable final SkyKey listingKey,
+      final BatchDirtyResult batchResult) {
+    if (listingKey == null) {
+      return Suppliers.<Map<String, Dirent.Type>>ofInstance(null);
+    }
+    // The jobs of a large directory share the supplier, so the listing is only read once.
+    return Suppliers.memoize(new Supplier<Map<String, Dirent.Type>>() {
       @Override
-      public DirtyResult check(SkyKey key, SkyValue oldValue, TimestampGranularityMonitor tsgm) {
-        if (key.functionName() == SkyFunctions.FILE_STATE) {
-          return checkFileStateValue((RootedPath) key.argument(), (FileStateValue) oldValue,
-              tsgm);
-        } else if (key.functionName() == SkyFunctions.DIRECTORY_LISTING_STATE) {
-          return checkDirectoryListingStateValue((RootedPath) key.argument(),
-              (DirectoryListingStateValue) oldValue);
-        } else {
-          throw new IllegalStateException("Unexpected key type " + key);
+      public Map<String, Dirent.Type> get() {
+        SkyValue oldValue = valuesSupplier.get().get(listingKey);
+        if (oldValue == null) {
+          // value will be null if the value is in error or part of a cycle.
+          batchResult.add(listingKey, /*newValue=*/null);
+          return null;
         }
+        DirtyResult result = checkDirectoryListingStateValue(dirRootedPath,
+            (DirectoryListingStateValue) oldValue);
+        if (result.isDirty()) {
+          batchResult.add(listingKey, result.getNewValue());
+          return null;
+        }
+        Map<String, Dirent.Type> unchangedDirents = new HashMap<>();
+        for (Dirent dirent : ((DirectoryListingStateValue) oldValue).getDirents()) {
+          unchangedDirents.put(dirent.getName(), dirent.getType());
+        }
+        return unchangedDirents;
       }
     });
   }
 
+  private Runnable fileStatesJob(final List<SkyKey> fileKeys,
+      final Supplier<Map<String, Dirent.Type>> unchangedDirentsSupplier,
+      final BatchDirtyResult batchResult, final AtomicInteger skippedStats) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        Map<String, Dirent.Type> unchangedDirents = unchangedDirentsSupplier.get();
+        for (SkyKey key : fileKeys) {
+          FileStateValue oldValue = (FileStateValue) valuesSupplier.get().get(key);
+          if (oldValue == null) {
+            // TODO(bazel-team): This is overly conservative.
+            batchResult.add(key, /*newValue=*/null);
+          } else if (unchangedDirents != null
+              && isImpliedByDirent(oldValue, unchangedDirents.get(
+                  ((RootedPath) key.argument()).getRelativePath().getBaseName()))) {
+            skippedStats.incrementAndGet();
+          } else {
+            DirtyResult result =
+                checkFileStateValue((RootedPath) key.argument(), oldValue, tsgm);
+            if (result.isDirty()) {
+              batchResult.add(key, result.getNewValue());
+            }
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns true if a file whose last known state is {@code oldValue} is known to still be in that
+   * state, given that the unchanged listing of its directory has an entry of type {@code
+   * direntType} for it, or none if {@code direntType} is null. The listing does not tell whether
+   * the contents of a file or the target of a symlink changed, so only the states of nonexistent
+   * files and directories are implied by it.
+   */
+  private static boolean isImpliedByDirent(FileStateValue oldValue,
+      @Nullable Dirent.Type direntType) {
+    switch (oldValue.getType()) {
+      case NONEXISTENT:
+        return direntType == null;
+      case DIRECTORY:
+        return direntType == Dirent.Type.DIRECTORY;
+      default:
+        return false;
+    }
+  }
+
   /**
    * Return a collection of action values which have output files that are not in-sync with
    * the on-disk file value (were modified externally).
@@ -289,43 +444,6 @@ class FilesystemValueChecker {
     return isDirty;
   }
 
-  private BatchDirtyResult getDirtyValues(Iterable<SkyKey> values,
-                                         Predicate<SkyKey> keyFilter,
-                                         final DirtyChecker checker) throws InterruptedException {
-    ExecutorService executor = Executors.newFixedThreadPool(DIRTINESS_CHECK_THREADS,
-        new ThreadFactoryBuilder().setNameFormat("FileSystem Value Invalidator %d").build());
-
-    final BatchDirtyResult batchResult = new BatchDirtyResult();
-    ThrowableRecordingRunnableWrapper wrapper =
-        new ThrowableRecordingRunnableWrapper("FilesystemValueChecker#getDirtyValues");
-    for (final SkyKey key : values) {
-      Preconditions.checkState(keyFilter.apply(key), key);
-      final SkyValue value = valuesSupplier.get().get(key);
-      executor.execute(wrapper.wrap(new Runnable() {
-        @Override
-        public void run() {
-          if (value == null) {
-            // value will be null if the value is in error or part of a cycle.
-            // TODO(bazel-team): This is overly conservative.
-            batchResult.add(key, /*newValue=*/null);
-            return;
-          }
-          DirtyResult result = checker.check(key, value, tsgm);
-          if (result.isDirty()) {
-            batchResult.add(key, result.getNewValue());
-          }
-        }
-      }));
-    }
-
-    boolean interrupted = ExecutorShutdownUtil.interruptibleShutdown(executor);
-    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
-    if (interrupted) {
-      throw new InterruptedException();
-    }
-    return batchResult;
-  }
-
   private static DirtyResult checkFileStateValue(RootedPath rootedPath,
       FileStateValue fileStateValue, TimestampGranularityMonitor tsgm) {
     try {
@@ -415,7 +533,9 @@ class FilesystemValueChecker {
     }
   }
 
-  private static interface DirtyChecker {
-    DirtyResult check(SkyKey key, SkyValue oldValue, TimestampGranularityMonitor tsgm);
+  /** The listing of a directory and the states of its direct children. */
+  private static class DirectoryShard {
+    @Nullable private SkyKey listingKey;
+    private final List<SkyKey> fileKeys = new ArrayList<>();
   }
 }
@@ -0,0 +1,434 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashBiMap;
+import com.google.devtools.build.lib.unix.Inotify;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * File system watcher for local Linux filesystems that uses inotify directly, rather than through
+ * the Java WatchService as {@link LocalDiffAwareness} does.
+ *
+ * <p>A single inotify instance watches every directory under the package path entry. Its events
+ * are totally ordered across directories, and are drained by a background thread between builds,
+ * so that the kernel queue does not overflow on large changes such as version control checkouts.
+ * If it overflows anyway, the next diff reports every file as modified and all directories are
+ * registered again, but the instance stays usable: unlike a broken {@link DiffAwareness}, it does
+ * not have to be replaced, and the diffs that follow are exact again.
+ */
+public class InotifyDiffAwareness implements DiffAwareness {
+
+  private static final Logger LOG = Logger.getLogger(InotifyDiffAwareness.class.getName());
+
+  /** Factory for creating {@link InotifyDiffAwareness} instances. */
+  public static class Factory implements DiffAwareness.Factory {
+    @Override
+    public DiffAwareness maybeCreate(com.google.devtools.build.lib.vfs.Path pathEntry) {
+      if (OS.getCurrent() != OS.LINUX) {
+        return null;
+      }
+      PathFragment resolvedPathEntryFragment = LocalDiffAwareness.resolveWatchRoot(pathEntry);
+      if (resolvedPathEntryFragment == null) {
+        return null;
+      }
+      int fd;
+      try {
+        fd = Inotify.init();
+      } catch (IOException e) {
+        return null;
+      }
+      return new InotifyDiffAwareness(fromLatin1(resolvedPathEntryFragment.toString()), fd);
+    }
+  }
+
+  private static final int WATCH_MASK = Inotify.IN_CREATE | Inotify.IN_MOVED_TO
+      | Inotify.IN_DELETE | Inotify.IN_MOVED_FROM | Inotify.IN_MODIFY | Inotify.IN_ATTRIB
+      | Inotify.IN_ONLYDIR | Inotify.IN_DONT_FOLLOW;
+
+  /** Large enough for hundreds of events with names of usual lengths. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int POLL_TIMEOUT_MILLIS = 1000;
+
+  /**
+   * Charset of file names in java.nio paths. Blaze's own paths, like the names read from inotify
+   * and the path given to {@link Inotify#addWatch}, hold the raw bytes of file names as Latin1.
+   */
+  private static final Charset FILE_NAME_CHARSET = getFileNameCharset();
+
+  /** Root directory to watch. This is an absolute path. */
+  private final Path watchRootPath;
+
+  /** File descriptor of the inotify instance. */
+  private final int fd;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private final Thread drainThread;
+
+  // The following fields are guarded by this object.
+
+  /** Bijection from watch descriptor to the (absolute) path of the watched directory. */
+  private final HashBiMap<Integer, Path> watchDescriptorToDirBiMap = HashBiMap.create();
+
+  private int rootWatchDescriptor = -1;
+
+  private int numGetCurrentViewCalls = 0;
+
+  /** Paths created since the last view, including directories whose contents were not watched. */
+  private Set<Path> createdFilesAndDirectories = new HashSet<>();
+
+  /** Paths deleted or modified since the last view. */
+  private Set<Path> deletedOrModifiedFilesAndDirectories = new HashSet<>();
+
+  /**
+   * Whether events may have been lost since the last view, either because the kernel queue
+   * overflowed or because a directory was moved away with its unknown contents.
+   */
+  private boolean everythingModified = false;
+
+  /** Why this instance cannot be used anymore, or null. */
+  @Nullable private String brokenReason = null;
+
+  private boolean closed = false;
+
+  private InotifyDiffAwareness(String watchRoot, int fd) {
+    this.watchRootPath = FileSystems.getDefault().getPath(watchRoot);
+    this.fd = fd;
+    this.drainThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainEvents();
+      }
+    }, "inotify-diff-awareness " + watchRoot);
+    drainThread.setDaemon(true);
+  }
+
+  /** A view of the changes since the previous view, or of all files if {@code everything}. */
+  private static class SequentialView implements DiffAwareness.View {
+    private final InotifyDiffAwareness owner;
+    private final int position;
+    @Nullable private final Set<Path> modifiedAbsolutePaths;
+
+    private SequentialView(InotifyDiffAwareness owner, int position,
+        @Nullable Set<Path> modifiedAbsolutePaths) {
+      this.owner = owner;
+      this.position = position;
+      this.modifiedAbsolutePaths = modifiedAbsolutePaths;
+    }
+
+    private static boolean areInSequence(SequentialView oldView, SequentialView newView) {
+      return oldView.owner == newView.owner && (oldView.position + 1) == newView.position;
+    }
+  }
+
+  @Override
+  public synchronized SequentialView getCurrentView() throws BrokenDiffAwarenessException {
+    Set<Path> modifiedAbsolutePaths;
+    try {
+      if (numGetCurrentViewCalls++ == 0) {
+        registerSubDirectoriesAndReturnContents(watchRootPath);
+        Integer wd = watchDescriptorToDirBiMap.inverse().get(watchRootPath);
+        if (wd == null) {
+          throw new IOException("Root directory " + watchRootPath + " could not be watched.");
+        }
+        rootWatchDescriptor = wd;
+        drainThread.start();
+        modifiedAbsolutePaths = new HashSet<>();
+      } else {
+        modifiedAbsolutePaths = collectChanges();
+      }
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException(
+          "Error encountered with inotify file system watcher " + e);
+    } catch (BrokenDiffAwarenessException e) {
+      close();
+      throw e;
+    }
+    return new SequentialView(this, numGetCurrentViewCalls, modifiedAbsolutePaths);
+  }
+
+  @Override
+  public ModifiedFileSet getDiff(View oldView, View newView)
+      throws IncompatibleViewException, BrokenDiffAwarenessException {
+    SequentialView oldSequentialView;
+    SequentialView newSequentialView;
+    try {
+      oldSequentialView = (SequentialView) oldView;
+      newSequentialView = (SequentialView) newView;
+    } catch (ClassCastException e) {
+      throw new IncompatibleViewException("Given views are not from InotifyDiffAwareness");
+    }
+    if (!SequentialView.areInSequence(oldSequentialView, newSequentialView)
+        || newSequentialView.modifiedAbsolutePaths == null) {
+      return ModifiedFileSet.EVERYTHING_MODIFIED;
+    }
+    ModifiedFileSet.Builder builder = ModifiedFileSet.builder();
+    for (Path path : newSequentialView.modifiedAbsolutePaths) {
+      Preconditions.checkArgument(path.startsWith(watchRootPath), "%s %s", path, watchRootPath);
+      builder.modify(new PathFragment(toLatin1(watchRootPath.relativize(path).toString())));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    if (drainThread.isAlive()) {
+      // The drain thread closes the inotify instance once it notices, so that it is never closed
+      // while being polled.
+      drainThread.interrupt();
+    } else {
+      Inotify.close(fd);
+    }
+  }
+
+  /** Body of the drain thread: processes events as they arrive, until closed. */
+  private void drainEvents() {
+    try {
+      while (true) {
+        synchronized (this) {
+          if (closed) {
+            break;
+          }
+        }
+        if (Inotify.poll(fd, POLL_TIMEOUT_MILLIS)) {
+          synchronized (this) {
+            if (closed) {
+              break;
+            }
+            readAvailableEvents();
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Error draining inotify events for " + watchRootPath, e);
+      synchronized (this) {
+        brokenReason = "Error encountered with inotify file system watcher " + e;
+      }
+    } finally {
+      Inotify.close(fd);
+    }
+  }
+
+  /** Returns the paths changed since the last call, or null if all paths may have changed. */
+  @Nullable
+  private Set<Path> collectChanges() throws BrokenDiffAwarenessException, IOException {
+    if (brokenReason != null) {
+      throw new BrokenDiffAwarenessException(brokenReason);
+    }
+    readAvailableEvents();
+    if (watchDescriptorToDirBiMap.isEmpty()) {
+      // No more directories to watch, something happened the root directory being watched.
+      throw new IOException("Root directory " + watchRootPath + " became inaccessible.");
+    }
+
+    Set<Path> created = createdFilesAndDirectories;
+    Set<Path> deletedOrModified = deletedOrModifiedFilesAndDirectories;
+    boolean everything = everythingModified;
+    createdFilesAndDirectories = new HashSet<>();
+    deletedOrModifiedFilesAndDirectories = new HashSet<>();
+    everythingModified = false;
+
+    if (everything) {
+      // Directories created while events were lost are not watched yet.
+      LOG.info("Inotify events may have been lost for " + watchRootPath
+          + ", registering all directories");
+      registerSubDirectoriesAndReturnContents(watchRootPath);
+      return null;
+    }
+    Set<Path> changedPaths = new HashSet<>();
+    for (Path path : created) {
+      if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        // This is a new directory, so changes to it since its creation have not been watched.
+        // We manually traverse the directory tree to register all the new subdirectories and find
+        // all the new subdirectories and files.
+        changedPaths.addAll(registerSubDirectoriesAndReturnContents(path));
+      } else {
+        changedPaths.add(path);
+      }
+    }
+    changedPaths.addAll(deletedOrModified);
+    return changedPaths;
+  }
+
+  /** Reads and processes all pending events without blocking. Must hold the lock. */
+  private void readAvailableEvents() throws IOException {
+    int length;
+    while ((length = Inotify.read(fd, buffer)) > 0) {
+      ByteBuffer events = ByteBuffer.wrap(buffer, 0, length).order(ByteOrder.nativeOrder());
+      while (events.remaining() >= Inotify.EVENT_HEADER_SIZE) {
+        int wd = events.getInt();
+        int mask = events.getInt();
+        events.getInt();  // Cookie, used to pair moves.
+        int nameLength = events.getInt();
+        String name = readName(events, nameLength);
+        processEvent(wd, mask, name);
+      }
+    }
+  }
+
+  /** Reads the nul-padded name of an event, or returns null if the event has no name. */
+  @Nullable
+  private static String readName(ByteBuffer events, int nameLength) {
+    int start = events.position();
+    int end = start;
+    while (end < start + nameLength && events.get(end) != 0) {
+      end++;
+    }
+    events.position(start + nameLength);
+    if (end == start) {
+      return null;
+    }
+    return new String(events.array(), start, end - start, FILE_NAME_CHARSET);
+  }
+
+  private static Charset getFileNameCharset() {
+    String encoding = System.getProperty("sun.jnu.encoding");
+    try {
+      return encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+    } catch (IllegalArgumentException e) {
+      return Charset.defaultCharset();
+    }
+  }
+
+  /** Converts a Blaze path string to the name java.nio uses for the same bytes. */
+  private static String fromLatin1(String path) {
+    return new String(path.getBytes(StandardCharsets.ISO_8859_1), FILE_NAME_CHARSET);
+  }
+
+  /** Converts a java.nio path string to the Blaze path string for the same bytes. */
+  private static String toLatin1(String path) {
+    return new String(path.getBytes(FILE_NAME_CHARSET), StandardCharsets.ISO_8859_1);
+  }
+
+  private void processEvent(int wd, int mask, @Nullable String name) {
+    if ((mask & Inotify.IN_Q_OVERFLOW) != 0) {
+      everythingModified = true;
+      return;
+    }
+    if ((mask & Inotify.IN_IGNORED) != 0) {
+      // The watched directory was deleted, or its watch removed.
+      if (wd == rootWatchDescriptor) {
+        brokenReason = "Root directory " + watchRootPath + " is no longer watched";
+      }
+      watchDescriptorToDirBiMap.remove(wd);
+      return;
+    }
+    Path dir = watchDescriptorToDirBiMap.get(wd);
+    if (dir == null) {
+      // An event queued before the directory was removed from the watched ones.
+      return;
+    }
+    Path path = name == null ? dir : dir.resolve(name);
+    if ((mask & (Inotify.IN_CREATE | Inotify.IN_MOVED_TO)) != 0) {
+      createdFilesAndDirectories.add(path);
+      deletedOrModifiedFilesAndDirectories.remove(path);
+    } else if ((mask & (Inotify.IN_DELETE | Inotify.IN_MOVED_FROM)) != 0) {
+      createdFilesAndDirectories.remove(path);
+      deletedOrModifiedFilesAndDirectories.add(path);
+      if ((mask & Inotify.IN_ISDIR) != 0 && (mask & Inotify.IN_MOVED_FROM) != 0) {
+        // Unlike a deletion, moving a directory away generates no events for its contents,
+        // which we do not track, and keeps the watches of its subdirectories. A deleted
+        // directory's watch is removed by its own IN_IGNORED event instead.
+        unregisterDirectoryTree(path);
+        everythingModified = true;
+      }
+    } else if ((mask & (Inotify.IN_MODIFY | Inotify.IN_ATTRIB)) != 0) {
+      // If a file was created and then modified, then the net diff is that it was created.
+      if (!createdFilesAndDirectories.contains(path)) {
+        deletedOrModifiedFilesAndDirectories.add(path);
+      }
+    }
+  }
+
+  /**
+   * Stops watching the given directory and its subdirectories. This scans all watches, so it is
+   * only done for directories moved away. Must hold the lock.
+   */
+  private void unregisterDirectoryTree(Path dir) {
+    List<Integer> toRemove = new ArrayList<>();
+    for (Integer wd : watchDescriptorToDirBiMap.keySet()) {
+      if (watchDescriptorToDirBiMap.get(wd).startsWith(dir)) {
+        toRemove.add(wd);
+      }
+    }
+    for (Integer wd : toRemove) {
+      watchDescriptorToDirBiMap.remove(wd);
+      Inotify.removeWatch(fd, wd);
+    }
+  }
+
+  /**
+   * Traverses directory tree to register subdirectories. Returns all paths traversed (as absolute
+   * paths). Must hold the lock.
+   */
+  private Set<Path> registerSubDirectoriesAndReturnContents(Path rootDir) throws IOException {
+    final Set<Path> visitedAbsolutePaths = new HashSet<>();
+    // Note that this does not follow symlinks.
+    Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+        Preconditions.checkState(path.isAbsolute(), path);
+        visitedAbsolutePaths.add(path);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs)
+          throws IOException {
+        // It's important that we register the directory before we visit its children. This way
+        // we are guaranteed to see new files/directories either on this #getDiff or the next one.
+        int wd = Inotify.addWatch(fd, toLatin1(path.toString()), WATCH_MASK);
+        Preconditions.checkState(path.isAbsolute(), path);
+        visitedAbsolutePaths.add(path);
+        // The same directory may be registered again under a new path after being moved.
+        watchDescriptorToDirBiMap.forcePut(wd, path);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return visitedAbsolutePaths;
+  }
+}
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.skyframe;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
@@ -28,9 +29,19 @@ import java.util.Collection;
 
 /**
  * A per-build cache of filesystem operations for Skyframe invocations of legacy package loading.
+ *
+ * <p>A single instance is shared by the globs of all the packages loaded in a build, so that
+ * directories visited by the globs of several packages are only read once. The cache is bounded,
+ * since the directories under a recursive glob can be arbitrarily many.
  */
 class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
 
+  /** Maximum number of cached stat results. */
+  private static final int MAX_STATS = 1 << 20;
+
+  /** Maximum total number of directory entries in the cached readdir results. */
+  private static final int MAX_DIRENTS = 1 << 22;
+
   private final LoadingCache<Pair<Path, Symlinks>, FileStatus> statCache =
       newStatMap();
   private final LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>
@@ -55,6 +66,20 @@ class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
     return (status == NO_STATUS) ? null : status;
   }
 
+  /**
+   * Returns the number of stat and readdir calls that were issued to the file system.
+   */
+  long getIssuedSyscalls() {
+    return statCache.stats().missCount() + readdirCache.stats().missCount();
+  }
+
+  /**
+   * Returns the number of stat and readdir calls that were answered from the cache.
+   */
+  long getSavedSyscalls() {
+    return statCache.stats().hitCount() + readdirCache.stats().hitCount();
+  }
+
   // This is used because the cache implementations don't allow null.
   private static final class FakeFileStatus implements FileStatus {
     @Override
@@ -99,7 +124,7 @@ class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
    * Output: FileStatus
    */
   private static LoadingCache<Pair<Path, Symlinks>, FileStatus> newStatMap() {
-    return CacheBuilder.newBuilder().build(
+    return CacheBuilder.newBuilder().maximumSize(MAX_STATS).recordStats().build(
         new CacheLoader<Pair<Path, Symlinks>, FileStatus>() {
           @Override
           public FileStatus load(Pair<Path, Symlinks> p) {
@@ -116,8 +141,16 @@ class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
    */
   private static
   LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>> newReaddirMap() {
-    return CacheBuilder.newBuilder().build(
-        new CacheLoader<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>() {
+    return CacheBuilder.newBuilder()
+        .maximumWeight(MAX_DIRENTS)
+        .weigher(new Weigher<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>() {
+          @Override
+          public int weigh(Pair<Path, Symlinks> key, Pair<Collection<Dirent>, IOException> value) {
+            return value.first == null ? 1 : value.first.size() + 1;
+          }
+        })
+        .recordStats()
+        .build(new CacheLoader<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>() {
           @Override
           public Pair<Collection<Dirent>, IOException> load(Pair<Path, Symlinks> p) {
             try {
@@ -76,6 +76,7 @@ import java.util.concurrent.Callable;
 public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   /** Lower limit for number of loaded packages to consider clearing CT values. */
   private int valueCacheEvictionLimit = -1;
+  private int filesystemCheckThreads = FilesystemValueChecker.DIRTINESS_CHECK_THREADS;
 
   /** Union of labels of loaded packages since the last eviction of CT values. */
   private Set<PackageIdentifier> allLoadedPackages = ImmutableSet.of();
@@ -210,6 +211,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
                    String defaultsPackageContents, UUID commandId)
       throws InterruptedException, AbruptExitException {
     this.valueCacheEvictionLimit = packageCacheOptions.minLoadedPkgCountForCtNodeEviction;
+    this.filesystemCheckThreads = packageCacheOptions.filesystemCheckThreads;
     super.sync(packageCacheOptions, workingDirectory, defaultsPackageContents, commandId);
     handleDiffs();
   }
@@ -341,7 +343,8 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
       Path pathEntry = pair.getFirst();
       valuesToCheckManually.add(skyKeysByPathEntry.get(pathEntry));
     }
-    Differencer.Diff diff = fsnc.getDirtyFilesystemValues(Iterables.concat(valuesToCheckManually));
+    Differencer.Diff diff = fsnc.getDirtyFilesystemValues(Iterables.concat(valuesToCheckManually),
+        filesystemCheckThreads);
     handleChangedFiles(diff);
     for (Pair<Path, DiffAwarenessManager.ProcessableModifiedFileSet> pair :
         pathEntriesWithoutDiffInformation) {
@@ -429,7 +432,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     } else {
       keys = getSkyKeysPotentiallyAffected(modifiedFileSet.modifiedSourceFiles(), pathEntry);
     }
-    syscalls.set(new PerBuildSyscallCache());
+    resetSyscallCache();
     recordingDiffer.invalidate(keys);
     // Blaze invalidates transient errors on every build.
     invalidateTransientErrors();
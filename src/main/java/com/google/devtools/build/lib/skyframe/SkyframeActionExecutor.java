@@ -59,6 +59,7 @@ import com.google.devtools.build.lib.concurrent.Sharder;
 import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.syntax.Label;
@@ -107,6 +108,9 @@ public final class SkyframeActionExecutor {
   private ConcurrentMap<Artifact, Metadata> undeclaredInputsMetadata = new ConcurrentHashMap<>();
   private final Profiler profiler = Profiler.instance();
   private boolean explain;
+  // The max number of bytes of each of the stdout and stderr of an action written to the terminal,
+  // or -1 for no limit.
+  private long maxStdoutErrBytes = -1;
 
   // We keep track of actions already executed this build in order to avoid executing a shared
   // action twice. Note that we may still unnecessarily re-execute the action on a subsequent
@@ -442,6 +446,8 @@ public final class SkyframeActionExecutor {
     // Don't cache possibly stale data from the last build.
     undeclaredInputsMetadata = new ConcurrentHashMap<>();
     this.explain = explain;
+    ExecutionOptions options = executor.getOptions().getOptions(ExecutionOptions.class);
+    this.maxStdoutErrBytes = options == null ? -1 : options.maxStdoutErrBytes;
   }
 
   public void setActionLogBufferPathGenerator(
@@ -765,7 +771,14 @@ public final class SkyframeActionExecutor {
     }
 
     postEvent(new ActionStartedEvent(action, actionStartTime));
-    ResourceSet estimate = action.estimateResourceConsumption(executorEngine);
+    String outputCacheKey =
+        actionCacheChecker.getOutputCacheKey(action, context.getMetadataHandler());
+    // Outputs restored from the local output cache are completed like those of an executed action.
+    boolean restored = outputCacheKey != null && actionCacheChecker.restoreOutputs(
+        action, outputCacheKey, context.getExecutor().getExecRoot());
+    ResourceSet estimate = restored
+        ? ResourceSet.ZERO
+        : action.estimateResourceConsumption(executorEngine);
     ActionExecutionStatusReporter statusReporter = statusReporterRef.get();
     try {
       if (estimate == null || estimate == ResourceSet.ZERO) {
@@ -775,9 +788,12 @@ public final class SkyframeActionExecutor {
         // resource manager when it knows what resources are needed.
         resourceManager.acquireResources(action, estimate);
       }
-      boolean outputDumped = executeActionTask(action, context);
+      boolean outputDumped = !restored && executeActionTask(action, context);
       completeAction(action, token, context.getMetadataHandler(),
           context.getFileOutErr(), outputDumped);
+      if (outputCacheKey != null && !restored) {
+        actionCacheChecker.storeOutputs(action, outputCacheKey, context.getMetadataHandler());
+      }
     } finally {
       if (estimate != null) {
         resourceManager.releaseResources(action, estimate);
@@ -1064,8 +1080,8 @@ public final class SkyframeActionExecutor {
       reporter.handle(Event.info(message.toString()));
 
       OutErr outErr = this.reporter.getOutErr();
-      outErrBuffer.dumpOutAsLatin1(outErr.getOutputStream());
-      outErrBuffer.dumpErrAsLatin1(outErr.getErrorStream());
+      outErrBuffer.dumpOutAsLatin1(outErr.getOutputStream(), maxStdoutErrBytes);
+      outErrBuffer.dumpErrAsLatin1(outErr.getErrorStream(), maxStdoutErrBytes);
     }
   }
 
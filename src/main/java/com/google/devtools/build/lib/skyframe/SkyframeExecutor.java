@@ -99,6 +99,7 @@ import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.ErrorInfo;
 import com.google.devtools.build.skyframe.EvaluationProgressReceiver;
 import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.Injectable;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
 import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
@@ -137,6 +138,7 @@ import javax.annotation.Nullable;
  */
 public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final EvaluatorSupplier evaluatorSupplier;
+  private boolean concurrentNodeEntries = false;
   protected MemoizingEvaluator memoizingEvaluator;
   private final MemoizingEvaluator.EmittedEventState emittedEventState =
       new MemoizingEvaluator.EmittedEventState();
@@ -421,7 +423,11 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     progressReceiver = new SkyframeProgressReceiver();
     Map<SkyFunctionName, SkyFunction> skyFunctions = skyFunctions(
         directories.getBuildDataDirectory(), pkgFactory, allowedMissingInputs);
-    memoizingEvaluator = evaluatorSupplier.create(
+    EvaluatorSupplier supplier =
+        concurrentNodeEntries && evaluatorSupplier == InMemoryMemoizingEvaluator.SUPPLIER
+            ? InMemoryMemoizingEvaluator.CONCURRENT_NODE_ENTRY_SUPPLIER
+            : evaluatorSupplier;
+    memoizingEvaluator = supplier.create(
         skyFunctions, evaluatorDiffer(), progressReceiver, emittedEventState,
         hasIncrementalState());
     buildDriver = newBuildDriver();
@@ -492,6 +498,20 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return true;
   }
 
+  /**
+   * Decides whether the nodes of the graph are {@link
+   * com.google.devtools.build.skyframe.ConcurrentInMemoryNodeEntry}s. Only applies to the default
+   * in-memory evaluator. Returns true if the setting changed, in which case the caller must reset
+   * the evaluator before it is used again.
+   */
+  public boolean setConcurrentNodeEntries(boolean concurrentNodeEntries) {
+    if (this.concurrentNodeEntries == concurrentNodeEntries) {
+      return false;
+    }
+    this.concurrentNodeEntries = concurrentNodeEntries;
+    return true;
+  }
+
   @VisibleForTesting
   protected abstract Injectable injectable();
 
@@ -724,6 +744,21 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   @VisibleForTesting  // productionVisibility = Visibility.PRIVATE
   public abstract void setDeletedPackages(Iterable<String> pkgs);
 
+  /**
+   * Replaces the file system cache shared by the globs of all packages with an empty one, and logs
+   * how many syscalls the previous one saved.
+   */
+  protected void resetSyscallCache() {
+    UnixGlob.FilesystemCalls previous = syscalls.getAndSet(new PerBuildSyscallCache());
+    if (previous instanceof PerBuildSyscallCache) {
+      PerBuildSyscallCache cache = (PerBuildSyscallCache) previous;
+      if (cache.getIssuedSyscalls() > 0) {
+        LOG.info(String.format("Package loading issued %d stat/readdir calls and saved %d",
+            cache.getIssuedSyscalls(), cache.getSavedSyscalls()));
+      }
+    }
+  }
+
   /**
    * Prepares the evaluator for loading.
    *
@@ -743,7 +778,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     setupDefaultPackage(defaultsPackageContents);
     setPackageLocator(pkgLocator);
 
-    syscalls.set(new PerBuildSyscallCache());
+    resetSyscallCache();
     checkPreprocessorFactory();
     emittedEventState.clear();
 
@@ -74,8 +74,7 @@ public class LocalSpawnStrategy implements SpawnActionContext {
       args.add("-1"); /* timeout */
       args.add("0");  /* kill delay. */
 
-      // TODO(bazel-team): use process-wrapper redirection so we don't have to
-      // pass test logs through the Java heap.
+      // The output is redirected by the JVM when the process is started, see below.
       args.add("-");  /* stdout. */
       args.add("-");  /* stderr. */
     }
@@ -86,12 +85,23 @@ public class LocalSpawnStrategy implements SpawnActionContext {
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
-      cmd.execute(
-          /* stdin */ new byte[]{},
-          Command.NO_OBSERVER,
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
-          /*killSubprocessOnInterrupt*/ true);
+      if (outErr.prepareForRedirection()) {
+        // Have the process append its output to the files of the FileOutErr directly, so that
+        // large outputs, such as test logs, don't have to pass through the Java heap.
+        cmd.execute(
+            /* stdin */ new byte[]{},
+            Command.NO_OBSERVER,
+            outErr.getOutputFile().getPathFile(),
+            outErr.getErrorFile().getPathFile(),
+            /*killSubprocessOnInterrupt*/ true);
+      } else {
+        cmd.execute(
+            /* stdin */ new byte[]{},
+            Command.NO_OBSERVER,
+            outErr.getOutputStream(),
+            outErr.getErrorStream(),
+            /*killSubprocessOnInterrupt*/ true);
+      }
     } catch (CommandException e) {
       String message = CommandFailureUtils.describeCommandFailure(
           verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
@@ -26,6 +26,7 @@ import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.FileWriteStrategy;
 import com.google.devtools.build.lib.rules.cpp.IncludeScanningContext;
@@ -34,12 +35,15 @@ import com.google.devtools.build.lib.rules.cpp.LocalLinkStrategy;
 import com.google.devtools.build.lib.rules.test.ExclusiveTestStrategy;
 import com.google.devtools.build.lib.rules.test.StandaloneTestStrategy;
 import com.google.devtools.build.lib.rules.test.TestActionContext;
+import com.google.devtools.build.lib.rules.test.TestTimingHistory;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * Provide a standalone, local execution context.
  */
@@ -68,16 +72,22 @@ public class StandaloneContextProvider implements ActionContextProvider {
   private final ActionContext localSpawnStrategy;
   private final ImmutableList<ActionContext> strategies;
   private final BlazeRuntime runtime;
+  private final ExecutionOptions executionOptions;
+  @Nullable private final TestTimingHistory timingHistory;
 
   public StandaloneContextProvider(BlazeRuntime runtime, BuildRequest buildRequest) {
-    boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+    executionOptions = buildRequest.getOptions(ExecutionOptions.class);
+    boolean verboseFailures = executionOptions.verboseFailures;
 
     localSpawnStrategy = new LocalSpawnStrategy(
         runtime.getDirectories().getExecRoot(), verboseFailures);
     this.runtime = runtime;
 
+    timingHistory = executionOptions.testTimingHistory
+        ? TestTimingHistory.load(runtime.getOutputBase().getChild("test_timing_history"))
+        : null;
     TestActionContext testStrategy = new StandaloneTestStrategy(buildRequest,
-        runtime.getStartupOptionsProvider(), runtime.getBinTools());
+        runtime.getStartupOptionsProvider(), runtime.getBinTools(), timingHistory);
     Builder<ActionContext> strategiesBuilder = ImmutableList.builder();
     // order of strategies passed to builder is significant - when there are many strategies that
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
@@ -119,7 +129,23 @@ public class StandaloneContextProvider implements ActionContextProvider {
   }
 
   @Override
-  public void executionPhaseEnding()  {}
+  public void executionPhaseEnding()  {
+    if (timingHistory == null) {
+      return;
+    }
+    int parallelism = executionOptions.usingLocalTestJobs()
+        ? executionOptions.localTestJobs
+        : Runtime.getRuntime().availableProcessors();
+    for (String suggestion : timingHistory.getShardingSuggestions(parallelism)) {
+      runtime.getReporter().handle(Event.info(suggestion));
+    }
+    try {
+      timingHistory.save();
+    } catch (IOException e) {
+      runtime.getReporter().handle(
+          Event.warn("Could not save the test timing history: " + e.getMessage()));
+    }
+  }
 }
 
 
@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.syntax.EvalException.EvalExceptionWithJavaCause;
 import com.google.devtools.build.lib.util.StringUtilities;
 
@@ -34,12 +36,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
 
 /**
  * Syntax node for a function call expression.
  */
 public final class FuncallExpression extends Expression {
 
+  private static final Logger LOG = Logger.getLogger(FuncallExpression.class.getName());
+
   private static enum ArgConversion {
     FROM_SKYLARK,
     TO_SKYLARK,
@@ -57,6 +62,9 @@ public final class FuncallExpression extends Expression {
     private MethodDescriptor(Method method, SkylarkCallable annotation) {
       this.method = method;
       this.annotation = annotation;
+      // This happens when the interface is public but the implementation classes
+      // have reduced visibility. Doing it once here keeps the check out of every call.
+      method.setAccessible(true);
     }
 
     Method getMethod() {
@@ -166,10 +174,55 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * A Java method resolved by a call expression, together with the classes of the object and of
+   * the arguments it was resolved for. Method resolution only depends on these classes, so calls
+   * with the same classes can reuse it.
+   */
+  private static final class JavaCallSite {
+    private final Class<?> objClass;
+    private final Class<?>[] argClasses;
+    private final MethodDescriptor method;
+
+    private JavaCallSite(Class<?> objClass, List<Object> args, MethodDescriptor method) {
+      this.objClass = objClass;
+      this.argClasses = new Class<?>[args.size()];
+      for (int i = 0; i < argClasses.length; i++) {
+        argClasses[i] = args.get(i).getClass();
+      }
+      this.method = method;
+    }
+
+    private boolean matches(Class<?> objClass, List<Object> args) {
+      if (this.objClass != objClass || argClasses.length != args.size()) {
+        return false;
+      }
+      for (int i = 0; i < argClasses.length; i++) {
+        if (argClasses[i] != args.get(i).getClass()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // Call sites whose cached method was replaced this many times are megamorphic and stop caching.
+  private static final int MAX_JAVA_CALL_SITE_MISSES = 8;
+
   private final Expression obj;
 
   private final Ident func;
 
+  /**
+   * The Java method called the last time this expression was evaluated, or null. Most call sites
+   * always call the same method, so this saves looking up and matching the candidate methods on
+   * every call. Function bodies are shared between threads, hence the field is volatile.
+   */
+  private volatile JavaCallSite javaCallSite;
+
+  // The number of times javaCallSite was replaced. Guarded by this.
+  private int javaCallSiteMisses;
+
   private final List<Argument.Passed> args;
 
   private final int numPositionalArgs;
@@ -294,9 +347,6 @@ public final class FuncallExpression extends Expression {
     if (obj == null && !Modifier.isStatic(method.getModifiers())) {
       throw new EvalException(loc, "Method '" + methodName + "' is not static");
     }
-    // This happens when the interface is public but the implementation classes
-    // have reduced visibility.
-    method.setAccessible(true);
     Object result = method.invoke(obj, args);
     if (method.getReturnType().equals(Void.TYPE)) {
       return Environment.NONE;
@@ -325,6 +375,10 @@ public final class FuncallExpression extends Expression {
   private Object invokeJavaMethod(
       Object obj, Class<?> objClass, String methodName, List<Object> args) throws EvalException {
     try {
+      JavaCallSite callSite = javaCallSite;
+      if (callSite != null && callSite.matches(objClass, args)) {
+        return callMethod(callSite.method, methodName, obj, args.toArray(), getLocation());
+      }
       MethodDescriptor matchingMethod = null;
       List<MethodDescriptor> methods = getMethods(objClass, methodName, args.size());
       if (methods != null) {
@@ -351,6 +405,7 @@ public final class FuncallExpression extends Expression {
         }
       }
       if (matchingMethod != null && !matchingMethod.getAnnotation().structField()) {
+        cacheJavaCallSite(objClass, args, matchingMethod);
         return callMethod(matchingMethod, methodName, obj, args.toArray(), getLocation());
       } else {
         throw new EvalException(getLocation(), "No matching method found for "
@@ -375,6 +430,27 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * Caches the method resolved for the given classes, unless the call site has already seen too
+   * many different classes. Only called when the cached method did not match, hence the lock is not
+   * taken by calls that hit the cache.
+   */
+  private synchronized void cacheJavaCallSite(
+      Class<?> objClass, List<Object> args, MethodDescriptor method) {
+    if (javaCallSite != null) {
+      if (javaCallSiteMisses >= MAX_JAVA_CALL_SITE_MISSES) {
+        return;
+      }
+      if (++javaCallSiteMisses == MAX_JAVA_CALL_SITE_MISSES) {
+        // Shows up in the task counts of the profile.
+        Profiler.instance().logEvent(ProfilerTask.SKYLARK_MEGAMORPHIC_CALL_SITE, getLocation());
+        LOG.fine("Megamorphic call site at " + getLocation() + ": " + this);
+        return;
+      }
+    }
+    javaCallSite = new JavaCallSite(objClass, args, method);
+  }
+
   private String formatMethod(String methodName, List<Object> args) {
     StringBuilder sb = new StringBuilder();
     sb.append(methodName).append("(");
@@ -239,7 +239,7 @@ public class SkylarkEnvironment extends Environment implements Serializable {
    * transitive closure of other Environments it loads.
    */
   public String getTransitiveFileContentHashCode() {
-    Fingerprint fingerprint = new Fingerprint();
+    Fingerprint fingerprint = new Fingerprint(Fingerprint.Algorithm.MD5);
     fingerprint.addString(Preconditions.checkNotNull(fileContentHashCode));
     // Calculate a new hash from the hash of the loaded Environments.
     for (SkylarkEnvironment env : importedExtensions.values()) {
@@ -0,0 +1,89 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.devtools.build.lib.UnixJniLoader;
+
+import java.io.IOException;
+
+/**
+ * Native wrappers around the Linux inotify(7) API. Only available on Linux.
+ *
+ * <p>An inotify instance is opened in non-blocking mode. Events are read as the raw
+ * {@code struct inotify_event} records of the kernel, in the native byte order.
+ */
+public final class Inotify {
+
+  private Inotify() {}
+
+  static {
+    UnixJniLoader.loadJni();
+  }
+
+  // Event masks, from <sys/inotify.h>.
+  public static final int IN_MODIFY = 0x00000002;
+  public static final int IN_ATTRIB = 0x00000004;
+  public static final int IN_MOVED_FROM = 0x00000040;
+  public static final int IN_MOVED_TO = 0x00000080;
+  public static final int IN_CREATE = 0x00000100;
+  public static final int IN_DELETE = 0x00000200;
+  public static final int IN_Q_OVERFLOW = 0x00004000;
+  public static final int IN_IGNORED = 0x00008000;
+  public static final int IN_ONLYDIR = 0x01000000;
+  public static final int IN_DONT_FOLLOW = 0x02000000;
+  public static final int IN_ISDIR = 0x40000000;
+
+  /** Size of the fixed part of {@code struct inotify_event}: wd, mask, cookie and len. */
+  public static final int EVENT_HEADER_SIZE = 16;
+
+  /**
+   * Native wrapper around Linux inotify_init1(2), in non-blocking, close-on-exec mode.
+   *
+   * @return the file descriptor of the new inotify instance.
+   * @throws IOException if the instance could not be created.
+   */
+  public static native int init() throws IOException;
+
+  /**
+   * Native wrapper around Linux inotify_add_watch(2).
+   *
+   * @return the watch descriptor, which is the same for every path of a given inode.
+   * @throws IOException if the watch could not be added, notably if the limit on the number of
+   *     watches per user was reached.
+   */
+  public static native int addWatch(int fd, String path, int mask) throws IOException;
+
+  /** Native wrapper around Linux inotify_rm_watch(2). Errors are ignored. */
+  public static native void removeWatch(int fd, int wd);
+
+  /**
+   * Waits until events can be read from the given inotify instance.
+   *
+   * @return true if events are available, false if none became available within
+   *     {@code timeoutMillis} milliseconds.
+   * @throws IOException on error.
+   */
+  public static native boolean poll(int fd, int timeoutMillis) throws IOException;
+
+  /**
+   * Reads as many whole events as fit into {@code buffer} without blocking.
+   *
+   * @return the number of bytes read, or zero if no events are available.
+   * @throws IOException on error.
+   */
+  public static native int read(int fd, byte[] buffer) throws IOException;
+
+  /** Closes the given inotify instance, which removes all its watches. */
+  public static native void close(int fd);
+}
@@ -22,6 +22,7 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
 
@@ -29,22 +30,229 @@ import java.util.UUID;
  * Simplified wrapper for MD5 message digests. See also
  * com.google.math.crypto.MD5HMAC for a similar interface.
  *
+ * <p>Fingerprints that are only compared with other fingerprints computed by the same server, such
+ * as action keys, may instead be computed with a faster, non-cryptographic {@link Algorithm}.
+ *
  * @see java.security.MessageDigest
  */
 public final class Fingerprint {
 
+  /**
+   * The algorithms with which a fingerprint can be computed. All of them produce 16-byte digests.
+   */
+  public enum Algorithm {
+    /** MD5, the default. */
+    MD5 {
+      @Override
+      MessageDigest newDigest() {
+        try {
+          return MessageDigest.getInstance("md5");
+        } catch (NoSuchAlgorithmException e) {
+          throw new RuntimeException("MD5 not available");
+        }
+      }
+    },
+
+    /**
+     * The 128-bit variant of MurmurHash3. It is several times faster than MD5, but is not
+     * cryptographic: it must not be used for fingerprints that an adversary may try to collide.
+     */
+    MURMUR3_128 {
+      @Override
+      MessageDigest newDigest() {
+        return new Murmur3Digest();
+      }
+    };
+
+    abstract MessageDigest newDigest();
+  }
+
+  /**
+   * A {@link MessageDigest} computing the 128-bit MurmurHash3 of its input, as {@code
+   * Hashing.murmur3_128()} does.
+   *
+   * <p>The hash is computed in place rather than by a Guava {@code Hasher}, whose state cannot be
+   * copied, so that the digest can be cloned for {@link Fingerprint#toString}. Fingerprints are
+   * mostly updated a few bytes at a time, so input is collected into 16-byte blocks here.
+   */
+  private static final class Murmur3Digest extends MessageDigest implements Cloneable {
+    private static final int BLOCK_SIZE = 16;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    // The input since the last complete block.
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int buffered;
+
+    private Murmur3Digest() {
+      super("murmur3_128");
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      block[buffered++] = input;
+      length++;
+      if (buffered == BLOCK_SIZE) {
+        mixBlock(getLong(block, 0), getLong(block, 8));
+        buffered = 0;
+      }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      int end = offset + len;
+      length += len;
+      if (buffered > 0) {
+        int n = Math.min(BLOCK_SIZE - buffered, len);
+        System.arraycopy(input, offset, block, buffered, n);
+        buffered += n;
+        offset += n;
+        if (buffered < BLOCK_SIZE) {
+          return;
+        }
+        mixBlock(getLong(block, 0), getLong(block, 8));
+        buffered = 0;
+      }
+      for (; offset + BLOCK_SIZE <= end; offset += BLOCK_SIZE) {
+        mixBlock(getLong(input, offset), getLong(input, offset + 8));
+      }
+      System.arraycopy(input, offset, block, 0, end - offset);
+      buffered = end - offset;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+      Arrays.fill(block, buffered, BLOCK_SIZE, (byte) 0);
+      h1 ^= mixK1(getLong(block, 0));
+      h2 ^= mixK2(getLong(block, 8));
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix64(h1);
+      h2 = fmix64(h2);
+      h1 += h2;
+      h2 += h1;
+      byte[] digest = new byte[BLOCK_SIZE];
+      putLong(digest, 0, h1);
+      putLong(digest, 8, h2);
+      engineReset();
+      return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+      h1 = 0;
+      h2 = 0;
+      length = 0;
+      buffered = 0;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+      return BLOCK_SIZE;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      Murmur3Digest clone = (Murmur3Digest) super.clone();
+      clone.block = block.clone();
+      return clone;
+    }
+
+    private void mixBlock(long k1, long k2) {
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+      return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+      return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix64(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+
+    /** Reads a little-endian long. */
+    private static long getLong(byte[] bytes, int offset) {
+      long value = 0;
+      for (int i = 7; i >= 0; i--) {
+        value = (value << 8) | (bytes[offset + i] & 0xffL);
+      }
+      return value;
+    }
+
+    /** Writes a little-endian long. */
+    private static void putLong(byte[] bytes, int offset, long value) {
+      for (int i = 0; i < 8; i++) {
+        bytes[offset + i] = (byte) (value >>> (8 * i));
+      }
+    }
+  }
+
+  private static volatile Algorithm defaultAlgorithm = Algorithm.MD5;
+
+  private final Algorithm algorithm;
   private final MessageDigest md;
 
   /**
-   * Creates and initializes a new MD5 object; if this fails, Java must be
-   * installed incorrectly.
+   * Creates and initializes a new fingerprint computed with the default algorithm, which is MD5
+   * unless changed with {@link #setDefaultAlgorithm}.
    */
   public Fingerprint() {
-    try {
-      md = MessageDigest.getInstance("md5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("MD5 not available");
+    this(defaultAlgorithm);
+  }
+
+  /**
+   * Creates and initializes a new fingerprint computed with the given algorithm; if this fails,
+   * Java must be installed incorrectly.
+   */
+  public Fingerprint(Algorithm algorithm) {
+    this.algorithm = algorithm;
+    this.md = algorithm.newDigest();
+  }
+
+  /**
+   * Sets the algorithm with which fingerprints created by {@link #Fingerprint()} are computed.
+   * Fingerprints computed with different algorithms never compare equal, so changing it makes
+   * everything keyed by such fingerprints, such as the entries of the action cache, stale once.
+   * Fingerprints that are part of output paths or are read outside of the server must therefore
+   * name their algorithm instead.
+   *
+   * <p>Returns true if the algorithm changed, in which case the caller must discard the
+   * fingerprints already computed with the old one, such as the keys of cached actions.
+   */
+  public static boolean setDefaultAlgorithm(Algorithm algorithm) {
+    if (defaultAlgorithm == algorithm) {
+      return false;
     }
+    defaultAlgorithm = algorithm;
+    return true;
+  }
+
+  /**
+   * Returns the algorithm with which this fingerprint is computed.
+   */
+  public Algorithm getAlgorithm() {
+    return algorithm;
   }
 
   /**
@@ -52,7 +260,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 16-byte array
+   * @return the digest as a 16-byte array
    * @see java.security.MessageDigest#digest()
    */
   public byte[] digestAndReset() {
@@ -64,7 +272,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 32-character string of hexadecimal digits
+   * @return the digest as a 32-character string of hexadecimal digits
    * @see com.google.math.crypto.MD5HMAC#toString()
    */
   public String hexDigestAndReset() {
@@ -97,7 +305,7 @@ public final class Fingerprint {
   @Override
   public String toString() {
     try {
-      // MD5 does support cloning, so this should not fail
+      // MD5 and MurmurHash3 both support cloning, so this should not fail
       return hexDigest(((MessageDigest) md.clone()).digest());
     } catch (CloneNotSupportedException e) {
       // MessageDigest does not support cloning,
@@ -312,7 +520,7 @@ public final class Fingerprint {
    * @param input the String from which to compute the digest
    */
   public static String md5Digest(String input) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(Algorithm.MD5);
     f.addBytes(input.getBytes(UTF_8));
     return f.hexDigestAndReset();
   }
@@ -20,17 +20,22 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.collect.CompactHashSet;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * Encapsulates a list of lists. Is intended to be used in "batch" mode -- to set the value of a
  * GroupedList, users should first construct a {@link GroupedListHelper}, add elements to it, and
  * then {@link #append} the helper to a new GroupedList instance. The generic type T <i>must not</i>
- * be a {@link List}.
+ * be a {@link List} or a {@code byte[]}.
  *
  * <p>Despite the "list" name, it is an error for the same element to appear multiple times in the
  * list. Users are responsible for not trying to add the same element to a GroupedList twice.
@@ -86,6 +91,16 @@ public class GroupedList<T> implements Iterable<Iterable<T>> {
 
   private static final Object EMPTY_LIST = new Object();
 
+  /**
+   * Returns a compact representation of this list, to be kept by done nodes, from which the list
+   * can be recreated with {@link #create}.
+   *
+   * <p>An empty list is represented by a marker object, and a list of one element by that element.
+   * Otherwise the elements are flattened into an array. If any group has more than one element,
+   * the array has one more slot, holding the sizes of the groups as a {@link VarInt}-encoded
+   * {@code byte[]}. This avoids keeping a list object per group: a typical group size takes a
+   * single byte instead.
+   */
   public Object compress() {
     switch (size()) {
       case 0:
@@ -93,8 +108,38 @@ public class GroupedList<T> implements Iterable<Iterable<T>> {
       case 1:
         return Iterables.getOnlyElement(elements);
       default:
-        return elements.toArray();
+        if (elements.size() == size) {
+          // Every group has a single element.
+          return elements.toArray();
+        }
+        return compressGroups();
+    }
+  }
+
+  private Object[] compressGroups() {
+    int groupSizesLength = 0;
+    for (Object item : elements) {
+      groupSizesLength += VarInt.varIntSize(sizeOf(item));
     }
+    byte[] groupSizes = new byte[groupSizesLength];
+    Object[] compressed = new Object[size + 1];
+    int index = 0;
+    int offset = 0;
+    for (Object item : elements) {
+      if (item instanceof List) {
+        List<?> group = (List<?>) item;
+        for (Object elt : group) {
+          compressed[index++] = elt;
+        }
+        offset = VarInt.putVarInt(group.size(), groupSizes, offset);
+      } else {
+        compressed[index++] = item;
+        offset = VarInt.putVarInt(1, groupSizes, offset);
+      }
+    }
+    Preconditions.checkState(index == size, "%s %s", index, this);
+    compressed[size] = groupSizes;
+    return compressed;
   }
 
   @SuppressWarnings("unchecked")
@@ -114,23 +159,130 @@ public class GroupedList<T> implements Iterable<Iterable<T>> {
     return obj instanceof List ? ((List<?>) obj).size() : 1;
   }
 
+  /**
+   * Returns the elements of the result of {@link #compress}, without recreating the list or its
+   * groups.
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> Set<E> compressedToSet(Object compressed) {
+    if (compressed == EMPTY_LIST) {
+      return ImmutableSet.of();
+    }
+    if (!compressed.getClass().isArray()) {
+      return ImmutableSet.of((E) compressed);
+    }
+    Object[] array = (Object[]) compressed;
+    ImmutableSet.Builder<E> builder = ImmutableSet.builder();
+    for (int i = 0; i < elementCount(array); i++) {
+      builder.add((E) array[i]);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the groups of the result of {@link #compress}. The groups are views of the compressed
+   * array, created one at a time while iterating, rather than a recreated list.
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> Iterable<Iterable<E>> compressedToGroups(Object compressed) {
+    if (compressed == EMPTY_LIST) {
+      return ImmutableList.of();
+    }
+    if (!compressed.getClass().isArray()) {
+      return ImmutableList.<Iterable<E>>of(ImmutableList.of((E) compressed));
+    }
+    final List<E> elements = (List<E>) Arrays.asList((Object[]) compressed);
+    final int size = elementCount((Object[]) compressed);
+    final byte[] groupSizes = size < elements.size() ? (byte[]) elements.get(size) : null;
+    return new Iterable<Iterable<E>>() {
+      @Override
+      public Iterator<Iterable<E>> iterator() {
+        return new CompressedGroupIterator<>(elements, size, groupSizes);
+      }
+    };
+  }
+
+  // The number of elements in a compressed array, without the group sizes.
+  private static int elementCount(Object[] compressed) {
+    return compressed[compressed.length - 1] instanceof byte[]
+        ? compressed.length - 1
+        : compressed.length;
+  }
+
+  /**
+   * Iterates over the groups of a compressed array. If there are no group sizes, every group has
+   * one element.
+   */
+  private static class CompressedGroupIterator<E> implements Iterator<Iterable<E>> {
+    private final List<E> elements;
+    private final int size;
+    @Nullable private final ByteBuffer groupSizes;
+    private int index = 0;
+
+    private CompressedGroupIterator(List<E> elements, int size, @Nullable byte[] groupSizes) {
+      this.elements = elements;
+      this.size = size;
+      this.groupSizes = groupSizes == null ? null : ByteBuffer.wrap(groupSizes);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < size;
+    }
+
+    @Override
+    public Iterable<E> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int groupSize = groupSizes == null ? 1 : VarInt.getVarInt(groupSizes);
+      Iterable<E> group = elements.subList(index, index + groupSize);
+      index += groupSize;
+      return group;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Recreates a list from the result of {@link #compress}. */
   public static <E> GroupedList<E> create(Object compressed) {
     if (compressed == EMPTY_LIST) {
       return new GroupedList<>();
     }
     if (compressed.getClass().isArray()) {
-      List<Object> elements = new ArrayList<>();
-      int size = 0;
-      for (Object item : (Object[]) compressed) {
-        size += sizeOf(item);
-        elements.add(item);
+      Object[] array = (Object[]) compressed;
+      Object last = array[array.length - 1];
+      if (last instanceof byte[]) {
+        return createFromGroups(array, (byte[]) last);
       }
-      return new GroupedList<>(size, elements);
+      return new GroupedList<>(array.length, Arrays.asList(array));
     }
     // Just a single element.
     return new GroupedList<>(1, ImmutableList.<Object>of(compressed));
   }
 
+  private static <E> GroupedList<E> createFromGroups(Object[] compressed, byte[] groupSizes) {
+    int size = compressed.length - 1;
+    List<Object> elements = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.wrap(groupSizes);
+    int index = 0;
+    while (buffer.hasRemaining()) {
+      int groupSize = VarInt.getVarInt(buffer);
+      if (groupSize == 1) {
+        elements.add(compressed[index]);
+      } else {
+        elements.add(ImmutableList.copyOf(Arrays.asList(compressed).subList(index,
+            index + groupSize)));
+      }
+      index += groupSize;
+    }
+    Preconditions.checkState(index == size, "%s %s", index, size);
+    return new GroupedList<>(size, elements);
+  }
+
   @Override
   public boolean equals(Object other) {
     if (other == null) {
@@ -24,6 +24,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * An implementation of {@link OutErr} that captures all out/err output into
@@ -99,6 +104,22 @@ public class FileOutErr extends OutErr {
     return getFileErrorStream().hasRecordedOutput();
   }
 
+  /**
+   * Prepares the files of this OutErr for a subprocess to append its stdout
+   * and stderr to them directly, instead of passing its output through the
+   * Java heap. Output already written through the streams of this OutErr is
+   * kept, and output written to them afterwards is appended after that of the
+   * subprocess.
+   *
+   * @return false if this OutErr does not record its output into files, in
+   *     which case the output of the subprocess must be written to
+   *     {@link #getOutputStream()} and {@link #getErrorStream()} instead
+   */
+  public boolean prepareForRedirection() {
+    return getFileOutputStream().prepareForRedirection()
+        && getFileErrorStream().prepareForRedirection();
+  }
+
   /**
    * Returns the file this OutErr uses to buffer stdout
    *
@@ -152,6 +173,24 @@ public class FileOutErr extends OutErr {
     getFileErrorStream().dumpOut(out);
   }
 
+  /**
+   * Like {@link #dumpOutAsLatin1(OutputStream)}, but writes at most the last
+   * {@code maxBytes} bytes of the captured out content, preceded by a note
+   * that the rest was left out. A negative {@code maxBytes} means no limit.
+   */
+  public void dumpOutAsLatin1(OutputStream out, long maxBytes) {
+    getFileOutputStream().dumpOut(out, maxBytes);
+  }
+
+  /**
+   * Like {@link #dumpErrAsLatin1(OutputStream)}, but writes at most the last
+   * {@code maxBytes} bytes of the captured err content, preceded by a note
+   * that the rest was left out. A negative {@code maxBytes} means no limit.
+   */
+  public void dumpErrAsLatin1(OutputStream out, long maxBytes) {
+    getFileErrorStream().dumpOut(out, maxBytes);
+  }
+
   private AbstractFileRecordingOutputStream getFileOutputStream() {
     return (AbstractFileRecordingOutputStream) getOutputStream();
   }
@@ -193,6 +232,19 @@ public class FileOutErr extends OutErr {
      * avoiding keeping the entire contents in memory.
      */
     abstract void dumpOut(OutputStream out);
+
+    /**
+     * Writes at most the last {@code maxBytes} bytes of the output to the
+     * given output stream. A negative {@code maxBytes} means no limit.
+     */
+    abstract void dumpOut(OutputStream out, long maxBytes);
+
+    /**
+     * Makes the file ready for a subprocess to append its output to it.
+     *
+     * @return false if there is no such file
+     */
+    abstract boolean prepareForRedirection();
   }
 
   /**
@@ -229,6 +281,15 @@ public class FileOutErr extends OutErr {
       return;
     }
 
+    @Override
+    void dumpOut(OutputStream out, long maxBytes) {
+      return;
+    }
+
+    @Override
+    boolean prepareForRedirection() {
+      return false;
+    }
 
     @Override
     public void write(byte[] b, int off, int len) {
@@ -258,6 +319,11 @@ public class FileOutErr extends OutErr {
    * IO we're currently using for execution - Once that is gone,
    * we can remove this output stream and fold its code into the
    * FileOutErr.
+   *
+   * The file is opened in append mode, so that writes to the stream and
+   * writes by subprocesses whose output is redirected to the file (see
+   * {@link #prepareForRedirection}) do not overwrite each other. Any stale
+   * content is deleted when the file is first used.
    */
   @ThreadSafety.ThreadCompatible
   private static class FileRecordingOutputStream extends AbstractFileRecordingOutputStream {
@@ -265,6 +331,7 @@ public class FileOutErr extends OutErr {
     private final Path outputFile;
     OutputStream outputStream;
     String error;
+    boolean started;
 
     FileRecordingOutputStream(Path outputFile) {
       this.outputFile = outputFile;
@@ -283,11 +350,38 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        start();
+        outputStream = outputFile.getOutputStream(/*append=*/true);
       }
       return outputStream;
     }
 
+    /**
+     * Deletes the content left in the file by a previous user, the first time
+     * this stream uses it. You should hold the lock before you invoke this
+     * method.
+     */
+    private void start() throws IOException {
+      if (!started) {
+        outputFile.delete();
+        started = true;
+      }
+    }
+
+    @Override
+    synchronized boolean prepareForRedirection() {
+      try {
+        start();
+        if (hasOutputStream()) {
+          getOutputStream().flush();
+        }
+      } catch (IOException ex) {
+        recordError(ex);
+        return false;
+      }
+      return true;
+    }
+
     private boolean hasOutputStream() {
       return outputStream != null;
     }
@@ -360,6 +454,43 @@ public class FileOutErr extends OutErr {
       }
     }
 
+    @Override
+    void dumpOut(OutputStream out, long maxBytes) {
+      if (maxBytes < 0) {
+        dumpOut(out);
+        return;
+      }
+      try {
+        if (getFile().exists()) {
+          // Map the file rather than reading it, since only its tail is needed
+          // and it is usually written to the terminal as it is.
+          try (FileChannel channel = FileChannel.open(getFile().getPathFile().toPath())) {
+            long size = channel.size();
+            long skipped = Math.max(0, size - maxBytes);
+            if (skipped > 0) {
+              out.write(String.format("[%d bytes of output left out, see %s]%n",
+                  skipped, getFile()).getBytes(StandardCharsets.ISO_8859_1));
+            }
+            if (size > skipped) {
+              ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, skipped, size - skipped);
+              WritableByteChannel target = Channels.newChannel(out);
+              while (tail.hasRemaining()) {
+                target.write(tail);
+              }
+            }
+          }
+        }
+      } catch (IOException ex) {
+        recordError(ex);
+      }
+
+      if (hadError()) {
+        PrintStream ps = new PrintStream(out);
+        ps.print(error);
+        ps.flush();
+      }
+    }
+
     @Override
     public synchronized void write(byte[] b, int off, int len) {
       if (len > 0) {
@@ -243,15 +243,17 @@ public class FileSystemUtils {
    */
   public static PathFragment replaceSegments(PathFragment path,
       String oldSegment, String newSegment, boolean replaceAll) {
-    int count = path.segmentCount();
+    String[] segments = path.segments();
+    int count = segments.length;
     for (int i = 0; i < count; i++) {
-      if (path.getSegment(i).equals(oldSegment)) {
+      if (segments[i].equals(oldSegment)) {
         path = new PathFragment(path.subFragment(0, i),
                                 new PathFragment(newSegment),
                                 path.subFragment(i+1, count));
         if (!replaceAll) {
           return path;
         }
+        segments = path.segments();
       }
     }
     return path;
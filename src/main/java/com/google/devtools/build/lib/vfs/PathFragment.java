@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.vfs;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
@@ -26,12 +28,14 @@ import java.io.File;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Set;
 
 /**
  * This class represents an immutable UNIX filesystem path, which may be absolute or relative. The
- * path is maintained as a simple ordered list of path segment strings.
+ * path is maintained as its last segment and a pointer to the canonical instance of its parent, so
+ * that the fragments of the paths in a directory tree share the objects of their common prefixes,
+ * and appending a segment, taking the parent and comparing for equality take constant time.
+ * Segments parsed from strings are interned.
  *
  * <p>This class is independent from other VFS classes, especially anything requiring native code.
  * It is safe to use in places that need simple segmented string path functionality.
@@ -53,6 +57,13 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
 
   public static final String ROOT_DIR = "/";
 
+  /**
+   * Canonical instances of the fragments that are the parents of other fragments. Since every
+   * fragment points to the canonical instance of its parent, fragments sharing a prefix share the
+   * objects representing it, and fragments with equal parents have identical ones.
+   */
+  private static final Interner<PathFragment> PARENTS = Interners.newWeakInterner();
+
   /** An empty path fragment. */
   public static final PathFragment EMPTY_FRAGMENT = new PathFragment("");
 
@@ -80,13 +91,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
         }
       };
 
-  // We have 3 word-sized fields (segments, hashCode and path), and 2
-  // byte-sized ones, which fits in 16 bytes. Object sizes are rounded
-  // to 16 bytes.  Medium sized builds can easily hold millions of
-  // live PathFragments, so do not add further fields on a whim.
+  // We have 3 references (parent, baseName and path), 2 ints (segmentCount and hashCode), a
+  // 2-byte char and a boolean. With compressed references and the 12-byte object header that is
+  // 35 bytes, rounded up to 40. That is 8 bytes more than a fragment holding its own segments
+  // array, but less than such a fragment together with its array. Medium sized builds can easily
+  // hold millions of live PathFragments, so do not add further fields on a whim.
 
-  // The individual path components.
-  private final String[] segments;
+  // The canonical instance of the fragment holding all but the last segment, or null if there are
+  // no segments.
+  private final PathFragment parent;
+
+  // The last segment, or null if there are no segments.
+  private final String baseName;
+
+  private final int segmentCount;
 
   // True both for UNIX-style absolute paths ("/foo") and Windows-style ("C:/foo").
   private final boolean isAbsolute;
@@ -95,21 +113,30 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   // general, we create a lot of these objects, so space is at a premium.
   private final char driveLetter;
 
-  // hashCode and path are lazily initialized but semantically immutable.
-  private int hashCode;
+  // Computed from the hash code of the parent, so that it costs O(1) per fragment.
+  private final int hashCode;
+
+  // path is lazily initialized but semantically immutable.
   private String path;
 
   /**
    * Construct a PathFragment from a string, which is an absolute or relative UNIX or Windows path.
    */
   public PathFragment(String path) {
-    this.driveLetter = getWindowsDriveLetter(path);
-    if (driveLetter != '\0') {
-      path = path.substring(2);
-      // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
-    }
-    this.isAbsolute = path.length() > 0 && isSeparator(path.charAt(0));
-    this.segments = segment(path, isAbsolute ? 1 : 0);
+    this(getWindowsDriveLetter(path), stripDriveLetter(path));
+  }
+
+  private PathFragment(char driveLetter, String path) {
+    this(driveLetter, isAbsolutePath(path), segment(path, isAbsolutePath(path) ? 1 : 0));
+  }
+
+  private static String stripDriveLetter(String path) {
+    // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
+    return getWindowsDriveLetter(path) != '\0' ? path.substring(2) : path;
+  }
+
+  private static boolean isAbsolutePath(String path) {
+    return path.length() > 0 && isSeparator(path.charAt(0));
   }
 
   private static boolean isSeparator(char c) {
@@ -125,14 +152,36 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   /**
-   * Constructs a PathFragment, taking ownership of segments. Package-private,
-   * because it does not perform a defensive clone of the segments array. Used
-   * here in PathFragment, and by Path.asFragment() and Path.relativeTo().
+   * Constructs a PathFragment from segments. Package-private, because it does not intern the
+   * segments. Used here in PathFragment, and by Path.asFragment() and Path.relativeTo().
    */
   PathFragment(char driveLetter, boolean isAbsolute, String[] segments) {
+    this(driveLetter, isAbsolute, segments, segments.length);
+  }
+
+  private PathFragment(char driveLetter, boolean isAbsolute, String[] segments, int count) {
+    this(driveLetter, isAbsolute,
+        count == 0 ? null : canonicalPrefix(driveLetter, isAbsolute, segments, count - 1),
+        count == 0 ? null : segments[count - 1]);
+  }
+
+  /**
+   * Constructs the fragment formed by appending {@code baseName} to {@code parent}, which must be
+   * canonical, or the empty fragment if both are null.
+   */
+  private PathFragment(char driveLetter, boolean isAbsolute, PathFragment parent,
+      String baseName) {
     this.driveLetter = driveLetter;
     this.isAbsolute = isAbsolute;
-    this.segments = segments;
+    this.parent = parent;
+    this.baseName = baseName;
+    if (parent == null) {
+      this.segmentCount = 0;
+      this.hashCode = isAbsolute ? 1 : 0;
+    } else {
+      this.segmentCount = parent.segmentCount + 1;
+      this.hashCode = parent.hashCode * 31 + baseName.hashCode();
+    }
   }
 
   /**
@@ -141,21 +190,19 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment(PathFragment first, PathFragment second, PathFragment... more) {
     // TODO(bazel-team): The handling of absolute path fragments in this constructor is unexpected.
-    this.segments = new String[sumLengths(first, second, more)];
+    this(first.driveLetter, first.isAbsolute, concatSegments(first, second, more));
+  }
+
+  private static String[] concatSegments(PathFragment first, PathFragment second,
+      PathFragment[] more) {
+    String[] segments = new String[sumLengths(first, second, more)];
     int offset = 0;
-    offset += addSegments(offset, first);
-    offset += addSegments(offset, second);
+    offset += first.copySegments(segments, offset);
+    offset += second.copySegments(segments, offset);
     for (PathFragment fragment : more) {
-      offset += addSegments(offset, fragment);
+      offset += fragment.copySegments(segments, offset);
     }
-    this.isAbsolute = first.isAbsolute;
-    this.driveLetter = first.driveLetter;
-  }
-
-  private int addSegments(int offset, PathFragment fragment) {
-    int count = fragment.segmentCount();
-    System.arraycopy(fragment.segments, 0, this.segments, offset, count);
-    return count;
+    return segments;
   }
 
   private static int sumLengths(PathFragment first, PathFragment second, PathFragment[] more) {
@@ -166,6 +213,65 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     return total;
   }
 
+  /**
+   * Returns the canonical fragment made of the first {@code count} elements of {@code segments}.
+   */
+  private static PathFragment canonicalPrefix(char driveLetter, boolean isAbsolute,
+      String[] segments, int count) {
+    PathFragment result =
+        PARENTS.intern(new PathFragment(driveLetter, isAbsolute, null, (String) null));
+    for (int i = 0; i < count; i++) {
+      result = PARENTS.intern(new PathFragment(driveLetter, isAbsolute, result, segments[i]));
+    }
+    return result;
+  }
+
+  /** Returns the canonical instance of this fragment. */
+  private PathFragment canonical() {
+    return PARENTS.intern(this);
+  }
+
+  /**
+   * Returns the fragment formed by appending {@code segment} to this one. O(1), apart from
+   * canonicalizing this fragment.
+   */
+  private PathFragment child(String segment) {
+    return new PathFragment(driveLetter, isAbsolute, canonical(), segment);
+  }
+
+  /**
+   * Returns the ancestor of this fragment that has {@code count} segments, or this fragment if
+   * it has that many.
+   */
+  private PathFragment ancestor(int count) {
+    PathFragment result = this;
+    for (int i = segmentCount; i > count; i--) {
+      result = result.parent;
+    }
+    return result;
+  }
+
+  /**
+   * Copies the segments of this fragment into {@code array}, starting at {@code offset}, and
+   * returns their number.
+   */
+  private int copySegments(String[] array, int offset) {
+    copySegments(array, offset, segmentCount);
+    return segmentCount;
+  }
+
+  /**
+   * Copies the last {@code count} segments of this fragment into {@code array}, starting at
+   * {@code offset}.
+   */
+  private void copySegments(String[] array, int offset, int count) {
+    PathFragment current = this;
+    for (int i = offset + count - 1; i >= offset; i--) {
+      array[i] = current.baseName;
+      current = current.parent;
+    }
+  }
+
   /**
    * Segments the string passed in as argument and returns an array of strings.
    * The split is performed along occurrences of (sequences of) the slash
@@ -263,7 +369,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   private String joinSegments(char separatorChar) {
-    if (segments.length == 0 && isAbsolute) {
+    if (segmentCount == 0 && isAbsolute) {
       return windowsVolume() + ROOT_DIR;
     }
 
@@ -273,11 +379,11 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     // Heuristically, this estimate is right for about 99% of the time.
     int estimateSize =
         ((driveLetter != '\0') ? 2 : 0)
-        + ((segments.length == 0) ? 0 : (segments.length + 1) * 20);
+        + ((segmentCount == 0) ? 0 : (segmentCount + 1) * 20);
     StringBuilder result = new StringBuilder(estimateSize);
     result.append(windowsVolume());
     boolean initialSegment = true;
-    for (String segment : segments) {
+    for (String segment : segments()) {
       if (!initialSegment || isAbsolute) {
         result.append(separatorChar);
       }
@@ -291,8 +397,8 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * Return true iff none of the segments are either "." or "..".
    */
   public boolean isNormalized() {
-    for (String segment : segments) {
-      if (segment.equals(".") || segment.equals("..")) {
+    for (PathFragment current = this; current.parent != null; current = current.parent) {
+      if (current.baseName.equals(".") || current.baseName.equals("..")) {
         return false;
       }
     }
@@ -305,6 +411,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * start with "..").
    */
   public PathFragment normalize() {
+    if (isNormalized()) {
+      // Optimization, no new PathFragment needs to be created.
+      return this;
+    }
+
+    String[] segments = segments();
     String[] scratchSegments = new String[segments.length];
     int segmentCount = 0;
 
@@ -333,8 +445,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       return this;
     }
 
-    return new PathFragment(driveLetter, isAbsolute,
-        subarray(scratchSegments, 0, segmentCount));
+    return new PathFragment(driveLetter, isAbsolute, scratchSegments, segmentCount);
   }
 
   /**
@@ -348,7 +459,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   public PathFragment getRelative(PathFragment otherFragment) {
     return otherFragment.isAbsolute()
         ? otherFragment
-        : new PathFragment(this, otherFragment);
+        : appendSegments(otherFragment.segments());
   }
 
   /**
@@ -360,7 +471,25 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * with no path normalization or I/O performed.
    */
   public PathFragment getRelative(String path) {
-    return getRelative(new PathFragment(path));
+    String relativePath = stripDriveLetter(path);
+    return isAbsolutePath(relativePath)
+        ? new PathFragment(path)
+        : appendSegments(segment(relativePath, 0));
+  }
+
+  /**
+   * Returns the fragment formed by appending {@code segments} to this one. The cost is
+   * proportional to the number of segments appended, not to the length of this fragment.
+   */
+  private PathFragment appendSegments(String[] segments) {
+    if (segments.length == 0) {
+      return this;
+    }
+    PathFragment result = this;
+    for (String segment : segments) {
+      result = result.child(segment);
+    }
+    return result;
   }
 
   /**
@@ -376,17 +505,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment getChild(String baseName) {
     FileSystemUtils.checkBaseName(baseName);
-    baseName = StringCanonicalizer.intern(baseName);
-    String[] newSegments = Arrays.copyOf(segments, segments.length + 1);
-    newSegments[newSegments.length - 1] = baseName;
-    return new PathFragment(driveLetter, isAbsolute, newSegments);
+    return child(StringCanonicalizer.intern(baseName));
   }
 
   /**
    * Returns the last segment of this path, or "" for the empty fragment.
    */
   public String getBaseName() {
-    return (segments.length == 0) ? "" : segments[segments.length - 1];
+    return (segmentCount == 0) ? "" : baseName;
   }
 
   /**
@@ -400,24 +526,17 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * returns <code>"bar/wiz"</code>.
    */
   public PathFragment relativeTo(PathFragment ancestorDirectory) {
-    String[] ancestorSegments = ancestorDirectory.segments();
-    int ancestorLength = ancestorSegments.length;
+    int ancestorLength = ancestorDirectory.segmentCount;
 
     if (isAbsolute != ancestorDirectory.isAbsolute()
-        || segments.length < ancestorLength) {
+        || segmentCount < ancestorLength
+        || !sameSegments(ancestor(ancestorLength), ancestorDirectory)) {
       throw new IllegalArgumentException("PathFragment " + this
           + " is not beneath " + ancestorDirectory);
     }
 
-    for (int index = 0; index < ancestorLength; index++) {
-      if (!segments[index].equals(ancestorSegments[index])) {
-        throw new IllegalArgumentException("PathFragment " + this
-            + " is not beneath " + ancestorDirectory);
-      }
-    }
-
-    int length = segments.length - ancestorLength;
-    String[] resultSegments = subarray(segments, ancestorLength, length);
+    String[] resultSegments = new String[segmentCount - ancestorLength];
+    copySegments(resultSegments, 0, resultSegments.length);
     return new PathFragment('\0', false, resultSegments);
   }
 
@@ -437,7 +556,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * {@link #getRelative(String)}.
    */
   public PathFragment replaceName(String newName) {
-    return segments.length == 0 ? null : getParentDirectory().getRelative(newName);
+    return segmentCount == 0 ? null : getParentDirectory().getRelative(newName);
   }
 
   /**
@@ -447,7 +566,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * <p>Note: This method DOES NOT normalize ".."  and "." path segments.
    */
   public PathFragment getParentDirectory() {
-    return segments.length == 0 ? null : subFragment(0, segments.length - 1);
+    return parent;
   }
 
   /**
@@ -460,16 +579,11 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public boolean startsWith(PathFragment prefix) {
     if (this.isAbsolute != prefix.isAbsolute ||
-        this.segments.length < prefix.segments.length ||
+        this.segmentCount < prefix.segmentCount ||
         this.driveLetter != prefix.driveLetter) {
       return false;
     }
-    for (int i = 0, len = prefix.segments.length; i < len; i++) {
-      if (!this.segments[i].equals(prefix.segments[i])) {
-        return false;
-      }
-    }
-    return true;
+    return sameSegments(ancestor(prefix.segmentCount), prefix);
   }
 
   /**
@@ -481,22 +595,32 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public boolean endsWith(PathFragment suffix) {
     if ((suffix.isAbsolute && !suffix.equals(this)) ||
-        this.segments.length < suffix.segments.length) {
+        this.segmentCount < suffix.segmentCount) {
       return false;
     }
-    int offset = this.segments.length - suffix.segments.length;
-    for (int i = 0; i < suffix.segments.length; i++) {
-      if (!this.segments[offset + i].equals(suffix.segments[i])) {
+    PathFragment current = this;
+    for (PathFragment other = suffix; other.parent != null; other = other.parent) {
+      if (!current.baseName.equals(other.baseName)) {
         return false;
       }
+      current = current.parent;
     }
     return true;
   }
 
-  private static String[] subarray(String[] array, int start, int length) {
-    String[] subarray = new String[length];
-    System.arraycopy(array, start, subarray, 0, length);
-    return subarray;
+  /**
+   * Returns whether the two fragments, which must have the same number of segments, have equal
+   * segments. Stops as soon as the remaining prefixes are the same object.
+   */
+  private static boolean sameSegments(PathFragment first, PathFragment second) {
+    while (first != second && first.parent != null) {
+      if (!first.baseName.equals(second.baseName)) {
+        return false;
+      }
+      first = first.parent;
+      second = second.parent;
+    }
+    return true;
   }
 
   /**
@@ -516,15 +640,19 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    *             <code>endIndex</code>.
    */
   public PathFragment subFragment(int beginIndex, int endIndex) {
-    int count = segments.length;
+    int count = segmentCount;
     if ((beginIndex < 0) || (beginIndex > endIndex) || (endIndex > count)) {
       throw new IndexOutOfBoundsException(String.format("path: %s, beginIndex: %d endIndex: %d",
           toString(), beginIndex, endIndex));
     }
-    boolean isAbsolute = (beginIndex == 0) && this.isAbsolute;
-    return ((beginIndex == 0) && (endIndex == count)) ? this :
-        new PathFragment(driveLetter, isAbsolute,
-            subarray(segments, beginIndex, endIndex - beginIndex));
+    PathFragment prefix = ancestor(endIndex);
+    if (beginIndex == 0) {
+      // Prefixes are shared, so no new PathFragment needs to be created.
+      return prefix;
+    }
+    String[] segments = new String[endIndex - beginIndex];
+    prefix.copySegments(segments, 0, segments.length);
+    return new PathFragment(driveLetter, false, segments);
   }
 
   /**
@@ -535,10 +663,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   /**
-   * Returns the segments of this path fragment. This array should not be
-   * modified.
+   * Returns the segments of this path fragment, in a new array. Takes time proportional to the
+   * number of segments.
    */
   String[] segments() {
+    String[] segments = new String[segmentCount];
+    copySegments(segments, 0);
     return segments;
   }
 
@@ -553,15 +683,19 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * Returns the number of segments in this path.
    */
   public int segmentCount() {
-    return segments.length;
+    return segmentCount;
   }
 
   /**
    * Returns the specified segment of this path; index must be positive and
-   * less than numSegments().
+   * less than numSegments(). Takes time proportional to the number of segments
+   * after it.
    */
   public String getSegment(int index) {
-    return segments[index];
+    if (index < 0 || index >= segmentCount) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return ancestor(index + 1).baseName;
   }
 
   /**
@@ -569,20 +703,23 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * or {@link PathFragment#INVALID_SEGMENT} if none of the segments match.
    */
   public int getFirstSegment(Set<String> values) {
-    for (int i = 0; i < segments.length; i++) {
-      if (values.contains(segments[i])) {
-        return i;
+    int result = INVALID_SEGMENT;
+    int index = segmentCount - 1;
+    for (PathFragment current = this; current.parent != null; current = current.parent) {
+      if (values.contains(current.baseName)) {
+        result = index;
       }
+      index--;
     }
-    return INVALID_SEGMENT;
+    return result;
   }
 
   /**
    * Returns true iff this path contains uplevel references "..".
    */
   public boolean containsUplevelReferences() {
-    for (String segment : segments) {
-      if (segment.equals("..")) {
+    for (PathFragment current = this; current.parent != null; current = current.parent) {
+      if (current.baseName.equals("..")) {
         return true;
       }
     }
@@ -595,7 +732,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment toRelative() {
     Preconditions.checkArgument(isAbsolute);
-    return new PathFragment(driveLetter, false, segments);
+    return new PathFragment(driveLetter, false, segments());
   }
 
   /**
@@ -612,17 +749,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
 
   @Override
   public int hashCode() {
-    int h = hashCode;
-    if (h == 0) {
-      h = isAbsolute ? 1 : 0;
-      for (String segment : segments) {
-        h = h * 31 + segment.hashCode();
-      }
-      hashCode = h;
-    }
-    return h;
+    return hashCode;
   }
 
+  /**
+   * Two fragments are equal if they have the same drive letter, are both absolute or both relative
+   * and have equal segments. Since parents are canonical, this usually only compares the last
+   * segments and the identity of the parents.
+   */
   @Override
   public boolean equals(Object other) {
     if (this == other) {
@@ -632,32 +766,41 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       return false;
     }
     PathFragment otherPath = (PathFragment) other;
-    return isAbsolute == otherPath.isAbsolute &&
-        Arrays.equals(otherPath.segments, segments);
+    return hashCode == otherPath.hashCode
+        && segmentCount == otherPath.segmentCount
+        && isAbsolute == otherPath.isAbsolute
+        && driveLetter == otherPath.driveLetter
+        && sameSegments(this, otherPath);
   }
 
   /**
-   * Compares two PathFragments using the lexicographical order.
+   * Compares two PathFragments using the lexicographical order. Fragments on different drives are
+   * ordered by their drive letter, consistent with {@link #equals}.
    */
   @Override
   public int compareTo(PathFragment p2) {
+    if (this == p2) {
+      return 0;
+    }
     if (isAbsolute != p2.isAbsolute) {
       return isAbsolute ? -1 : 1;
     }
-    PathFragment p1 = this;
-    String[] segments1 = p1.segments;
-    String[] segments2 = p2.segments;
-    int len1 = segments1.length;
-    int len2 = segments2.length;
-    int n = Math.min(len1, len2);
-    for (int i = 0; i < n; i++) {
-      String segment1 = segments1[i];
-      String segment2 = segments2[i];
-      if (!segment1.equals(segment2)) {
-       return segment1.compareTo(segment2);
+    if (driveLetter != p2.driveLetter) {
+      return driveLetter - p2.driveLetter;
+    }
+    // Compares the ancestors of equal length, from the bottom up, and stops at their common
+    // ancestor. The difference closest to the root decides the order.
+    PathFragment p1 = ancestor(Math.min(segmentCount, p2.segmentCount));
+    PathFragment q2 = p2.ancestor(p1.segmentCount);
+    int result = 0;
+    while (p1 != q2 && p1.parent != null) {
+      if (!p1.baseName.equals(q2.baseName)) {
+        result = p1.baseName.compareTo(q2.baseName);
       }
+      p1 = p1.parent;
+      q2 = q2.parent;
     }
-    return len1 - len2;
+    return result != 0 ? result : segmentCount - p2.segmentCount;
   }
 
   @Override
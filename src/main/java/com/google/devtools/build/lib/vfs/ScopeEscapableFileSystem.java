@@ -133,10 +133,16 @@ public abstract class ScopeEscapableFileSystem extends FileSystem {
    * Example disallowed inputs: "/absolute/path/../path2", "relative/../path", "../relative/../p".
    */
   protected int leadingParentReferences(PathFragment normalizedPath) {
+    // Walks up from the last segment. Any other segment resets the count, so what is left at the
+    // first segment is the length of the leading run.
     int leadingParentReferences = 0;
-    for (int i = 0; i < normalizedPath.segmentCount() &&
-        normalizedPath.getSegment(i).equals(".."); i++) {
-      leadingParentReferences++;
+    for (PathFragment segment = normalizedPath; segment.segmentCount() > 0;
+        segment = segment.getParentDirectory()) {
+      if (segment.getBaseName().equals("..")) {
+        leadingParentReferences++;
+      } else {
+        leadingParentReferences = 0;
+      }
     }
     return leadingParentReferences;
   }
@@ -35,7 +35,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -605,16 +610,16 @@ public final class UnixGlob {
 
       List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
       List<String[]> splitExcludes = checkAndSplitPatterns(excludePatterns);
-
-      // We do a dumb loop, even though it will likely duplicate work
-      // (e.g., readdir calls). In order to optimize, we would need
-      // to keep track of which patterns shared sub-patterns and which did not
-      // (for example consider the glob [*/*.java, sub/*.java, */*.txt]).
-      for (String[] splitPattern : splitPatterns) {
-        queueGlob(base, baseStat.isDirectory(), splitPattern, 0, excludeDirectories,
-                  splitExcludes, 0, results, cache, dirPred, syscalls);
+      if (!baseStat.isDirectory()) {
+        return Futures.immediateFuture(Collections.<Path>emptyList());
       }
 
+      // All the patterns are matched in a single traversal, so that each directory is visited
+      // once, however many patterns apply to it (for example consider the glob
+      // [*/*.java, sub/*.java, */*.txt]).
+      Set<GlobNode> nodes = new HashSet<>();
+      GlobNode.compile(splitPatterns).addWithEmptyMatches(nodes);
+      queueGlob(base, 0, nodes, excludeDirectories, splitExcludes, dirPred, syscalls);
       return result;
     }
 
@@ -642,20 +647,17 @@ public final class UnixGlob {
       }
     }
 
-    private void queueGlob(final Path base, final boolean baseIsDir,
-        final String[] patternParts, final int idx,
+    private void queueGlob(final Path base, final int depth, final Set<GlobNode> nodes,
         final boolean excludeDirectories,
         final List<String[]> excludePatterns,
-        final int excludeIdx,
-        final Collection<Path> results, final Cache<String, Pattern> cache,
         final Predicate<Path> dirPred, final FilesystemCalls syscalls) {
       enqueue(new Runnable() {
         @Override
         public void run() {
           Profiler.instance().startTask(ProfilerTask.VFS_GLOB, this);
           try {
-            reallyGlob(base, baseIsDir, patternParts, idx, excludeDirectories,
-                excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+            reallyGlob(base, depth, nodes, excludeDirectories, excludePatterns, dirPred,
+                syscalls);
           } catch (IOException e) {
             throw new IORuntimeException(e);
           } catch (InterruptedException e) {
@@ -670,112 +672,204 @@ public final class UnixGlob {
         @Override
         public String toString() {
           return String.format(
-              "%s glob(include=[%s], exclude=[%s], exclude_directories=%s)",
+              "%s glob(exclude=[%s], exclude_directories=%s)",
               base.getPathString(),
-              "\"" + Joiner.on("\", \"").join(patternParts) + "\"",
               "\"" + Joiner.on("\", \"").join(excludePatterns) + "\"",
               excludeDirectories);
         }
       });
-
     }
 
     /**
-     * Expressed in Haskell:
-     * <pre>
-     *  reallyGlob base []     = { base }
-     *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
-     * </pre>
+     * Visits the directory {@code base}, at which {@code nodes} are active, and queues a visit of
+     * each of its subdirectories at which some node is active.
+     *
+     * <p>Every path to a directory goes through its parent, so each directory is visited at most
+     * once, with all the nodes that are active at it.
      */
-    private void reallyGlob(Path base, boolean baseIsDir, String[] patternParts, int idx,
+    private void reallyGlob(Path base, int depth, Set<GlobNode> nodes,
         boolean excludeDirectories,
         List<String[]> excludePatterns,
-        int excludeIdx,
-        Collection<Path> results, Cache<String, Pattern> cache,
         Predicate<Path> dirPred,
         FilesystemCalls syscalls) throws IOException, InterruptedException {
       if (failFastOnInterrupt && Thread.interrupted()) {
         throw new InterruptedException();
       }
 
-      if (baseIsDir && !dirPred.apply(base)) {
+      if (!dirPred.apply(base)) {
         return;
       }
 
-      if (idx == patternParts.length) { // Base case.
-        if (!(excludeDirectories && baseIsDir) &&
-            !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
-          results.add(base);
-        }
-
-        return;
+      boolean needsReaddir = false;
+      for (GlobNode node : nodes) {
+        needsReaddir |= node.recursive || !node.wildcardChildren.isEmpty();
       }
-
-      if (!baseIsDir) {
-        // Nothing to find here.
-        return;
+      if (!excludeDirectories && GlobNode.anyTerminal(nodes)
+          && !excludedOnMatch(base, excludePatterns, depth, cache)) {
+        results.add(base);
       }
 
       List<String[]> relevantExcludes
-          = getRelevantExcludes(base, excludePatterns, excludeIdx, cache);
-      final String pattern = patternParts[idx];
-
-      // ** is special: it can match nothing at all.
-      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      if ("**".equals(pattern)) {
-        queueGlob(base, baseIsDir, patternParts, idx + 1, excludeDirectories,
-            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+          = getRelevantExcludes(base, excludePatterns, depth, cache);
+      Map<String, GlobChild> children = new HashMap<>();
+
+      for (GlobNode node : nodes) {
+        for (Map.Entry<String, GlobNode> entry : node.literalChildren.entrySet()) {
+          String name = entry.getKey();
+          GlobChild child = children.get(name);
+          if (child == null) {
+            // We do not need to do a readdir for this child, just a stat.
+            Path path = base.getChild(name);
+            FileStatus status = syscalls.statNullable(path, Symlinks.FOLLOW);
+            if (status == null || (!status.isDirectory() && !status.isFile())) {
+              // The file is a dangling symlink, fifo, does not exist, etc.
+              continue;
+            }
+            child = new GlobChild(path, status.isDirectory());
+            children.put(name, child);
+          }
+          child.nodes.add(entry.getValue());
+        }
       }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
-        // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
-        FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
-        if (status == null || (!status.isDirectory() && !status.isFile())) {
-          // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
+      if (needsReaddir) {
+        for (Dirent dent : syscalls.readdir(base, Symlinks.FOLLOW)) {
+          Dirent.Type type = dent.getType();
+          if (type == Dirent.Type.UNKNOWN) {
+            // The file is a dangling symlink, fifo, etc.
+            continue;
+          }
+          String name = dent.getName();
+          GlobChild child = children.get(name);
+          for (GlobNode node : nodes) {
+            if (node.recursive) {
+              // "**" matches any child, and stays active in subdirectories.
+              child = addChildNode(children, child, base, dent, node);
+            }
+            for (Map.Entry<String, GlobNode> entry : node.wildcardChildren.entrySet()) {
+              if (matches(entry.getKey(), name, cache)) {
+                child = addChildNode(children, child, base, dent, entry.getValue());
+              }
+            }
+          }
         }
+      }
 
-        boolean childIsDir = status.isDirectory();
+      for (GlobChild child : children.values()) {
+        if (child.isDirectory) {
+          Set<GlobNode> childNodes = new HashSet<>();
+          for (GlobNode node : child.nodes) {
+            node.addWithEmptyMatches(childNodes);
+          }
+          queueGlob(child.path, depth + 1, childNodes, excludeDirectories, relevantExcludes,
+              dirPred, syscalls);
+        } else if (GlobNode.anyTerminal(child.nodes)
+            && !excludedOnMatch(child.path, relevantExcludes, depth + 1, cache)) {
+          // Instead of using an async call, just repeat the base case above.
+          results.add(child.path);
+        }
+      }
+    }
 
-        queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-            relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-        return;
+    private static GlobChild addChildNode(Map<String, GlobChild> children, GlobChild child,
+        Path base, Dirent dent, GlobNode node) {
+      if (child == null) {
+        child = new GlobChild(base.getChild(dent.getName()),
+            dent.getType() == Dirent.Type.DIRECTORY);
+        children.put(dent.getName(), child);
       }
+      child.nodes.add(node);
+      return child;
+    }
+  }
+
+  /**
+   * A child of a directory being globbed, and the nodes that matching its name made active.
+   */
+  private static final class GlobChild {
+    private final Path path;
+    private final boolean isDirectory;
+    private final Set<GlobNode> nodes = new HashSet<>();
 
-      Collection<Dirent> dents = syscalls.readdir(base, Symlinks.FOLLOW);
+    private GlobChild(Path path, boolean isDirectory) {
+      this.path = path;
+      this.isDirectory = isDirectory;
+    }
+  }
+
+  /**
+   * A node of the trie that the include patterns of a glob are compiled into. Each edge matches one
+   * segment of a pattern. A node is active at a path if the path matches the segments leading to
+   * the node; the path is a result if a pattern ends at an active node.
+   */
+  private static final class GlobNode {
+    /** Whether the node is reached by "**", which keeps it active in all subdirectories. */
+    private final boolean recursive;
+    /** Whether a pattern ends at this node. */
+    private boolean terminal = false;
+    /** Children reached by a segment without wildcards, which are looked up with a stat. */
+    private final Map<String, GlobNode> literalChildren = new LinkedHashMap<>();
+    /** Children reached by a segment with wildcards, which are matched against a readdir. */
+    private final Map<String, GlobNode> wildcardChildren = new LinkedHashMap<>();
+    /** The child reached by "**", or null. */
+    private GlobNode recursiveChild = null;
+
+    private GlobNode(boolean recursive) {
+      this.recursive = recursive;
+    }
 
-      for (Dirent dent : dents) {
-        Dirent.Type type = dent.getType();
-        if (type == Dirent.Type.UNKNOWN) {
-          // The file is a dangling symlink, fifo, etc.
-          continue;
+    /**
+     * Returns the root of the trie of the given split patterns.
+     */
+    static GlobNode compile(List<String[]> patterns) {
+      GlobNode root = new GlobNode(false);
+      for (String[] pattern : patterns) {
+        GlobNode node = root;
+        for (String segment : pattern) {
+          node = node.getOrCreateChild(segment);
         }
-        boolean childIsDir = (type == Dirent.Type.DIRECTORY);
-        String text = dent.getName();
-        Path child = base.getChild(text);
-
-        if ("**".equals(pattern)) {
-          // Recurse without shifting the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          }
+        node.terminal = true;
+      }
+      return root;
+    }
+
+    private GlobNode getOrCreateChild(String segment) {
+      if ("**".equals(segment)) {
+        if (recursiveChild == null) {
+          recursiveChild = new GlobNode(true);
         }
-        if (matches(pattern, text, cache)) {
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == patternParts.length &&
-                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
-              results.add(child);
-            }
-          }
+        return recursiveChild;
+      }
+      Map<String, GlobNode> children = segment.contains("*") || segment.contains("?")
+          ? wildcardChildren
+          : literalChildren;
+      GlobNode child = children.get(segment);
+      if (child == null) {
+        child = new GlobNode(false);
+        children.put(segment, child);
+      }
+      return child;
+    }
+
+    /**
+     * Adds this node to {@code nodes}, together with the nodes that are active at the same path
+     * because "**" can match nothing at all.
+     */
+    void addWithEmptyMatches(Set<GlobNode> nodes) {
+      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
+      GlobNode node = this;
+      while (node != null && nodes.add(node)) {
+        node = node.recursiveChild;
+      }
+    }
+
+    static boolean anyTerminal(Collection<GlobNode> nodes) {
+      for (GlobNode node : nodes) {
+        if (node.terminal) {
+          return true;
         }
       }
+      return false;
     }
   }
 }
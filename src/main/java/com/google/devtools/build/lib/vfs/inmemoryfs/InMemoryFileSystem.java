@@ -336,8 +336,9 @@ public class InMemoryFileSystem extends ScopeEscapableFileSystem {
         if (traversals > MAX_TRAVERSALS) {
           throw Error.ELOOP.exception(path);
         }
-        for (int ii = linkTarget.segmentCount() - 1; ii >= 0; --ii) {
-          stack.push(linkTarget.getSegment(ii)); // Note this may include ".." segments.
+        for (PathFragment segment = linkTarget; segment.segmentCount() > 0;
+            segment = segment.getParentDirectory()) {
+          stack.push(segment.getBaseName()); // Note this may include ".." segments.
         }
       } else {
         inode = child;
@@ -372,9 +373,8 @@ public class InMemoryFileSystem extends ScopeEscapableFileSystem {
           ? scopeRoot.subFragment(0, baseDepth)
           : scopeRoot.subFragment(0, 0);
       // Now add in everything that comes after the ".." sequence.
-      for (int i = leadingParentRefs; i < linkTarget.segmentCount(); i++) {
-        escapingPath = escapingPath.getRelative(linkTarget.getSegment(i));
-      }
+      escapingPath = escapingPath.getRelative(
+          linkTarget.subFragment(leadingParentRefs, linkTarget.segmentCount()));
     }
 
     // We've now converted the symlink to its target in canonicalized absolute path
@@ -0,0 +1,83 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+
+/**
+ * A persistent worker process. Requests are written to its standard input, and responses read
+ * from its standard output; its standard error is appended to a log file.
+ *
+ * <p>A worker serves one request at a time. It is not thread-safe.
+ */
+final class Worker {
+  private final WorkerKey key;
+  private final Process process;
+
+  private Worker(WorkerKey key, Process process) {
+    this.key = key;
+    this.process = process;
+  }
+
+  /**
+   * Starts a worker process for {@code key}, whose standard error is appended to {@code logFile}.
+   */
+  static Worker create(WorkerKey key, Path logFile) throws IOException {
+    ProcessBuilder processBuilder = new ProcessBuilder(key.getArgs())
+        .directory(key.getWorkDir().getPathFile())
+        .redirectError(Redirect.appendTo(logFile.getPathFile()));
+    processBuilder.environment().clear();
+    processBuilder.environment().putAll(key.getEnv());
+    return new Worker(key, processBuilder.start());
+  }
+
+  WorkerKey getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the stream that requests are written to.
+   */
+  OutputStream getRequestStream() {
+    return process.getOutputStream();
+  }
+
+  /**
+   * Returns the stream that responses are read from.
+   */
+  InputStream getResponseStream() {
+    return process.getInputStream();
+  }
+
+  boolean isAlive() {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Kills the worker process.
+   */
+  void destroy() {
+    process.destroy();
+  }
+}
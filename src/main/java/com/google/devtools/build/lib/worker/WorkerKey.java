@@ -0,0 +1,86 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.util.Objects;
+
+/**
+ * Identifies the worker processes that can serve a request: two requests can be sent to the same
+ * worker if the worker was started with the same command line and environment, in the same
+ * directory, and the files that it runs have not changed since.
+ */
+final class WorkerKey {
+  private final ImmutableList<String> args;
+  private final ImmutableMap<String, String> env;
+  private final Path workDir;
+  private final String mnemonic;
+  private final String toolsDigest;
+
+  /**
+   * @param toolsDigest a digest of the contents of the files that the worker runs, such as its
+   *     jars, so that a worker is not reused after they are rebuilt
+   */
+  WorkerKey(ImmutableList<String> args, ImmutableMap<String, String> env, Path workDir,
+      String mnemonic, String toolsDigest) {
+    this.args = Preconditions.checkNotNull(args);
+    this.env = Preconditions.checkNotNull(env);
+    this.workDir = Preconditions.checkNotNull(workDir);
+    this.mnemonic = Preconditions.checkNotNull(mnemonic);
+    this.toolsDigest = Preconditions.checkNotNull(toolsDigest);
+  }
+
+  ImmutableList<String> getArgs() {
+    return args;
+  }
+
+  ImmutableMap<String, String> getEnv() {
+    return env;
+  }
+
+  Path getWorkDir() {
+    return workDir;
+  }
+
+  String getMnemonic() {
+    return mnemonic;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof WorkerKey)) {
+      return false;
+    }
+    WorkerKey other = (WorkerKey) o;
+    return args.equals(other.args) && env.equals(other.env) && workDir.equals(other.workDir)
+        && mnemonic.equals(other.mnemonic) && toolsDigest.equals(other.toolsDigest);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(args, env, workDir, mnemonic, toolsDigest);
+  }
+
+  @Override
+  public String toString() {
+    return mnemonic + " worker " + args;
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.ActionContextConsumer;
+import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Executor.ActionContext;
+import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.GotOptionsEvent;
+import com.google.devtools.build.lib.standalone.LocalSpawnStrategy;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.OptionsProvider;
+
+import java.util.Map;
+
+/**
+ * A module that runs actions in persistent worker processes, which are kept across builds and
+ * killed when the server shuts down.
+ */
+public class WorkerModule extends BlazeModule {
+
+  private class WorkerActionContextProvider implements ActionContextProvider {
+    @Override
+    public Iterable<ActionContext> getActionContexts() {
+      Path execRoot = runtime.getDirectories().getExecRoot();
+      boolean verboseFailures = optionsProvider.getOptions(ExecutionOptions.class).verboseFailures;
+      return ImmutableList.<ActionContext>of(new WorkerSpawnStrategy(execRoot, getWorkerPool(),
+          new LocalSpawnStrategy(execRoot, verboseFailures), verboseFailures));
+    }
+
+    @Override
+    public void executorCreated(Iterable<ActionContext> usedContexts)
+        throws ExecutorInitException {
+    }
+
+    @Override
+    public void executionPhaseStarting(ActionInputFileCache actionInputFileCache,
+        ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts)
+        throws ExecutorInitException, InterruptedException {
+    }
+
+    @Override
+    public void executionPhaseEnding() {
+    }
+  }
+
+  private class WorkerActionContextConsumer implements ActionContextConsumer {
+    @Override
+    public Map<String, String> getSpawnActionContexts() {
+      return optionsProvider.getOptions(WorkerOptions.class).persistentJavac
+          ? ImmutableMap.of("Javac", "worker")
+          : ImmutableMap.<String, String>of();
+    }
+
+    @Override
+    public Map<Class<? extends ActionContext>, String> getActionContexts() {
+      return ImmutableMap.of();
+    }
+  }
+
+  private BlazeRuntime runtime;
+  private OptionsProvider optionsProvider;
+  private WorkerPool workerPool;
+
+  @Override
+  public void beforeCommand(BlazeRuntime blazeRuntime, Command command) {
+    this.runtime = blazeRuntime;
+    runtime.getEventBus().register(this);
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return command.builds()
+        ? ImmutableList.<Class<? extends OptionsBase>>of(WorkerOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
+  }
+
+  @Override
+  public ActionContextConsumer getActionContextConsumer() {
+    return new WorkerActionContextConsumer();
+  }
+
+  @Override
+  public ActionContextProvider getActionContextProvider() {
+    return new WorkerActionContextProvider();
+  }
+
+  @Subscribe
+  public void gotOptions(GotOptionsEvent event) {
+    optionsProvider = event.getOptions();
+  }
+
+  private synchronized WorkerPool getWorkerPool() {
+    int maxInstances = optionsProvider.getOptions(WorkerOptions.class).workerMaxInstances;
+    if (workerPool == null) {
+      workerPool = new WorkerPool(
+          runtime.getDirectories().getOutputBase().getRelative("worker-logs"), maxInstances);
+    } else {
+      workerPool.setMaxIdleWorkersPerKey(maxInstances);
+    }
+    return workerPool;
+  }
+
+  @Override
+  public synchronized void blazeShutdown() {
+    if (workerPool != null) {
+      workerPool.close();
+      workerPool = null;
+    }
+  }
+}
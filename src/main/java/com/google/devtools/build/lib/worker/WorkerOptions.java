@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options related to persistent worker processes.
+ */
+public class WorkerOptions extends OptionsBase {
+
+  @Option(name = "experimental_persistent_javac",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, Java compilations are sent to persistent JavaBuilder processes that are "
+          + "kept running across actions and builds.")
+  public boolean persistentJavac;
+
+  @Option(name = "worker_max_instances",
+      defaultValue = "4",
+      category = "strategy",
+      help = "How many idle worker processes to keep running for each kind of action. The number "
+          + "of workers in use at a time is bounded by the local resources of the actions.")
+  public int workerMaxInstances;
+}
@@ -0,0 +1,122 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A pool of worker processes, shared by all the builds of a server.
+ *
+ * <p>The pool does not limit how many workers are in use at a time: a worker is only borrowed by
+ * an action that holds its local resources, so the {@link
+ * com.google.devtools.build.lib.actions.ResourceManager} already bounds the number of concurrent
+ * workers. The pool only bounds the number of idle workers that it keeps for each key; workers
+ * returned beyond that are killed.
+ */
+// @ThreadSafety.ThreadSafe
+final class WorkerPool {
+  private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
+  private final Path logDir;
+  private final AtomicInteger workerIds = new AtomicInteger();
+  private final Map<WorkerKey, Deque<Worker>> idleWorkers = new HashMap<>();
+  private int maxIdleWorkersPerKey;
+
+  WorkerPool(Path logDir, int maxIdleWorkersPerKey) {
+    this.logDir = logDir;
+    setMaxIdleWorkersPerKey(maxIdleWorkersPerKey);
+  }
+
+  synchronized void setMaxIdleWorkersPerKey(int maxIdleWorkersPerKey) {
+    Preconditions.checkArgument(maxIdleWorkersPerKey >= 0);
+    this.maxIdleWorkersPerKey = maxIdleWorkersPerKey;
+  }
+
+  /**
+   * Returns an idle worker for {@code key}, starting a new one if there is none.
+   */
+  Worker borrowWorker(WorkerKey key) throws IOException {
+    while (true) {
+      Worker worker;
+      synchronized (this) {
+        Deque<Worker> idle = idleWorkers.get(key);
+        worker = idle == null ? null : idle.pollLast();
+      }
+      if (worker == null) {
+        break;
+      }
+      if (worker.isAlive()) {
+        return worker;
+      }
+      worker.destroy();
+    }
+    logDir.createDirectory();
+    Path logFile = logDir.getChild(
+        "worker-" + workerIds.incrementAndGet() + "-" + key.getMnemonic() + ".log");
+    LOG.info("Starting " + key + ", logging to " + logFile);
+    return Worker.create(key, logFile);
+  }
+
+  /**
+   * Returns a worker that is done with its request and can serve another one.
+   */
+  void returnWorker(Worker worker) {
+    synchronized (this) {
+      Deque<Worker> idle = idleWorkers.get(worker.getKey());
+      if (idle == null) {
+        idle = new ArrayDeque<>();
+        idleWorkers.put(worker.getKey(), idle);
+      }
+      if (idle.size() < maxIdleWorkersPerKey) {
+        idle.addLast(worker);
+        return;
+      }
+    }
+    worker.destroy();
+  }
+
+  /**
+   * Kills a worker that failed, or whose state is unknown.
+   */
+  void invalidateWorker(Worker worker) {
+    worker.destroy();
+  }
+
+  /**
+   * Kills all the idle workers.
+   */
+  void close() {
+    List<Worker> workers = new ArrayList<>();
+    synchronized (this) {
+      for (Deque<Worker> idle : idleWorkers.values()) {
+        workers.addAll(idle);
+      }
+      idleWorkers.clear();
+    }
+    for (Worker worker : workers) {
+      worker.destroy();
+    }
+  }
+}
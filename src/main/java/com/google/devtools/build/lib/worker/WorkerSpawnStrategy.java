@@ -0,0 +1,227 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.CommandFailureUtils;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Strategy that sends spawns to persistent worker processes, so that the tool they run does not
+ * pay its startup and warmup costs for every action.
+ *
+ * <p>Only spawns whose execution info contains {@link #SUPPORTS_WORKERS} are sent to workers;
+ * the others are run by the fallback strategy. The last argument of such a spawn must be a
+ * {@code @flagfile}. The worker is started with the other arguments followed by {@code
+ * --persistent_worker}, and each request holds the flagfile of one spawn.
+ *
+ * <p>The inputs of the spawn that its other arguments name, such as the jars of a Java tool, are
+ * the tools of the worker: a worker is only reused while their contents do not change.
+ */
+@ExecutionStrategy(name = { "worker" }, contextType = SpawnActionContext.class)
+final class WorkerSpawnStrategy implements SpawnActionContext {
+
+  /**
+   * The key of the execution info of spawns that can be sent to a persistent worker.
+   */
+  static final String SUPPORTS_WORKERS = "supports-workers";
+
+  private static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+
+  /** Separates the paths in the arguments of a worker, as in {@code -Dflag=a.jar:b.jar}. */
+  private static final Splitter ARGUMENT_PATH_SPLITTER =
+      Splitter.on(CharMatcher.anyOf(":=")).omitEmptyStrings();
+
+  /**
+   * Reads the responses of workers. Reading from a process cannot be interrupted, so the thread
+   * of the action waits for the reader instead, and kills the worker if it is interrupted.
+   */
+  private static final ExecutorService RESPONSE_READERS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("worker-response-reader-%d").setDaemon(true)
+          .build());
+
+  private final Path execRoot;
+  private final WorkerPool workers;
+  private final SpawnActionContext fallbackStrategy;
+  private final boolean verboseFailures;
+
+  WorkerSpawnStrategy(Path execRoot, WorkerPool workers, SpawnActionContext fallbackStrategy,
+      boolean verboseFailures) {
+    this.execRoot = execRoot;
+    this.workers = workers;
+    this.fallbackStrategy = fallbackStrategy;
+    this.verboseFailures = verboseFailures;
+  }
+
+  @Override
+  public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    List<String> args = spawn.getArguments();
+    if (!spawn.getExecutionInfo().containsKey(SUPPORTS_WORKERS) || args.isEmpty()
+        || !Iterables.getLast(args).startsWith("@")) {
+      fallbackStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+
+    Executor executor = actionExecutionContext.getExecutor();
+    if (executor.reportsSubcommands()) {
+      executor.reportSubcommand(Label.print(spawn.getOwner().getLabel()),
+          spawn.asShellCommand(executor.getExecRoot()));
+    }
+
+    List<String> startupArgs = args.subList(0, args.size() - 1);
+    String toolsDigest;
+    try {
+      toolsDigest = computeToolsDigest(startupArgs, spawn.getInputFiles(),
+          actionExecutionContext.getActionInputFileCache());
+    } catch (IOException e) {
+      throw new EnvironmentalExecException(
+          "could not digest the tools of the worker: " + e.getMessage(), e);
+    }
+    WorkerKey key = new WorkerKey(
+        ImmutableList.<String>builder().addAll(startupArgs).add(PERSISTENT_WORKER_FLAG).build(),
+        spawn.getEnvironment(), execRoot, spawn.getMnemonic(), toolsDigest);
+    WorkRequest request = WorkRequest.newBuilder().addArguments(Iterables.getLast(args)).build();
+
+    WorkResponse response;
+    Worker worker = null;
+    try {
+      worker = workers.borrowWorker(key);
+      response = execInWorker(worker, request);
+    } catch (IOException e) {
+      if (worker != null) {
+        workers.invalidateWorker(worker);
+      }
+      throw new EnvironmentalExecException(
+          String.format("%s failed: %s", key, e.getMessage()), e);
+    } catch (InterruptedException e) {
+      // The worker may still be working on the request.
+      workers.invalidateWorker(worker);
+      throw e;
+    }
+    workers.returnWorker(worker);
+
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    try {
+      outErr.getErrorStream().write(response.getOutput().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("could not save worker output: " + e.getMessage(), e);
+    }
+    if (response.getExitCode() != 0) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), execRoot.getPathString());
+      throw new UserExecException(
+          String.format("%s: worker exited with code %d", message, response.getExitCode()));
+    }
+  }
+
+  /**
+   * Sends {@code request} to {@code worker} and waits for its response. If the calling thread is
+   * interrupted, the worker is killed.
+   */
+  private static WorkResponse execInWorker(final Worker worker, WorkRequest request)
+      throws IOException, InterruptedException {
+    request.writeDelimitedTo(worker.getRequestStream());
+    worker.getRequestStream().flush();
+    Future<WorkResponse> future = RESPONSE_READERS.submit(new Callable<WorkResponse>() {
+      @Override
+      public WorkResponse call() throws IOException {
+        return WorkResponse.parseDelimitedFrom(worker.getResponseStream());
+      }
+    });
+    WorkResponse response;
+    try {
+      response = future.get();
+    } catch (InterruptedException e) {
+      // Closes the response stream, so the reader does not outlive the worker.
+      worker.destroy();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+    if (response == null) {
+      throw new IOException("worker exited without a response; see its log in the output base");
+    }
+    return response;
+  }
+
+  /**
+   * Returns a digest of the contents of the inputs of a spawn that are named by {@code
+   * startupArgs}, either as a whole argument or as one of the paths in it.
+   */
+  static String computeToolsDigest(List<String> startupArgs,
+      Iterable<? extends ActionInput> inputs, ActionInputFileCache inputFileCache)
+      throws IOException {
+    Set<String> argumentPaths = new HashSet<>();
+    for (String arg : startupArgs) {
+      argumentPaths.add(arg);
+      Iterables.addAll(argumentPaths, ARGUMENT_PATH_SPLITTER.split(arg));
+    }
+    Fingerprint fingerprint = new Fingerprint();
+    for (ActionInput input : inputs) {
+      if (argumentPaths.contains(input.getExecPathString())) {
+        ByteString digest = inputFileCache.getDigest(input);
+        if (digest == null) {
+          throw new IOException("cannot digest " + input.getExecPathString());
+        }
+        fingerprint.addString(input.getExecPathString());
+        fingerprint.addBytes(digest.toByteArray());
+      }
+    }
+    return fingerprint.hexDigestAndReset();
+  }
+
+  @Override
+  public String strategyLocality(String mnemonic, boolean remotable) {
+    return "worker";
+  }
+
+  @Override
+  public boolean isRemotable(String mnemonic, boolean remotable) {
+    return false;
+  }
+}
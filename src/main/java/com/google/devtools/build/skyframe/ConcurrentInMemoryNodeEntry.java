@@ -0,0 +1,229 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InMemoryNodeEntry} that does not take its lock in the operations performed most often
+ * on done nodes with many parents, such as configuration or precomputed nodes.
+ *
+ * <p>Whether the node is done and its value are read without locking. Reverse deps added to a done
+ * node are pushed onto a lock-free stack, and only added to the reverse deps proper, under the
+ * lock, when those are next read or modified. The stack is closed with a sentinel whenever the
+ * node is not done, which makes {@link #addReverseDepAndCheckIfDone} fall back to the locked
+ * implementation. Since the sentinel is swapped in atomically before the node leaves the done
+ * state, no reverse dep can be pushed onto the stack of a node that is not done. So that done
+ * nodes do not keep their reverse deps as a linked stack between evaluations, entries whose stack
+ * stops being empty can be queued, and the graph then drains them when the evaluation ends.
+ *
+ * <p>Reading the value of a done node without the lock relies on nodes not being invalidated
+ * while they are being evaluated, which {@link MemoizingEvaluator} guarantees.
+ */
+public class ConcurrentInMemoryNodeEntry extends InMemoryNodeEntry {
+
+  /** An element of the stack of reverse deps added while the node is done. */
+  private static final class ReverseDepNode {
+    private final SkyKey key;
+    private final ReverseDepNode next;
+
+    private ReverseDepNode(SkyKey key, ReverseDepNode next) {
+      this.key = key;
+      this.next = next;
+    }
+  }
+
+  /** Top of the stack while the node is not done. */
+  private static final ReverseDepNode CLOSED = new ReverseDepNode(null, null);
+
+  private static final AtomicReferenceFieldUpdater<ConcurrentInMemoryNodeEntry, ReverseDepNode>
+      BUFFER_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+          ConcurrentInMemoryNodeEntry.class, ReverseDepNode.class, "bufferedReverseDeps");
+
+  /**
+   * {@link #CLOSED} while this node is not done. Otherwise the top of the stack of reverse deps
+   * added since they were last read, or null if there are none.
+   */
+  private volatile ReverseDepNode bufferedReverseDeps = CLOSED;
+
+  /**
+   * Receives this entry whenever its stack stops being empty, or null if the stack is only drained
+   * when the reverse deps are next read or modified.
+   */
+  @Nullable private final Queue<ConcurrentInMemoryNodeEntry> entriesToCompact;
+
+  /**
+   * Construct a ConcurrentInMemoryNodeEntry. Use ONLY in Skyframe evaluation and graph
+   * implementations.
+   */
+  public ConcurrentInMemoryNodeEntry() {
+    this(null);
+  }
+
+  /**
+   * Constructs an entry that adds itself to {@code entriesToCompact} whenever reverse deps are
+   * buffered on an empty stack. See {@link #compactBufferedReverseDeps}.
+   */
+  ConcurrentInMemoryNodeEntry(@Nullable Queue<ConcurrentInMemoryNodeEntry> entriesToCompact) {
+    this.entriesToCompact = entriesToCompact;
+  }
+
+  @Override
+  public boolean isDone() {
+    return buildingState == null;
+  }
+
+  @Override
+  public SkyValue getValue() {
+    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+    return ValueWithMetadata.justValue(value);
+  }
+
+  @Override
+  public ValueWithMetadata getValueWithMetadata() {
+    Preconditions.checkState(isDone(), "no value until done: %s", this);
+    return ValueWithMetadata.wrapWithMetadata(value);
+  }
+
+  @Override
+  @Nullable
+  public ErrorInfo getErrorInfo() {
+    Preconditions.checkState(isDone(), "no errors until done. ValueEntry: %s", this);
+    return ValueWithMetadata.getMaybeErrorInfo(value);
+  }
+
+  @Override
+  public Version getVersion() {
+    return version;
+  }
+
+  @Override
+  public DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+    if (reverseDep == null || !keepEdges()) {
+      if (isDone()) {
+        return DependencyState.DONE;
+      }
+      return super.addReverseDepAndCheckIfDone(reverseDep);
+    }
+    while (true) {
+      ReverseDepNode top = bufferedReverseDeps;
+      if (top == CLOSED) {
+        return super.addReverseDepAndCheckIfDone(reverseDep);
+      }
+      if (BUFFER_UPDATER.compareAndSet(this, top, new ReverseDepNode(reverseDep, top))) {
+        if (top == null && entriesToCompact != null) {
+          entriesToCompact.add(this);
+        }
+        return DependencyState.DONE;
+      }
+    }
+  }
+
+  /** Adds the buffered reverse deps to the reverse deps proper. Must hold the lock. */
+  private void drainReverseDepsBuffer(ReverseDepNode replacement) {
+    ReverseDepNode top = BUFFER_UPDATER.getAndSet(this, replacement);
+    if (top == CLOSED || top == null) {
+      return;
+    }
+    List<SkyKey> reverseDeps = new ArrayList<>();
+    for (ReverseDepNode node = top; node != null; node = node.next) {
+      reverseDeps.add(node.key);
+    }
+    // Restore the order in which the reverse deps were added.
+    Collections.reverse(reverseDeps);
+    addReverseDepsToDoneEntry(reverseDeps);
+  }
+
+  private void drainReverseDepsBuffer() {
+    if (bufferedReverseDeps != CLOSED) {
+      drainReverseDepsBuffer(null);
+    }
+  }
+
+  /**
+   * Adds the reverse deps buffered by the given entries to their reverse deps proper, emptying the
+   * queue. An entry may be queued more than once, or drained already, in which case there is
+   * nothing left to do.
+   */
+  static void compactBufferedReverseDeps(Queue<ConcurrentInMemoryNodeEntry> entries) {
+    for (ConcurrentInMemoryNodeEntry entry = entries.poll(); entry != null;
+        entry = entries.poll()) {
+      entry.compactReverseDeps();
+    }
+  }
+
+  private synchronized void compactReverseDeps() {
+    drainReverseDepsBuffer();
+  }
+
+  private void openReverseDepsBuffer() {
+    Preconditions.checkState(bufferedReverseDeps == CLOSED, this);
+    bufferedReverseDeps = null;
+  }
+
+  @Override
+  public synchronized Set<SkyKey> setValue(SkyValue value, Version version) {
+    Set<SkyKey> reverseDepsToSignal = super.setValue(value, version);
+    openReverseDepsBuffer();
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  public synchronized Set<SkyKey> markClean() {
+    Set<SkyKey> reverseDepsToSignal = super.markClean();
+    openReverseDepsBuffer();
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  @Nullable
+  public synchronized Pair<? extends Iterable<SkyKey>, ? extends SkyValue> markDirty(
+      boolean isChanged) {
+    if (isDone()) {
+      drainReverseDepsBuffer(CLOSED);
+    }
+    return super.markDirty(isChanged);
+  }
+
+  @Override
+  public synchronized void removeReverseDep(SkyKey reverseDep) {
+    drainReverseDepsBuffer();
+    super.removeReverseDep(reverseDep);
+  }
+
+  @Override
+  public synchronized Iterable<SkyKey> getReverseDeps() {
+    drainReverseDepsBuffer();
+    return super.getReverseDeps();
+  }
+
+  @Override
+  public synchronized InMemoryNodeEntry cloneNodeEntry() {
+    drainReverseDepsBuffer();
+    ConcurrentInMemoryNodeEntry nodeEntry = new ConcurrentInMemoryNodeEntry(entriesToCompact);
+    cloneNodeEntry(nodeEntry);
+    nodeEntry.openReverseDepsBuffer();
+    return nodeEntry;
+  }
+}
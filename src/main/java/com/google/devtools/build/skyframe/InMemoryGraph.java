@@ -22,6 +22,8 @@ import com.google.common.collect.Maps;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
@@ -37,13 +39,27 @@ public class InMemoryGraph implements ProcessableGraph {
   protected final ConcurrentMap<SkyKey, NodeEntry> nodeMap =
       new MapMaker().initialCapacity(1024).concurrencyLevel(200).makeMap();
   private final boolean keepEdges;
+  private final boolean concurrentNodeEntries;
+  // ConcurrentInMemoryNodeEntries with buffered reverse deps, drained by compactReverseDeps().
+  private final Queue<ConcurrentInMemoryNodeEntry> entriesToCompact =
+      new ConcurrentLinkedQueue<>();
 
   InMemoryGraph() {
     this(/*keepEdges=*/true);
   }
 
   public InMemoryGraph(boolean keepEdges) {
+    this(keepEdges, /*concurrentNodeEntries=*/false);
+  }
+
+  /**
+   * @param concurrentNodeEntries whether to create {@link ConcurrentInMemoryNodeEntry}s, which
+   *     scale better when many threads add reverse deps to or read the same done nodes. Only
+   *     applies if {@code keepEdges} is true.
+   */
+  public InMemoryGraph(boolean keepEdges, boolean concurrentNodeEntries) {
     this.keepEdges = keepEdges;
+    this.concurrentNodeEntries = concurrentNodeEntries;
   }
 
   @Override
@@ -58,11 +74,28 @@ public class InMemoryGraph implements ProcessableGraph {
 
   @Override
   public NodeEntry createIfAbsent(SkyKey key) {
-    NodeEntry newval = keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+    NodeEntry newval = newNodeEntry();
     NodeEntry oldval = nodeMap.putIfAbsent(key, newval);
     return oldval == null ? newval : oldval;
   }
 
+  private NodeEntry newNodeEntry() {
+    if (!keepEdges) {
+      return new EdgelessInMemoryNodeEntry();
+    }
+    return concurrentNodeEntries
+        ? new ConcurrentInMemoryNodeEntry(entriesToCompact)
+        : new InMemoryNodeEntry();
+  }
+
+  /**
+   * Adds the reverse deps that {@link ConcurrentInMemoryNodeEntry}s buffered since the last call
+   * to their lists, so that done nodes do not keep them as linked stacks between evaluations.
+   */
+  void compactReverseDeps() {
+    ConcurrentInMemoryNodeEntry.compactBufferedReverseDeps(entriesToCompact);
+  }
+
   /** Only done nodes exist to the outside world. */
   private static final Predicate<NodeEntry> NODE_DONE_PREDICATE =
       new Predicate<NodeEntry>() {
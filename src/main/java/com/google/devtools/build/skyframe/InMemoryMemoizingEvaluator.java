@@ -91,10 +91,18 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
       @Nullable EvaluationProgressReceiver invalidationReceiver,
       EmittedEventState emittedEventState, boolean keepEdges) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState, keepEdges,
+        /*concurrentNodeEntries=*/false);
+  }
+
+  public InMemoryMemoizingEvaluator(
+      Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState, boolean keepEdges, boolean concurrentNodeEntries) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = invalidationReceiver;
-    this.graph = new InMemoryGraph(keepEdges);
+    this.graph = new InMemoryGraph(keepEdges, concurrentNodeEntries);
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
   }
@@ -159,6 +167,7 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
           skyFunctions, eventHandler, emittedEventState, keepGoing, numThreads, progressReceiver,
           dirtyKeyTracker);
       EvaluationResult<T> result = evaluator.eval(roots);
+      graph.compactReverseDeps();
       return EvaluationResult.<T>builder()
           .mergeFrom(result)
           .setWalkableGraph(new DelegatingWalkableGraph(graph))
@@ -318,4 +327,19 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
           emittedEventState, keepEdges);
     }
   };
+
+  /**
+   * Supplies evaluators whose graphs use {@link ConcurrentInMemoryNodeEntry}s, for highly parallel
+   * evaluations.
+   */
+  public static final EvaluatorSupplier CONCURRENT_NODE_ENTRY_SUPPLIER = new EvaluatorSupplier() {
+    @Override
+    public MemoizingEvaluator create(
+        Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+        @Nullable EvaluationProgressReceiver invalidationReceiver,
+        EmittedEventState emittedEventState, boolean keepEdges) {
+      return new InMemoryMemoizingEvaluator(skyFunctions, differencer, invalidationReceiver,
+          emittedEventState, keepEdges, /*concurrentNodeEntries=*/true);
+    }
+  };
 }
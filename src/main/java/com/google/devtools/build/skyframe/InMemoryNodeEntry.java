@@ -51,7 +51,7 @@ import javax.annotation.Nullable;
 public class InMemoryNodeEntry implements NodeEntry {
 
   /** Actual data stored in this entry when it is done. */
-  private SkyValue value = null;
+  protected SkyValue value = null;
 
   /**
    * The last version of the graph at which this node entry was changed. In {@link #setValue} it
@@ -59,7 +59,7 @@ public class InMemoryNodeEntry implements NodeEntry {
    * the already-stored data. In that case, the version will remain the same. The version can be
    * thought of as the latest timestamp at which this entry was changed.
    */
-  private Version version = MinimalVersion.INSTANCE;
+  protected Version version = MinimalVersion.INSTANCE;
 
   /**
    * This object represents a {@link GroupedList}<SkyKey> in a memory-efficient way. It stores the
@@ -130,9 +130,12 @@ public class InMemoryNodeEntry implements NodeEntry {
   /**
    * The transient state of this entry, after it has been created but before it is done. It allows
    * us to keep the current state of the entry across invalidation and successive evaluations.
+   *
+   * <p>Only written while holding the lock on this entry. It is volatile so that subclasses can
+   * tell whether the entry is done, and then read its value, without taking the lock.
    */
   @VisibleForTesting
-  protected BuildingState buildingState = new BuildingState();
+  protected volatile BuildingState buildingState = new BuildingState();
 
   /**
    * Construct a InMemoryNodeEntry. Use ONLY in Skyframe evaluation and graph implementations.
@@ -178,7 +181,7 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized Iterable<SkyKey> getDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.<SkyKey>create(directDeps).toSet();
+    return GroupedList.<SkyKey>compressedToSet(directDeps);
   }
 
   /**
@@ -188,7 +191,7 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized Iterable<Iterable<SkyKey>> getGroupedDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.<SkyKey>create(directDeps);
+    return GroupedList.<SkyKey>compressedToGroups(directDeps);
   }
 
   @Override
@@ -202,7 +205,7 @@ public class InMemoryNodeEntry implements NodeEntry {
     // Get reverse deps that need to be signaled.
     ImmutableSet<SkyKey> reverseDepsToSignal = buildingState.getReverseDepsToSignal();
     REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
-    REVERSE_DEPS_UTIL.addReverseDeps(this, reverseDepsToSignal);
+    REVERSE_DEPS_UTIL.addReverseDepsOfDoneNode(this, reverseDepsToSignal);
     this.directDeps = buildingState.getFinishedDirectDeps().compress();
 
     // Set state of entry to done.
@@ -265,6 +268,22 @@ public class InMemoryNodeEntry implements NodeEntry {
                                            : DependencyState.ADDED_DEP;
   }
 
+  /**
+   * Adds reverse deps to this entry, which must be done. Allows subclasses to collect reverse deps
+   * outside of the lock and add them later. They are checked for duplicates like those added by
+   * {@link #addReverseDepAndCheckIfDone}.
+   */
+  protected synchronized void addReverseDepsToDoneEntry(Collection<SkyKey> reverseDeps) {
+    Preconditions.checkState(buildingState == null, "not done: %s", this);
+    if (keepEdges()) {
+      REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
+      for (SkyKey reverseDep : reverseDeps) {
+        REVERSE_DEPS_UTIL.maybeCheckReverseDepNotPresent(this, reverseDep);
+        REVERSE_DEPS_UTIL.addReverseDeps(this, ImmutableList.of(reverseDep));
+      }
+    }
+  }
+
   @Override
   public synchronized void removeReverseDep(SkyKey reverseDep) {
     if (!keepEdges()) {
@@ -424,9 +443,13 @@ public class InMemoryNodeEntry implements NodeEntry {
    * <p>Clones a InMemoryMutableNodeEntry iff it is a done node. Otherwise it fails.
    */
   public synchronized InMemoryNodeEntry cloneNodeEntry() {
+    return cloneNodeEntry(new InMemoryNodeEntry());
+  }
+
+  /** Copies the state of this done entry into the given new entry and returns it. */
+  protected synchronized InMemoryNodeEntry cloneNodeEntry(InMemoryNodeEntry nodeEntry) {
     // As this is temporary, for now lets limit to done nodes
     Preconditions.checkState(isDone(), "Only done nodes can be copied");
-    InMemoryNodeEntry nodeEntry = new InMemoryNodeEntry();
     nodeEntry.value = value;
     nodeEntry.version = this.version;
     REVERSE_DEPS_UTIL.addReverseDeps(nodeEntry, REVERSE_DEPS_UTIL.getReverseDeps(this));
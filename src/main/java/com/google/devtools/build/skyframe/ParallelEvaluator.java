@@ -32,6 +32,8 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ExecutorShutdownUtil;
+import com.google.devtools.build.lib.concurrent.PrioritizedRunnable;
+import com.google.devtools.build.lib.concurrent.PriorityWorkQueue;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
 import com.google.devtools.build.lib.events.Event;
@@ -58,11 +60,14 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
@@ -98,6 +103,8 @@ import javax.annotation.Nullable;
  * evaluation implementations outside of this package.
  */
 public final class ParallelEvaluator implements Evaluator {
+  private static final Logger LOG = Logger.getLogger(ParallelEvaluator.class.getName());
+
   private final ProcessableGraph graph;
   private final Version graphVersion;
 
@@ -187,6 +194,9 @@ public final class ParallelEvaluator implements Evaluator {
      */
     private final ValueVisitor visitor;
 
+    /** The scheduling depth of this value. Parents are enqueued one level shallower. */
+    private final int depth;
+
     /** The set of errors encountered while fetching children. */
     private final Collection<ErrorInfo> childErrorInfos = new LinkedHashSet<>();
     private final StoredEventHandler eventHandler = new StoredEventHandler() {
@@ -206,16 +216,24 @@ public final class ParallelEvaluator implements Evaluator {
       }
     };
 
-    private SkyFunctionEnvironment(SkyKey skyKey, Set<SkyKey> directDeps, ValueVisitor visitor) {
-      this(skyKey, directDeps, null, visitor);
+    private SkyFunctionEnvironment(SkyKey skyKey, Set<SkyKey> directDeps, int depth,
+        ValueVisitor visitor) {
+      this(skyKey, directDeps, null, depth, visitor);
     }
 
     private SkyFunctionEnvironment(SkyKey skyKey, Set<SkyKey> directDeps,
         @Nullable Map<SkyKey, ValueWithMetadata> bubbleErrorInfo, ValueVisitor visitor) {
+      this(skyKey, directDeps, bubbleErrorInfo, /*depth=*/0, visitor);
+    }
+
+    private SkyFunctionEnvironment(SkyKey skyKey, Set<SkyKey> directDeps,
+        @Nullable Map<SkyKey, ValueWithMetadata> bubbleErrorInfo, int depth,
+        ValueVisitor visitor) {
       this.skyKey = skyKey;
       this.directDeps = Collections.unmodifiableSet(directDeps);
       this.bubbleErrorInfo = bubbleErrorInfo;
       this.childErrorInfos.addAll(childErrorInfos);
+      this.depth = depth;
       this.visitor = visitor;
     }
 
@@ -586,7 +604,8 @@ public final class ParallelEvaluator implements Evaluator {
         progressReceiver.evaluated(skyKey, value,
             valueVersion.equals(graphVersion) ? EvaluationState.BUILT : EvaluationState.CLEAN);
       }
-      signalValuesAndEnqueueIfReady(enqueueParents ? visitor : null, reverseDeps, valueVersion);
+      signalValuesAndEnqueueIfReady(enqueueParents ? visitor : null, reverseDeps, valueVersion,
+          depth - 1);
 
       visitor.notifyDone(skyKey);
       replayingNestedSetEventVisitor.visit(events);
@@ -675,6 +694,20 @@ public final class ParallelEvaluator implements Evaluator {
           "skyframe-evaluator");
     }
 
+    /**
+     * Runs the deepest evaluations first. With a FIFO queue the evaluation proceeds breadth-first,
+     * so a long chain of dependencies, which bounds the wall time of the whole evaluation, only
+     * makes progress once all the shallower nodes enqueued before it have been evaluated.
+     */
+    @Override
+    protected BlockingQueue<Runnable> getWorkQueue() {
+      return new PriorityWorkQueue();
+    }
+
+    private PriorityWorkQueue.Statistics getQueueStatistics() {
+      return ((PriorityWorkQueue) getPoolQueue()).getStatistics();
+    }
+
     @Override
     protected boolean isCriticalError(Throwable e) {
       return e instanceof RuntimeException;
@@ -684,7 +717,11 @@ public final class ParallelEvaluator implements Evaluator {
       work(/*failFastOnInterrupt=*/true);
     }
 
-    public void enqueueEvaluation(final SkyKey key) {
+    /**
+     * Enqueues the evaluation of {@code key}. The {@code depth} is a hint of how far from the
+     * requested values the node is; deeper nodes are evaluated first.
+     */
+    public void enqueueEvaluation(final SkyKey key, int depth) {
       // We unconditionally add the key to the set of in-flight nodes because even if evaluation is
       // never scheduled we still want to remove the previously created NodeEntry from the graph.
       // Otherwise we would leave the graph in a weird state (wasteful garbage in the best case and
@@ -702,7 +739,7 @@ public final class ParallelEvaluator implements Evaluator {
       if (newlyEnqueued && progressReceiver != null) {
         progressReceiver.enqueueing(key);
       }
-      enqueue(new Evaluate(this, key));
+      enqueue(new Evaluate(this, key, Math.max(depth, 0)));
     }
 
     public void preventNewEvaluations() {
@@ -721,14 +758,22 @@ public final class ParallelEvaluator implements Evaluator {
   /**
    * An action that evaluates a value.
    */
-  private class Evaluate implements Runnable {
+  private class Evaluate implements PrioritizedRunnable {
     private final ValueVisitor visitor;
     /** The name of the value to be evaluated. */
     private final SkyKey skyKey;
+    /** The number of values between this one and the values requested from the evaluator. */
+    private final int depth;
 
-    private Evaluate(ValueVisitor visitor, SkyKey skyKey) {
+    private Evaluate(ValueVisitor visitor, SkyKey skyKey, int depth) {
       this.visitor = visitor;
       this.skyKey = skyKey;
+      this.depth = depth;
+    }
+
+    @Override
+    public int getPriority() {
+      return depth;
     }
 
     private void enqueueChild(SkyKey skyKey, NodeEntry entry, SkyKey child) {
@@ -741,13 +786,13 @@ public final class ParallelEvaluator implements Evaluator {
         case DONE :
           if (entry.signalDep(depEntry.getVersion())) {
             // This can only happen if there are no more children to be added.
-            visitor.enqueueEvaluation(skyKey);
+            visitor.enqueueEvaluation(skyKey, depth);
           }
           break;
         case ADDED_DEP :
           break;
         case NEEDS_SCHEDULING :
-          visitor.enqueueEvaluation(child);
+          visitor.enqueueEvaluation(child, depth + 1);
           break;
       }
     }
@@ -814,7 +859,7 @@ public final class ParallelEvaluator implements Evaluator {
               // Tell the receiver that the value was not actually changed this run.
               progressReceiver.evaluated(skyKey, value, EvaluationState.CLEAN);
             }
-            signalValuesAndEnqueueIfReady(visitor, reverseDeps, state.getVersion());
+            signalValuesAndEnqueueIfReady(visitor, reverseDeps, state.getVersion(), depth - 1);
             return;
           case REBUILDING:
             // Nothing to be done if we are already rebuilding.
@@ -830,7 +875,7 @@ public final class ParallelEvaluator implements Evaluator {
       Preconditions.checkState(!directDeps.contains(ErrorTransienceValue.key()),
           "%s cannot have a dep on ErrorTransienceValue during building: %s", skyKey, state);
       // Get the corresponding SkyFunction and call it on this value.
-      SkyFunctionEnvironment env = new SkyFunctionEnvironment(skyKey, directDeps, visitor);
+      SkyFunctionEnvironment env = new SkyFunctionEnvironment(skyKey, directDeps, depth, visitor);
       SkyFunctionName functionName = skyKey.functionName();
       SkyFunction factory = skyFunctions.get(functionName);
       Preconditions.checkState(factory != null, "%s %s", functionName, state);
@@ -982,16 +1027,16 @@ public final class ParallelEvaluator implements Evaluator {
 
   /**
    * Signals all parents that this node is finished. If visitor is not null, also enqueues any
-   * parents that are ready. If visitor is null, indicating that we are building this node after
-   * the main build aborted, then skip any parents that are already done (that can happen with
-   * cycles).
+   * parents that are ready, at the given depth. If visitor is null, indicating that we are building
+   * this node after the main build aborted, then skip any parents that are already done (that can
+   * happen with cycles).
    */
   private void signalValuesAndEnqueueIfReady(@Nullable ValueVisitor visitor, Iterable<SkyKey> keys,
-      Version version) {
+      Version version, int depth) {
     if (visitor != null) {
       for (SkyKey key : keys) {
         if (graph.get(key).signalDep(version)) {
-          visitor.enqueueEvaluation(key);
+          visitor.enqueueEvaluation(key, depth);
         }
       }
     } else {
@@ -1109,9 +1154,13 @@ public final class ParallelEvaluator implements Evaluator {
         "nokeep_going evaluations are not allowed if graph edges are not kept: %s", skyKeys);
 
     Profiler.instance().startTask(ProfilerTask.SKYFRAME_EVAL, skyKeySet);
+    ValueVisitor visitor = new ValueVisitor(threadCount);
     try {
-      return eval(skyKeySet, new ValueVisitor(threadCount));
+      return eval(skyKeySet, visitor);
     } finally {
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Skyframe evaluation queue: " + visitor.getQueueStatistics());
+      }
       Profiler.instance().completeTask(ProfilerTask.SKYFRAME_EVAL);
     }
   }
@@ -1141,7 +1190,7 @@ public final class ParallelEvaluator implements Evaluator {
       // This must be equivalent to the code in enqueueChild above, in order to be thread-safe.
       switch (entry.addReverseDepAndCheckIfDone(null)) {
         case NEEDS_SCHEDULING:
-          visitor.enqueueEvaluation(skyKey);
+          visitor.enqueueEvaluation(skyKey, /*depth=*/0);
           break;
         case DONE:
           informProgressReceiverThatValueIsDone(skyKey);
@@ -1558,7 +1607,8 @@ public final class ParallelEvaluator implements Evaluator {
         Preconditions.checkState(!errorDeps.isEmpty(),
             "Value %s was not successfully evaluated, but had no child errors. ValueEntry: %s", key,
             entry);
-        SkyFunctionEnvironment env = new SkyFunctionEnvironment(key, directDeps, visitor);
+        SkyFunctionEnvironment env =
+            new SkyFunctionEnvironment(key, directDeps, /*depth=*/0, visitor);
         env.setError(new ErrorInfo(key, errorDeps));
         env.commit(/*enqueueParents=*/false);
       }
@@ -21,6 +21,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -103,6 +104,34 @@ abstract class ReverseDepsUtil<T> {
     }
   }
 
+  /**
+   * Adds {@code newReverseDeps} to the reverse deps of a node that is becoming done, leaving a list
+   * without spare capacity. The reverse deps of done nodes usually stop growing, and the lists of
+   * nodes with many parents would otherwise keep up to a third of their capacity unused for the
+   * lifetime of the graph. Unlike growing the list and trimming it, this copies the list once, and
+   * not at all if there is nothing to add. Removals must have been consolidated already.
+   */
+  @SuppressWarnings("unchecked")
+  void addReverseDepsOfDoneNode(T container, Collection<SkyKey> newReverseDeps) {
+    Preconditions.checkState(getReverseDepsToRemove(container) == null, container);
+    Object reverseDeps = getReverseDepsObject(container);
+    boolean single = isSingleReverseDep(container);
+    int reverseDepsSize = single ? 1 : ((List<SkyKey>) reverseDeps).size();
+    int newSize = reverseDepsSize + newReverseDeps.size();
+    if (newReverseDeps.isEmpty() || newSize == 1) {
+      addReverseDeps(container, newReverseDeps);
+      return;
+    }
+    List<SkyKey> newList = new ArrayList<>(newSize);
+    if (single) {
+      newList.add((SkyKey) reverseDeps);
+    } else {
+      newList.addAll((List<SkyKey>) reverseDeps);
+    }
+    newList.addAll(newReverseDeps);
+    overwriteReverseDepsList(container, newList);
+  }
+
   /**
    * See {@code addReverseDeps} method.
    */
@@ -168,8 +197,8 @@ abstract class ReverseDepsUtil<T> {
 
     @SuppressWarnings("unchecked")
     List<SkyKey> reverseDepsAsList = (List<SkyKey>) reverseDeps;
-    List<SkyKey> newReverseDeps = Lists
-        .newArrayListWithExpectedSize(Math.max(0, reverseDepsAsList.size() - expectedRemovals));
+    List<SkyKey> newReverseDeps =
+        new ArrayList<>(Math.max(0, reverseDepsAsList.size() - expectedRemovals));
 
     for (SkyKey reverseDep : reverseDepsAsList) {
       if (!toRemove.contains(reverseDep)) {
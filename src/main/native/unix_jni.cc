@@ -75,13 +75,8 @@ static jstring NewStringLatin1(JNIEnv *env, const char *str) {
     return result;
 }
 
-/**
- * Returns a nul-terminated Latin1-encoded byte array for the
- * specified Java string, or null on failure.  Unencodable characters
- * are replaced by '?'.  Must be followed by a call to
- * ReleaseStringLatin1Chars.
- */
-static const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
+// See unix_jni.h.
+const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
     jint len = env->GetStringLength(jstr);
     const jchar *str = env->GetStringCritical(jstr, NULL);
     if (str == NULL) {
@@ -105,11 +100,8 @@ static const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr) {
     return result;
 }
 
-/**
- * Release the Latin1 chars returned by a prior call to
- * GetStringLatin1Chars.
- */
-static void ReleaseStringLatin1Chars(const char *s) {
+// See unix_jni.h.
+void ReleaseStringLatin1Chars(const char *s) {
   if (s != NULL) {
     free(const_cast<char *>(s));
   }
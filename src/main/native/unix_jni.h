@@ -46,6 +46,16 @@ extern void PostFileException(JNIEnv *env, int error_number,
 // Returns the standard error message for a given UNIX error number.
 extern std::string ErrorMessage(int error_number);
 
+// Returns a nul-terminated Latin1-encoded byte array for the
+// specified Java string, or null on failure.  Unencodable characters
+// are replaced by '?'.  Must be followed by a call to
+// ReleaseStringLatin1Chars.
+const char *GetStringLatin1Chars(JNIEnv *env, jstring jstr);
+
+// Release the Latin1 chars returned by a prior call to
+// GetStringLatin1Chars.
+void ReleaseStringLatin1Chars(const char *s);
+
 // Runs fstatat(2), if available, or sets errno to ENOSYS if not.
 int portable_fstatat(int dirfd, char *name, struct stat *statbuf, int flags);
 
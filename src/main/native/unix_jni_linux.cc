@@ -14,10 +14,14 @@
 
 #include "unix_jni.h"
 
+#include <errno.h>
+#include <poll.h>
 #include <string.h>
 #include <stdlib.h>
+#include <sys/inotify.h>
 #include <sys/stat.h>
 #include <sys/xattr.h>
+#include <unistd.h>
 
 #include <string>
 
@@ -72,3 +76,97 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
                            size_t size) {
   return ::lgetxattr(path, name, value, size);
 }
+
+////////////////////////////////////////////////////////////////////////
+// inotify support, see lib/unix/Inotify.java.
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_init(JNIEnv *env,
+                                                     jclass clazz) {
+  int fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+  if (fd == -1) {
+    ::PostException(env, errno,
+                    std::string("inotify_init1 (") + ErrorMessage(errno) + ")");
+  }
+  return fd;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_addWatch(JNIEnv *env,
+                                                         jclass clazz,
+                                                         jint fd,
+                                                         jstring path,
+                                                         jint mask) {
+  const char *path_chars = GetStringLatin1Chars(env, path);
+  if (path_chars == NULL) {
+    return -1;
+  }
+  int wd = inotify_add_watch(fd, path_chars, mask);
+  if (wd == -1) {
+    ::PostFileException(env, errno, path_chars);
+  }
+  ReleaseStringLatin1Chars(path_chars);
+  return wd;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_removeWatch(JNIEnv *env,
+                                                            jclass clazz,
+                                                            jint fd,
+                                                            jint wd) {
+  // Fails with EINVAL if the kernel already removed the watch.
+  inotify_rm_watch(fd, wd);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_poll(JNIEnv *env,
+                                                     jclass clazz,
+                                                     jint fd,
+                                                     jint timeout_millis) {
+  struct pollfd pfd;
+  pfd.fd = fd;
+  pfd.events = POLLIN;
+  pfd.revents = 0;
+  int result = ::poll(&pfd, 1, timeout_millis);
+  if (result == -1) {
+    if (errno == EINTR) {
+      return false;
+    }
+    ::PostException(env, errno,
+                    std::string("inotify poll (") + ErrorMessage(errno) + ")");
+    return false;
+  }
+  return result > 0;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_read(JNIEnv *env,
+                                                     jclass clazz,
+                                                     jint fd,
+                                                     jbyteArray buffer) {
+  jsize length = env->GetArrayLength(buffer);
+  jbyte *bytes = env->GetByteArrayElements(buffer, NULL);
+  if (bytes == NULL) {
+    return -1;
+  }
+  ssize_t result;
+  while ((result = ::read(fd, bytes, length)) == -1 && errno == EINTR) { }
+  int read_errno = errno;
+  env->ReleaseByteArrayElements(buffer, bytes, result > 0 ? 0 : JNI_ABORT);
+  if (result == -1) {
+    if (read_errno == EAGAIN) {
+      return 0;
+    }
+    ::PostException(env, read_errno,
+                    std::string("inotify read (") + ErrorMessage(read_errno)
+                    + ")");
+  }
+  return result;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_close(JNIEnv *env,
+                                                      jclass clazz,
+                                                      jint fd) {
+  ::close(fd);
+}
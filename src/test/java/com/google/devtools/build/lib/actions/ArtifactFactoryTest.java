@@ -37,9 +37,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Tests {@link ArtifactFactory}. Also see {@link ArtifactTest} for a test
@@ -129,6 +136,43 @@ public class ArtifactFactoryTest {
     assertSame(artifactFactory.getSourceArtifact(barRelative, clientRoRoot), actual);
   }
 
+  @Test
+  public void testConcurrentResolutionYieldsSameArtifact() throws Exception {
+    final int threads = 8;
+    final List<PathFragment> paths = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      paths.add(fooPath.getRelative("source" + i + ".txt"));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<Artifact>>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(new Callable<List<Artifact>>() {
+        @Override
+        public List<Artifact> call() throws Exception {
+          start.await();
+          List<Artifact> result = new ArrayList<>();
+          for (PathFragment path : paths) {
+            result.add(artifactFactory.resolveSourceArtifact(path));
+          }
+          return result;
+        }
+      }));
+    }
+    start.countDown();
+    List<Artifact> expected = futures.get(0).get();
+    for (Future<List<Artifact>> future : futures) {
+      List<Artifact> actual = future.get();
+      for (int i = 0; i < paths.size(); i++) {
+        assertSame(expected.get(i), actual.get(i));
+      }
+    }
+    executor.shutdown();
+    for (int i = 0; i < paths.size(); i++) {
+      assertSame(expected.get(i), artifactFactory.getSourceArtifact(paths.get(i), clientRoot));
+    }
+  }
+
   @Test
   public void testClearResetsFactory() {
     Artifact fooArtifact = artifactFactory.getSourceArtifact(fooRelative, clientRoot);
@@ -15,8 +15,10 @@ package com.google.devtools.build.lib.actions;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.analysis.actions.CommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomArgv;
 import com.google.devtools.build.lib.analysis.actions.CustomCommandLine.CustomMultiArgv;
@@ -24,12 +26,15 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.syntax.Label.SyntaxException;
 import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.util.Fingerprint;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Tests for CustomCommandLine.
  */
@@ -158,4 +163,44 @@ public class CustomCommandLineTest {
         .build();
     assertEquals(ImmutableList.of(), cl.arguments());
   }
+
+  @Test
+  public void testLazyArgumentsAreComputedOnIteration() {
+    final AtomicInteger evaluations = new AtomicInteger();
+    CustomCommandLine cl = CustomCommandLine.builder().add("--arg").add(new CustomMultiArgv() {
+      @Override
+      public ImmutableList<String> argv() {
+        evaluations.incrementAndGet();
+        return ImmutableList.of("a", "b");
+      }
+    }).build();
+    Iterable<String> lazyArguments = cl.lazyArguments();
+    assertEquals(0, evaluations.get());
+    assertEquals(ImmutableList.of("--arg", "a", "b"), ImmutableList.copyOf(lazyArguments));
+    assertEquals(1, evaluations.get());
+  }
+
+  @Test
+  public void testFingerprintMatchesArguments() {
+    CustomCommandLine cl = CustomCommandLine.builder()
+        .add("--args", ImmutableList.of("abc", "def"))
+        .addExecPath("--path", artifact1)
+        .build();
+    Fingerprint lazy = new Fingerprint();
+    cl.addToFingerprint(lazy);
+    Fingerprint eager = new Fingerprint();
+    CommandLine.of(cl.arguments(), false).addToFingerprint(eager);
+    assertEquals(eager.hexDigestAndReset(), lazy.hexDigestAndReset());
+  }
+
+  @Test
+  public void testFingerprintIsUnambiguousWhenFollowedByMoreData() {
+    Fingerprint noArguments = new Fingerprint();
+    CommandLine.of(ImmutableList.<String>of(), false).addToFingerprint(noArguments);
+    noArguments.addString("z");
+    Fingerprint emptyArgument = new Fingerprint();
+    CommandLine.of(ImmutableList.of(""), false).addToFingerprint(emptyArgument);
+    emptyArgument.addBytes(new byte[] {'z'});
+    assertFalse(noArguments.hexDigestAndReset().equals(emptyArgument.hexDigestAndReset()));
+  }
 }
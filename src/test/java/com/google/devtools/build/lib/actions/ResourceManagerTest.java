@@ -27,6 +27,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -323,6 +327,38 @@ public class ResourceManagerTest {
     assertFalse(rm.inUse());
   }
 
+  private TestThread acquireTestInThread(final long priority, final List<Long> order) {
+    TestThread thread = new TestThread() {
+      @Override public void runTest() throws Exception {
+        rm.acquireResources(resourceOwner, ResourceSet.create(0, 0, 0, 1), priority);
+        order.add(priority);
+        release(0, 0, 0, 1);
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testHigherPriorityRequestsAreServedFirst() throws Exception {
+    assertFalse(rm.inUse());
+    acquire(0, 0, 0, 2);
+    List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+    List<TestThread> threads = new ArrayList<>();
+    for (long priority : new long[] {1, 5, 3}) {
+      threads.add(acquireTestInThread(priority, order));
+      while (rm.getWaitCount() < threads.size()) {
+        Thread.yield();
+      }
+    }
+    release(0, 0, 0, 1);
+    for (TestThread thread : threads) {
+      thread.joinAndAssertState(10000);
+    }
+    assertEquals(Arrays.asList(5L, 3L, 1L), order);
+    release(0, 0, 0, 1);
+    assertFalse(rm.inUse());
+  }
 
   /**
    * Checks that that resource manager
@@ -0,0 +1,100 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DigestThrottle}.
+ */
+@RunWith(JUnit4.class)
+public class DigestThrottleTest {
+
+  private static Thread acquireInThread(final DigestThrottle throttle, final long size,
+      final CountDownLatch acquired) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        throttle.acquire(size);
+        acquired.countDown();
+        throttle.release(size);
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testUnboundedNeverBlocks() {
+    DigestThrottle throttle = DigestThrottle.unbounded();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(0, throttle.acquire(1 << 30));
+    }
+    for (int i = 0; i < 100; i++) {
+      throttle.release(1 << 30);
+    }
+    assertEquals(100, throttle.getStatistics().getFiles());
+    assertEquals(100L << 30, throttle.getStatistics().getBytes());
+  }
+
+  @Test
+  public void testConcurrencyIsBounded() throws Exception {
+    DigestThrottle throttle = DigestThrottle.bounded(2, 1 << 30);
+    throttle.acquire(8192);
+    throttle.acquire(8192);
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = acquireInThread(throttle, 8192, acquired);
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    throttle.release(8192);
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    thread.join();
+    throttle.release(8192);
+    assertEquals(3, throttle.getStatistics().getFiles());
+    assertEquals(3 * 8192, throttle.getStatistics().getBytes());
+  }
+
+  @Test
+  public void testIoBudgetIsBounded() throws Exception {
+    DigestThrottle throttle = DigestThrottle.bounded(10, 1024 * 1024);
+    throttle.acquire(768 * 1024);
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = acquireInThread(throttle, 512 * 1024, acquired);
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    throttle.release(768 * 1024);
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    thread.join();
+    assertTrue(throttle.getStatistics().getWaitNanos() > 0);
+  }
+
+  @Test
+  public void testFileLargerThanBudgetIsReadAlone() throws Exception {
+    DigestThrottle throttle = DigestThrottle.bounded(10, 1024 * 1024);
+    throttle.acquire(100 * 1024 * 1024);
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = acquireInThread(throttle, 8192, acquired);
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    throttle.release(100 * 1024 * 1024);
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    thread.join();
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LocalOutputCache}.
+ */
+@RunWith(JUnit4.class)
+public class LocalOutputCacheTest {
+
+  private Path cacheRoot;
+  private Path execRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    Path tmpDir = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir());
+    cacheRoot = tmpDir.getChild("output_cache");
+    execRoot = tmpDir.getChild("execroot");
+    FileSystemUtils.deleteTree(cacheRoot);
+    FileSystemUtils.deleteTree(execRoot);
+    execRoot.createDirectory();
+  }
+
+  private static String key(String name) {
+    return LocalOutputCache.computeKey(name,
+        Digest.fromMetadata(ImmutableMap.<String, Metadata>of()), ImmutableList.of("out"));
+  }
+
+  private Map<String, Path> write(String execPath, String content) throws Exception {
+    Path output = execRoot.getRelative(execPath);
+    FileSystemUtils.writeContentAsLatin1(output, content);
+    return ImmutableMap.of(execPath, output);
+  }
+
+  private Path manifest(String key) {
+    return cacheRoot.getRelative("ac/" + key);
+  }
+
+  private Path blob(Path output) throws Exception {
+    String digest = Fingerprint.hexDigest(output.getMD5Digest());
+    return cacheRoot.getRelative("cas/" + digest.substring(0, 2) + "/" + digest);
+  }
+
+  private void put(LocalOutputCache cache, String key, Map<String, Path> outputs)
+      throws Exception {
+    ImmutableMap.Builder<String, byte[]> digests = ImmutableMap.builder();
+    for (Map.Entry<String, Path> output : outputs.entrySet()) {
+      digests.put(output.getKey(), output.getValue().getMD5Digest());
+    }
+    cache.put(key, outputs, digests.build());
+  }
+
+  @Test
+  public void testPutAndRestore() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Map<String, Path> outputs = write("out", "content");
+    assertFalse(cache.restore(key("a"), outputs));
+    put(cache, key("a"), outputs);
+
+    outputs.get("out").delete();
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("content", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+    assertFalse(cache.restore(key("b"), outputs));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testWritingToOutputsDoesNotChangeTheCache() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Map<String, Path> outputs = write("out", "content");
+    put(cache, key("a"), outputs);
+    FileSystemUtils.writeContentAsLatin1(outputs.get("out"), "changed");
+
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("content", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+    FileSystemUtils.writeContentAsLatin1(outputs.get("out"), "changed again");
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("content", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+  }
+
+  @Test
+  public void testCorruptedOutputsAreNotRestored() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Map<String, Path> outputs = write("out", "content");
+    put(cache, key("a"), outputs);
+    FileSystemUtils.writeContentAsLatin1(blob(outputs.get("out")), "corrupted");
+
+    assertFalse(cache.restore(key("a"), outputs));
+    assertFalse(outputs.get("out").exists());
+    assertEquals(0, cache.getTotalSize());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testIdenticalOutputsAreStoredOnce() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    put(cache, key("a"), write("out", "content"));
+    put(cache, key("b"), write("out", "content"));
+    assertEquals("content".length() + manifest(key("a")).getFileSize()
+        + manifest(key("b")).getFileSize(), cache.getTotalSize());
+  }
+
+  @Test
+  public void testCacheIsReloaded() throws Exception {
+    put(new LocalOutputCache(cacheRoot, 1 << 20), key("a"), write("out", "content"));
+    Map<String, Path> outputs = write("out", "other content");
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    assertEquals("content".length() + manifest(key("a")).getFileSize(), cache.getTotalSize());
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("content", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedOutputsAreEvicted() throws Exception {
+    Map<String, Path> outputs = write("out", "aaaa");
+    put(new LocalOutputCache(cacheRoot, 1 << 20), key("a"), outputs);
+    // Room for the outputs and manifests of two actions, but not three.
+    long entrySize = 4 + manifest(key("a")).getFileSize();
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 2 * entrySize + 2);
+    put(cache, key("b"), write("out", "bbbb"));
+    assertTrue(cache.restore(key("a"), outputs));
+    put(cache, key("c"), write("out", "cccc"));
+
+    assertEquals(2 * entrySize, cache.getTotalSize());
+    assertFalse(manifest(key("b")).exists());
+    assertFalse(cache.restore(key("b"), outputs));
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("aaaa", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+    assertTrue(cache.restore(key("c"), outputs));
+  }
+
+  @Test
+  public void testEntriesStoredByAnotherCacheAreKept() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    LocalOutputCache other = new LocalOutputCache(cacheRoot, 1 << 20);
+    Map<String, Path> outputs = write("out", "content");
+    put(other, key("a"), outputs);
+
+    outputs.get("out").delete();
+    assertTrue(cache.restore(key("a"), outputs));
+    assertEquals("content", new String(FileSystemUtils.readContentAsLatin1(outputs.get("out"))));
+    assertTrue(manifest(key("a")).exists());
+    assertEquals("content".length() + manifest(key("a")).getFileSize(), cache.getTotalSize());
+  }
+
+  @Test
+  public void testOnlyStaleTemporaryFilesAreDeleted() throws Exception {
+    Path prefixDir = cacheRoot.getRelative("cas/00");
+    FileSystemUtils.createDirectoryAndParents(prefixDir);
+    Path stale = prefixDir.getChild("0000.stale.tmp");
+    Path fresh = prefixDir.getChild("0000.fresh.tmp");
+    FileSystemUtils.writeContentAsLatin1(stale, "stale");
+    FileSystemUtils.writeContentAsLatin1(fresh, "fresh");
+    stale.setLastModifiedTime(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    assertFalse(stale.exists());
+    assertTrue(fresh.exists());
+    assertEquals(0, cache.getTotalSize());
+  }
+}
@@ -0,0 +1,215 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tests for {@link MappedActionCache}.
+ */
+@RunWith(JUnit4.class)
+public class MappedActionCacheTest {
+
+  private final ManualClock clock = new ManualClock();
+  private Path cacheRoot;
+  private Path logFile;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("cache");
+    FileSystemUtils.deleteTree(cacheRoot);
+    cacheRoot.createDirectory();
+    logFile = MappedActionCache.logFile(cacheRoot);
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    assertNull(cache.get("key"));
+    putKey("key", cache);
+    assertNotNull(cache.get("key"));
+    assertEquals("key", cache.get("key").getActionKey());
+  }
+
+  @Test
+  public void testPutAndRemove() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    putKey("key", cache);
+    cache.save();
+    cache.remove("key");
+    assertNull(cache.get("key"));
+    cache.save();
+    assertNull(new MappedActionCache(cacheRoot, clock).get("key"));
+  }
+
+  @Test
+  public void testSaveOnlyAppendsChanges() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    for (int i = 0; i < 100; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    cache.save();
+    long size = logFile.getFileSize();
+    cache.save();
+    assertEquals(size, logFile.getFileSize());
+
+    putKey("abc", cache);
+    cache.save();
+    assertTrue(logFile.getFileSize() > size);
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, clock);
+    for (int i = 0; i < 100; i++) {
+      assertKeyEquals(cache, newCache, Integer.toString(i));
+    }
+    assertKeyEquals(cache, newCache, "abc");
+    assertNull(newCache.get("not_a_key"));
+  }
+
+  @Test
+  public void testTruncatedTailIsDiscarded() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    putKey("abc", cache);
+    cache.save();
+    long size = logFile.getFileSize();
+    putKey("xyz", cache);
+    cache.save();
+
+    // Simulate a crash in the middle of the second save.
+    byte[] content = FileSystemUtils.readContent(logFile);
+    try (OutputStream out = logFile.getOutputStream()) {
+      out.write(content, 0, (int) size + 5);
+    }
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, clock);
+    assertKeyEquals(cache, newCache, "abc");
+    assertNull(newCache.get("xyz"));
+    assertEquals(size, logFile.getFileSize());
+  }
+
+  @Test
+  public void testCorruptedRecordIsDiscarded() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    putKey("abc", cache);
+    cache.save();
+    long size = logFile.getFileSize();
+    putKey("xyz", cache);
+    cache.save();
+
+    byte[] content = FileSystemUtils.readContent(logFile);
+    content[(int) size + 9] ^= 0x1;
+    FileSystemUtils.writeContent(logFile, content);
+
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, clock);
+    assertNull(newCache.get("xyz"));
+    assertNotNull(newCache.get("abc"));
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock, 1);
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 50; i++) {
+        putKey(Integer.toString(i), cache);
+      }
+      cache.save();
+      cache.awaitCompaction();
+    }
+    cache.remove("0");
+    cache.save();
+    cache.awaitCompaction();
+
+    long size = logFile.getFileSize();
+    assertEquals(size, cache.logSize());
+    MappedActionCache newCache = new MappedActionCache(cacheRoot, clock);
+    assertNull(newCache.get("0"));
+    for (int i = 1; i < 50; i++) {
+      assertKeyEquals(cache, newCache, Integer.toString(i));
+    }
+    assertFalse(cacheRoot.getChild(logFile.getBaseName() + ".compacting").exists());
+
+    // Once compacted, the log holds about one record per live entry.
+    newCache.save();
+    putKey("1", newCache);
+    newCache.save();
+    assertTrue(logFile.getFileSize() < 4 * size);
+  }
+
+  @Test
+  public void testMissingIndexIsDetected() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    putKey("abc", cache);
+    cache.save();
+    cacheRoot.getChild("filename_index_mapped_v10.blaze").delete();
+    try {
+      new MappedActionCache(cacheRoot, clock);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(cacheRoot.getChild(logFile.getBaseName() + ".bad").exists());
+  }
+
+  @Test
+  public void testCorruptionOnlyRenamesFilesOfThisCache() throws Exception {
+    MappedActionCache cache = new MappedActionCache(cacheRoot, clock);
+    putKey("abc", cache);
+    cache.save();
+    Path compactCacheFile = cacheRoot.getChild("action_cache_v10.blaze");
+    Path compactIndexFile = cacheRoot.getChild("filename_index_v10.blaze");
+    FileSystemUtils.writeContentAsLatin1(compactCacheFile, "cache");
+    FileSystemUtils.writeContentAsLatin1(compactIndexFile, "index");
+    FileSystemUtils.writeContentAsLatin1(logFile, "corrupted");
+    try {
+      new MappedActionCache(cacheRoot, clock);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(cacheRoot.getChild(logFile.getBaseName() + ".bad").exists());
+    assertTrue(cacheRoot.getChild("filename_index_mapped_v10.blaze.bad").exists());
+    assertTrue(compactCacheFile.exists());
+    assertTrue(compactIndexFile.exists());
+  }
+
+  private static void assertKeyEquals(ActionCache cache1, ActionCache cache2, String key) {
+    Object entry = cache1.get(key);
+    assertNotNull(entry);
+    assertEquals(entry.toString(), cache2.get(key).toString());
+  }
+
+  private static void putKey(String key, ActionCache ac) {
+    ActionCache.Entry entry = ac.createEntry(key);
+    entry.getFileDigest();
+    ac.put(key, entry);
+  }
+}
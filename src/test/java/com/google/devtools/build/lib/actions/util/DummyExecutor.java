@@ -76,7 +76,7 @@ public final class DummyExecutor implements Executor {
 
   @Override
   public boolean reportsSubcommands() {
-    throw new UnsupportedOperationException();
+    return false;
   }
 
   @Override
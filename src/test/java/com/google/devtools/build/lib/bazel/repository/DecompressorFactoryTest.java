@@ -0,0 +1,286 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.bazel.repository.DecompressorFactory.DecompressorException;
+import com.google.devtools.build.lib.bazel.rules.workspace.HttpArchiveRule;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link DecompressorFactory}'s extraction of tar files.
+ */
+@RunWith(JUnit4.class)
+public class DecompressorFactoryTest {
+
+  private Path outside;
+  private Path repositoryDir;
+
+  @Before
+  public void setUp() throws Exception {
+    Path testDir =
+        FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("decompressor");
+    FileSystemUtils.deleteTree(testDir);
+    outside = testDir.getChild("outside");
+    // Deep enough for the archive's up-level references to stay inside the test directory.
+    repositoryDir = outside.getRelative("a/b/repo");
+    FileSystemUtils.createDirectoryAndParents(repositoryDir);
+  }
+
+  /** Writes a gzip-compressed tar file into the repository directory. */
+  private final class TarBuilder implements AutoCloseable {
+    private final Path archive;
+    private final TarArchiveOutputStream out;
+
+    TarBuilder(String name) throws IOException {
+      archive = repositoryDir.getChild(name);
+      out = new TarArchiveOutputStream(new GzipCompressorOutputStream(archive.getOutputStream()));
+    }
+
+    TarBuilder file(String name, String content, int mode) throws IOException {
+      byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+      TarArchiveEntry entry = new TarArchiveEntry(name);
+      entry.setSize(bytes.length);
+      entry.setMode(mode);
+      out.putArchiveEntry(entry);
+      out.write(bytes);
+      out.closeArchiveEntry();
+      return this;
+    }
+
+    TarBuilder file(String name, String content) throws IOException {
+      return file(name, content, 0644);
+    }
+
+    TarBuilder directory(String name) throws IOException {
+      out.putArchiveEntry(new TarArchiveEntry(name + "/"));
+      out.closeArchiveEntry();
+      return this;
+    }
+
+    TarBuilder link(String name, String target, byte linkFlag) throws IOException {
+      TarArchiveEntry entry = new TarArchiveEntry(name, linkFlag);
+      entry.setLinkName(target);
+      out.putArchiveEntry(entry);
+      out.closeArchiveEntry();
+      return this;
+    }
+
+    TarBuilder symlink(String name, String target) throws IOException {
+      return link(name, target, TarConstants.LF_SYMLINK);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private Path decompress(String archiveName) throws DecompressorException {
+    return DecompressorFactory.create(HttpArchiveRule.NAME + " rule", "repo",
+        repositoryDir.getChild(archiveName), repositoryDir).decompress();
+  }
+
+  private void assertDecompressionFails(String archiveName, String message) {
+    try {
+      decompress(archiveName);
+      fail();
+    } catch (DecompressorException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(FileSystemUtils.readContentAsLatin1(path));
+  }
+
+  @Test
+  public void tarGzIsExtracted() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.file("WORKSPACE", "")
+          .directory("foo")
+          .file("foo/BUILD", "build")
+          .file("foo/run.sh", "#!/bin/sh", 0755)
+          .symlink("foo/link", "BUILD")
+          .symlink("bar/up", "../foo/BUILD")
+          .link("foo/copy", "foo/BUILD", TarConstants.LF_LINK);
+    }
+    assertEquals(repositoryDir, decompress("repo.tar.gz"));
+
+    assertTrue(repositoryDir.getChild("WORKSPACE").isFile());
+    Path foo = repositoryDir.getChild("foo");
+    assertEquals("build", read(foo.getChild("BUILD")));
+    assertFalse(foo.getChild("BUILD").isExecutable());
+    assertTrue(foo.getChild("run.sh").isExecutable());
+    assertEquals(new PathFragment("BUILD"), foo.getChild("link").readSymbolicLink());
+    assertEquals("build", read(foo.getChild("link")));
+    assertEquals("build", read(repositoryDir.getRelative("bar/up")));
+    assertEquals("build", read(foo.getChild("copy")));
+  }
+
+  @Test
+  public void tgzIsExtracted() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tgz")) {
+      tar.file("WORKSPACE", "workspace");
+    }
+    decompress("repo.tgz");
+    assertEquals("workspace", read(repositoryDir.getChild("WORKSPACE")));
+  }
+
+  @Test
+  public void tarXzIsNotSupported() throws Exception {
+    try {
+      DecompressorFactory.create(HttpArchiveRule.NAME + " rule", "repo",
+          repositoryDir.getChild("repo.tar.xz"), repositoryDir);
+      fail();
+    } catch (DecompressorException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(".tar.gz or .tgz suffix"));
+    }
+  }
+
+  @Test
+  public void upLevelEntryIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.file("../evil", "evil");
+    }
+    assertDecompressionFails("repo.tar.gz", "cannot contain up-level references");
+    assertFalse(repositoryDir.getParentDirectory().getChild("evil").exists());
+  }
+
+  @Test
+  public void absoluteSymlinkIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.symlink("root", outside.getPathString())
+          .file("root/evil", "evil");
+    }
+    assertDecompressionFails("repo.tar.gz", "symbolic links cannot be absolute");
+    assertFalse(outside.getChild("evil").exists());
+  }
+
+  @Test
+  public void escapingSymlinkIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.symlink("up", "../..")
+          .file("up/evil", "evil");
+    }
+    assertDecompressionFails("repo.tar.gz", "cannot point outside of the archive");
+    assertFalse(repositoryDir.getChild("up").exists());
+    assertFalse(outside.getRelative("a/evil").exists());
+  }
+
+  @Test
+  public void entryInsideSymlinkIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.directory("sub")
+          .symlink("link", "sub")
+          .file("link/file", "content");
+    }
+    assertDecompressionFails("repo.tar.gz", "its parent directory link is a symbolic link");
+    assertFalse(repositoryDir.getRelative("sub/file").exists());
+  }
+
+  @Test
+  public void fileOverSymlinkIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.file("target", "content")
+          .symlink("link", "target")
+          .file("link", "overwritten");
+    }
+    assertDecompressionFails("repo.tar.gz", "would be written through a symbolic link");
+    assertEquals("content", read(repositoryDir.getChild("target")));
+  }
+
+  @Test
+  public void symlinkEscapingThroughLaterSymlinkIsRejected() throws Exception {
+    // "up" resolves inside the archive until "here" becomes a link to the archive's root.
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.symlink("up", "here/..")
+          .symlink("here", ".");
+    }
+    assertDecompressionFails("repo.tar.gz", "cannot point outside of the archive");
+    assertFalse(repositoryDir.getChild("up").exists());
+  }
+
+  @Test
+  public void noSymlinkIsCreatedIfOneEscapes() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.symlink("up", "here/..")
+          .symlink("sub/up", "../here/..")
+          .symlink("inside", "here")
+          .symlink("here", ".");
+    }
+    assertDecompressionFails("repo.tar.gz", "cannot point outside of the archive");
+    assertFalse(repositoryDir.getChild("up").exists());
+    assertFalse(repositoryDir.getRelative("sub/up").exists());
+    assertFalse(repositoryDir.getChild("inside").exists());
+    assertFalse(repositoryDir.getChild("here").exists());
+  }
+
+  @Test
+  public void fileIsNotWrittenThroughSymlinkReplacingIt() throws Exception {
+    // "a" escapes once "b" becomes a link to the archive's root, and a write to the file at "a"
+    // must not follow it.
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.file("a", "evil")
+          .symlink("a", "b/../x")
+          .symlink("b", ".");
+    }
+    assertDecompressionFails("repo.tar.gz", "cannot point outside of the archive");
+    assertFalse(repositoryDir.getParentDirectory().getChild("x").exists());
+  }
+
+  @Test
+  public void lastOfDuplicateFilesWins() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      for (int i = 0; i < 100; i++) {
+        tar.file("file", "content " + i);
+      }
+      tar.file("link", "replaced")
+          .symlink("link", "file");
+    }
+    decompress("repo.tar.gz");
+    assertEquals("content 99", read(repositoryDir.getChild("file")));
+    assertEquals(new PathFragment("file"), repositoryDir.getChild("link").readSymbolicLink());
+  }
+
+  @Test
+  public void symlinkLoopIsRejected() throws Exception {
+    try (TarBuilder tar = new TarBuilder("repo.tar.gz")) {
+      tar.symlink("a", "b/x")
+          .symlink("b", "a/x");
+    }
+    assertDecompressionFails("repo.tar.gz", "too many levels of symbolic links");
+  }
+}
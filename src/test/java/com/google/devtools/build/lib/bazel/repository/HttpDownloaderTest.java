@@ -0,0 +1,230 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link HttpDownloader}, with a fake server.
+ */
+@RunWith(JUnit4.class)
+public class HttpDownloaderTest {
+
+  private static final byte[] CONTENT = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+  private static final String SHA256 = Hashing.sha256().hashBytes(CONTENT).toString();
+
+  private Path outputDirectory;
+  private Path cacheDirectory;
+  private RepositoryCache repositoryCache;
+  private URL url;
+  private boolean supportsRanges;
+  /** The Range header of each request, or null for requests without one. */
+  private List<String> ranges;
+
+  @Before
+  public void setUp() throws Exception {
+    Path testDir =
+        FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("downloader");
+    FileSystemUtils.deleteTree(testDir);
+    outputDirectory = testDir.getChild("output");
+    cacheDirectory = testDir.getChild("cache");
+    FileSystemUtils.createDirectoryAndParents(outputDirectory);
+    repositoryCache = new RepositoryCache();
+    url = new URL("http://example.com/archive.zip");
+    supportsRanges = true;
+    ranges = new ArrayList<>();
+  }
+
+  /** Serves {@link #CONTENT}, or the requested range of it. */
+  private class FakeConnection extends HttpURLConnection {
+    FakeConnection(URL url) {
+      super(url);
+    }
+
+    @Nullable
+    private String range() {
+      return supportsRanges ? getRequestProperty("Range") : null;
+    }
+
+    private int offset() {
+      String range = range();
+      return range == null
+          ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+    }
+
+    @Override
+    public int getResponseCode() {
+      if (range() == null) {
+        return HTTP_OK;
+      }
+      return offset() < CONTENT.length ? HTTP_PARTIAL : 416;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+      return name.equals("Content-Range") && getResponseCode() == HTTP_PARTIAL
+          ? "bytes " + offset() + "-" + (CONTENT.length - 1) + "/" + CONTENT.length
+          : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      ranges.add(getRequestProperty("Range"));
+      switch (getResponseCode()) {
+        case HTTP_OK:
+          return new ByteArrayInputStream(CONTENT);
+        case HTTP_PARTIAL:
+          return new ByteArrayInputStream(CONTENT, offset(), CONTENT.length - offset());
+        default:
+          throw new IOException("Server returned HTTP response code: " + getResponseCode());
+      }
+    }
+
+    @Override
+    public void connect() {}
+
+    @Override
+    public void disconnect() {}
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+  }
+
+  private Path download(String sha256) throws IOException {
+    return new HttpDownloader(url, sha256, outputDirectory, repositoryCache) {
+      @Override
+      protected URLConnection openConnection(URL url) {
+        return new FakeConnection(url);
+      }
+    }.download();
+  }
+
+  private void writePartial(byte[] content) throws IOException {
+    FileSystemUtils.writeContent(outputDirectory.getChild("archive.zip.partial"), content);
+  }
+
+  private static void assertContent(byte[] expected, Path path) throws IOException {
+    assertTrue(Arrays.equals(expected, FileSystemUtils.readContent(path)));
+  }
+
+  @Test
+  public void fileIsDownloaded() throws Exception {
+    Path archive = download(SHA256);
+    assertEquals(outputDirectory.getChild("archive.zip"), archive);
+    assertContent(CONTENT, archive);
+    assertFalse(outputDirectory.getChild("archive.zip.partial").exists());
+    assertEquals(Arrays.asList((String) null), ranges);
+  }
+
+  @Test
+  public void wrongChecksumDeletesPartialFile() throws Exception {
+    try {
+      download(Hashing.sha256().hashInt(0).toString());
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("does not match expected SHA-256"));
+    }
+    assertFalse(outputDirectory.getChild("archive.zip.partial").exists());
+  }
+
+  @Test
+  public void partialDownloadIsResumed() throws Exception {
+    writePartial(Arrays.copyOf(CONTENT, 10));
+    assertContent(CONTENT, download(SHA256));
+    assertEquals(Arrays.asList("bytes=10-"), ranges);
+  }
+
+  @Test
+  public void completePartialFileIsDownloadedAgain() throws Exception {
+    // The server answers 416, since there are no bytes after the partial file.
+    writePartial(CONTENT);
+    assertContent(CONTENT, download(SHA256));
+    assertEquals(Arrays.asList((String) null), ranges);
+  }
+
+  @Test
+  public void overlongPartialFileIsDownloadedAgain() throws Exception {
+    writePartial("0123456789abcdefgh".getBytes(StandardCharsets.UTF_8));
+    assertContent(CONTENT, download(SHA256));
+    assertEquals(Arrays.asList((String) null), ranges);
+  }
+
+  @Test
+  public void partialFileIsOverwrittenIfServerIgnoresRanges() throws Exception {
+    supportsRanges = false;
+    writePartial("wrong".getBytes(StandardCharsets.UTF_8));
+    assertContent(CONTENT, download(SHA256));
+  }
+
+  @Test
+  public void cachedFileIsNotDownloaded() throws Exception {
+    repositoryCache.configure(cacheDirectory, Long.MAX_VALUE);
+    download(SHA256);
+    assertContent(CONTENT, cacheDirectory.getChild(SHA256));
+    outputDirectory.getChild("archive.zip").delete();
+    ranges.clear();
+
+    assertContent(CONTENT, download(SHA256));
+    assertTrue(ranges.isEmpty());
+  }
+
+  @Test
+  public void corruptedCachedFileIsDownloadedAgain() throws Exception {
+    repositoryCache.configure(cacheDirectory, Long.MAX_VALUE);
+    FileSystemUtils.createDirectoryAndParents(cacheDirectory);
+    FileSystemUtils.writeContent(
+        cacheDirectory.getChild(SHA256), "corrupted".getBytes(StandardCharsets.UTF_8));
+
+    assertContent(CONTENT, download(SHA256));
+    assertEquals(Arrays.asList((String) null), ranges);
+    assertContent(CONTENT, cacheDirectory.getChild(SHA256));
+  }
+
+  @Test
+  public void cacheIsNotUsedUnlessConfigured() throws Exception {
+    download(SHA256);
+    assertFalse(cacheDirectory.exists());
+    assertNull(ranges.get(0));
+  }
+}
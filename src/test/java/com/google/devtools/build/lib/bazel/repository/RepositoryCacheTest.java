@@ -0,0 +1,97 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link RepositoryCache}.
+ */
+@RunWith(JUnit4.class)
+public class RepositoryCacheTest {
+
+  private Path testDir;
+  private Path cacheDirectory;
+  private RepositoryCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    testDir = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("cache");
+    FileSystemUtils.deleteTree(testDir);
+    testDir.createDirectory();
+    cacheDirectory = testDir.getChild("cache");
+    cache = new RepositoryCache();
+    // Room for two of the ten-byte files.
+    cache.configure(cacheDirectory, 25);
+  }
+
+  /** Adds a ten-byte file to the cache and returns its SHA-256. */
+  private String put(String content, long lastUsed) throws Exception {
+    Path file = testDir.getChild(content);
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    FileSystemUtils.writeContent(file, bytes);
+    String sha256 = Hashing.sha256().hashBytes(bytes).toString();
+    cache.put(sha256, file);
+    cacheDirectory.getChild(sha256).setLastModifiedTime(lastUsed);
+    return sha256;
+  }
+
+  @Test
+  public void leastRecentlyUsedFilesAreEvicted() throws Exception {
+    String first = put("0123456789", 1000000);
+    String second = put("abcdefghij", 2000000);
+    // Using the first file makes the second one the least recently used.
+    assertTrue(cache.copyTo(first, testDir.getChild("copy")));
+    String third = put("klmnopqrst", 3000000);
+
+    assertTrue(cacheDirectory.getChild(first).exists());
+    assertFalse(cacheDirectory.getChild(second).exists());
+    assertTrue(cacheDirectory.getChild(third).exists());
+    assertEquals(2, cacheDirectory.getDirectoryEntries().size());
+  }
+
+  @Test
+  public void missingFileIsNotCopied() throws Exception {
+    String sha256 = Hashing.sha256().hashInt(0).toString();
+    assertFalse(cache.copyTo(sha256, testDir.getChild("copy")));
+    assertFalse(testDir.getChild("copy").exists());
+  }
+
+  @Test
+  public void nothingIsCachedWhenDisabled() throws Exception {
+    cache.configure(null, 0);
+    Path file = testDir.getChild("file");
+    byte[] bytes = "0123456789".getBytes(StandardCharsets.UTF_8);
+    FileSystemUtils.writeContent(file, bytes);
+    String sha256 = Hashing.sha256().hashBytes(bytes).toString();
+    cache.put(sha256, file);
+    assertFalse(cacheDirectory.exists());
+    assertFalse(cache.copyTo(sha256, testDir.getChild("copy")));
+  }
+}
@@ -0,0 +1,46 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.cmdline;
+
+import com.google.common.testing.EqualsTester;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link TargetPattern}.
+ */
+@RunWith(JUnit4.class)
+public class TargetPatternTest {
+
+  private static TargetPattern parse(String pattern) throws TargetParsingException {
+    return TargetPattern.defaultParser().parse(pattern);
+  }
+
+  @Test
+  public void equalPatterns() throws Exception {
+    new EqualsTester()
+        .addEqualityGroup(parse("//foo/..."), parse("//foo/...:all"), parse("foo/..."),
+            new TargetPattern.Parser("foo").parse("..."))
+        .addEqualityGroup(parse("//foo/...:*"), parse("//foo/...:all-targets"))
+        .addEqualityGroup(parse("//bar/..."))
+        .addEqualityGroup(parse("//foo:all"))
+        .addEqualityGroup(parse("//foo:*"))
+        .addEqualityGroup(parse("foo:all"))
+        .addEqualityGroup(parse("//foo:bar"), parse("foo:bar"))
+        .addEqualityGroup(parse("foo/bar"), parse("foo/./bar"))
+        .testEquals();
+  }
+}
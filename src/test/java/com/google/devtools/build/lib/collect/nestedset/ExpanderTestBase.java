@@ -25,6 +25,7 @@ import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -253,6 +254,14 @@ public abstract class ExpanderTestBase extends TestCase  {
     assertEquals(expected, Lists.newArrayList(set.toCollection()));
     assertEquals(expected, Lists.newArrayList(set.toList()));
     assertEquals(expected, Lists.newArrayList(set.toSet()));
+    final List<String> visited = new ArrayList<>();
+    set.forEachElement(new NestedSetVisitor.Receiver<String>() {
+      @Override
+      public void accept(String arg) {
+        visited.add(arg);
+      }
+    });
+    assertEquals(expected, visited);
   }
 
   protected final void assertCollectionsEqual(
@@ -0,0 +1,95 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Function;
+import com.google.devtools.build.lib.util.Fingerprint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link NestedSetFingerprintCache}.
+ */
+@RunWith(JUnit4.class)
+public class NestedSetFingerprintCacheTest {
+
+  private final List<String> fingerprinted = new ArrayList<>();
+  private final NestedSetFingerprintCache<String> cache =
+      new NestedSetFingerprintCache<>(new Function<String, String>() {
+        @Override
+        public String apply(String member) {
+          fingerprinted.add(member);
+          return member;
+        }
+      });
+
+  private String digest(NestedSet<String> set, Fingerprint.Algorithm algorithm) {
+    Fingerprint fingerprint = new Fingerprint(algorithm);
+    cache.addNestedSetToFingerprint(fingerprint, set);
+    return fingerprint.hexDigestAndReset();
+  }
+
+  private String digest(NestedSet<String> set) {
+    return digest(set, Fingerprint.Algorithm.MD5);
+  }
+
+  private static NestedSet<String> set(NestedSet<String> transitive, String... directMembers) {
+    NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+    for (String member : directMembers) {
+      builder.add(member);
+    }
+    return builder.addTransitive(transitive).build();
+  }
+
+  private static NestedSet<String> set(String... directMembers) {
+    return set(NestedSetBuilder.<String>emptySet(Order.STABLE_ORDER), directMembers);
+  }
+
+  @Test
+  public void digestDependsOnContents() {
+    assertThat(digest(set(set("a", "b"), "c"))).isEqualTo(digest(set(set("a", "b"), "c")));
+    assertThat(digest(set(set("a", "b"), "c"))).isNotEqualTo(digest(set(set("a", "x"), "c")));
+    assertThat(digest(set(set("a", "b"), "c"))).isNotEqualTo(digest(set(set("a", "b"), "x")));
+    assertThat(digest(set("a", "b"))).isNotEqualTo(digest(set("ab")));
+  }
+
+  @Test
+  public void sharedSetsAreOnlyHashedOnce() {
+    NestedSet<String> shared = set(set("a", "b"), "c");
+    String first = digest(set(shared, "d"));
+    assertThat(fingerprinted).containsExactly("a", "b", "c", "d");
+    fingerprinted.clear();
+
+    digest(set(shared, "e"));
+    assertThat(fingerprinted).containsExactly("e");
+    assertThat(digest(set(shared, "d"))).isEqualTo(first);
+  }
+
+  @Test
+  public void digestsAreComputedWithTheAlgorithmOfTheFingerprint() {
+    NestedSet<String> set = set(set("a", "b"), "c");
+    String md5 = digest(set, Fingerprint.Algorithm.MD5);
+    String murmur = digest(set, Fingerprint.Algorithm.MURMUR3_128);
+    assertThat(md5).isNotEqualTo(murmur);
+    assertThat(digest(set(set("a", "b"), "c"), Fingerprint.Algorithm.MURMUR3_128))
+        .isEqualTo(murmur);
+  }
+}
@@ -16,6 +16,9 @@ package com.google.devtools.build.lib.collect.nestedset;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -29,7 +32,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests for {@link com.google.devtools.build.lib.collect.nestedset.NestedSet}.
@@ -215,6 +220,53 @@ public class NestedSetImplTest extends TestCase {
     //  - ordering among transitive sets
   }
 
+  @Test
+  public void flatteningCache() {
+    NestedSet<String> shared = nestedSetBuilder("a", "b").build();
+    NestedSet<String> set = nestedSetBuilder("c").addTransitive(shared).build();
+    NestedSetFlatteningCache.setEnabled(true);
+    try {
+      List<String> first = set.toList();
+      assertSame(first, set.toList());
+      assertEquals(first, Lists.newArrayList(set.toSet()));
+      NestedSetFlatteningCache.setEnabled(false);
+      assertNotSame(first, set.toList());
+      assertEquals(first, set.toList());
+    } finally {
+      NestedSetFlatteningCache.setEnabled(false);
+    }
+  }
+
+  @Test
+  public void flatteningCacheIsFilledByToSetButNotByForEachElement() {
+    NestedSet<String> shared = nestedSetBuilder("a", "b").build();
+    NestedSetFlatteningCache.setEnabled(true);
+    try {
+      NestedSet<String> set = nestedSetBuilder("c").addTransitive(shared).build();
+      set.toSet();
+      assertSame(NestedSetFlatteningCache.get(set), set.toList());
+
+      NestedSet<String> other = nestedSetBuilder("d").addTransitive(shared).build();
+      final List<String> visited = new ArrayList<>();
+      NestedSetVisitor.Receiver<String> receiver = new NestedSetVisitor.Receiver<String>() {
+        @Override
+        public void accept(String arg) {
+          visited.add(arg);
+        }
+      };
+      other.forEachElement(receiver);
+      assertNull(NestedSetFlatteningCache.get(other));
+      assertEquals(other.toList(), visited);
+
+      // Now read from the cache.
+      visited.clear();
+      other.forEachElement(receiver);
+      assertEquals(other.toList(), visited);
+    } finally {
+      NestedSetFlatteningCache.setEnabled(false);
+    }
+  }
+
   /** Checks that the builder always return a nested set with the correct order. */
   @Test
   public void correctOrder() {
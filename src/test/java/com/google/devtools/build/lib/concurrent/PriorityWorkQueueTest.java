@@ -0,0 +1,160 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link PriorityWorkQueue}.
+ */
+@RunWith(JUnit4.class)
+public class PriorityWorkQueueTest {
+
+  private static final class Task implements PrioritizedRunnable {
+    private final String name;
+    private final int priority;
+    private final List<String> ran;
+
+    private Task(String name, int priority, List<String> ran) {
+      this.name = name;
+      this.priority = priority;
+      this.ran = ran;
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+
+    @Override
+    public void run() {
+      ran.add(name);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  @Test
+  public void highestPriorityFirstThenFifo() throws Exception {
+    List<String> ran = new ArrayList<>();
+    PriorityWorkQueue queue = new PriorityWorkQueue();
+    queue.offer(new Task("a", 0, ran));
+    queue.offer(new Task("b", 2, ran));
+    queue.offer(new Task("c", 1, ran));
+    queue.offer(new Task("d", 2, ran));
+    queue.offer(new Runnable() {
+      @Override
+      public void run() {}
+
+      @Override
+      public String toString() {
+        return "plain";
+      }
+    });
+    assertEquals(5, queue.size());
+    assertEquals("b", queue.peek().toString());
+    List<String> order = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      order.add(queue.take().toString());
+    }
+    assertThat(order).containsExactly("b", "d", "c", "a", "plain").inOrder();
+    assertNull(queue.poll());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    assertEquals(5, queue.getStatistics().getTasks());
+  }
+
+  @Test
+  public void removeAndDrain() {
+    List<String> ran = new ArrayList<>();
+    PriorityWorkQueue queue = new PriorityWorkQueue();
+    Task a = new Task("a", 0, ran);
+    Task b = new Task("b", 1, ran);
+    queue.offer(a);
+    queue.offer(b);
+    assertTrue(queue.remove(a));
+    List<Runnable> drained = new ArrayList<>();
+    assertEquals(1, queue.drainTo(drained));
+    assertSame(b, drained.get(0));
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void recordsWaitTime() throws Exception {
+    PriorityWorkQueue queue = new PriorityWorkQueue();
+    queue.offer(new Task("a", 0, new ArrayList<String>()));
+    Thread.sleep(20);
+    queue.take();
+    PriorityWorkQueue.Statistics statistics = queue.getStatistics();
+    assertEquals(1, statistics.getTasks());
+    assertThat(statistics.getMaxWaitNanos()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(statistics.getMaxWaitNanos(), statistics.getTotalWaitNanos());
+  }
+
+  @Test
+  public void visitorRunsQueuedTasksByPriority() throws Exception {
+    final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    PrioritizedVisitor visitor = new PrioritizedVisitor();
+    // Occupy the only worker thread until all the other tasks are queued.
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch queued = new CountDownLatch(1);
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          queued.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        ran.add("first");
+      }
+    });
+    started.await();
+    visitor.enqueue(new Task("low", 0, ran));
+    visitor.enqueue(new Task("high", 5, ran));
+    visitor.enqueue(new Task("middle", 3, ran));
+    queued.countDown();
+    visitor.work(false);
+    assertThat(ran).containsExactly("first", "high", "middle", "low").inOrder();
+  }
+
+  private static class PrioritizedVisitor extends AbstractQueueVisitor {
+    private PrioritizedVisitor() {
+      super(/*concurrent=*/true, 1, 1, 1, TimeUnit.SECONDS, "prioritized-visitor");
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> getWorkQueue() {
+      return new PriorityWorkQueue();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.events;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link AsyncEventHandler}.
+ */
+@RunWith(JUnit4.class)
+public class AsyncEventHandlerTest {
+
+  @Test
+  public void eventsAreHandledInOrder() throws Exception {
+    EventCollector collector = new EventCollector(EventKind.ALL_EVENTS);
+    AsyncEventHandler handler = new AsyncEventHandler(collector, 10);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Event event = Event.info("event " + i);
+      events.add(event);
+      handler.handle(event);
+    }
+    handler.close();
+    assertEquals(events, ImmutableList.copyOf(collector));
+    assertEquals(0, handler.getQueueDepth());
+
+    // Events reported after closing are handled directly.
+    Event late = Event.warn("late");
+    handler.handle(late);
+    assertEquals(late, ImmutableList.copyOf(collector).get(1000));
+  }
+
+  @Test
+  public void progressIsDroppedWhileDelegateIsSlow() throws Exception {
+    final CountDownLatch handling = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final EventCollector collector = new EventCollector(EventKind.ALL_EVENTS);
+    AsyncEventHandler handler = new AsyncEventHandler(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        handling.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        collector.handle(event);
+      }
+    }, 2);
+
+    Event first = Event.error("first");
+    handler.handle(first);
+    handling.await();
+    Event second = Event.error("second");
+    handler.handle(second);
+    handler.handle(Event.progress("dropped"));
+    Event third = Event.warn("third");
+    handler.handle(third);
+    assertEquals(3, handler.getQueueDepth());
+
+    release.countDown();
+    handler.close();
+    assertEquals(ImmutableList.of(first, second, third), ImmutableList.copyOf(collector));
+    assertEquals(1, handler.getDroppedEventCount());
+    assertEquals(3, handler.getMaxQueueDepth());
+  }
+
+  @Test
+  public void outputIsFlushedOncePerBatch() throws Exception {
+    final CountDownLatch handling = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final EventCollector collector = new EventCollector(EventKind.ALL_EVENTS);
+    final AtomicInteger flushes = new AtomicInteger();
+    AsyncEventHandler handler = new AsyncEventHandler(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        handling.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        collector.handle(event);
+      }
+    }, 10, new Flushable() {
+      @Override
+      public void flush() {
+        flushes.incrementAndGet();
+      }
+    });
+
+    handler.handle(Event.info("first"));
+    handling.await();
+    // Queued while the first event is handled, so they belong to the same batch.
+    for (int i = 0; i < 3; i++) {
+      handler.handle(Event.info("event " + i));
+    }
+    release.countDown();
+    handler.close();
+    assertEquals(4, collector.count());
+    assertEquals(1, flushes.get());
+
+    handler.handle(Event.info("late"));
+    assertEquals(5, collector.count());
+    assertEquals(2, flushes.get());
+  }
+
+  @Test
+  public void noEventIsLostWhenClosingWhileEventsAreReported() throws Exception {
+    final int threads = 4;
+    final int eventsPerThread = 10000;
+    for (int attempt = 0; attempt < 10; attempt++) {
+      final EventCollector collector = new EventCollector(EventKind.ALL_EVENTS);
+      final AsyncEventHandler handler = new AsyncEventHandler(collector, 10);
+      List<Thread> reporters = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Thread reporter = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < eventsPerThread; j++) {
+              handler.handle(Event.error("error " + j));
+            }
+          }
+        };
+        reporter.start();
+        reporters.add(reporter);
+      }
+      handler.close();
+      for (Thread reporter : reporters) {
+        reporter.join();
+      }
+      assertEquals(threads * eventsPerThread, collector.count());
+    }
+  }
+}
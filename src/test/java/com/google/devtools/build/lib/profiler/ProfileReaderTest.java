@@ -0,0 +1,115 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ProfileReader} and the profile files written by {@link Profiler}.
+ */
+@RunWith(JUnit4.class)
+public class ProfileReaderTest {
+
+  private final ManualClock clock = new ManualClock();
+  private Path profileFile;
+
+  @Before
+  public void setUp() throws Exception {
+    profileFile = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir())
+        .getChild("profile.dat");
+    Profiler profiler = Profiler.instance();
+    try (OutputStream out = profileFile.getOutputStream()) {
+      profiler.start(ProfiledTaskKinds.ALL, out, "test profile", true, clock, clock.nanoTime());
+      profiler.markPhase(ProfilePhase.LOAD);
+      profiler.startTask(ProfilerTask.ACTION, "load action");
+      clock.advanceMillis(10);
+      profiler.logSimpleTask(clock.nanoTime(), ProfilerTask.VFS_STAT, "stat");
+      clock.advanceMillis(10);
+      profiler.completeTask(ProfilerTask.ACTION);
+      profiler.markPhase(ProfilePhase.EXECUTE);
+      long start = clock.nanoTime();
+      clock.advanceMillis(5);
+      profiler.logSimpleTask(start, ProfilerTask.ACTION, "execute action \"quoted\"");
+      profiler.stop();
+    }
+  }
+
+  @Test
+  public void testLoadProfile() throws Exception {
+    ProfileInfo info = ProfileInfo.loadProfile(profileFile);
+    assertFalse(info.isCorruptedOrIncomplete());
+    assertEquals("test profile", info.comment);
+    List<String> descriptions = new ArrayList<>();
+    for (ProfileInfo.Task task : info.allTasksById) {
+      descriptions.add(task.getDescription());
+    }
+    assertTrue(descriptions.contains("load action"));
+    assertTrue(descriptions.contains("stat"));
+    assertTrue(descriptions.contains("execute action \"quoted\""));
+    assertTrue(descriptions.contains(ProfilePhase.EXECUTE.description));
+  }
+
+  @Test
+  public void testReadSinglePhase() throws Exception {
+    final List<String> descriptions = new ArrayList<>();
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      reader.read(ProfileReader.inPhase(ProfilePhase.EXECUTE), new ProfileReader.TaskVisitor() {
+        @Override
+        public void visit(long threadId, int id, int parentId, long startTime, long duration,
+            ProfilerTask type, String description, byte[] stats) {
+          descriptions.add(description);
+        }
+      });
+    }
+    assertEquals(3, descriptions.size());
+    assertTrue(descriptions.contains(ProfilePhase.EXECUTE.description));
+    assertTrue(descriptions.contains("execute action \"quoted\""));
+    assertFalse(descriptions.contains("load action"));
+  }
+
+  @Test
+  public void testChromeTrace() throws Exception {
+    StringWriter out = new StringWriter();
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      ChromeTraceWriter writer = new ChromeTraceWriter(out, reader.getComment());
+      reader.read(writer);
+      writer.finish();
+    }
+    String trace = out.toString();
+    assertTrue(trace, trace.startsWith("{\"otherData\":{\"comment\":\"test profile\"}"));
+    assertTrue(trace, trace.contains(
+        "{\"name\":\"load action\",\"cat\":\"ACTION\",\"pid\":1,\"tid\":"));
+    assertTrue(trace, trace.contains("\"ph\":\"X\",\"dur\":20000.000"));
+    assertTrue(trace, trace.contains("execute action \\\"quoted\\\""));
+    assertTrue(trace, trace.endsWith("\n]}\n"));
+  }
+}
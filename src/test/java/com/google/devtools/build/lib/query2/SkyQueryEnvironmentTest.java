@@ -0,0 +1,137 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.skyframe.DiffAwareness;
+import com.google.devtools.build.lib.skyframe.SequencedSkyframeExecutor;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for {@link SkyQueryEnvironment}, against a Skyframe graph that holds more than the
+ * universe of the query, as it does when a server ran earlier builds or queries.
+ */
+@RunWith(JUnit4.class)
+public class SkyQueryEnvironmentTest {
+
+  private static final String UNIVERSE = "//b:all";
+
+  private Reporter reporter;
+  private PathPackageLocator pkgLocator;
+  private SequencedSkyframeExecutor skyframeExecutor;
+
+  @Before
+  public void setUp() throws Exception {
+    Scratch scratch = new Scratch();
+    Path outputBase = scratch.dir("/output");
+    Path rootDirectory = scratch.dir("/workspace");
+    scratch.file("/workspace/WORKSPACE");
+    // Read by the rule classes of the Bazel rules when loading any package.
+    scratch.file("/output/_embedded_binaries/jdk.WORKSPACE");
+    scratch.file("/workspace/common/BUILD", "filegroup(name = 'x', srcs = ['x.txt'])");
+    scratch.file("/workspace/a/BUILD", "filegroup(name = 'a', srcs = ['//common:x'])");
+    scratch.file("/workspace/b/BUILD", "filegroup(name = 'b', srcs = ['//c:c'])");
+    scratch.file("/workspace/c/BUILD", "filegroup(name = 'c', srcs = ['//common:x'])");
+
+    reporter = new Reporter(new EventCollector(EventKind.ERRORS_AND_WARNINGS));
+    ConfiguredRuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    skyframeExecutor = SequencedSkyframeExecutor.create(reporter,
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()),
+        new BlazeDirectories(outputBase, outputBase, rootDirectory),
+        /*workspaceStatusActionFactory=*/null,
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of());
+    pkgLocator = new PathPackageLocator(rootDirectory);
+    skyframeExecutor.preparePackageLoading(pkgLocator, ConstantRuleVisibility.PUBLIC,
+        /*showLoadingProgress=*/false, "", UUID.randomUUID());
+    // An earlier query leaves the closure of //a in the graph.
+    skyframeExecutor.prepareAndGet(ImmutableList.of("//a:all"), 1, reporter);
+  }
+
+  private SkyQueryEnvironment newEnvironment() {
+    return new SkyQueryEnvironment(/*keepGoing=*/true, /*strictScope=*/false,
+        /*loadingPhaseThreads=*/1, Predicates.<Label>alwaysTrue(), reporter,
+        EnumSet.noneOf(Setting.class), ImmutableList.<QueryFunction>of(), "", skyframeExecutor,
+        ImmutableList.of(UNIVERSE), pkgLocator);
+  }
+
+  private static List<String> labels(Iterable<Target> targets) {
+    List<String> labels = new ArrayList<>();
+    for (Target target : targets) {
+      labels.add(target.getLabel().toString());
+    }
+    return labels;
+  }
+
+  private List<String> evalStreamed(String query) throws QueryException {
+    SkyQueryEnvironment env = newEnvironment();
+    final List<Target> result = new ArrayList<>();
+    env.evaluateQuery(QueryExpression.parse(query, env), new Callback<Target>() {
+      @Override
+      public void process(Iterable<Target> partialResult) {
+        for (Target target : partialResult) {
+          result.add(target);
+        }
+      }
+    });
+    return labels(result);
+  }
+
+  private List<String> eval(String query) throws QueryException {
+    SkyQueryEnvironment env = newEnvironment();
+    return labels(env.evaluateQuery(QueryExpression.parse(query, env)).getResultSet());
+  }
+
+  @Test
+  public void rdepsStaysWithinTheUniverse() throws Exception {
+    String query = "rdeps(" + UNIVERSE + ", //common:x)";
+    assertThat(eval(query)).containsExactly("//b:b", "//c:c", "//common:x");
+    assertThat(evalStreamed(query)).containsExactly("//b:b", "//c:c", "//common:x");
+  }
+}
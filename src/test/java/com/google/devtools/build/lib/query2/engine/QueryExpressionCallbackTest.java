@@ -0,0 +1,266 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link QueryExpression#eval(QueryEnvironment, Callback)}, and in particular for the
+ * streaming evaluation of rdeps.
+ */
+@RunWith(JUnit4.class)
+public class QueryExpressionCallbackTest {
+
+  private static final String UNIVERSE = "//...";
+
+  /**
+   * A graph of strings, in which the pattern {@link #UNIVERSE} matches every node and any other
+   * pattern matches the node of the same name.
+   */
+  private static class FakeQueryEnvironment implements QueryEnvironment<String> {
+    private final Multimap<String, String> fwdDeps = HashMultimap.create();
+    private final Multimap<String, String> reverseDeps = HashMultimap.create();
+    private final Set<String> nodes = new LinkedHashSet<>();
+    private final Map<String, Set<String>> variables = new HashMap<>();
+    private boolean knowsUniverse;
+    private final List<String> evaluatedPatterns = new ArrayList<>();
+    private boolean builtTransitiveClosure;
+
+    void addEdge(String from, String to) {
+      nodes.add(from);
+      nodes.add(to);
+      fwdDeps.put(from, to);
+      reverseDeps.put(to, from);
+    }
+
+    @Override
+    public Set<String> getTargetsMatchingPattern(QueryExpression owner, String pattern) {
+      evaluatedPatterns.add(pattern);
+      return pattern.equals(UNIVERSE)
+          ? new LinkedHashSet<>(nodes)
+          : nodes.contains(pattern) ? ImmutableSet.of(pattern) : ImmutableSet.<String>of();
+    }
+
+    @Override
+    public String getOrCreate(String target) {
+      return target;
+    }
+
+    @Override
+    public Collection<String> getFwdDeps(String target) {
+      return fwdDeps.get(target);
+    }
+
+    @Override
+    public Collection<String> getReverseDeps(String target) {
+      return reverseDeps.get(target);
+    }
+
+    @Override
+    @Nullable
+    public Collection<String> filterToUniverse(QueryExpression universe,
+        Collection<String> targets) {
+      if (!knowsUniverse || !universe.toString().equals(UNIVERSE)) {
+        return null;
+      }
+      List<String> result = new ArrayList<>();
+      for (String target : targets) {
+        if (nodes.contains(target)) {
+          result.add(target);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Set<String> getTransitiveClosure(Set<String> targets) {
+      Set<String> closure = new HashSet<>();
+      List<String> toVisit = new ArrayList<>(targets);
+      while (!toVisit.isEmpty()) {
+        String node = toVisit.remove(toVisit.size() - 1);
+        if (closure.add(node)) {
+          toVisit.addAll(fwdDeps.get(node));
+        }
+      }
+      return closure;
+    }
+
+    @Override
+    public void buildTransitiveClosure(QueryExpression caller, Set<String> targetNodes,
+        int maxDepth) {
+      builtTransitiveClosure = true;
+    }
+
+    @Override
+    public Set<String> getNodesOnPath(String from, String to) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getVariable(String name) {
+      return variables.get(name);
+    }
+
+    @Override
+    public Set<String> setVariable(String name, Set<String> value) {
+      return variables.put(name, value);
+    }
+
+    @Override
+    public void reportBuildFileError(QueryExpression expression, String msg)
+        throws QueryException {
+      throw new QueryException(expression, msg);
+    }
+
+    @Override
+    public Set<String> getBuildFiles(QueryExpression caller, Set<String> targets) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetAccessor<String> getAccessor() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isSettingEnabled(@Nonnull Setting setting) {
+      return false;
+    }
+
+    @Override
+    public Iterable<QueryFunction> getFunctions() {
+      return DEFAULT_QUERY_FUNCTIONS;
+    }
+  }
+
+  /** Collects the batches it is passed. */
+  private static class BatchCollector implements Callback<String> {
+    private final List<Set<String>> batches = new ArrayList<>();
+
+    @Override
+    public void process(Iterable<String> partialResult) {
+      Set<String> batch = new HashSet<>();
+      for (String node : partialResult) {
+        batch.add(node);
+      }
+      batches.add(batch);
+    }
+
+    Set<String> union() {
+      Set<String> union = new HashSet<>();
+      for (Set<String> batch : batches) {
+        union.addAll(batch);
+      }
+      return union;
+    }
+  }
+
+  private FakeQueryEnvironment env;
+
+  @Before
+  public void setUp() throws Exception {
+    // a -> b -> c, d -> c, and e, which is on its own.
+    env = new FakeQueryEnvironment();
+    env.addEdge("a", "b");
+    env.addEdge("b", "c");
+    env.addEdge("d", "c");
+    env.nodes.add("e");
+  }
+
+  private BatchCollector evalWithCallback(String query) throws QueryException {
+    BatchCollector collector = new BatchCollector();
+    QueryExpression.parse(query, env).eval(env, collector);
+    return collector;
+  }
+
+  @Test
+  public void unionPassesEachOperandSeparately() throws Exception {
+    BatchCollector collector = evalWithCallback("a + e");
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of("a"), ImmutableSet.of("e")), collector.batches);
+  }
+
+  @Test
+  public void otherOperatorsPassTheirWholeResult() throws Exception {
+    BatchCollector collector = evalWithCallback("(a + b) - b");
+    assertEquals(ImmutableList.of(ImmutableSet.of("a")), collector.batches);
+  }
+
+  @Test
+  public void rdepsIsStreamedByLevelWithoutEvaluatingTheUniverse() throws Exception {
+    env.knowsUniverse = true;
+    BatchCollector collector = evalWithCallback("rdeps(//..., c)");
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of("c"), ImmutableSet.of("b", "d"), ImmutableSet.of("a")),
+        collector.batches);
+    assertThat(env.evaluatedPatterns).containsExactly("c");
+    assertFalse(env.builtTransitiveClosure);
+  }
+
+  @Test
+  public void streamedRdepsRespectsTheDepthBound() throws Exception {
+    env.knowsUniverse = true;
+    BatchCollector collector = evalWithCallback("rdeps(//..., c, 1)");
+    assertEquals(ImmutableSet.of("b", "c", "d"), collector.union());
+  }
+
+  @Test
+  public void rdepsFallsBackToTheTransitiveClosure() throws Exception {
+    BatchCollector collector = evalWithCallback("rdeps(//..., c)");
+    assertEquals(1, collector.batches.size());
+    assertEquals(ImmutableSet.of("a", "b", "c", "d"), collector.union());
+    assertTrue(env.builtTransitiveClosure);
+  }
+
+  @Test
+  public void streamedRdepsMatchesTheSetResult() throws Exception {
+    Set<String> expected = QueryExpression.parse("rdeps(//..., c, 2)", env).eval(env);
+    env.knowsUniverse = true;
+    assertEquals(expected, evalWithCallback("rdeps(//..., c, 2)").union());
+  }
+
+  @Test
+  public void streamedRdepsSkipsReverseDepsOutsideTheUniverse() throws Exception {
+    env.knowsUniverse = true;
+    // A reverse edge left over from a graph the universe no longer covers.
+    env.reverseDeps.put("c", "stale");
+    BatchCollector collector = evalWithCallback("rdeps(//..., c)");
+    assertEquals(ImmutableSet.of("a", "b", "c", "d"), collector.union());
+  }
+}
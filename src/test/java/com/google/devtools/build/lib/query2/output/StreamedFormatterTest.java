@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.CachingPackageLocator;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.Options;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link StreamedFormatter}s: printing a result batch by batch must give the same output
+ * as printing it all at once.
+ */
+@RunWith(JUnit4.class)
+public class StreamedFormatterTest {
+
+  private QueryOptions options;
+  private Target rule;
+  private Target input;
+  private Target output;
+
+  @Before
+  public void setUp() throws Exception {
+    Scratch scratch = new Scratch();
+    Path buildFile = scratch.file("/workspace/pkg/BUILD",
+        "testing_dummy_rule(name = 'dummy',",
+        "                   srcs = ['in.txt'],",
+        "                   outs = ['out.txt'])");
+    EventCollectionApparatus events = new EventCollectionApparatus();
+    Package pkg = new PackageFactory(TestRuleClassProvider.getRuleClassProvider())
+        .createPackageForTesting(PackageIdentifier.createInDefaultRepo("pkg"), buildFile,
+            new CachingPackageLocator() {
+              @Override
+              public Path getBuildFileForPackage(String packageName) {
+                return null;
+              }
+            }, events.reporter());
+    assertFalse(pkg.containsErrors());
+    rule = pkg.getTarget("dummy");
+    input = pkg.getTarget("in.txt");
+    output = pkg.getTarget("out.txt");
+    options = Options.getDefaults(QueryOptions.class);
+  }
+
+  private static List<StreamedFormatter> getStreamedFormatters() {
+    List<StreamedFormatter> formatters = new ArrayList<>();
+    for (OutputFormatter formatter : OutputFormatter.getDefaultFormatters()) {
+      if (formatter instanceof StreamedFormatter) {
+        formatters.add((StreamedFormatter) formatter);
+      }
+    }
+    return formatters;
+  }
+
+  private String outputUnordered(StreamedFormatter formatter, List<Target> result)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    formatter.outputUnordered(options, result, out);
+    out.flush();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String outputStreamed(StreamedFormatter formatter, List<List<Target>> batches)
+      throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    Callback<Target> callback = formatter.createStreamCallback(options, out);
+    for (List<Target> batch : batches) {
+      callback.process(batch);
+    }
+    out.flush();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void formattersThatStream() {
+    List<String> names = new ArrayList<>();
+    for (StreamedFormatter formatter : getStreamedFormatters()) {
+      names.add(((OutputFormatter) formatter).getName());
+    }
+    assertThat(names).containsExactly("label", "label_kind", "location", "build");
+  }
+
+  @Test
+  public void batchesGiveTheSameOutputAsTheWholeResult() throws Exception {
+    List<Target> result = ImmutableList.of(rule, input, output);
+    for (StreamedFormatter formatter : getStreamedFormatters()) {
+      assertEquals(((OutputFormatter) formatter).getName(),
+          outputUnordered(formatter, result),
+          outputStreamed(formatter, ImmutableList.<List<Target>>of(
+              ImmutableList.of(rule), ImmutableList.<Target>of(),
+              ImmutableList.of(input, output))));
+    }
+  }
+
+  @Test
+  public void buildFormatterPrintsEachRuleOnceAcrossBatches() throws Exception {
+    StreamedFormatter formatter = (StreamedFormatter) OutputFormatter.getFormatter(
+        OutputFormatter.getDefaultFormatters(), "build");
+    String streamed = outputStreamed(formatter, ImmutableList.<List<Target>>of(
+        ImmutableList.of(rule), ImmutableList.of(output)));
+    assertEquals(outputUnordered(formatter, ImmutableList.of(rule)), streamed);
+  }
+}
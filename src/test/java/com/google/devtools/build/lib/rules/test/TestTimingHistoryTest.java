@@ -0,0 +1,169 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for {@link TestTimingHistory}.
+ */
+@RunWith(JUnit4.class)
+public class TestTimingHistoryTest {
+
+  private ManualClock clock;
+  private Path file;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new ManualClock();
+    clock.advanceMillis(TestTimingHistory.MAX_AGE_MILLIS);
+    file = new InMemoryFileSystem(clock).getPath("/output_base/test_timing_history");
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+  }
+
+  private TestTimingHistory load() {
+    return TestTimingHistory.load(file, clock);
+  }
+
+  @Test
+  public void missingFileGivesEmptyHistory() throws Exception {
+    assertEquals(-1, load().getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void expectedDurationIsTheAverageOfTheLastOneAndThePreviousExpectation()
+      throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:test", "k8-fastbuild", 0, 1, 1000);
+    assertEquals(1000, history.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+    history.record("//foo:test", "k8-fastbuild", 0, 1, 3000);
+    assertEquals(2000, history.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void durationsAreKeptPerConfigurationAndShard() throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:test", "k8-fastbuild", 0, 2, 1000);
+    history.record("//foo:test", "k8-opt", 0, 2, 2000);
+    history.record("//foo:test", "k8-fastbuild", 1, 2, 3000);
+    assertEquals(1000, history.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 2));
+    assertEquals(2000, history.getExpectedMillis("//foo:test", "k8-opt", 0, 2));
+    assertEquals(3000, history.getExpectedMillis("//foo:test", "k8-fastbuild", 1, 2));
+    assertEquals(-1, history.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void savedHistoryIsLoadedAgain() throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:test", "k8-fastbuild", 0, 1, 1000);
+    history.record("//foo:other_test", "k8-opt", 1, 3, 2000);
+    history.save();
+
+    TestTimingHistory loaded = load();
+    assertEquals(1000, loaded.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+    assertEquals(2000, loaded.getExpectedMillis("//foo:other_test", "k8-opt", 1, 3));
+  }
+
+  @Test
+  public void durationsNotRecordedForTooLongAreDroppedOnSave() throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:old_test", "k8-fastbuild", 0, 1, 1000);
+    clock.advanceMillis(TestTimingHistory.MAX_AGE_MILLIS);
+    history.record("//foo:test", "k8-fastbuild", 0, 1, 2000);
+    clock.advanceMillis(1);
+    history.save();
+
+    assertEquals(-1, history.getExpectedMillis("//foo:old_test", "k8-fastbuild", 0, 1));
+    TestTimingHistory loaded = load();
+    assertEquals(-1, loaded.getExpectedMillis("//foo:old_test", "k8-fastbuild", 0, 1));
+    assertEquals(2000, loaded.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void unparsableFileGivesEmptyHistory() throws Exception {
+    FileSystemUtils.writeContent(file, StandardCharsets.UTF_8,
+        "//foo:test\tk8-fastbuild\t0\t1\t1000\t0\n"
+        + "//foo:other_test\tk8-fastbuild\tzero\t1\t1000\t0\n");
+    assertEquals(-1, load().getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void linesWithTheWrongNumberOfFieldsAreSkipped() throws Exception {
+    FileSystemUtils.writeContent(file, StandardCharsets.UTF_8,
+        "//foo:old_format\t0\t1\t1000\n"
+        + "//foo:test\tk8-fastbuild\t0\t1\t1000\t0\n");
+    TestTimingHistory history = load();
+    assertEquals(-1, history.getExpectedMillis("//foo:old_format", "k8-fastbuild", 0, 1));
+    assertEquals(1000, history.getExpectedMillis("//foo:test", "k8-fastbuild", 0, 1));
+  }
+
+  @Test
+  public void slowShardsGetMoreShardsSuggested() throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:slow_test", "k8-fastbuild", 0, 1, 60000);
+    for (int i = 0; i < 10; i++) {
+      history.record("//foo:test" + i, "k8-fastbuild", 0, 1, 6000);
+    }
+    // 120s of tests on 4 cores should take 30s, so the slow test needs 2 shards.
+    List<String> suggestions = history.getShardingSuggestions(4);
+    assertThat(suggestions).hasSize(1);
+    assertThat(suggestions.get(0)).startsWith("//foo:slow_test (k8-fastbuild): ");
+    assertThat(suggestions.get(0)).endsWith("shard_count = 2");
+  }
+
+  @Test
+  public void shortShardsGetFewerShardsSuggested() throws Exception {
+    TestTimingHistory history = load();
+    for (int shard = 0; shard < 4; shard++) {
+      history.record("//foo:test", "k8-fastbuild", shard, 4, 1000);
+    }
+    List<String> suggestions = history.getShardingSuggestions(4);
+    assertThat(suggestions).hasSize(1);
+    assertThat(suggestions.get(0)).startsWith("//foo:test (k8-fastbuild): its 4 shards ");
+    assertThat(suggestions.get(0)).endsWith("shard_count = 1");
+  }
+
+  @Test
+  public void suggestionsOnlyCoverTestsRunSinceTheLastCall() throws Exception {
+    TestTimingHistory history = load();
+    for (int shard = 0; shard < 4; shard++) {
+      history.record("//foo:test", "k8-fastbuild", shard, 4, 1000);
+    }
+    assertThat(history.getShardingSuggestions(4)).hasSize(1);
+    assertThat(history.getShardingSuggestions(4)).isEmpty();
+  }
+
+  @Test
+  public void wellShardedTestsGetNoSuggestions() throws Exception {
+    TestTimingHistory history = load();
+    history.record("//foo:test", "k8-fastbuild", 0, 2, 10000);
+    history.record("//foo:test", "k8-fastbuild", 1, 2, 10000);
+    history.record("//foo:test", "k8-opt", 0, 1, 10000);
+    assertThat(history.getShardingSuggestions(2)).isEmpty();
+  }
+}
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.shell;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.shell.TestUtil.assertArrayEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -34,6 +35,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
@@ -143,6 +145,29 @@ public class CommandTest {
     checkSuccess(command.execute("foobarbaz".getBytes()), "foobarbaz\n");
   }
 
+  @Test
+  public void testOutputRedirectedToFiles() throws Exception {
+    File out = File.createTempFile("stdout", null);
+    File err = File.createTempFile("stderr", null);
+    try {
+      Files.write(out.toPath(), "before\n".getBytes(UTF_8));
+      final Command command =
+          new Command(new String[] {"/bin/sh", "-c", "echo foo; echo bar >&2"});
+      CommandResult result = command.execute(Command.NO_INPUT, Command.NO_OBSERVER,
+          out, err, /*killSubprocessOnInterrupt=*/false);
+      assertTrue(result.getTerminationStatus().success());
+      assertEquals("before\nfoo\n", new String(Files.readAllBytes(out.toPath()), UTF_8));
+      assertEquals("bar\n", new String(Files.readAllBytes(err.toPath()), UTF_8));
+
+      // Both streams go to the same file when it is passed twice.
+      command.execute(Command.NO_INPUT, Command.NO_OBSERVER, err, err, false);
+      assertEquals("bar\nfoo\nbar\n", new String(Files.readAllBytes(err.toPath()), UTF_8));
+    } finally {
+      out.delete();
+      err.delete();
+    }
+  }
+
   @Test
   public void testRawCommand() throws Exception {
     final Command command = new Command(new String[] { "perl",
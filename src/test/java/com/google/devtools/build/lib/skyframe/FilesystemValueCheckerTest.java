@@ -0,0 +1,154 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.Differencer;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.IntVersion;
+import com.google.devtools.build.skyframe.RecordingDifferencer;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link FilesystemValueChecker}'s check of source file values.
+ */
+@RunWith(JUnit4.class)
+public class FilesystemValueCheckerTest {
+
+  private final TimestampGranularityMonitor tsgm =
+      new TimestampGranularityMonitor(BlazeClock.instance());
+  /** The paths that were stat()ed to check file state values. */
+  private final Set<Path> statted = Sets.newConcurrentHashSet();
+  private Path root;
+  private Path pkg;
+  private final Map<SkyKey, SkyValue> values = new HashMap<>();
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem(BlazeClock.instance()) {
+      @Override
+      public FileStatus statIfFound(Path path, boolean followSymlinks) throws IOException {
+        statted.add(path);
+        return super.statIfFound(path, followSymlinks);
+      }
+    };
+    root = fs.getPath("/workspace");
+    pkg = root.getChild("pkg");
+    FileSystemUtils.createDirectoryAndParents(pkg.getChild("sub"));
+    FileSystemUtils.writeContentAsLatin1(pkg.getChild("a"), "a");
+    pkg.getChild("link").createSymbolicLink(new PathFragment("a"));
+  }
+
+  private RootedPath rootedPath(String relativePath) {
+    return RootedPath.toRootedPath(root, new PathFragment(relativePath));
+  }
+
+  private SkyKey recordFileState(String relativePath) throws Exception {
+    RootedPath rootedPath = rootedPath(relativePath);
+    SkyKey key = FileStateValue.key(rootedPath);
+    values.put(key, FileStateValue.create(rootedPath, tsgm));
+    return key;
+  }
+
+  private SkyKey recordListing(String relativePath) throws Exception {
+    RootedPath rootedPath = rootedPath(relativePath);
+    SkyKey key = DirectoryListingStateValue.key(rootedPath);
+    values.put(key, DirectoryListingStateValue.create(rootedPath));
+    return key;
+  }
+
+  /** Injects the recorded values into the graph, and checks them against the file system. */
+  private Differencer.Diff check() throws Exception {
+    RecordingDifferencer differencer = new RecordingDifferencer();
+    differencer.inject(values);
+    InMemoryMemoizingEvaluator evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(), differencer);
+    evaluator.evaluate(ImmutableList.<SkyKey>of(), new IntVersion(0), /*keepGoing=*/false,
+        /*numThreads=*/1, NullEventHandler.INSTANCE);
+    statted.clear();
+    return new FilesystemValueChecker(evaluator, tsgm, null)
+        .getDirtyFilesystemValues(values.keySet(), /*numThreads=*/2);
+  }
+
+  @Test
+  public void unchangedListingSkipsOnlyNonexistentAndDirectoryChildren() throws Exception {
+    recordListing("pkg");
+    SkyKey file = recordFileState("pkg/a");
+    SkyKey link = recordFileState("pkg/link");
+    recordFileState("pkg/sub");
+    recordFileState("pkg/missing");
+
+    // Neither change shows in the listing of pkg.
+    FileSystemUtils.writeContentAsLatin1(pkg.getChild("a"), "changed");
+    pkg.getChild("link").delete();
+    pkg.getChild("link").createSymbolicLink(new PathFragment("sub"));
+
+    Differencer.Diff diff = check();
+    assertThat(diff.changedKeysWithoutNewValues()).isEmpty();
+    assertThat(diff.changedKeysWithNewValues().keySet()).containsExactly(file, link);
+    assertThat(statted).containsAllOf(pkg.getChild("a"), pkg.getChild("link"));
+    assertThat(statted).containsNoneOf(pkg.getChild("sub"), pkg.getChild("missing"));
+  }
+
+  @Test
+  public void changedListingStatsAllChildren() throws Exception {
+    SkyKey listing = recordListing("pkg");
+    recordFileState("pkg/sub");
+    SkyKey missing = recordFileState("pkg/missing");
+
+    FileSystemUtils.writeContentAsLatin1(pkg.getChild("missing"), "created");
+
+    Differencer.Diff diff = check();
+    assertThat(diff.changedKeysWithNewValues().keySet()).containsExactly(listing, missing);
+    assertThat(statted).containsAllOf(pkg.getChild("sub"), pkg.getChild("missing"));
+  }
+
+  @Test
+  public void childrenWithoutListingAreStatted() throws Exception {
+    recordFileState("pkg/sub");
+    SkyKey missing = recordFileState("pkg/missing");
+
+    FileSystemUtils.writeContentAsLatin1(pkg.getChild("missing"), "created");
+
+    Differencer.Diff diff = check();
+    assertThat(diff.changedKeysWithNewValues().keySet()).containsExactly(missing);
+    assertThat(statted).containsAllOf(pkg.getChild("sub"), pkg.getChild("missing"));
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.devtools.build.lib.skyframe.DiffAwareness.View;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for {@link InotifyDiffAwareness}.
+ */
+@RunWith(JUnit4.class)
+public class InotifyDiffAwarenessTest {
+
+  private Path root;
+  private DiffAwareness diffAwareness;
+  private View view;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(OS.getCurrent() == OS.LINUX);
+    File rootFile = new File(TestUtils.tmpDir(), "inotify").getCanonicalFile();
+    com.google.devtools.build.lib.vfs.Path rootPath =
+        new UnixFileSystem().getPath(rootFile.getPath());
+    FileSystemUtils.deleteTree(rootPath);
+    rootPath.createDirectory();
+    root = rootFile.toPath();
+    diffAwareness = new InotifyDiffAwareness.Factory().maybeCreate(rootPath);
+    assertNotNull(diffAwareness);
+    view = diffAwareness.getCurrentView();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (diffAwareness != null) {
+      diffAwareness.close();
+    }
+  }
+
+  /** Returns the changes since the previous call. */
+  private ModifiedFileSet diff() throws Exception {
+    View newView = diffAwareness.getCurrentView();
+    ModifiedFileSet diff = diffAwareness.getDiff(view, newView);
+    view = newView;
+    return diff;
+  }
+
+  private static PathFragment[] fragments(String... paths) {
+    PathFragment[] fragments = new PathFragment[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      fragments[i] = new PathFragment(paths[i]);
+    }
+    return fragments;
+  }
+
+  private void assertDiff(String... paths) throws Exception {
+    ModifiedFileSet diff = diff();
+    assertFalse(diff.treatEverythingAsModified());
+    assertThat(diff.modifiedSourceFiles()).containsExactly((Object[]) fragments(paths));
+  }
+
+  private void write(String path) throws Exception {
+    Files.write(root.resolve(path), new byte[] {'x'});
+  }
+
+  private void mkdirs(String path) throws Exception {
+    Files.createDirectories(root.resolve(path));
+  }
+
+  @Test
+  public void createdAndModifiedFilesAreReported() throws Exception {
+    write("a");
+    assertDiff("a");
+    write("a");
+    assertDiff("a");
+    assertDiff();
+  }
+
+  @Test
+  public void createdDirectoryIsWatched() throws Exception {
+    mkdirs("dir/sub");
+    write("dir/sub/a");
+    assertDiff("dir", "dir/sub", "dir/sub/a");
+    write("dir/sub/b");
+    assertDiff("dir/sub/b");
+  }
+
+  @Test
+  public void deletedDirectoryTreeIsReported() throws Exception {
+    mkdirs("dir/sub");
+    write("dir/sub/a");
+    diff();
+    Files.delete(root.resolve("dir/sub/a"));
+    Files.delete(root.resolve("dir/sub"));
+    Files.delete(root.resolve("dir"));
+    assertDiff("dir", "dir/sub", "dir/sub/a");
+    // A directory created again under the same name is watched.
+    mkdirs("dir");
+    assertDiff("dir");
+    write("dir/b");
+    assertDiff("dir/b");
+  }
+
+  @Test
+  public void movedDirectoryReportsEverythingOnce() throws Exception {
+    mkdirs("dir/sub");
+    diff();
+    Files.move(root.resolve("dir"), root.resolve("moved"));
+    assertTrue(diff().treatEverythingAsModified());
+    write("moved/sub/a");
+    assertDiff("moved/sub/a");
+    mkdirs("dir");
+    write("dir/a");
+    assertDiff("dir", "dir/a");
+  }
+
+  @Test
+  public void nonAsciiDirectoryIsWatched() throws Exception {
+    String name = "\u00e9";
+    Charset charset = Charset.forName(System.getProperty("sun.jnu.encoding", "UTF-8"));
+    assumeTrue(charset.newEncoder().canEncode(name));
+    // Blaze paths hold the bytes of file names as Latin1.
+    String latin1Name = new String(name.getBytes(charset), StandardCharsets.ISO_8859_1);
+    mkdirs(name);
+    assertDiff(latin1Name);
+    write(name + "/a");
+    assertDiff(latin1Name + "/a");
+  }
+}
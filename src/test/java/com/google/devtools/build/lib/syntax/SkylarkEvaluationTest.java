@@ -18,6 +18,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -34,6 +35,7 @@ import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
 import com.google.devtools.build.lib.packages.MethodLibrary;
 import com.google.devtools.build.lib.rules.SkylarkModules;
 import com.google.devtools.build.lib.syntax.ClassObject.SkylarkClassObject;
+import com.google.devtools.build.lib.syntax.EvalException.EvalExceptionWithJavaCause;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -91,6 +93,14 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     }
   }
 
+  @SkylarkModule(name = "MockWithFailingMethod", doc = "")
+  static final class MockWithFailingMethod {
+    @SkylarkCallable(name = "failing", doc = "")
+    public String failing(String message) {
+      throw new ClassCastException(message);
+    }
+  }
+
   @SkylarkModule(name = "MockInterface", doc = "")
   static interface MockInterface {
     @SkylarkCallable(doc = "")
@@ -418,6 +428,24 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     assertEquals(Boolean.FALSE, env.lookup("b"));
   }
 
+  @Test
+  public void testJavaCallSiteWithDifferentReceivers() throws Exception {
+    env.update("mock", new Mock());
+    env.update("sub", new MockSubClass());
+    List<Statement> input = parseFileForSkylark(
+          "def func(m):\n"
+        + "  return m.is_empty_interface('')\n"
+        + "a = func(sub)\n"
+        + "b = func(sub)\n"
+        + "func(mock)\n",
+        ImmutableMap.<String, SkylarkType>of(
+            "mock", SkylarkType.UNKNOWN, "sub", SkylarkType.UNKNOWN));
+    checkEvalError(input, env,
+        "No matching method found for is_empty_interface(string) in Mock");
+    assertEquals(Boolean.TRUE, env.lookup("a"));
+    assertEquals(Boolean.TRUE, env.lookup("b"));
+  }
+
   @Test
   public void testJavaCallsNotSkylarkCallable() throws Exception {
     env.update("mock", new Mock());
@@ -425,6 +453,19 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     checkEvalError(input, env, "No matching method found for value() in Mock");
   }
 
+  @Test
+  public void testJavaCallsExceptionIsReportedWithCause() throws Exception {
+    env.update("mock", new MockWithFailingMethod());
+    List<Statement> input = parseFileForSkylark("mock.failing('bad cast')", MOCK_TYPES);
+    try {
+      exec(input, env);
+      fail();
+    } catch (EvalExceptionWithJavaCause e) {
+      assertThat(e).hasMessage("bad cast");
+      assertThat(e.getCause()).isInstanceOf(ClassCastException.class);
+    }
+  }
+
   @Test
   public void testJavaCallsNoMethod() throws Exception {
     List<Statement> input = parseFileForSkylark(
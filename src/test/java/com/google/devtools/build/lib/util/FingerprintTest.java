@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
@@ -134,4 +135,78 @@ public class FingerprintTest {
     assertThat("01cc3eeea3a2f58e447e824f9f62d3d1").isEqualTo(
         new Fingerprint().addPath(p).hexDigestAndReset());
   }
+
+  @Test
+  public void murmur3Fingerprint() {
+    byte[] bytes = "Hello World!".getBytes(UTF_8);
+    String expected = Hashing.murmur3_128().hashBytes(bytes).toString();
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MURMUR3_128);
+    assertThat(f.addBytes(bytes).hexDigestAndReset()).isEqualTo(expected);
+    // The digest is reset once computed.
+    assertThat(f.addBytes(bytes).hexDigestAndReset()).isEqualTo(expected);
+    assertThat(f.getAlgorithm()).isEqualTo(Fingerprint.Algorithm.MURMUR3_128);
+  }
+
+  @Test
+  public void murmur3FingerprintOfLargeInput() {
+    byte[] bytes = new byte[10000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MURMUR3_128);
+    f.addBytes(bytes, 0, 3000);
+    for (int i = 3000; i < 5000; i++) {
+      f.addBytes(bytes, i, 1);
+    }
+    f.addBytes(bytes, 5000, 5000);
+    assertThat(f.hexDigestAndReset())
+        .isEqualTo(Hashing.murmur3_128().hashBytes(bytes).toString());
+  }
+
+  @Test
+  public void murmur3FingerprintOfEveryLength() {
+    byte[] bytes = new byte[100];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (i * 31);
+    }
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MURMUR3_128);
+    for (int length = 0; length <= bytes.length; length++) {
+      // Split into parts that do not line up with blocks.
+      f.addBytes(bytes, 0, length / 3);
+      for (int i = length / 3; i < length / 2; i++) {
+        f.addBytes(bytes, i, 1);
+      }
+      f.addBytes(bytes, length / 2, length - length / 2);
+      assertThat(f.hexDigestAndReset())
+          .isEqualTo(Hashing.murmur3_128().hashBytes(bytes, 0, length).toString());
+    }
+  }
+
+  @Test
+  public void murmur3ToString() {
+    Fingerprint f = new Fingerprint(Fingerprint.Algorithm.MURMUR3_128);
+    f.addString("Hello ");
+    String intermediate = f.toString();
+    f.addString("World!");
+    String expected = new Fingerprint(Fingerprint.Algorithm.MURMUR3_128)
+        .addString("Hello ").addString("World!").hexDigestAndReset();
+    assertThat(f.toString()).isEqualTo(expected);
+    assertThat(f.hexDigestAndReset()).isEqualTo(expected);
+    assertThat(intermediate).isEqualTo(new Fingerprint(Fingerprint.Algorithm.MURMUR3_128)
+        .addString("Hello ").hexDigestAndReset());
+  }
+
+  @Test
+  public void defaultAlgorithm() {
+    assertThat(Fingerprint.setDefaultAlgorithm(Fingerprint.Algorithm.MURMUR3_128)).isTrue();
+    try {
+      assertThat(Fingerprint.setDefaultAlgorithm(Fingerprint.Algorithm.MURMUR3_128)).isFalse();
+      assertThat(new Fingerprint().getAlgorithm()).isEqualTo(Fingerprint.Algorithm.MURMUR3_128);
+      assertThat(Fingerprint.md5Digest("Hello World!"))
+          .isEqualTo("ed076287532e86365e841e92bfc50d8c");
+    } finally {
+      Fingerprint.setDefaultAlgorithm(Fingerprint.Algorithm.MD5);
+    }
+    assertThat(new Fingerprint().getAlgorithm()).isEqualTo(Fingerprint.Algorithm.MD5);
+  }
 }
@@ -224,6 +224,70 @@ public class GroupedListTest {
     assertThat(groupedList).containsExactlyElementsIn(elements).inOrder();
   }
 
+  @Test
+  public void compressedFormHasNoNestedLists() {
+    GroupedList<String> groupedList = new GroupedList<>();
+    GroupedListHelper<String> helper = new GroupedListHelper<>();
+    List<ImmutableList<String>> elements = new ArrayList<>();
+    // Group sizes large enough to need multi-byte varints.
+    for (int groupSize : new int[] {1, 3, 1, 200, 2, 1}) {
+      List<String> group = new ArrayList<>();
+      for (int i = 0; i < groupSize; i++) {
+        group.add("g" + elements.size() + "_" + i);
+      }
+      helper.startGroup();
+      for (String elt : group) {
+        helper.add(elt);
+      }
+      helper.endGroup();
+      elements.add(ImmutableList.copyOf(group));
+    }
+    groupedList.append(helper);
+    Object compressed = groupedList.compress();
+    for (Object item : (Object[]) compressed) {
+      assertFalse(item instanceof List);
+    }
+    assertThat(GroupedList.create(compressed)).containsExactlyElementsIn(elements).inOrder();
+    assertEquals(groupedList, GroupedList.create(compressed));
+    assertEquals(groupedList.size(), GroupedList.create(compressed).size());
+  }
+
+  @Test
+  public void singleGroupRoundTrip() {
+    GroupedList<String> groupedList = new GroupedList<>();
+    List<String> group = ImmutableList.of("a", "b", "c");
+    groupedList.append(GroupedListHelper.create(group));
+    Object compressed = groupedList.compress();
+    assertThat(GroupedList.<String>create(compressed)).containsExactly(group);
+    assertEquals(3, GroupedList.create(compressed).size());
+  }
+
+  @Test
+  public void compressedReadsMatchRecreatedList() {
+    List<List<List<String>>> lists = ImmutableList.<List<List<String>>>of(
+        ImmutableList.<List<String>>of(),
+        ImmutableList.<List<String>>of(ImmutableList.of("a")),
+        ImmutableList.<List<String>>of(ImmutableList.of("a"), ImmutableList.of("b")),
+        ImmutableList.<List<String>>of(ImmutableList.of("a", "b", "c")),
+        ImmutableList.<List<String>>of(
+            ImmutableList.of("a"), ImmutableList.of("b", "c"), ImmutableList.of("d")));
+    for (List<List<String>> groups : lists) {
+      GroupedList<String> groupedList = new GroupedList<>();
+      for (List<String> group : groups) {
+        groupedList.append(GroupedListHelper.create(group));
+      }
+      Object compressed = groupedList.compress();
+      List<List<String>> readGroups = new ArrayList<>();
+      for (Iterable<String> group : GroupedList.<String>compressedToGroups(compressed)) {
+        readGroups.add(ImmutableList.copyOf(group));
+      }
+      assertEquals(groups, readGroups);
+      assertThat(GroupedList.<String>compressedToSet(compressed))
+          .containsExactlyElementsIn(GroupedList.<String>create(compressed).toSet())
+          .inOrder();
+    }
+  }
+
   private static Object createAndCompress(Collection<String> list) {
     GroupedList<String> result = new GroupedList<>();
     result.append(GroupedListHelper.create(list));
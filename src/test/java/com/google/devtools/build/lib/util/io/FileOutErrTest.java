@@ -0,0 +1,111 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link FileOutErr}.
+ */
+@RunWith(JUnit4.class)
+public class FileOutErrTest {
+
+  private Path stdout;
+  private Path stderr;
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("outerr");
+    FileSystemUtils.deleteTree(root);
+    root.createDirectory();
+    stdout = root.getChild("stdout");
+    stderr = root.getChild("stderr");
+  }
+
+  @Test
+  public void testStaleContentIsDeleted() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(stdout, "stale");
+    FileOutErr outErr = new FileOutErr(stdout, stderr);
+    outErr.printOut("fresh");
+    outErr.close();
+    assertEquals("fresh", outErr.outAsLatin1());
+  }
+
+  @Test
+  public void testRedirectedOutputIsInterleaved() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(stderr, "stale");
+    FileOutErr outErr = new FileOutErr(stdout, stderr);
+    outErr.printOut("first ");
+    assertTrue(outErr.prepareForRedirection());
+    assertFalse(outErr.hasRecordedStderr());
+
+    // Stands in for a subprocess appending to the files.
+    appendTo(stdout, "second ");
+    appendTo(stderr, "error");
+    outErr.printOut("third");
+    outErr.close();
+
+    assertEquals("first second third", outErr.outAsLatin1());
+    assertEquals("error", outErr.errAsLatin1());
+  }
+
+  @Test
+  public void testNullFileOutErrCannotBeRedirected() {
+    assertFalse(new FileOutErr().prepareForRedirection());
+  }
+
+  @Test
+  public void testDumpKeepsTheEndOfLongOutput() throws Exception {
+    FileOutErr outErr = new FileOutErr(stdout, stderr);
+    outErr.printOut("0123456789");
+    outErr.printErr("short");
+    outErr.close();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    outErr.dumpOutAsLatin1(out, 4);
+    assertEquals("[6 bytes of output left out, see " + stdout + "]"
+        + System.getProperty("line.separator") + "6789",
+        new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+
+    out.reset();
+    outErr.dumpErrAsLatin1(out, 5);
+    assertEquals("short", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+
+    out.reset();
+    outErr.dumpOutAsLatin1(out, -1);
+    assertEquals("0123456789", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+  }
+
+  private static void appendTo(Path file, String content) throws Exception {
+    try (OutputStream out = file.getOutputStream(/*append=*/true)) {
+      out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+}
@@ -31,6 +31,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -253,6 +254,33 @@ public class GlobTest {
             .glob());
   }
 
+  @Test
+  public void testPatternsShareDirectoryReads() throws Exception {
+    final List<Path> readdirs = Collections.synchronizedList(new ArrayList<Path>());
+    UnixGlob.FilesystemCalls syscalls = new UnixGlob.FilesystemCalls() {
+      @Override
+      public FileStatus statNullable(Path path, Symlinks symlinks) {
+        return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+      }
+
+      @Override
+      public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+        readdirs.add(path);
+        return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+      }
+    };
+
+    MoreAsserts.assertSameContents(
+        ImmutableList.of(tmpPath.getRelative("foo/bar"), tmpPath.getRelative("foo/bar/wiz"),
+            tmpPath.getRelative("foo/bar/wiz/file"), tmpPath.getRelative("foo/barnacle"),
+            tmpPath.getRelative("foo/barnacle/wiz")),
+        new UnixGlob.Builder(tmpPath)
+            .addPatterns("foo/bar*", "foo/*/wiz", "foo/bar/**", "*/bar/wiz/file")
+            .setFilesystemCalls(new AtomicReference<>(syscalls))
+            .glob());
+    assertThat(readdirs).containsNoDuplicates();
+  }
+
   @Test
   public void testIllegalPatterns() throws Exception {
     assertIllegalPattern("(illegal) pattern");
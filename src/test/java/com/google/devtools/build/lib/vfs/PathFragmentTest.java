@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -65,6 +66,24 @@ public class PathFragmentTest {
         .testEquals();
   }
 
+  @Test
+  public void testEqualsAndCompareToDistinguishDriveLetters() {
+    String[] segments = {"foo", "bar"};
+    PathFragment onC = new PathFragment('C', true, segments);
+    PathFragment onD = new PathFragment('D', true, segments);
+    PathFragment noDrive = new PathFragment('\0', true, segments);
+
+    new EqualsTester()
+        .addEqualityGroup(onC, new PathFragment('C', true, new String[] {"foo", "bar"}))
+        .addEqualityGroup(onD)
+        .addEqualityGroup(noDrive, new PathFragment("/foo/bar"))
+        .testEquals();
+    assertTrue(onC.compareTo(onD) < 0);
+    assertTrue(onD.compareTo(onC) > 0);
+    assertTrue(noDrive.compareTo(onC) < 0);
+    assertEquals(0, onC.compareTo(new PathFragment('C', true, new String[] {"foo", "bar"})));
+  }
+
   @Test
   public void testHashCodeCache() {
     PathFragment relativePath = new PathFragment("../relative/path");
@@ -402,7 +421,8 @@ public class PathFragmentTest {
   @Test
   public void testCompareTo() throws Exception {
     List<String> pathStrs = ImmutableList.of(
-        "", "/", "//", ".", "/./", "foo/.//bar", "foo", "/foo", "foo/bar", "foo/Bar", "Foo/bar");
+        "", "/", "//", ".", "/./", "foo/.//bar", "foo", "/foo", "foo/bar", "foo/Bar", "Foo/bar",
+        "a/z", "foo/baz/bar", "foo/bar/baz", "/foo/baz", "/foo/bar/baz");
     List<PathFragment> paths = toPaths(pathStrs);
     // First test that compareTo is self-consistent.
     for (PathFragment x : paths) {
@@ -430,7 +450,8 @@ public class PathFragmentTest {
     Collections.shuffle(paths);
     Collections.sort(paths);
     List<PathFragment> expectedOrder = toPaths(ImmutableList.of(
-        "/", "//", "/./", "/foo", "", ".", "Foo/bar", "foo", "foo/.//bar", "foo/Bar", "foo/bar"));
+        "/", "//", "/./", "/foo", "/foo/bar/baz", "/foo/baz", "", ".", "Foo/bar", "a/z", "foo",
+        "foo/.//bar", "foo/Bar", "foo/bar", "foo/bar/baz", "foo/baz/bar"));
     assertEquals(expectedOrder, paths);
   }
 
@@ -456,6 +477,30 @@ public class PathFragmentTest {
     assertEquals(new PathFragment("/.."), new PathFragment("/..").normalize());
   }
 
+  @Test
+  public void testParentsAreShared() {
+    PathFragment parent = new PathFragment("/a/b/c").getParentDirectory();
+    assertSame(parent, new PathFragment("/a/b/d").getParentDirectory());
+    assertSame(parent, new PathFragment("/a").getRelative("b").getChild("e").getParentDirectory());
+    assertSame(parent, new PathFragment("/a/b/c/d").subFragment(0, 2));
+    assertFalse(parent.equals(new PathFragment("a/b/d").getParentDirectory()));
+  }
+
+  @Test
+  public void testFragmentsBuiltDifferentlyAreEqual() {
+    new EqualsTester()
+        .addEqualityGroup(new PathFragment("/a/b/c/d"),
+                          new PathFragment("/a/b").getRelative("c/d"),
+                          new PathFragment("/a").getChild("b").getChild("c").getChild("d"),
+                          new PathFragment(new PathFragment("/a/b"), new PathFragment("c/d")),
+                          new PathFragment("/a/b/c/d/e").getParentDirectory(),
+                          new PathFragment("/x/../a/b/c/d").normalize())
+        .addEqualityGroup(new PathFragment("b/c/d"),
+                          new PathFragment("/a/b/c/d").subFragment(1, 4),
+                          new PathFragment("/a/b/c/d").relativeTo("/a"))
+        .testEquals();
+  }
+
   @Test
   public void testSerializationSimple() throws Exception {
    checkSerialization("a", 91);
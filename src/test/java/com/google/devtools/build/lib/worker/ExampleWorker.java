@@ -0,0 +1,56 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import java.io.IOException;
+
+/**
+ * A persistent worker for tests. Its response to a request holds the number of requests that it
+ * served so far and the arguments of the request, with exit code 0, except for these arguments:
+ *
+ * <ul>
+ *   <li>{@code @fail}: the exit code is 1.
+ *   <li>{@code @exit}: the worker exits without a response.
+ *   <li>{@code @hang}: the worker never responds.
+ * </ul>
+ */
+public class ExampleWorker {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int requests = 0;
+    while (true) {
+      WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+      if (request == null) {
+        return;
+      }
+      requests++;
+      if (request.getArgumentsList().contains("@exit")) {
+        System.exit(0);
+      }
+      if (request.getArgumentsList().contains("@hang")) {
+        Thread.sleep(Long.MAX_VALUE);
+      }
+      WorkResponse.newBuilder()
+          .setExitCode(request.getArgumentsList().contains("@fail") ? 1 : 0)
+          .setOutput(requests + " " + Joiner.on(' ').join(request.getArgumentsList()))
+          .build()
+          .writeDelimitedTo(System.out);
+      System.out.flush();
+    }
+  }
+}
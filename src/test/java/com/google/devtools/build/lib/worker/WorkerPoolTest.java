@@ -0,0 +1,110 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WorkerPool}. The workers are {@code cat} processes, which echo their requests.
+ */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+  private Path workDir;
+  private WorkerPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    workDir = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("workers");
+    FileSystemUtils.deleteTree(workDir);
+    workDir.createDirectory();
+    pool = new WorkerPool(workDir.getChild("logs"), 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+  }
+
+  private WorkerKey key(String mnemonic) {
+    return new WorkerKey(ImmutableList.of("cat"), ImmutableMap.<String, String>of(), workDir,
+        mnemonic, "");
+  }
+
+  private static void awaitExit(Worker worker) throws InterruptedException {
+    for (int i = 0; i < 100 && worker.isAlive(); i++) {
+      Thread.sleep(100);
+    }
+    assertFalse(worker.isAlive());
+  }
+
+  @Test
+  public void workerServesSeveralRequests() throws Exception {
+    Worker worker = pool.borrowWorker(key("Cat"));
+    worker.getRequestStream().write('a');
+    worker.getRequestStream().flush();
+    assertEquals('a', worker.getResponseStream().read());
+    pool.returnWorker(worker);
+
+    assertSame(worker, pool.borrowWorker(key("Cat")));
+    worker.getRequestStream().write('b');
+    worker.getRequestStream().flush();
+    assertEquals('b', worker.getResponseStream().read());
+  }
+
+  @Test
+  public void workersAreNotSharedAcrossKeys() throws Exception {
+    Worker worker = pool.borrowWorker(key("Cat"));
+    pool.returnWorker(worker);
+    Worker other = pool.borrowWorker(key("Dog"));
+    assertNotSame(worker, other);
+    assertSame(worker, pool.borrowWorker(key("Cat")));
+  }
+
+  @Test
+  public void excessIdleWorkersAreKilled() throws Exception {
+    Worker first = pool.borrowWorker(key("Cat"));
+    Worker second = pool.borrowWorker(key("Cat"));
+    pool.returnWorker(first);
+    pool.returnWorker(second);
+    awaitExit(second);
+    assertTrue(first.isAlive());
+  }
+
+  @Test
+  public void deadWorkersAreReplaced() throws Exception {
+    Worker worker = pool.borrowWorker(key("Cat"));
+    pool.returnWorker(worker);
+    worker.getRequestStream().close();
+    awaitExit(worker);
+    assertNotSame(worker, pool.borrowWorker(key("Cat")));
+  }
+}
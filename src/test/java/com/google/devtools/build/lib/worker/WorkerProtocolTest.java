@@ -0,0 +1,79 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Tests for the messages exchanged with persistent workers, which are written one after the
+ * other to the same stream, each preceded by its length.
+ */
+@RunWith(JUnit4.class)
+public class WorkerProtocolTest {
+
+  @Test
+  public void requestsAreReadInOrderUntilEndOfStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WorkRequest.newBuilder().addArguments("@a").build().writeDelimitedTo(out);
+    WorkRequest.newBuilder().addArguments("@b").addArguments("@c").build().writeDelimitedTo(out);
+
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertEquals(ImmutableList.of("@a"), WorkRequest.parseDelimitedFrom(in).getArgumentsList());
+    assertEquals(ImmutableList.of("@b", "@c"),
+        WorkRequest.parseDelimitedFrom(in).getArgumentsList());
+    // A worker stops when its standard input is closed.
+    assertNull(WorkRequest.parseDelimitedFrom(in));
+  }
+
+  @Test
+  public void emptyResponseIsSuccessWithoutOutput() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WorkResponse.newBuilder().build().writeDelimitedTo(out);
+
+    WorkResponse response =
+        WorkResponse.parseDelimitedFrom(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(0, response.getExitCode());
+    assertEquals("", response.getOutput());
+  }
+
+  @Test
+  public void responseKeepsExitCodeAndOutput() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WorkResponse.newBuilder().setExitCode(1).setOutput("error: \u00e9").build()
+        .writeDelimitedTo(out);
+    WorkResponse.newBuilder().setOutput("ok").build().writeDelimitedTo(out);
+
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    WorkResponse response = WorkResponse.parseDelimitedFrom(in);
+    assertEquals(1, response.getExitCode());
+    assertEquals("error: \u00e9", response.getOutput());
+    response = WorkResponse.parseDelimitedFrom(in);
+    assertEquals(0, response.getExitCode());
+    assertEquals("ok", response.getOutput());
+    assertEquals(-1, in.read());
+  }
+}
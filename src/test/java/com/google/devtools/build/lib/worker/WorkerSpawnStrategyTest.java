@@ -0,0 +1,240 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionMetadata;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.util.DummyExecutor;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.testutil.TestFileOutErr;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link WorkerSpawnStrategy}. The workers are {@link ExampleWorker} processes.
+ */
+@RunWith(JUnit4.class)
+public class WorkerSpawnStrategyTest {
+
+  private static final ResourceSet RESOURCES = ResourceSet.createWithRamCpuIo(1, 0.1, 0);
+
+  private Path execRoot;
+  private Artifact tool;
+  private Artifact output;
+  private WorkerPool pool;
+  private List<Spawn> fallbackSpawns;
+  private WorkerSpawnStrategy strategy;
+  private TestFileOutErr outErr;
+
+  @Before
+  public void setUp() throws Exception {
+    execRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir()).getChild("exec");
+    FileSystemUtils.deleteTree(execRoot);
+    execRoot.createDirectory();
+    tool = new Artifact(execRoot.getChild("tool.jar"), Root.asSourceRoot(execRoot));
+    FileSystemUtils.writeContentAsLatin1(tool.getPath(), "v1");
+    Path outputDir = execRoot.getChild("out");
+    outputDir.createDirectory();
+    output = new Artifact(outputDir.getChild("out.jar"), Root.asDerivedRoot(execRoot, outputDir));
+    pool = new WorkerPool(execRoot.getChild("worker-logs"), 1);
+    fallbackSpawns = new ArrayList<>();
+    SpawnActionContext fallback = new SpawnActionContext() {
+      @Override
+      public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext) {
+        fallbackSpawns.add(spawn);
+      }
+
+      @Override
+      public String strategyLocality(String mnemonic, boolean remotable) {
+        return "local";
+      }
+
+      @Override
+      public boolean isRemotable(String mnemonic, boolean remotable) {
+        return false;
+      }
+    };
+    strategy = new WorkerSpawnStrategy(execRoot, pool, fallback, /*verboseFailures=*/false);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+  }
+
+  private Spawn spawn(String flagfile, ImmutableMap<String, String> executionInfo) {
+    ActionMetadata action =
+        new TestAction(TestAction.NO_EFFECT, ImmutableList.of(tool), ImmutableList.of(output));
+    return new BaseSpawn(
+        ImmutableList.of(
+            System.getProperty("java.home") + "/bin/java",
+            "-Dtool=" + tool.getExecPathString(),
+            "-cp",
+            absoluteClassPath(),
+            ExampleWorker.class.getName(),
+            flagfile),
+        ImmutableMap.<String, String>of(), executionInfo, action, RESOURCES);
+  }
+
+  /**
+   * Returns the class path of the test with absolute entries, since workers run in the exec root.
+   */
+  private static String absoluteClassPath() {
+    List<String> entries = new ArrayList<>();
+    for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+        .split(System.getProperty("java.class.path"))) {
+      entries.add(new File(entry).getAbsolutePath());
+    }
+    return Joiner.on(File.pathSeparatorChar).join(entries);
+  }
+
+  private Spawn workerSpawn(String flagfile) {
+    return spawn(flagfile, ImmutableMap.of(WorkerSpawnStrategy.SUPPORTS_WORKERS, "1"));
+  }
+
+  private String exec(Spawn spawn) throws Exception {
+    outErr = new TestFileOutErr();
+    // A new file cache for each action, so that changed tools get a new digest.
+    strategy.exec(spawn, new ActionExecutionContext(new DummyExecutor(execRoot),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        null, outErr, null));
+    return new String(outErr.getErrorStream().toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void workerServesSeveralSpawns() throws Exception {
+    assertEquals("1 @a", exec(workerSpawn("@a")));
+    assertEquals("2 @b", exec(workerSpawn("@b")));
+    assertTrue(fallbackSpawns.isEmpty());
+  }
+
+  @Test
+  public void spawnsWithoutWorkerSupportAreRunByFallback() throws Exception {
+    Spawn spawn = spawn("@a", ImmutableMap.<String, String>of());
+    assertEquals("", exec(spawn));
+    assertEquals(1, fallbackSpawns.size());
+    assertSame(spawn, fallbackSpawns.get(0));
+  }
+
+  @Test
+  public void spawnsWithoutFlagfileAreRunByFallback() throws Exception {
+    exec(workerSpawn("a"));
+    assertEquals(1, fallbackSpawns.size());
+  }
+
+  @Test
+  public void failedRequestFailsSpawnButKeepsWorker() throws Exception {
+    try {
+      exec(workerSpawn("@fail"));
+      fail();
+    } catch (UserExecException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("worker exited with code 1"));
+    }
+    assertEquals("1 @fail", new String(outErr.getErrorStream().toByteArray(),
+        StandardCharsets.UTF_8));
+    assertEquals("2 @a", exec(workerSpawn("@a")));
+  }
+
+  @Test
+  public void workerExitingWithoutResponseIsReplaced() throws Exception {
+    try {
+      exec(workerSpawn("@exit"));
+      fail();
+    } catch (EnvironmentalExecException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("without a response"));
+    }
+    assertEquals("1 @a", exec(workerSpawn("@a")));
+  }
+
+  @Test
+  public void changedToolStartsNewWorker() throws Exception {
+    assertEquals("1 @a", exec(workerSpawn("@a")));
+    assertEquals("2 @a", exec(workerSpawn("@a")));
+    FileSystemUtils.writeContentAsLatin1(tool.getPath(), "v2");
+    assertEquals("1 @a", exec(workerSpawn("@a")));
+  }
+
+  @Test
+  public void toolsDigestOnlyCoversInputsNamedByArguments() throws Exception {
+    Artifact other = new Artifact(execRoot.getChild("other.jar"), Root.asSourceRoot(execRoot));
+    FileSystemUtils.writeContentAsLatin1(other.getPath(), "v1");
+    SingleBuildFileCache cache =
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem());
+    List<String> args = ImmutableList.of("java", "-cp", "lib.jar:tool.jar", "Main");
+    String digest = WorkerSpawnStrategy.computeToolsDigest(args, ImmutableList.of(tool), cache);
+    assertEquals(digest,
+        WorkerSpawnStrategy.computeToolsDigest(args, ImmutableList.of(tool, other), cache));
+    assertNotEquals(digest, WorkerSpawnStrategy.computeToolsDigest(
+        ImmutableList.of("java", "-cp", "lib.jar", "Main"), ImmutableList.of(tool), cache));
+  }
+
+  @Test
+  public void interruptKillsWorker() throws Exception {
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          exec(workerSpawn("@hang"));
+        } catch (Throwable e) {
+          thrown.set(e);
+        }
+      }
+    };
+    thread.start();
+    // Gives the worker time to start and receive the request.
+    Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    thread.interrupt();
+    thread.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(thread.isAlive());
+    assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+    // The hanging worker was not returned to the pool.
+    assertEquals("1 @a", exec(workerSpawn("@a")));
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link ConcurrentInMemoryNodeEntry}. Runs all the tests of {@link InMemoryNodeEntry}
+ * as well.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentInMemoryNodeEntryTest extends InMemoryNodeEntryTest {
+
+  @Override
+  protected InMemoryNodeEntry newEntry() {
+    return new ConcurrentInMemoryNodeEntry();
+  }
+
+  @Test
+  public void highFanInReverseDeps() throws Exception {
+    final NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null);
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+
+    final int threads = 16;
+    final int parentsPerThread = 1000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final int thread = i;
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          for (int j = 0; j < parentsPerThread; j++) {
+            assertEquals(DependencyState.DONE,
+                entry.addReverseDepAndCheckIfDone(key("parent" + thread + "_" + j)));
+          }
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertThat(Iterables.size(entry.getReverseDeps())).isEqualTo(threads * parentsPerThread);
+    entry.removeReverseDep(key("parent0_0"));
+    assertThat(Iterables.size(entry.getReverseDeps())).isEqualTo(threads * parentsPerThread - 1);
+  }
+
+  @Test
+  public void crashOnDrainingReverseDepAddedTwiceWhileDone() {
+    NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null);
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    entry.addReverseDepAndCheckIfDone(key("parent"));
+    entry.addReverseDepAndCheckIfDone(key("parent"));
+    try {
+      entry.markDirty(/*isChanged=*/true);
+      fail("Cannot add same dep twice");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void bufferedReverseDepsAreCompacted() {
+    Queue<ConcurrentInMemoryNodeEntry> entriesToCompact = new ArrayDeque<>();
+    NodeEntry entry = new ConcurrentInMemoryNodeEntry(entriesToCompact);
+    entry.addReverseDepAndCheckIfDone(null);
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    assertThat(entriesToCompact).isEmpty();
+    entry.addReverseDepAndCheckIfDone(key("parent1"));
+    entry.addReverseDepAndCheckIfDone(key("parent2"));
+    assertThat(entriesToCompact).containsExactly(entry);
+
+    ConcurrentInMemoryNodeEntry.compactBufferedReverseDeps(entriesToCompact);
+    assertThat(entriesToCompact).isEmpty();
+    // The stack was emptied, so the entry is queued again by the next reverse dep.
+    entry.addReverseDepAndCheckIfDone(key("parent3"));
+    assertThat(entriesToCompact).containsExactly(entry);
+    assertThat(entry.getReverseDeps())
+        .containsExactly(key("parent1"), key("parent2"), key("parent3")).inOrder();
+  }
+
+  @Test
+  public void reverseDepsAddedWhileDoneSurviveInvalidation() {
+    NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null);
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    assertEquals(DependencyState.DONE, entry.addReverseDepAndCheckIfDone(key("parent1")));
+    entry.markDirty(/*isChanged=*/true);
+    assertEquals(DependencyState.NEEDS_SCHEDULING,
+        entry.addReverseDepAndCheckIfDone(key("parent2")));
+    assertThat(setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/1L))
+        .containsExactly(key("parent2"));
+    assertThat(entry.getReverseDeps())
+        .containsExactlyElementsIn(ImmutableSet.of(key("parent1"), key("parent2")));
+  }
+}
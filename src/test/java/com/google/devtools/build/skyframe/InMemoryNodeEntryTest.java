@@ -51,13 +51,17 @@ public class InMemoryNodeEntryTest {
   private static final NestedSet<TaggedEvents> NO_EVENTS =
       NestedSetBuilder.<TaggedEvents>emptySet(Order.STABLE_ORDER);
 
-  private static SkyKey key(String name) {
+  static SkyKey key(String name) {
     return new SkyKey(NODE_TYPE, name);
   }
 
+  protected InMemoryNodeEntry newEntry() {
+    return new InMemoryNodeEntry();
+  }
+
   @Test
   public void createEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     assertFalse(entry.isDone());
     assertTrue(entry.isReady());
@@ -68,7 +72,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep1 = key("dep1");
     addTemporaryDirectDep(entry, dep1);
@@ -94,7 +98,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void reverseDeps() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey mother = key("mother");
     SkyKey father = key("father");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(mother));
@@ -110,7 +114,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -124,7 +128,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -137,7 +141,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnNullErrorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       setValue(entry, /*value=*/null, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -149,7 +153,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTooManySignals() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       entry.signalDep();
@@ -161,7 +165,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnDifferentValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     try {
@@ -175,7 +179,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void dirtyLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -203,7 +207,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void changedLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -228,7 +232,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markDirtyThenChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -250,7 +254,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markChangedThenDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -271,7 +275,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     assertFalse(entry.isDirty());
@@ -287,7 +291,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -303,7 +307,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwice() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     try {
@@ -317,7 +321,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwiceAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     SkyKey parent = key("parent");
@@ -334,7 +338,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepBeforeAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -350,7 +354,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddDirtyReverseDep() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     try {
@@ -365,7 +369,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneBeforeBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey dep = key("dep");
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, dep);
@@ -410,7 +414,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneAfterBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -433,7 +437,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDetailsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -465,7 +469,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneErrorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -490,7 +494,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getDependencyGroup() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -514,7 +518,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void maintainDependencyGroupAfterRemoval() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -544,7 +548,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDepsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -567,7 +571,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void checkDepsOneByOne() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     List<SkyKey> deps = new ArrayList<>();
     for (int ii = 0; ii < 10; ii++) {
@@ -594,7 +598,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalOnlyNewParents() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(key("parent"));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     entry.markDirty(/*isChanged=*/true);
@@ -607,7 +611,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void testClone() {
-    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    InMemoryNodeEntry entry = newEntry();
     IntVersion version = new IntVersion(0);
     IntegerValue originalValue = new IntegerValue(42);
     SkyKey originalChild = key("child");
@@ -647,7 +651,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getGroupedDirectDeps() {
-    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    InMemoryNodeEntry entry = newEntry();
     ImmutableList<ImmutableSet<SkyKey>> groupedDirectDeps = ImmutableList.of(
         ImmutableSet.of(key("1A")),
         ImmutableSet.of(key("2A"), key("2B")),
@@ -667,7 +671,7 @@ public class InMemoryNodeEntryTest {
     }
   }
 
-  private static Set<SkyKey> setValue(NodeEntry entry, SkyValue value,
+  static Set<SkyKey> setValue(NodeEntry entry, SkyValue value,
       @Nullable ErrorInfo errorInfo, long graphVersion) {
     return entry.setValue(ValueWithMetadata.normal(value, errorInfo, NO_EVENTS),
         new IntVersion(graphVersion));